@@ -1,5 +1,8 @@
 package com.mustafadagher.widgets.api;
 
+import com.mustafadagher.widgets.exception.InvalidCursorException;
+import com.mustafadagher.widgets.exception.InvalidTilingException;
+import com.mustafadagher.widgets.exception.SnapshotExpiredException;
 import com.mustafadagher.widgets.exception.WidgetNotFoundException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -10,6 +13,7 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 
 import javax.validation.ConstraintViolationException;
 
+import static org.springframework.http.HttpStatus.GONE;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 
 @RestControllerAdvice
@@ -36,6 +40,20 @@ public class RestExceptionHandler {
         return buildResponseEntity(apiError);
     }
 
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidCursorException.class)
+    protected ResponseEntity<ApiError> handleInvalidCursor(InvalidCursorException ex) {
+        ApiError apiError = new ApiError(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        return buildResponseEntity(apiError);
+    }
+
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    @ExceptionHandler(InvalidTilingException.class)
+    protected ResponseEntity<ApiError> handleInvalidTiling(InvalidTilingException ex) {
+        ApiError apiError = new ApiError(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+        return buildResponseEntity(apiError);
+    }
+
     @ResponseStatus(NOT_FOUND)
     @ExceptionHandler(WidgetNotFoundException.class)
     protected ResponseEntity<ApiError> handleEntityNotFound(
@@ -44,6 +62,13 @@ public class RestExceptionHandler {
         return buildResponseEntity(apiError);
     }
 
+    @ResponseStatus(GONE)
+    @ExceptionHandler(SnapshotExpiredException.class)
+    protected ResponseEntity<ApiError> handleSnapshotExpired(SnapshotExpiredException ex) {
+        ApiError apiError = new ApiError(GONE, ex.getMessage(), ex);
+        return buildResponseEntity(apiError);
+    }
+
     private ResponseEntity<ApiError> buildResponseEntity(ApiError apiError) {
         return new ResponseEntity<>(apiError, apiError.getStatus());
     }
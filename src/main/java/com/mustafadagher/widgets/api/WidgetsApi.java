@@ -1,20 +1,46 @@
 package com.mustafadagher.widgets.api;
 
+import com.mustafadagher.widgets.model.AreaFilterMode;
 import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetChangeResult;
+import com.mustafadagher.widgets.model.WidgetDensity;
+import com.mustafadagher.widgets.model.WidgetImportResult;
+import com.mustafadagher.widgets.model.WidgetQueryCacheStats;
 import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.model.WidgetUpdateRequest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.UUID;
 
 
 @Validated
 public interface WidgetsApi {
+    /***
+     * The version of the widgets a page was read from. Passing it back as the {@code version} query param reads the
+     * following pages from the same version.
+     */
+    String VERSION_HEADER = "X-Widgets-Version";
+
+    /***
+     * The cursor to pass back as the {@code cursor} query param to read the next page, set when the page is full.
+     */
+    String NEXT_CURSOR_HEADER = "X-Widgets-Next-Cursor";
+
+    int MAX_BATCH_SIZE = 10_000;
+
+    String NDJSON = "application/x-ndjson";
 
     @PostMapping(value = "/widgets",
             produces = {"application/json"},
@@ -22,19 +48,151 @@ public interface WidgetsApi {
     @ResponseStatus(HttpStatus.CREATED)
     Widget addWidget(@Valid @RequestBody WidgetRequest widgetRequest);
 
+    /***
+     * Adds the widgets as if they were added one after the other, in a single change, and returns them in the same
+     * order.
+     */
+    @PostMapping(value = "/widgets/batch",
+            produces = {"application/json"},
+            consumes = {"application/json"})
+    @ResponseStatus(HttpStatus.CREATED)
+    List<Widget> addWidgets(@Size(max = MAX_BATCH_SIZE) @RequestBody List<@Valid WidgetRequest> widgetRequests);
+
+    /***
+     * Adds the widgets of a stream of widget requests, one per line, as they are read. Invalid lines are skipped, and
+     * reported in the result.
+     */
+    @PostMapping(value = "/widgets/import",
+            produces = {"application/json"},
+            consumes = {NDJSON})
+    @ResponseStatus(HttpStatus.OK)
+    WidgetImportResult importWidgets(InputStream ndjson) throws IOException;
+
+    /***
+     * A page of the widgets, tagged with the number of changes made so far. It is answered with {@code 304 Not
+     * Modified} if the tag sent in {@code If-None-Match} is still current, before reading any widget. The widgets are
+     * filtered by area if all four edges are given, keeping those the area contains unless another
+     * {@link AreaFilterMode} is asked for.
+     */
     @GetMapping(value = "/widgets",
             produces = {"application/json"})
     @ResponseStatus(HttpStatus.OK)
-    List<Widget> getAllWidgets(@RequestParam(defaultValue = "0") int page,
-                               @Max(500) @RequestParam(defaultValue = "10") int size,
-                               @RequestParam(required = false) Integer leftX,
-                               @RequestParam(required = false) Integer rightX,
-                               @RequestParam(required = false) Integer lowerY,
-                               @RequestParam(required = false) Integer higherY);
+    ResponseEntity<List<Widget>> getAllWidgets(@RequestParam(defaultValue = "0") int page,
+                                               @Max(500) @RequestParam(defaultValue = "10") int size,
+                                               @RequestParam(required = false) Integer leftX,
+                                               @RequestParam(required = false) Integer rightX,
+                                               @RequestParam(required = false) Integer lowerY,
+                                               @RequestParam(required = false) Integer higherY,
+                                               @RequestParam(defaultValue = "CONTAINS") AreaFilterMode filterMode,
+                                               @RequestParam(required = false) Long version,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch);
+
+    /***
+     * Streams every widget, or every widget within the area, sorted by z as one JSON document per line. The widgets
+     * are all read from the version current when the request came in.
+     */
+    @GetMapping(value = "/widgets/export",
+            produces = {NDJSON})
+    @ResponseStatus(HttpStatus.OK)
+    ResponseEntity<StreamingResponseBody> exportWidgets(@RequestParam(required = false) Integer leftX,
+                                                        @RequestParam(required = false) Integer rightX,
+                                                        @RequestParam(required = false) Integer lowerY,
+                                                        @RequestParam(required = false) Integer higherY,
+                                                        @RequestParam(defaultValue = "CONTAINS") AreaFilterMode filterMode);
+
+    /***
+     * Streams every pair of overlapping widgets, or of the widgets within the area, as one JSON document per line.
+     * Widgets overlap when their bounding boxes share more than an edge. The pairs are all found in the version
+     * current when the request came in.
+     */
+    @GetMapping(value = "/widgets/overlaps",
+            produces = {NDJSON})
+    @ResponseStatus(HttpStatus.OK)
+    ResponseEntity<StreamingResponseBody> getOverlaps(@RequestParam(required = false) Integer leftX,
+                                                      @RequestParam(required = false) Integer rightX,
+                                                      @RequestParam(required = false) Integer lowerY,
+                                                      @RequestParam(required = false) Integer higherY,
+                                                      @RequestParam(defaultValue = "CONTAINS") AreaFilterMode filterMode);
+
+    /***
+     * The widgets at least partly visible in the viewport, sorted by z, as one JSON document per line. The widgets
+     * hidden beneath the widgets above them are left out. They are all read from the version current when the request
+     * came in.
+     */
+    @GetMapping(value = "/widgets/visible",
+            produces = {NDJSON})
+    @ResponseStatus(HttpStatus.OK)
+    ResponseEntity<StreamingResponseBody> getVisibleWidgets(@RequestParam int leftX,
+                                                            @RequestParam int rightX,
+                                                            @RequestParam int lowerY,
+                                                            @RequestParam int higherY);
+
+    /***
+     * The widgets overlapping the widget, sorted by z.
+     */
+    @GetMapping(value = "/widgets/{widgetId}/overlaps", produces = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    List<Widget> getWidgetsOverlapping(@Valid @NotNull @PathVariable("widgetId") UUID widgetId);
 
+    /***
+     * The widgets whose bounding box contains the point, edges included, from the one on top down, or only the one on
+     * top.
+     */
+    @GetMapping(value = "/widgets/at", produces = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    List<Widget> getWidgetsAt(@RequestParam long x,
+                              @RequestParam long y,
+                              @RequestParam(defaultValue = "false") boolean topmost,
+                              @Max(500) @RequestParam(defaultValue = "10") int size);
+
+    /***
+     * The widgets whose bounding box is nearest to the point, edges included, from the nearest on, and from the one on
+     * top down at the same distance.
+     */
+    @GetMapping(value = "/widgets/nearest", produces = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    List<Widget> getWidgetsNearestTo(@RequestParam long x,
+                                     @RequestParam long y,
+                                     @Max(500) @RequestParam(defaultValue = "10") int size);
+
+    /***
+     * The widgets whose bounding box is nearest to the one of the widget, in the same order as
+     * {@code GET /widgets/nearest}, leaving the widget itself out.
+     */
+    @GetMapping(value = "/widgets/{widgetId}/nearest", produces = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    List<Widget> getWidgetsNearestToWidget(@Valid @NotNull @PathVariable("widgetId") UUID widgetId,
+                                           @Max(500) @RequestParam(defaultValue = "10") int size);
+
+    /***
+     * The number of widgets per square tile over the area, counting each widget in the tile holding its center. The
+     * tiles start at multiples of their size, which is a multiple of 64, and the area may span up to 65536 of them.
+     */
+    @GetMapping(value = "/widgets/density", produces = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    WidgetDensity getDensity(@RequestParam int leftX,
+                             @RequestParam int rightX,
+                             @RequestParam int lowerY,
+                             @RequestParam int higherY,
+                             @RequestParam int tileSize);
+
+    /***
+     * The hits, misses and evictions of the cache of listing results.
+     */
+    @GetMapping(value = "/widgets/query-cache", produces = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    WidgetQueryCacheStats getQueryCacheStats();
+
+    /***
+     * The widget, tagged with the number of changes made so far and its own last modification. It is answered with
+     * {@code 304 Not Modified} if nothing changed since the tag sent in {@code If-None-Match}, without reading the
+     * widget, or if the widget itself didn't, without writing it.
+     */
     @GetMapping(value = "/widgets/{widgetId}", produces = {"application/json"})
     @ResponseStatus(HttpStatus.OK)
-    Widget getWidgetById(@Valid @NotNull @PathVariable("widgetId") UUID widgetId);
+    ResponseEntity<Widget> getWidgetById(@Valid @NotNull @PathVariable("widgetId") UUID widgetId,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch);
 
     @PutMapping(value = "/widgets/{widgetId}",
             produces = {"application/json"},
@@ -42,6 +200,24 @@ public interface WidgetsApi {
     @ResponseStatus(HttpStatus.OK)
     Widget updateWidgetById(@Valid @NotNull @PathVariable("widgetId") UUID widgetId, @Valid @RequestBody WidgetRequest widgetRequest);
 
+    /***
+     * Updates the widgets in a single change, reporting for each one whether it was updated or not found.
+     */
+    @PutMapping(value = "/widgets/batch",
+            produces = {"application/json"},
+            consumes = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    List<WidgetChangeResult> updateWidgets(@Size(max = MAX_BATCH_SIZE) @RequestBody List<@Valid WidgetUpdateRequest> updates);
+
+    /***
+     * Deletes the widgets in a single change, reporting for each one whether it was deleted or not found.
+     */
+    @DeleteMapping(value = "/widgets/batch",
+            produces = {"application/json"},
+            consumes = {"application/json"})
+    @ResponseStatus(HttpStatus.OK)
+    List<WidgetChangeResult> deleteWidgets(@Size(max = MAX_BATCH_SIZE) @RequestBody List<@NotNull UUID> widgetIds);
+
     @DeleteMapping(value = "/widgets/{widgetId}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     void deleteWidgetById(@Valid @NotNull @PathVariable("widgetId") UUID widgetId);
@@ -1,44 +1,231 @@
 package com.mustafadagher.widgets.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mustafadagher.widgets.model.AreaFilterMode;
 import com.mustafadagher.widgets.model.Widget;
 import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetChangeResult;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import com.mustafadagher.widgets.model.WidgetDensity;
+import com.mustafadagher.widgets.model.WidgetImportResult;
+import com.mustafadagher.widgets.model.WidgetOverlap;
+import com.mustafadagher.widgets.model.WidgetQueryCacheStats;
 import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.model.WidgetUpdateRequest;
+import com.mustafadagher.widgets.repository.WidgetSnapshot;
+import com.mustafadagher.widgets.repository.WidgetView;
+import com.mustafadagher.widgets.service.WidgetImporter;
 import com.mustafadagher.widgets.service.WidgetsService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 @RestController
 @RequestMapping("${openapi.widgetsService.base-path:}")
 public class WidgetsApiController implements WidgetsApi {
 
     private final WidgetsService widgetsService;
+    private final WidgetImporter widgetImporter;
+    private final ObjectWriter widgetWriter;
+    private final ObjectWriter overlapWriter;
+    // Tells the entity tags of this instance apart from those of an earlier run, or of another instance
+    private final String eTagPrefix;
 
-    public WidgetsApiController(WidgetsService widgetsService) {
+    public WidgetsApiController(WidgetsService widgetsService, WidgetImporter widgetImporter, ObjectMapper objectMapper) {
         this.widgetsService = widgetsService;
+        this.widgetImporter = widgetImporter;
+        // Flushing is left to the response buffer rather than done after every widget
+        this.widgetWriter = objectMapper.writerFor(Widget.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.overlapWriter = objectMapper.writerFor(WidgetOverlap.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.eTagPrefix = "\"" + Long.toHexString(System.currentTimeMillis()) + ".";
     }
 
     public Widget addWidget(WidgetRequest widgetRequest) {
         return widgetsService.addWidget(widgetRequest);
     }
 
-    public Widget getWidgetById(UUID widgetId) {
-        return widgetsService.getWidgetById(widgetId);
+    public List<Widget> addWidgets(List<WidgetRequest> widgetRequests) {
+        return widgetsService.addWidgets(widgetRequests);
     }
 
-    public List<Widget> getAllWidgets(int page, int size, Integer leftX, Integer rightX, Integer lowerY, Integer higherY) {
-        WidgetAreaFilter filter = new WidgetAreaFilter(leftX, rightX, lowerY, higherY);
-        return widgetsService.getAllWidgets(page, size, filter);
+    public WidgetImportResult importWidgets(InputStream ndjson) throws IOException {
+        return widgetImporter.importWidgets(ndjson);
+    }
+
+    public List<Widget> getWidgetsAt(long x, long y, boolean topmost, int size) {
+        return widgetsService.getWidgetsAt(x, y, topmost, size);
+    }
+
+    public List<Widget> getWidgetsNearestTo(long x, long y, int size) {
+        return widgetsService.getWidgetsNearestTo(x, y, size);
+    }
+
+    public List<Widget> getWidgetsNearestToWidget(UUID widgetId, int size) {
+        return widgetsService.getWidgetsNearestToWidget(widgetId, size);
+    }
+
+    public WidgetQueryCacheStats getQueryCacheStats() {
+        return widgetsService.getQueryCacheStats();
+    }
+
+    public WidgetDensity getDensity(int leftX, int rightX, int lowerY, int higherY, int tileSize) {
+        return widgetsService.getDensity(leftX, rightX, lowerY, higherY, tileSize);
+    }
+
+    public ResponseEntity<Widget> getWidgetById(UUID widgetId, String ifNoneMatch) {
+        // Read before the widget, so that the tag never claims a change the widget doesn't reflect
+        long modifications = widgetsService.getModificationCount();
+        String unchanged = eTagPrefix + modifications + ".";
+        String current = firstMatching(ifNoneMatch, tag -> tag.startsWith(unchanged));
+        if (current != null)
+            return notModified(current);
+
+        Widget widget = widgetsService.getWidgetById(widgetId);
+        String widgetPart = Long.toHexString(widget.getLastModificationDate().toInstant().toEpochMilli())
+                + "." + Integer.toHexString(widget.hashCode()) + "\"";
+        String eTag = unchanged + widgetPart;
+        // A tag of an earlier modification count still matches if the widget itself is the same
+        if (firstMatching(ifNoneMatch, tag -> tag.equals("*") || tag.startsWith(eTagPrefix) && tag.endsWith("." + widgetPart)) != null)
+            return notModified(eTag);
+        return ResponseEntity.ok().eTag(eTag).body(widget);
+    }
+
+    public ResponseEntity<List<Widget>> getAllWidgets(int page, int size, Integer leftX, Integer rightX, Integer lowerY, Integer higherY, AreaFilterMode filterMode, Long version, String cursor, String ifNoneMatch) {
+        // Read before the widgets, so that the tag never claims a change the page doesn't reflect
+        String eTag = eTagPrefix + widgetsService.getModificationCount() + "\"";
+        if (firstMatching(ifNoneMatch, tag -> tag.equals("*") || tag.equals(eTag)) != null)
+            return notModified(eTag);
+
+        WidgetAreaFilter filter = new WidgetAreaFilter(leftX, rightX, lowerY, higherY, filterMode);
+        WidgetCursor after = cursor == null ? null : WidgetCursor.decode(cursor);
+        Long pinnedVersion = after == null ? version : Long.valueOf(after.getVersion());
+        WidgetSnapshot snapshot = pinnedVersion == null ? null : widgetsService.getSnapshot(pinnedVersion);
+        WidgetView view = snapshot == null ? widgetsService.getCurrentView() : snapshot;
+        // Read before the widgets: if it's still the current version once pinned, the page was read from that version
+        long readAt = view.getVersion();
+        List<Widget> widgets = after == null
+                ? widgetsService.getAllWidgets(page, size, filter, view)
+                : widgetsService.getAllWidgetsAfter(after, size, filter, snapshot);
+
+        String nextCursor = null;
+        // Only a listing with a following page is worth keeping the version of
+        if (!widgets.isEmpty() && widgets.size() == size) {
+            WidgetSnapshot pinned = widgetsService.pinSnapshot(view);
+            if (pinned.getVersion() != readAt) {
+                // A change was made while the page was read from the latest state, so it's read again from the pinned one
+                readAt = pinned.getVersion();
+                widgets = widgetsService.getAllWidgets(page, size, filter, pinned);
+            }
+            if (!widgets.isEmpty() && widgets.size() == size)
+                nextCursor = WidgetCursor.after(readAt, widgets.get(widgets.size() - 1)).encode();
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(eTag)
+                .header(VERSION_HEADER, String.valueOf(readAt));
+        if (nextCursor != null)
+            response.header(NEXT_CURSOR_HEADER, nextCursor);
+        return response.body(widgets);
+    }
+
+    public ResponseEntity<StreamingResponseBody> exportWidgets(Integer leftX, Integer rightX, Integer lowerY, Integer higherY, AreaFilterMode filterMode) {
+        WidgetAreaFilter filter = new WidgetAreaFilter(leftX, rightX, lowerY, higherY, filterMode);
+        WidgetView view = widgetsService.getCurrentView();
+        return this.<Widget>ndjson(view, widgetWriter, consumer -> widgetsService.forEachWidget(filter, view, consumer));
+    }
+
+    public ResponseEntity<StreamingResponseBody> getOverlaps(Integer leftX, Integer rightX, Integer lowerY, Integer higherY, AreaFilterMode filterMode) {
+        WidgetAreaFilter filter = new WidgetAreaFilter(leftX, rightX, lowerY, higherY, filterMode);
+        WidgetView view = widgetsService.getCurrentView();
+        return this.<WidgetOverlap>ndjson(view, overlapWriter, consumer -> widgetsService.forEachOverlap(filter, view, consumer));
+    }
+
+    public ResponseEntity<StreamingResponseBody> getVisibleWidgets(int leftX, int rightX, int lowerY, int higherY) {
+        WidgetView view = widgetsService.getCurrentView();
+        return this.<Widget>ndjson(view, widgetWriter,
+                consumer -> widgetsService.forEachVisibleWidget(leftX, rightX, lowerY, higherY, view, consumer));
+    }
+
+    public List<Widget> getWidgetsOverlapping(UUID widgetId) {
+        return widgetsService.getWidgetsOverlapping(widgetId);
     }
 
     public Widget updateWidgetById(UUID widgetId, WidgetRequest widgetRequest) {
         return widgetsService.updateWidgetById(widgetId, widgetRequest);
     }
 
+    public List<WidgetChangeResult> updateWidgets(List<WidgetUpdateRequest> updates) {
+        return widgetsService.updateWidgets(updates);
+    }
+
+    public List<WidgetChangeResult> deleteWidgets(List<UUID> widgetIds) {
+        return widgetsService.deleteWidgets(widgetIds);
+    }
+
     public void deleteWidgetById(UUID widgetId) {
         widgetsService.deleteWidgetById(widgetId);
     }
 
+    /***
+     * Streams what the source passes on as one JSON document per line, tagged with the version of the view it reads.
+     */
+    private <T> ResponseEntity<StreamingResponseBody> ndjson(WidgetView view, ObjectWriter writer,
+                                                             Consumer<Consumer<T>> source) {
+        StreamingResponseBody body = outputStream -> {
+            JsonGenerator generator = writer.getFactory().createGenerator(outputStream);
+            generator.setRootValueSeparator(null);
+            try {
+                source.accept(value -> {
+                    try {
+                        writer.writeValue(generator, value);
+                        generator.writeRaw('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            generator.flush();
+        };
+        return ResponseEntity.ok()
+                .header(VERSION_HEADER, String.valueOf(view.getVersion()))
+                .contentType(MediaType.parseMediaType(NDJSON))
+                .body(body);
+    }
+
+    private static <T> ResponseEntity<T> notModified(String eTag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+    }
+
+    /***
+     * Returns the first of the tags of an {@code If-None-Match} header that passes the test, compared weakly, or null.
+     */
+    private static String firstMatching(String ifNoneMatch, Predicate<String> test) {
+        if (ifNoneMatch == null)
+            return null;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (test.test(tag))
+                return tag;
+        }
+        return null;
+    }
+
 }
@@ -0,0 +1,7 @@
+package com.mustafadagher.widgets.exception;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException() {
+        super("The cursor is not valid, start again from the first page");
+    }
+}
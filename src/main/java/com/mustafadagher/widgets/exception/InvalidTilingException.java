@@ -0,0 +1,7 @@
+package com.mustafadagher.widgets.exception;
+
+public class InvalidTilingException extends RuntimeException {
+    public InvalidTilingException(String message) {
+        super(message);
+    }
+}
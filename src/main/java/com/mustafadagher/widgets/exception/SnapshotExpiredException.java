@@ -0,0 +1,7 @@
+package com.mustafadagher.widgets.exception;
+
+public class SnapshotExpiredException extends RuntimeException {
+    public SnapshotExpiredException(long version) {
+        super("Version " + version + " of the widgets is no longer available, start again from the first page");
+    }
+}
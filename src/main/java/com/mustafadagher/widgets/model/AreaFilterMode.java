@@ -0,0 +1,34 @@
+package com.mustafadagher.widgets.model;
+
+/***
+ * How the bounding box of a widget has to relate to the area of a {@link WidgetAreaFilter} for the widget to pass
+ * it, edges included.
+ */
+public enum AreaFilterMode {
+    /***
+     * The widget lies entirely inside the area.
+     */
+    CONTAINS {
+        public boolean matches(WidgetRecord widget, BoundingBox area) {
+            return widget.isInside(area);
+        }
+    },
+    /***
+     * The widget overlaps the area, even partially, e.g. it is at least partly visible in a viewport.
+     */
+    INTERSECTS {
+        public boolean matches(WidgetRecord widget, BoundingBox area) {
+            return widget.intersects(area);
+        }
+    },
+    /***
+     * The widget covers the whole area. With an area of a single point, these are the widgets under that point.
+     */
+    COVERS {
+        public boolean matches(WidgetRecord widget, BoundingBox area) {
+            return widget.covers(area);
+        }
+    };
+
+    public abstract boolean matches(WidgetRecord widget, BoundingBox area);
+}
@@ -0,0 +1,167 @@
+package com.mustafadagher.widgets.model;
+
+import java.util.Objects;
+
+/***
+ * The integer bounding box of a widget, or of an area the widgets are filtered by.
+ *
+ * The box of a widget is derived from its center (x, y) and its width and height, rounding the edges outwards. The
+ * stored widgets keep the edges of theirs, see {@link WidgetRecord#getBounds()}.
+ */
+public final class BoundingBox {
+    private final long left;
+    private final long low;
+    private final long right;
+    private final long high;
+
+    public BoundingBox(long left, long low, long right, long high) {
+        this.left = left;
+        this.low = low;
+        this.right = right;
+        this.high = high;
+    }
+
+    public static BoundingBox of(Widget widget) {
+        return of(widget.getX(), widget.getY(), widget.getWidth(), widget.getHeight());
+    }
+
+    public static BoundingBox of(WidgetAreaFilter filter) {
+        return new BoundingBox(filter.getLeftX(), filter.getLowerY(), filter.getRightX(), filter.getHigherY());
+    }
+
+    /***
+     * The lower edge of a widget centered at the given coordinate, rounded outwards.
+     */
+    public static long lowerEdge(long center, float size) {
+        return (long) Math.floor(center - size / 2F);
+    }
+
+    /***
+     * The upper edge of a widget centered at the given coordinate, rounded outwards.
+     */
+    public static long upperEdge(long center, float size) {
+        return (long) Math.ceil(center + size / 2F);
+    }
+
+    private static BoundingBox of(long x, long y, float width, float height) {
+        return new BoundingBox(lowerEdge(x, width), lowerEdge(y, height), upperEdge(x, width), upperEdge(y, height));
+    }
+
+    public boolean isInside(BoundingBox area) {
+        return left >= area.left
+                && low >= area.low
+                && right <= area.right
+                && high <= area.high;
+    }
+
+    /***
+     * Whether the point lies in the box, edges included, which is the same as the box intersecting an area of that
+     * single point.
+     */
+    public boolean contains(long x, long y) {
+        return left <= x && x <= right && low <= y && y <= high;
+    }
+
+    /***
+     * The Euclidean distance between the closest points of the two boxes, 0 if they overlap.
+     */
+    public double distanceTo(BoundingBox other) {
+        return distance(left, low, right, high, other);
+    }
+
+    /***
+     * The distance between the box of the given edges and the other box, see {@link #distanceTo(BoundingBox)}.
+     * The gaps are computed as doubles, so boxes far apart in the coordinate space can't overflow them.
+     */
+    public static double distance(long left, long low, long right, long high, BoundingBox other) {
+        double gapX = Math.max(0D, Math.max((double) other.left - right, (double) left - other.right));
+        double gapY = Math.max(0D, Math.max((double) other.low - high, (double) low - other.high));
+        return Math.sqrt(gapX * gapX + gapY * gapY);
+    }
+
+    public boolean intersects(BoundingBox other) {
+        return left <= other.right
+                && other.left <= right
+                && low <= other.high
+                && other.low <= high;
+    }
+
+    public BoundingBox union(BoundingBox other) {
+        return new BoundingBox(
+                Math.min(left, other.left),
+                Math.min(low, other.low),
+                Math.max(right, other.right),
+                Math.max(high, other.high));
+    }
+
+    /***
+     * The area of the union of the two boxes, without creating the union.
+     */
+    public double unionArea(BoundingBox other) {
+        return ((double) Math.max(right, other.right) - Math.min(left, other.left))
+                * ((double) Math.max(high, other.high) - Math.min(low, other.low));
+    }
+
+    /***
+     * The smallest box containing all the given boxes, or null if there are none.
+     */
+    public static BoundingBox union(BoundingBox[] boxes) {
+        if (boxes.length == 0)
+            return null;
+        if (boxes.length == 1)
+            return boxes[0];
+
+        long left = Long.MAX_VALUE;
+        long low = Long.MAX_VALUE;
+        long right = Long.MIN_VALUE;
+        long high = Long.MIN_VALUE;
+        for (BoundingBox box : boxes) {
+            left = Math.min(left, box.left);
+            low = Math.min(low, box.low);
+            right = Math.max(right, box.right);
+            high = Math.max(high, box.high);
+        }
+        return new BoundingBox(left, low, right, high);
+    }
+
+    public double area() {
+        return ((double) right - left) * ((double) high - low);
+    }
+
+    public double centerX() {
+        return ((double) left + right) / 2D;
+    }
+
+    public double centerY() {
+        return ((double) low + high) / 2D;
+    }
+
+    public long getLeft() {
+        return left;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public long getRight() {
+        return right;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BoundingBox that = (BoundingBox) o;
+        return left == that.left && low == that.low && right == that.right && high == that.high;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(left, low, right, high);
+    }
+}
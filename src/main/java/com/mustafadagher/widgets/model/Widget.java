@@ -101,6 +101,29 @@ public class Widget {
         return clone;
     }
 
+    @Override
+    public boolean equals(java.lang.Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Widget widget = (Widget) o;
+        return Objects.equals(this.id, widget.id) &&
+                Objects.equals(this.x, widget.x) &&
+                Objects.equals(this.y, widget.y) &&
+                Objects.equals(this.z, widget.z) &&
+                Objects.equals(this.width, widget.width) &&
+                Objects.equals(this.height, widget.height) &&
+                Objects.equals(this.lastModificationDate, widget.lastModificationDate);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, x, y, z, width, height, lastModificationDate);
+    }
+
     public static Widget fromWidgetRequest(WidgetRequest widgetRequest) {
         return new Widget()
                 .id(UUID.randomUUID())
@@ -5,12 +5,18 @@ public class WidgetAreaFilter {
     private final Integer rightX;
     private final Integer lowerY;
     private final Integer higherY;
+    private final AreaFilterMode mode;
 
     public WidgetAreaFilter(Integer leftX, Integer rightX, Integer lowerY, Integer higherY) {
+        this(leftX, rightX, lowerY, higherY, AreaFilterMode.CONTAINS);
+    }
+
+    public WidgetAreaFilter(Integer leftX, Integer rightX, Integer lowerY, Integer higherY, AreaFilterMode mode) {
         this.leftX = leftX;
         this.rightX = rightX;
         this.lowerY = lowerY;
         this.higherY = higherY;
+        this.mode = mode;
     }
 
     public boolean isValid() {
@@ -29,6 +35,14 @@ public class WidgetAreaFilter {
         return !isALineOrADot();
     }
 
+    /***
+     * Whether any widget may pass the filter. Widgets have a positive width and height, so none lies inside a line or
+     * a dot, while some may still intersect or cover one.
+     */
+    public boolean mayMatch() {
+        return mode != AreaFilterMode.CONTAINS || isNotALineNorADot();
+    }
+
     public Integer getLeftX() {
         return leftX;
     }
@@ -44,4 +58,8 @@ public class WidgetAreaFilter {
     public Integer getHigherY() {
         return higherY;
     }
+
+    public AreaFilterMode getMode() {
+        return mode;
+    }
 }
@@ -0,0 +1,77 @@
+package com.mustafadagher.widgets.model;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/***
+ * What a batch change did to one widget. The widget is only set once it was updated.
+ */
+public class WidgetChangeResult {
+    private UUID id;
+    private Outcome outcome;
+    private Widget widget;
+
+    public static WidgetChangeResult updated(Widget widget) {
+        return new WidgetChangeResult().id(widget.getId()).outcome(Outcome.UPDATED).widget(widget);
+    }
+
+    public static WidgetChangeResult deleted(UUID id) {
+        return new WidgetChangeResult().id(id).outcome(Outcome.DELETED);
+    }
+
+    public static WidgetChangeResult notFound(UUID id) {
+        return new WidgetChangeResult().id(id).outcome(Outcome.NOT_FOUND);
+    }
+
+    public WidgetChangeResult id(UUID id) {
+        this.id = id;
+        return this;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public WidgetChangeResult outcome(Outcome outcome) {
+        this.outcome = outcome;
+        return this;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public WidgetChangeResult widget(Widget widget) {
+        this.widget = widget;
+        return this;
+    }
+
+    public Widget getWidget() {
+        return widget;
+    }
+
+    @Override
+    public boolean equals(java.lang.Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        WidgetChangeResult widgetChangeResult = (WidgetChangeResult) o;
+        return Objects.equals(this.id, widgetChangeResult.id) &&
+                Objects.equals(this.outcome, widgetChangeResult.outcome) &&
+                Objects.equals(this.widget, widgetChangeResult.widget);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, outcome, widget);
+    }
+
+    public enum Outcome {
+        UPDATED,
+        DELETED,
+        NOT_FOUND
+    }
+}
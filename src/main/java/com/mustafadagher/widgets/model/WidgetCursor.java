@@ -0,0 +1,103 @@
+package com.mustafadagher.widgets.model;
+
+import com.mustafadagher.widgets.exception.InvalidCursorException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.UUID;
+
+/***
+ * A position in a version of the widgets sorted by z: right after the widget with the given z and id.
+ *
+ * It's handed to clients as an opaque token, so they can resume a listing where the last page ended. Positions are
+ * only stable within a version, as inserts shift the z of other widgets, so the token also carries the version.
+ */
+public final class WidgetCursor {
+    private static final int ENCODED_BYTES = 4 * Long.BYTES;
+
+    private final long version;
+    private final long z;
+    private final long idMostSignificantBits;
+    private final long idLeastSignificantBits;
+
+    public WidgetCursor(long version, long z, long idMostSignificantBits, long idLeastSignificantBits) {
+        this.version = version;
+        this.z = z;
+        this.idMostSignificantBits = idMostSignificantBits;
+        this.idLeastSignificantBits = idLeastSignificantBits;
+    }
+
+    /***
+     * The position right after the given widget, in the given version.
+     */
+    public static WidgetCursor after(long version, Widget widget) {
+        return new WidgetCursor(version, widget.getZ(),
+                widget.getId().getMostSignificantBits(), widget.getId().getLeastSignificantBits());
+    }
+
+    /***
+     * @throws InvalidCursorException if the token wasn't returned by {@link #encode()}
+     */
+    public static WidgetCursor decode(String token) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException();
+        }
+        if (bytes.length != ENCODED_BYTES)
+            throw new InvalidCursorException();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new WidgetCursor(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    public String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_BYTES)
+                .putLong(version)
+                .putLong(z)
+                .putLong(idMostSignificantBits)
+                .putLong(idLeastSignificantBits);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getZ() {
+        return z;
+    }
+
+    public UUID getId() {
+        return new UUID(idMostSignificantBits, idLeastSignificantBits);
+    }
+
+    /***
+     * Whether the widget comes after this position in the (z, id) order.
+     */
+    public boolean isBefore(WidgetRecord widget) {
+        return widget.getZ() != z ? widget.getZ() > z : widget.compareIdTo(idMostSignificantBits, idLeastSignificantBits) > 0;
+    }
+
+    @Override
+    public boolean equals(java.lang.Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        WidgetCursor widgetCursor = (WidgetCursor) o;
+        return version == widgetCursor.version &&
+                z == widgetCursor.z &&
+                idMostSignificantBits == widgetCursor.idMostSignificantBits &&
+                idLeastSignificantBits == widgetCursor.idLeastSignificantBits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(version, z, idMostSignificantBits, idLeastSignificantBits);
+    }
+}
@@ -0,0 +1,47 @@
+package com.mustafadagher.widgets.model;
+
+/***
+ * The number of widgets per tile over an area, the tiles being squares starting at multiples of their size. The
+ * counts are given row by row, from the lower left tile, whose lower left corner is (leftX, lowerY).
+ */
+public class WidgetDensity {
+    private final long leftX;
+    private final long lowerY;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final int[] counts;
+
+    public WidgetDensity(long leftX, long lowerY, int tileSize, int columns, int rows, int[] counts) {
+        this.leftX = leftX;
+        this.lowerY = lowerY;
+        this.tileSize = tileSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.counts = counts;
+    }
+
+    public long getLeftX() {
+        return leftX;
+    }
+
+    public long getLowerY() {
+        return lowerY;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int[] getCounts() {
+        return counts;
+    }
+}
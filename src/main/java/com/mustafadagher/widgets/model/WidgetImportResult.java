@@ -0,0 +1,60 @@
+package com.mustafadagher.widgets.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/***
+ * The counts of an import, and why the first rejected lines were rejected.
+ */
+public class WidgetImportResult {
+    private long imported;
+    private long rejected;
+    private List<String> errors = new ArrayList<>();
+
+    public WidgetImportResult imported(long imported) {
+        this.imported = imported;
+        return this;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public WidgetImportResult rejected(long rejected) {
+        this.rejected = rejected;
+        return this;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public WidgetImportResult errors(List<String> errors) {
+        this.errors = errors;
+        return this;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public boolean equals(java.lang.Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        WidgetImportResult widgetImportResult = (WidgetImportResult) o;
+        return imported == widgetImportResult.imported &&
+                rejected == widgetImportResult.rejected &&
+                Objects.equals(this.errors, widgetImportResult.errors);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(imported, rejected, errors);
+    }
+}
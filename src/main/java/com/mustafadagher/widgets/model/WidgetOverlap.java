@@ -0,0 +1,47 @@
+package com.mustafadagher.widgets.model;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/***
+ * Two widgets whose bounding boxes overlap, the one with the lower z first.
+ */
+public class WidgetOverlap {
+    private final UUID belowId;
+    private final UUID aboveId;
+
+    public WidgetOverlap(UUID belowId, UUID aboveId) {
+        this.belowId = belowId;
+        this.aboveId = aboveId;
+    }
+
+    public static WidgetOverlap of(WidgetRecord a, WidgetRecord b) {
+        return a.getZ() <= b.getZ() ? new WidgetOverlap(a.getId(), b.getId()) : new WidgetOverlap(b.getId(), a.getId());
+    }
+
+    public UUID getBelowId() {
+        return belowId;
+    }
+
+    public UUID getAboveId() {
+        return aboveId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        WidgetOverlap that = (WidgetOverlap) o;
+        return Objects.equals(belowId, that.belowId) && Objects.equals(aboveId, that.aboveId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(belowId, aboveId);
+    }
+
+    @Override
+    public String toString() {
+        return belowId + " below " + aboveId;
+    }
+}
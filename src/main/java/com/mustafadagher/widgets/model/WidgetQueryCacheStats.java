@@ -0,0 +1,44 @@
+package com.mustafadagher.widgets.model;
+
+/***
+ * The counters of the cache of listing results, since the service started.
+ */
+public class WidgetQueryCacheStats {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entries;
+    private final long cachedWidgets;
+
+    public WidgetQueryCacheStats(long hits, long misses, long evictions, int entries, long cachedWidgets) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.cachedWidgets = cachedWidgets;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public long getCachedWidgets() {
+        return cachedWidgets;
+    }
+
+    public double getHitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+}
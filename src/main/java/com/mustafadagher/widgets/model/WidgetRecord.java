@@ -0,0 +1,212 @@
+package com.mustafadagher.widgets.model;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.UUID;
+
+/***
+ * The compact, immutable form the widgets are stored in.
+ *
+ * A {@link Widget} takes about eight objects: the widget itself, its id, boxed coordinates and sizes, and a date
+ * made of three more objects. A record is a single object of primitives, with the id as its two halves and the
+ * modification date in epoch milliseconds. Being immutable, it can be shared between versions of the storage and
+ * handed out without defensive copies; a {@link Widget} is only built from it when a widget leaves the repository.
+ *
+ * The edges of the integer {@link BoundingBox} of the widget are computed once, when the record is created, and kept
+ * in it, so filtering by area compares four longs of the record itself rather than rounding the edges on every test.
+ */
+public final class WidgetRecord {
+    private final long idMostSignificantBits;
+    private final long idLeastSignificantBits;
+    private final long x;
+    private final long y;
+    private final long z;
+    private final float width;
+    private final float height;
+    private final long lastModifiedAt;
+    private final long left;
+    private final long low;
+    private final long right;
+    private final long high;
+
+    public WidgetRecord(long idMostSignificantBits, long idLeastSignificantBits, long x, long y, long z,
+                        float width, float height, long lastModifiedAt) {
+        this.idMostSignificantBits = idMostSignificantBits;
+        this.idLeastSignificantBits = idLeastSignificantBits;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.width = width;
+        this.height = height;
+        this.lastModifiedAt = lastModifiedAt;
+        this.left = BoundingBox.lowerEdge(x, width);
+        this.low = BoundingBox.lowerEdge(y, height);
+        this.right = BoundingBox.upperEdge(x, width);
+        this.high = BoundingBox.upperEdge(y, height);
+    }
+
+    public static WidgetRecord of(Widget widget) {
+        return new WidgetRecord(
+                widget.getId().getMostSignificantBits(),
+                widget.getId().getLeastSignificantBits(),
+                widget.getX(),
+                widget.getY(),
+                widget.getZ(),
+                widget.getWidth(),
+                widget.getHeight(),
+                widget.getLastModificationDate().toInstant().toEpochMilli());
+    }
+
+    public Widget toWidget() {
+        return new Widget()
+                .id(getId())
+                .x(x)
+                .y(y)
+                .z(z)
+                .width(width)
+                .height(height)
+                .lastModificationDate(OffsetDateTime.ofInstant(Instant.ofEpochMilli(lastModifiedAt), ZoneId.systemDefault()));
+    }
+
+    /***
+     * Returns this record with the coordinates and sizes of the given widget, modified at the given time.
+     */
+    public WidgetRecord updatedWith(Widget widget, long modifiedAt) {
+        return new WidgetRecord(idMostSignificantBits, idLeastSignificantBits,
+                widget.getX(), widget.getY(), widget.getZ(), widget.getWidth(), widget.getHeight(), modifiedAt);
+    }
+
+    public WidgetRecord withZ(long z, long lastModifiedAt) {
+        if (z == this.z && lastModifiedAt == this.lastModifiedAt)
+            return this;
+
+        return new WidgetRecord(idMostSignificantBits, idLeastSignificantBits, x, y, z, width, height, lastModifiedAt);
+    }
+
+    public boolean isInside(BoundingBox area) {
+        return left >= area.getLeft()
+                && low >= area.getLow()
+                && right <= area.getRight()
+                && high <= area.getHigh();
+    }
+
+    public boolean intersects(BoundingBox area) {
+        return left <= area.getRight()
+                && area.getLeft() <= right
+                && low <= area.getHigh()
+                && area.getLow() <= high;
+    }
+
+    public boolean covers(BoundingBox area) {
+        return left <= area.getLeft()
+                && low <= area.getLow()
+                && right >= area.getRight()
+                && high >= area.getHigh();
+    }
+
+    /***
+     * Whether the widget shares more than an edge with the area. The integer boxes are rounded outwards, so widgets
+     * laid out side by side share the edge between them without overlapping.
+     */
+    public boolean overlaps(BoundingBox area) {
+        return left < area.getRight()
+                && area.getLeft() < right
+                && low < area.getHigh()
+                && area.getLow() < high;
+    }
+
+    public double distanceTo(BoundingBox area) {
+        return BoundingBox.distance(left, low, right, high, area);
+    }
+
+    /***
+     * Orders the widgets by the distance of their bounding box to the area, and from the highest z down at the same
+     * distance.
+     */
+    public static Comparator<WidgetRecord> nearestFirst(BoundingBox area) {
+        return (a, b) -> {
+            int byDistance = Double.compare(a.distanceTo(area), b.distanceTo(area));
+            if (byDistance != 0)
+                return byDistance;
+            return a.z != b.z ? Long.compare(b.z, a.z) : b.compareIdTo(a.idMostSignificantBits, a.idLeastSignificantBits);
+        };
+    }
+
+    public boolean contains(long x, long y) {
+        return left <= x && x <= right && low <= y && y <= high;
+    }
+
+    public boolean hasTheSameBoundsAs(WidgetRecord other) {
+        return left == other.left && low == other.low && right == other.right && high == other.high;
+    }
+
+    public boolean hasId(long mostSignificantBits, long leastSignificantBits) {
+        return idMostSignificantBits == mostSignificantBits && idLeastSignificantBits == leastSignificantBits;
+    }
+
+    /***
+     * Compares the ids the same way {@link UUID#compareTo(UUID)} does, without creating the ids.
+     */
+    public int compareIdTo(long mostSignificantBits, long leastSignificantBits) {
+        int byMostSignificantBits = Long.compare(idMostSignificantBits, mostSignificantBits);
+        return byMostSignificantBits != 0 ? byMostSignificantBits : Long.compare(idLeastSignificantBits, leastSignificantBits);
+    }
+
+    public UUID getId() {
+        return new UUID(idMostSignificantBits, idLeastSignificantBits);
+    }
+
+    public long getIdMostSignificantBits() {
+        return idMostSignificantBits;
+    }
+
+    public long getIdLeastSignificantBits() {
+        return idLeastSignificantBits;
+    }
+
+    public long getX() {
+        return x;
+    }
+
+    public long getY() {
+        return y;
+    }
+
+    public long getZ() {
+        return z;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    public long getLastModifiedAt() {
+        return lastModifiedAt;
+    }
+
+    public long getLeft() {
+        return left;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    public long getRight() {
+        return right;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public BoundingBox getBounds() {
+        return new BoundingBox(left, low, right, high);
+    }
+}
@@ -0,0 +1,53 @@
+package com.mustafadagher.widgets.model;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.Objects;
+import java.util.UUID;
+
+/***
+ * The new attributes of one widget in a batch update.
+ */
+public class WidgetUpdateRequest {
+    @NotNull
+    private UUID id;
+    @NotNull
+    @Valid
+    private WidgetRequest widget;
+
+    public WidgetUpdateRequest id(UUID id) {
+        this.id = id;
+        return this;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public WidgetUpdateRequest widget(WidgetRequest widget) {
+        this.widget = widget;
+        return this;
+    }
+
+    public WidgetRequest getWidget() {
+        return widget;
+    }
+
+    @Override
+    public boolean equals(java.lang.Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        WidgetUpdateRequest widgetUpdateRequest = (WidgetUpdateRequest) o;
+        return Objects.equals(this.id, widgetUpdateRequest.id) &&
+                Objects.equals(this.widget, widgetUpdateRequest.widget);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, widget);
+    }
+}
@@ -0,0 +1,175 @@
+package com.mustafadagher.widgets.repository;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntPredicate;
+
+/***
+ * Finds the first matching widgets of a store in z order by splitting the scan over a dedicated fork/join pool, for
+ * the stores that have no index to walk in that order and would otherwise filter and sort on a single core.
+ *
+ * The widgets are numbered from 0, e.g. by their slot in the off-heap columns. Each task scans a range of them and
+ * keeps the first {@code limit} matching ones in a bounded heap, and the results of the tasks are merged pairwise,
+ * keeping the first {@code limit} again, so no task sorts more than it may return. The order must be total, as the
+ * (z, id) order is, so the result is the same as sorting all the matching widgets and taking the first ones.
+ *
+ * Stores below the threshold are better scanned on the calling thread, see {@link #isWorthIt(int)}, as splitting
+ * the scan costs more than it saves there.
+ */
+final class ParallelScan {
+    static final int DEFAULT_THRESHOLD = 100_000;
+    /***
+     * The order of widgets already numbered in order, e.g. by their index in a copy sorted by z. A range stops being
+     * scanned once it has found enough of them, as none after those can make it.
+     */
+    static final Order IN_ORDER = Integer::compare;
+    // No task scans fewer widgets, unless the store has fewer
+    private static final int MIN_RANGE = 4_096;
+
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    ParallelScan(int threshold) {
+        this(threshold, Runtime.getRuntime().availableProcessors());
+    }
+
+    ParallelScan(int threshold, int parallelism) {
+        this.threshold = threshold;
+        this.pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread worker = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            worker.setName("widgets-scan-" + worker.getPoolIndex());
+            return worker;
+        }, null, false);
+    }
+
+    boolean isWorthIt(int count) {
+        return count >= threshold;
+    }
+
+    /***
+     * Returns the first widgets matching, at most {@code limit} of them, sorted by the given order.
+     *
+     * @param count   the widgets are numbered from 0 to count - 1
+     * @param matches tests a widget by its number; it runs on the threads of the pool
+     */
+    int[] firstMatching(int count, long limit, IntPredicate matches, Order order) {
+        if (count == 0 || limit <= 0)
+            return new int[0];
+        int range = Math.max(MIN_RANGE, count / (pool.getParallelism() * 4));
+        Scan scan = new Scan(0, count, range, limit, matches, order);
+        // A scan too small to be split isn't worth handing over to the pool
+        return count <= range ? scan.scan() : pool.invoke(scan);
+    }
+
+    /***
+     * Compares two widgets by their number.
+     */
+    @FunctionalInterface
+    interface Order {
+        int compare(int a, int b);
+    }
+
+    private static final class Scan extends RecursiveTask<int[]> {
+        private final int from;
+        private final int to;
+        private final int range;
+        private final long limit;
+        private final IntPredicate matches;
+        private final Order order;
+
+        private Scan(int from, int to, int range, long limit, IntPredicate matches, Order order) {
+            this.from = from;
+            this.to = to;
+            this.range = range;
+            this.limit = limit;
+            this.matches = matches;
+            this.order = order;
+        }
+
+        @Override
+        protected int[] compute() {
+            if (to - from <= range)
+                return scan();
+
+            int middle = (from + to) >>> 1;
+            Scan lower = new Scan(from, middle, range, limit, matches, order);
+            lower.fork();
+            int[] upper = new Scan(middle, to, range, limit, matches, order).compute();
+            return merge(lower.join(), upper);
+        }
+
+        /***
+         * Keeps the first matching widgets of the range in a max-heap, whose top is the last of them, and sorts them.
+         */
+        private int[] scan() {
+            int[] heap = new int[(int) Math.min(limit, to - from)];
+            int size = 0;
+            for (int i = from; i < to; i++) {
+                if (size == heap.length && order == IN_ORDER)
+                    break;
+                if (!matches.test(i))
+                    continue;
+                if (size < heap.length) {
+                    heap[size] = i;
+                    siftUp(heap, size++);
+                } else if (order.compare(i, heap[0]) < 0) {
+                    heap[0] = i;
+                    siftDown(heap, 0, size);
+                }
+            }
+
+            for (int last = size - 1; last > 0; last--) {
+                swap(heap, 0, last);
+                siftDown(heap, 0, last);
+            }
+            return size == heap.length ? heap : Arrays.copyOf(heap, size);
+        }
+
+        private int[] merge(int[] a, int[] b) {
+            int[] merged = new int[(int) Math.min(limit, (long) a.length + b.length)];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < merged.length; k++) {
+                if (j == b.length || i < a.length && order.compare(a[i], b[j]) <= 0)
+                    merged[k] = a[i++];
+                else
+                    merged[k] = b[j++];
+            }
+            return merged;
+        }
+
+        private void siftUp(int[] heap, int child) {
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (order.compare(heap[child], heap[parent]) <= 0)
+                    return;
+                swap(heap, child, parent);
+                child = parent;
+            }
+        }
+
+        private void siftDown(int[] heap, int parent, int size) {
+            while (true) {
+                int largest = parent;
+                int left = 2 * parent + 1;
+                int right = left + 1;
+                if (left < size && order.compare(heap[left], heap[largest]) > 0)
+                    largest = left;
+                if (right < size && order.compare(heap[right], heap[largest]) > 0)
+                    largest = right;
+                if (largest == parent)
+                    return;
+                swap(heap, parent, largest);
+                parent = largest;
+            }
+        }
+
+        private static void swap(int[] heap, int i, int j) {
+            int swapped = heap[i];
+            heap[i] = heap[j];
+            heap[j] = swapped;
+        }
+    }
+}
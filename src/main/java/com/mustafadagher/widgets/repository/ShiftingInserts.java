@@ -0,0 +1,83 @@
+package com.mustafadagher.widgets.repository;
+
+import java.util.Arrays;
+
+/***
+ * Plans a sequence of shifting inserts in one go, for the stores that have no z-order index and would otherwise scan
+ * all their widgets for every insert.
+ *
+ * It starts from the sorted z values of the stored widgets, and plays the inserts in order on that array: each one
+ * finds its z by binary search, adds one to the contiguous run of occupied z values starting there, and takes its
+ * place. Shifting a run keeps the array sorted, so the whole batch costs one scan of the store, one sort and a few
+ * array moves per insert, and the store then only writes back the z values that changed.
+ */
+final class ShiftingInserts {
+    private final long[] originalZs;
+    private long[] zs;
+    // The index of the stored widget, or -1 - i for the i-th inserted one
+    private int[] owners;
+    private int size;
+
+    /***
+     * @param sortedZs the z values of the stored widgets, sorted; the i-th one is reported as i
+     */
+    ShiftingInserts(long[] sortedZs, int count) {
+        this.zs = Arrays.copyOf(sortedZs, count + 16);
+        this.owners = new int[count + 16];
+        for (int i = 0; i < count; i++)
+            owners[i] = i;
+        this.originalZs = sortedZs;
+        this.size = count;
+    }
+
+    /***
+     * Plays the next insert, which is reported as {@code -1 - insertIndex} by {@link #forEachShiftedOrInserted}.
+     */
+    void insert(long z, int insertIndex) {
+        int position = lowerBound(z);
+        long runEnd = z;
+        for (int i = position; i < size && zs[i] <= runEnd; i++) {
+            runEnd = zs[i] + 1;
+            zs[i]++;
+        }
+
+        if (size == zs.length) {
+            zs = Arrays.copyOf(zs, size * 2);
+            owners = Arrays.copyOf(owners, size * 2);
+        }
+        System.arraycopy(zs, position, zs, position + 1, size - position);
+        System.arraycopy(owners, position, owners, position + 1, size - position);
+        zs[position] = z;
+        owners[position] = -1 - insertIndex;
+        size++;
+    }
+
+    /***
+     * Reports the final z of every inserted widget, and of every stored widget whose z changed.
+     */
+    void forEachShiftedOrInserted(ZConsumer consumer) {
+        for (int i = 0; i < size; i++) {
+            int owner = owners[i];
+            if (owner < 0 || zs[i] != originalZs[owner])
+                consumer.accept(owner, zs[i]);
+        }
+    }
+
+    private int lowerBound(long z) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (zs[middle] < z)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    @FunctionalInterface
+    interface ZConsumer {
+        void accept(int owner, long z);
+    }
+}
@@ -0,0 +1,123 @@
+package com.mustafadagher.widgets.repository;
+
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import com.mustafadagher.widgets.model.WidgetRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/***
+ * A {@link WidgetSnapshot} holding a copy of the widgets sorted by z, for the stores that change their widgets in
+ * place and so can't hand out one of their own versions.
+ *
+ * Taking it costs a scan and a sort of the store, and the copy takes heap for every widget, so it's only taken to
+ * pin a version. Pages are then cut from the copy, or found by binary search when resuming from a cursor. Filtering
+ * by area scans the copy, split over the {@link ParallelScan} of the store once the copy is large enough.
+ */
+final class SortedWidgetsSnapshot implements WidgetSnapshot {
+    private final long version;
+    private final WidgetRecord[] widgets;
+    private final ParallelScan parallelScan;
+
+    SortedWidgetsSnapshot(long version, WidgetRecord[] sortedByZ, ParallelScan parallelScan) {
+        this.version = version;
+        this.widgets = sortedByZ;
+        this.parallelScan = parallelScan;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCopiedWidgetCount() {
+        return widgets.length;
+    }
+
+    public List<Widget> findAllByOrderByZAsc(int page, int size) {
+        long from = Math.min((long) page * (long) size, widgets.length);
+        long to = Math.min(from + size, widgets.length);
+        List<Widget> found = new ArrayList<>((int) (to - from));
+        for (long i = from; i < to; i++)
+            found.add(widgets[(int) i].toWidget());
+        return found;
+    }
+
+    public List<Widget> findAllAfterOrderByZAsc(WidgetCursor after, int size) {
+        int from = firstAfter(after);
+        int to = (int) Math.min((long) from + size, widgets.length);
+        List<Widget> found = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++)
+            found.add(widgets[i].toWidget());
+        return found;
+    }
+
+    public List<Widget> findAllWithinAreaOrderByZAsc(int page, int size, WidgetAreaFilter area) {
+        return findWithinArea(0, (long) page * (long) size, size, area);
+    }
+
+    public List<Widget> findAllWithinAreaAfterOrderByZAsc(WidgetCursor after, int size, WidgetAreaFilter area) {
+        return findWithinArea(firstAfter(after), 0, size, area);
+    }
+
+    public void forEachOrderByZAsc(Consumer<Widget> consumer) {
+        for (WidgetRecord widget : widgets)
+            consumer.accept(widget.toWidget());
+    }
+
+    public void forEachWithinAreaOrderByZAsc(WidgetAreaFilter area, Consumer<Widget> consumer) {
+        BoundingBox box = BoundingBox.of(area);
+        AreaFilterMode mode = area.getMode();
+        if (parallelScan.isWorthIt(widgets.length)) {
+            for (int i : parallelScan.firstMatching(widgets.length, Long.MAX_VALUE, i -> mode.matches(widgets[i], box), ParallelScan.IN_ORDER))
+                consumer.accept(widgets[i].toWidget());
+            return;
+        }
+
+        for (WidgetRecord widget : widgets) {
+            if (mode.matches(widget, box))
+                consumer.accept(widget.toWidget());
+        }
+    }
+
+    private List<Widget> findWithinArea(int from, long toSkip, int size, WidgetAreaFilter area) {
+        BoundingBox box = BoundingBox.of(area);
+        AreaFilterMode mode = area.getMode();
+        if (parallelScan.isWorthIt(widgets.length - from)) {
+            int[] first = parallelScan.firstMatching(widgets.length - from, toSkip + size,
+                    i -> mode.matches(widgets[from + i], box), ParallelScan.IN_ORDER);
+            List<Widget> found = new ArrayList<>();
+            for (long i = toSkip; i < first.length; i++)
+                found.add(widgets[from + first[(int) i]].toWidget());
+            return found;
+        }
+
+        List<Widget> found = new ArrayList<>();
+        for (int i = from; i < widgets.length && found.size() < size; i++) {
+            if (!mode.matches(widgets[i], box))
+                continue;
+            if (toSkip > 0)
+                toSkip--;
+            else
+                found.add(widgets[i].toWidget());
+        }
+        return found;
+    }
+
+    private int firstAfter(WidgetCursor after) {
+        int low = 0;
+        int high = widgets.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (after.isBefore(widgets[middle]))
+                high = middle;
+            else
+                low = middle + 1;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,310 @@
+package com.mustafadagher.widgets.repository;
+
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.concurrent.ConcurrentUuidMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/***
+ * An implementation of {@link WidgetRepository} that keeps the widgets in a {@link ConcurrentUuidMap} by id, for
+ * workloads dominated by reads and updates of single widgets.
+ *
+ * Looking a widget up by id is a probe or two in primitive arrays, without taking a lock, and the map holds no key
+ * object per widget. There is no index by z or by area, so listing and filtering scan the store and sort what
+ * matches, and inserting at an occupied z re-saves every widget of the shifted run. Once the store holds
+ * {@code widgets.scan.parallel-threshold} widgets, listing filters and sorts them on a {@link ParallelScan}.
+ *
+ * Enabled with {@code widgets.storage=hash}. Reads never block, changes are made under a lock and each widget is
+ * replaced as a whole, so a scan running during a shifting insert may see part of the run shifted. A
+ * {@link #snapshot()} copies the widgets under the lock, so it always reflects a whole change. It is only taken to
+ * pin a version, other reads are served from the map itself.
+ */
+@Repository
+@ConditionalOnProperty(name = "widgets.storage", havingValue = "hash")
+public class WidgetHashRepository implements WidgetRepository {
+    private static final Comparator<WidgetRecord> BY_Z = (a, b) -> a.getZ() != b.getZ()
+            ? Long.compare(a.getZ(), b.getZ())
+            : a.compareIdTo(b.getIdMostSignificantBits(), b.getIdLeastSignificantBits());
+
+    private final Object writeLock;
+    private final ConcurrentUuidMap<WidgetRecord> widgets;
+    private final ParallelScan parallelScan;
+    private volatile long version;
+
+    public WidgetHashRepository() {
+        this(ParallelScan.DEFAULT_THRESHOLD);
+    }
+
+    @Autowired
+    public WidgetHashRepository(@Value("${widgets.scan.parallel-threshold:100000}") int parallelScanThreshold) {
+        this.writeLock = new Object();
+        this.widgets = new ConcurrentUuidMap<>();
+        this.parallelScan = new ParallelScan(parallelScanThreshold);
+    }
+
+    public Widget save(Widget widget) {
+        synchronized (writeLock) {
+            UUID id = widget.getId();
+            WidgetRecord current = widgets.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            WidgetRecord toSave = current == null ? WidgetRecord.of(widget) : current.updatedWith(widget, System.currentTimeMillis());
+            widgets.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), toSave);
+            version++;
+            return toSave.toWidget();
+        }
+    }
+
+    /***
+     * Inserts the widget below the widgets with the same or a higher z. If its z is taken, the contiguous run of
+     * occupied z values starting there is shifted up by one, marking the shifted widgets as modified.
+     */
+    public Widget insertShiftingUpwards(Widget widget) {
+        synchronized (writeLock) {
+            deleteById(widget.getId());
+            shiftRunUpwards(widget.getZ(), System.currentTimeMillis());
+            return save(widget);
+        }
+    }
+
+    /***
+     * Plans the shifts of the whole batch on the sorted z values, see {@link ShiftingInserts}, so the store is scanned
+     * once rather than once per insert. Batches re-inserting a stored id are inserted one at a time.
+     */
+    public List<Widget> insertAllShiftingUpwards(List<Widget> toInsert) {
+        synchronized (writeLock) {
+            if (!allNew(toInsert))
+                return WidgetRepository.super.insertAllShiftingUpwards(toInsert);
+
+            long lowestZ = Long.MAX_VALUE;
+            for (Widget widget : toInsert)
+                lowestZ = Math.min(lowestZ, widget.getZ());
+            long from = lowestZ;
+            List<WidgetRecord> above = sorted(widget -> widget.getZ() >= from);
+            long[] zs = new long[above.size()];
+            for (int i = 0; i < zs.length; i++)
+                zs[i] = above.get(i).getZ();
+
+            ShiftingInserts shifts = new ShiftingInserts(zs, zs.length);
+            for (int i = 0; i < toInsert.size(); i++)
+                shifts.insert(toInsert.get(i).getZ(), i);
+
+            long now = System.currentTimeMillis();
+            List<Widget> inserted = new ArrayList<>(toInsert.size());
+            toInsert.forEach(widget -> inserted.add(WidgetRecord.of(widget).toWidget()));
+            shifts.forEachShiftedOrInserted((owner, z) -> {
+                WidgetRecord widget = owner >= 0 ? above.get(owner) : WidgetRecord.of(toInsert.get(-1 - owner));
+                if (widget.getZ() != z)
+                    widget = widget.withZ(z, Math.max(widget.getLastModifiedAt(), now));
+                widgets.put(widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits(), widget);
+            });
+            version++;
+            return inserted;
+        }
+    }
+
+    public List<Widget> saveAll(Collection<Widget> widgets) {
+        synchronized (writeLock) {
+            List<Widget> saved = new ArrayList<>(widgets.size());
+            widgets.forEach(widget -> saved.add(save(widget)));
+            return saved;
+        }
+    }
+
+    public Optional<Widget> findById(UUID id) {
+        WidgetRecord widget = widgets.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return widget == null ? Optional.empty() : Optional.of(widget.toWidget());
+    }
+
+    public List<Widget> findAll() {
+        return findAllByOrderByZAsc(0, Integer.MAX_VALUE);
+    }
+
+    public List<Widget> findAllByZGreaterThanOrEqual(Long z) {
+        long from = z;
+        return findSortedByZ(0, Integer.MAX_VALUE, widget -> widget.getZ() >= from);
+    }
+
+    public List<Widget> findAllByZBetween(Long fromZ, Long toZ) {
+        long from = fromZ;
+        long to = toZ;
+        return findSortedByZ(0, Integer.MAX_VALUE, widget -> widget.getZ() >= from && widget.getZ() <= to);
+    }
+
+    public Optional<Widget> findTopByOrderByZDesc() {
+        WidgetRecord[] top = new WidgetRecord[1];
+        widgets.forEach(widget -> {
+            if (top[0] == null || BY_Z.compare(widget, top[0]) > 0)
+                top[0] = widget;
+        });
+        return top[0] == null ? Optional.empty() : Optional.of(top[0].toWidget());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<Widget> findAllByOrderByZAsc(int page, int size) {
+        return findSortedByZ(page, size, widget -> true);
+    }
+
+    public void deleteById(UUID widgetId) {
+        synchronized (writeLock) {
+            if (widgets.remove(widgetId.getMostSignificantBits(), widgetId.getLeastSignificantBits()) != null)
+                version++;
+        }
+    }
+
+    public void deleteAllById(Collection<UUID> widgetIds) {
+        synchronized (writeLock) {
+            widgetIds.forEach(this::deleteById);
+        }
+    }
+
+    public WidgetSnapshot snapshot() {
+        List<WidgetRecord> copied = new ArrayList<>();
+        long copiedVersion;
+        synchronized (writeLock) {
+            widgets.forEach(copied::add);
+            copiedVersion = version;
+        }
+        return new SortedWidgetsSnapshot(copiedVersion, sortedByZ(copied.toArray(new WidgetRecord[0])), parallelScan);
+    }
+
+    public List<Widget> findAllWithinAreaOrderByZAsc(int page, int size, WidgetAreaFilter area) {
+        BoundingBox box = BoundingBox.of(area);
+        AreaFilterMode mode = area.getMode();
+        return findSortedByZ(page, size, widget -> mode.matches(widget, box));
+    }
+
+    /***
+     * Holds the sorted widgets while they are passed on, but only for the duration of the call.
+     */
+    public void forEachOrderByZAsc(Consumer<Widget> consumer) {
+        sorted(widget -> true).forEach(widget -> consumer.accept(widget.toWidget()));
+    }
+
+    public void forEachWithinAreaOrderByZAsc(WidgetAreaFilter area, Consumer<Widget> consumer) {
+        BoundingBox box = BoundingBox.of(area);
+        AreaFilterMode mode = area.getMode();
+        sorted(widget -> mode.matches(widget, box)).forEach(widget -> consumer.accept(widget.toWidget()));
+    }
+
+    public List<Widget> findAllContainingOrderByZDesc(long x, long y, int size) {
+        List<WidgetRecord> sorted = sorted(widget -> widget.contains(x, y));
+        List<Widget> found = new ArrayList<>(Math.min(size, sorted.size()));
+        for (int i = sorted.size() - 1; i >= 0 && found.size() < size; i--)
+            found.add(sorted.get(i).toWidget());
+        return found;
+    }
+
+    /***
+     * Keeps the nearest widgets in a bounded heap while scanning, see {@link ParallelScan}, as there is no index to
+     * search them by.
+     */
+    public List<Widget> findNearestOrderByDistance(BoundingBox target, int size) {
+        List<WidgetRecord> copied = new ArrayList<>();
+        widgets.forEach(copied::add);
+        WidgetRecord[] all = copied.toArray(new WidgetRecord[0]);
+        Comparator<WidgetRecord> nearestFirst = WidgetRecord.nearestFirst(target);
+        int[] nearest = parallelScan.firstMatching(all.length, size, i -> true,
+                (a, b) -> nearestFirst.compare(all[a], all[b]));
+        List<Widget> found = new ArrayList<>(nearest.length);
+        for (int i : nearest)
+            found.add(all[i].toWidget());
+        return found;
+    }
+
+    public List<Widget> findAllOverlappingOrderByZAsc(BoundingBox area) {
+        return findSortedByZ(0, Integer.MAX_VALUE, widget -> widget.overlaps(area));
+    }
+
+    /***
+     * Shifts the contiguous run of occupied z values starting at the given z up by one, if the z is taken.
+     */
+    private void shiftRunUpwards(long z, long shiftedAt) {
+        List<WidgetRecord> above = sorted(widget -> widget.getZ() >= z);
+        if (above.isEmpty() || above.get(0).getZ() != z)
+            return;
+
+        long runEnd = z;
+        for (int i = 0; i < above.size() && above.get(i).getZ() <= runEnd; i++) {
+            WidgetRecord widget = above.get(i);
+            runEnd = widget.getZ() + 1;
+            widgets.put(widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits(),
+                    widget.withZ(widget.getZ() + 1, Math.max(widget.getLastModifiedAt(), shiftedAt)));
+        }
+    }
+
+    private boolean allNew(List<Widget> toInsert) {
+        Set<UUID> ids = new HashSet<>();
+        for (Widget widget : toInsert) {
+            UUID id = widget.getId();
+            if (!ids.add(id) || widgets.get(id.getMostSignificantBits(), id.getLeastSignificantBits()) != null)
+                return false;
+        }
+        return true;
+    }
+
+    private List<Widget> findSortedByZ(int page, int size, Predicate<WidgetRecord> filter) {
+        List<WidgetRecord> sorted = sorted(filter, (long) page * (long) size + size);
+        long from = Math.min((long) page * (long) size, sorted.size());
+        long to = Math.min(from + size, sorted.size());
+        List<Widget> found = new ArrayList<>((int) (to - from));
+        for (WidgetRecord widget : sorted.subList((int) from, (int) to))
+            found.add(widget.toWidget());
+        return found;
+    }
+
+    /***
+     * Sorts the copy of the widgets of a snapshot, on the {@link ParallelScan} if it's large enough.
+     */
+    private WidgetRecord[] sortedByZ(WidgetRecord[] all) {
+        if (parallelScan.isWorthIt(all.length))
+            return firstByZ(all, widget -> true, Long.MAX_VALUE);
+        Arrays.sort(all, BY_Z);
+        return all;
+    }
+
+    private WidgetRecord[] firstByZ(WidgetRecord[] all, Predicate<WidgetRecord> filter, long limit) {
+        int[] first = parallelScan.firstMatching(all.length, limit, i -> filter.test(all[i]),
+                (a, b) -> BY_Z.compare(all[a], all[b]));
+        WidgetRecord[] matching = new WidgetRecord[first.length];
+        for (int i = 0; i < first.length; i++)
+            matching[i] = all[first[i]];
+        return matching;
+    }
+
+    private List<WidgetRecord> sorted(Predicate<WidgetRecord> filter) {
+        return sorted(filter, Long.MAX_VALUE);
+    }
+
+    /***
+     * Returns the first matching widgets sorted by (z, id), at least the given number of them if there are as many.
+     */
+    private List<WidgetRecord> sorted(Predicate<WidgetRecord> filter, long limit) {
+        if (parallelScan.isWorthIt(widgets.size())) {
+            // The map can't be split, so the scan is split over a copy of its widgets
+            List<WidgetRecord> copied = new ArrayList<>();
+            widgets.forEach(copied::add);
+            WidgetRecord[] all = copied.toArray(new WidgetRecord[0]);
+            return Arrays.asList(firstByZ(all, filter, limit));
+        }
+
+        List<WidgetRecord> matching = new ArrayList<>();
+        widgets.forEach(widget -> {
+            if (filter.test(widget))
+                matching.add(widget);
+        });
+        matching.sort(BY_Z);
+        return matching;
+    }
+}
@@ -1,84 +1,384 @@
 package com.mustafadagher.widgets.repository;
 
+import com.mustafadagher.widgets.model.BoundingBox;
 import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.spatial.SpatialIndex;
+import com.mustafadagher.widgets.repository.spatial.SpatialIndexType;
+import com.mustafadagher.widgets.repository.spatial.UniformGrid;
+import com.mustafadagher.widgets.repository.zorder.ZOrderTree;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
-import java.time.OffsetDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.BiFunction;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /***
- * An In-Memory implementation of {@link WidgetRepository} that uses {@link ConcurrentHashMap} as storage implementation.
+ * An In-Memory implementation of {@link WidgetRepository} that keeps the widgets in a {@link ZOrderTree}.
  *
- * The choice of {@link ConcurrentHashMap} was mainly because it's synchronized but doesn't lock the whole map
- * and it has methods to allow atomic changes on the map
+ * The tree keeps the widgets sorted by (z, id), so listing them sorted by z only walks the slice that is returned,
+ * and inserting a widget at an occupied z shifts the widgets above it in O(log n) instead of re-saving each of them.
+ * Their bounding boxes are kept in a {@link SpatialIndex}, so filtering by area only visits the candidates.
+ * Which index is used is configured with the {@code widgets.spatial-index.type} property, see {@link SpatialIndexType}.
+ * This is the default store, {@code widgets.storage=off-heap} selects {@link WidgetOffHeapRepository} instead.
+ *
+ * Both structures are immutable. Changes are made under a lock and published together as a new numbered version, so
+ * reads never block and always see the tree and the index of the same version, and a {@link #snapshot()} is just the
+ * current version. The widgets are stored as {@link WidgetRecord}s, and a {@link Widget} is only built for the
+ * widgets a call returns.
  */
 @Repository
+@ConditionalOnProperty(name = "widgets.storage", havingValue = "in-memory", matchIfMissing = true)
 public class WidgetInMemoryRepository implements WidgetRepository {
-    private final Map<UUID, Widget> storage;
+    private final Object writeLock;
+    private volatile Version current;
 
     public WidgetInMemoryRepository() {
-        this.storage = new ConcurrentHashMap<>();
+        this(SpatialIndexType.RTREE, UniformGrid.DEFAULT_CELL_SIZE);
+    }
+
+    @Autowired
+    public WidgetInMemoryRepository(@Value("${widgets.spatial-index.type:rtree}") SpatialIndexType spatialIndexType,
+                                    @Value("${widgets.spatial-index.grid-cell-size:256}") long gridCellSize) {
+        this.writeLock = new Object();
+        this.current = new Version(0, ZOrderTree.empty(), spatialIndexType.emptyIndex(gridCellSize));
     }
 
     public Widget save(Widget widget) {
-        return storage.merge(widget.getId(), widget, updateWidgetDescriptionFn());
+        synchronized (writeLock) {
+            Version version = current;
+            WidgetRecord saved = version.widgets.get(widget.getId());
+            WidgetRecord toSave = saved == null ? WidgetRecord.of(widget) : saved.updatedWith(widget, System.currentTimeMillis());
+            current = version.next(version.widgets.put(toSave), reIndexArea(version.spatialIndex, widget.getId(), saved, toSave));
+            return toSave.toWidget();
+        }
+    }
+
+    /***
+     * Inserts the widget below the widgets with the same or a higher z. If its z is taken, the contiguous run of
+     * occupied z values starting there is shifted up by one, marking the shifted widgets as modified.
+     */
+    public Widget insertShiftingUpwards(Widget widget) {
+        return insertAllShiftingUpwards(Collections.singletonList(widget)).get(0);
+    }
+
+    /***
+     * Inserts the widgets one after the other into the tree, and publishes them as a single version.
+     */
+    public List<Widget> insertAllShiftingUpwards(List<Widget> widgets) {
+        synchronized (writeLock) {
+            Version version = current;
+            ZOrderTree tree = version.widgets;
+            SpatialIndex<UUID> spatialIndex = version.spatialIndex;
+            long now = System.currentTimeMillis();
+            List<Widget> inserted = new ArrayList<>(widgets.size());
+            for (Widget widget : widgets) {
+                WidgetRecord saved = tree.get(widget.getId());
+                WidgetRecord toSave = WidgetRecord.of(widget);
+                tree = tree.insertShiftingUpwards(toSave, now);
+                spatialIndex = reIndexArea(spatialIndex, widget.getId(), saved, toSave);
+                inserted.add(toSave.toWidget());
+            }
+            current = version.next(tree, spatialIndex);
+            return inserted;
+        }
+    }
+
+    /***
+     * Saves all the widgets at once, as a single version. If the batch is at least as big as what is already stored,
+     * both indexes are rebuilt from scratch rather than growing them one widget at a time, which lets the R-tree bulk
+     * load its nodes.
+     */
+    public List<Widget> saveAll(Collection<Widget> widgets) {
+        synchronized (writeLock) {
+            Version version = current;
+            if (widgets.size() < version.widgets.size()) {
+                ZOrderTree tree = version.widgets;
+                SpatialIndex<UUID> spatialIndex = version.spatialIndex;
+                long now = System.currentTimeMillis();
+                List<Widget> saved = new ArrayList<>(widgets.size());
+                for (Widget widget : widgets) {
+                    WidgetRecord current = tree.get(widget.getId());
+                    WidgetRecord toSave = current == null ? WidgetRecord.of(widget) : current.updatedWith(widget, now);
+                    tree = tree.put(toSave);
+                    spatialIndex = reIndexArea(spatialIndex, widget.getId(), current, toSave);
+                    saved.add(toSave.toWidget());
+                }
+                current = version.next(tree, spatialIndex);
+                return saved;
+            }
+
+            Map<UUID, WidgetRecord> all = new LinkedHashMap<>();
+            version.widgets.forEachFromRank(0, widget -> all.put(widget.getId(), widget) == null);
+            List<Widget> saved = new ArrayList<>(widgets.size());
+            long now = System.currentTimeMillis();
+            for (Widget widget : widgets) {
+                WidgetRecord current = all.get(widget.getId());
+                WidgetRecord toSave = current == null ? WidgetRecord.of(widget) : current.updatedWith(widget, now);
+                all.put(widget.getId(), toSave);
+                saved.add(toSave.toWidget());
+            }
+
+            List<SpatialIndex.Entry<UUID>> entries = new ArrayList<>(all.size());
+            all.forEach((id, widget) -> entries.add(new SpatialIndex.Entry<>(widget.getBounds(), id)));
+            current = version.next(ZOrderTree.of(all.values()), version.spatialIndex.rebuild(entries));
+            return saved;
+        }
     }
 
     public List<Widget> findAll() {
-        return new ArrayList<>(storage.values());
+        ZOrderTree widgets = current.widgets;
+        List<Widget> all = new ArrayList<>(widgets.size());
+        widgets.forEachFromRank(0, widget -> all.add(widget.toWidget()));
+        return all;
+    }
+
+    public long getVersion() {
+        return current.getVersion();
     }
 
     public List<Widget> findAllByOrderByZAsc(int page, int size) {
-        return findAllByAreaOrderBy(page, size, Comparator.comparing(Widget::getZ), Objects::nonNull);
+        return current.findAllByOrderByZAsc(page, size);
     }
 
-    public List<Widget> findAllByAreaOrderByZAsc(int page, int size, Predicate<Widget> filterPredicate) {
-        return findAllByAreaOrderBy(page, size, Comparator.comparing(Widget::getZ), filterPredicate);
+    public List<Widget> findAllWithinAreaOrderByZAsc(int page, int size, WidgetAreaFilter area) {
+        return current.findAllWithinAreaOrderByZAsc(page, size, area);
+    }
+
+    public void forEachOrderByZAsc(Consumer<Widget> consumer) {
+        current.forEachOrderByZAsc(consumer);
+    }
+
+    public void forEachWithinAreaOrderByZAsc(WidgetAreaFilter area, Consumer<Widget> consumer) {
+        current.forEachWithinAreaOrderByZAsc(area, consumer);
+    }
+
+    /***
+     * Searches the spatial index for the boxes containing the point, so only the widgets stacked there are sorted.
+     */
+    public List<Widget> findAllContainingOrderByZDesc(long x, long y, int size) {
+        Version version = current;
+        List<UUID> containing = new ArrayList<>();
+        version.spatialIndex.searchIntersecting(new BoundingBox(x, y, x, y), containing::add);
+
+        List<WidgetRecord> sorted = version.widgets.getAllOrderByZ(containing);
+        List<Widget> found = new ArrayList<>(Math.min(size, sorted.size()));
+        for (int i = sorted.size() - 1; i >= 0 && found.size() < size; i--)
+            found.add(sorted.get(i).toWidget());
+        return found;
+    }
+
+    /***
+     * Searches the spatial index best-first, so only the widgets about as near as the ones returned are looked at.
+     * All the widgets at the distance of the last one are taken, to sort them by z.
+     */
+    public List<Widget> findNearestOrderByDistance(BoundingBox target, int size) {
+        Version version = current;
+        List<WidgetRecord> nearest = new ArrayList<>();
+        double[] farthest = {0};
+        version.spatialIndex.searchNearest(target, (id, distance) -> {
+            if (nearest.size() >= size && distance > farthest[0])
+                return false;
+            nearest.add(version.widgets.get(id));
+            farthest[0] = distance;
+            return true;
+        });
+
+        nearest.sort(WidgetRecord.nearestFirst(target));
+        List<Widget> found = new ArrayList<>(Math.min(size, nearest.size()));
+        for (int i = 0; i < nearest.size() && found.size() < size; i++)
+            found.add(nearest.get(i).toWidget());
+        return found;
+    }
+
+    /***
+     * Searches the spatial index for the boxes intersecting the area, and leaves out those only touching it.
+     */
+    public List<Widget> findAllOverlappingOrderByZAsc(BoundingBox area) {
+        Version version = current;
+        List<UUID> intersecting = new ArrayList<>();
+        version.spatialIndex.searchIntersecting(area, intersecting::add);
+
+        List<Widget> found = new ArrayList<>();
+        for (WidgetRecord widget : version.widgets.getAllOrderByZ(intersecting)) {
+            if (widget.overlaps(area))
+                found.add(widget.toWidget());
+        }
+        return found;
     }
 
     public List<Widget> findAllByZGreaterThanOrEqual(Long z) {
-        return storage.values().stream()
-                .filter(w -> w.getZ() >= z)
-                .sorted(Comparator.comparing(Widget::getZ))
-                .collect(Collectors.toList());
+        List<Widget> found = new ArrayList<>();
+        current.widgets.forEachFromZ(z, widget -> found.add(widget.toWidget()));
+        return found;
+    }
+
+    public List<Widget> findAllByZBetween(Long fromZ, Long toZ) {
+        List<Widget> found = new ArrayList<>();
+        if (fromZ <= toZ)
+            current.widgets.forEachFromZ(fromZ, widget -> widget.getZ() <= toZ && found.add(widget.toWidget()));
+        return found;
+    }
+
+    public Optional<Widget> findTopByOrderByZDesc() {
+        return Optional.ofNullable(current.widgets.highest()).map(WidgetRecord::toWidget);
     }
 
     public Optional<Widget> findById(UUID id) {
-        return Optional.ofNullable(storage.get(id));
+        return Optional.ofNullable(current.widgets.get(id)).map(WidgetRecord::toWidget);
     }
 
     public void deleteById(UUID widgetId) {
-        storage.remove(widgetId);
-    }
-
-    private List<Widget> findAllByAreaOrderBy(int page, int size, Comparator<Widget> sortedBy, Predicate<Widget> filterBy) {
-        long skip = (long) page * (long) size;
-        return storage.values().stream()
-                .filter(filterBy)
-                .sorted(sortedBy)
-                .skip(skip)
-                .limit(size)
-                .collect(Collectors.toList());
-    }
-
-    private BiFunction<Widget, Widget, Widget> updateWidgetDescriptionFn() {
-        return (current, updated) -> {
-            AtomicReference<Widget> currentReference = new AtomicReference<>(current);
-
-            return currentReference.updateAndGet(w ->
-                    w.clone()
-                            .x(updated.getX())
-                            .y(updated.getY())
-                            .z(updated.getZ())
-                            .height(updated.getHeight())
-                            .width(updated.getWidth())
-                            .lastModificationDate(OffsetDateTime.now())
-            );
-        };
+        synchronized (writeLock) {
+            Version version = current;
+            WidgetRecord saved = version.widgets.get(widgetId);
+            if (saved != null)
+                current = version.next(version.widgets.remove(widgetId), version.spatialIndex.remove(saved.getBounds(), widgetId));
+        }
+    }
+
+    public void deleteAllById(Collection<UUID> widgetIds) {
+        synchronized (writeLock) {
+            Version version = current;
+            ZOrderTree tree = version.widgets;
+            SpatialIndex<UUID> spatialIndex = version.spatialIndex;
+            for (UUID widgetId : widgetIds) {
+                WidgetRecord saved = tree.get(widgetId);
+                if (saved != null) {
+                    tree = tree.remove(widgetId);
+                    spatialIndex = spatialIndex.remove(saved.getBounds(), widgetId);
+                }
+            }
+            if (tree != version.widgets)
+                current = version.next(tree, spatialIndex);
+        }
+    }
+
+    public WidgetSnapshot snapshot() {
+        return current;
+    }
+
+    /***
+     * The current version is a snapshot already.
+     */
+    public WidgetView currentView() {
+        return current;
+    }
+
+    private static SpatialIndex<UUID> reIndexArea(SpatialIndex<UUID> spatialIndex, UUID id, WidgetRecord current, WidgetRecord saved) {
+        // Moving a widget along z keeps its box
+        if (current != null && current.hasTheSameBoundsAs(saved))
+            return spatialIndex;
+        SpatialIndex<UUID> index = current == null ? spatialIndex : spatialIndex.remove(current.getBounds(), id);
+        return index.insert(saved.getBounds(), id);
+    }
+
+    /***
+     * A numbered version of the store: the widgets sorted by z and the index of their bounding boxes, as they were
+     * after the same change.
+     */
+    private static final class Version implements WidgetSnapshot {
+        private final long number;
+        private final ZOrderTree widgets;
+        private final SpatialIndex<UUID> spatialIndex;
+
+        Version(long number, ZOrderTree widgets, SpatialIndex<UUID> spatialIndex) {
+            this.number = number;
+            this.widgets = widgets;
+            this.spatialIndex = spatialIndex;
+        }
+
+        Version next(ZOrderTree widgets, SpatialIndex<UUID> spatialIndex) {
+            return new Version(number + 1, widgets, spatialIndex);
+        }
+
+        public long getVersion() {
+            return number;
+        }
+
+        public List<Widget> findAllByOrderByZAsc(int page, int size) {
+            List<Widget> widgetsInPage = new ArrayList<>(size);
+            if (size > 0)
+                widgets.forEachFromRank((long) page * (long) size, widget -> widgetsInPage.add(widget.toWidget()) && widgetsInPage.size() < size);
+            return widgetsInPage;
+        }
+
+        public List<Widget> findAllAfterOrderByZAsc(WidgetCursor after, int size) {
+            List<Widget> widgetsInPage = new ArrayList<>(size);
+            if (size > 0)
+                widgets.forEachAfter(after.getZ(), after.getId(), widget -> widgetsInPage.add(widget.toWidget()) && widgetsInPage.size() < size);
+            return widgetsInPage;
+        }
+
+        public List<Widget> findAllWithinAreaOrderByZAsc(int page, int size, WidgetAreaFilter area) {
+            return page(findAllWithinAreaOrderByZ(area), (long) page * (long) size, size);
+        }
+
+        public List<Widget> findAllWithinAreaAfterOrderByZAsc(WidgetCursor after, int size, WidgetAreaFilter area) {
+            List<WidgetRecord> sorted = findAllWithinAreaOrderByZ(area);
+            int low = 0;
+            int high = sorted.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (after.isBefore(sorted.get(middle)))
+                    high = middle;
+                else
+                    low = middle + 1;
+            }
+            return page(sorted, low, size);
+        }
+
+        public void forEachOrderByZAsc(Consumer<Widget> consumer) {
+            widgets.forEachFromRank(0, widget -> {
+                consumer.accept(widget.toWidget());
+                return true;
+            });
+        }
+
+        /***
+         * Searches the spatial index rather than walking the whole tree, so the cost follows the widgets in the area
+         * rather than all of them, at the price of sorting them before passing on the first one.
+         */
+        public void forEachWithinAreaOrderByZAsc(WidgetAreaFilter area, Consumer<Widget> consumer) {
+            for (WidgetRecord widget : findAllWithinAreaOrderByZ(area))
+                consumer.accept(widget.toWidget());
+        }
+
+        /***
+         * Searches the spatial index for the widgets passing the filter and sorts them by z. A widget covering the
+         * area overlaps its lower left corner, so those are searched for by that point and then checked.
+         */
+        private List<WidgetRecord> findAllWithinAreaOrderByZ(WidgetAreaFilter filter) {
+            BoundingBox area = BoundingBox.of(filter);
+            List<UUID> found = new ArrayList<>();
+            switch (filter.getMode()) {
+                case INTERSECTS:
+                    spatialIndex.searchIntersecting(area, found::add);
+                    return widgets.getAllOrderByZ(found);
+                case COVERS:
+                    BoundingBox corner = new BoundingBox(area.getLeft(), area.getLow(), area.getLeft(), area.getLow());
+                    spatialIndex.searchIntersecting(corner, found::add);
+                    List<WidgetRecord> sorted = widgets.getAllOrderByZ(found);
+                    sorted.removeIf(widget -> !widget.covers(area));
+                    return sorted;
+                default:
+                    spatialIndex.searchWithin(area, found::add);
+                    return widgets.getAllOrderByZ(found);
+            }
+        }
+
+        private static List<Widget> page(List<WidgetRecord> sorted, long skip, int size) {
+            if (skip >= sorted.size())
+                return Collections.emptyList();
+
+            List<Widget> widgetsInPage = new ArrayList<>();
+            for (WidgetRecord widget : sorted.subList((int) skip, (int) Math.min(skip + size, sorted.size())))
+                widgetsInPage.add(widget.toWidget());
+            return widgetsInPage;
+        }
     }
 }
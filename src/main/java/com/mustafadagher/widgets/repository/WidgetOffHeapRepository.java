@@ -0,0 +1,412 @@
+package com.mustafadagher.widgets.repository;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.offheap.SlotIndex;
+import com.mustafadagher.widgets.repository.offheap.WidgetColumns;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/***
+ * An implementation of {@link WidgetRepository} that keeps the widgets outside the Java heap, for stores large enough
+ * for the heap kept by {@link WidgetInMemoryRepository} to drive long GC pauses.
+ *
+ * The attributes of the widgets are stored column by column in direct buffers, see {@link WidgetColumns}, and the ids
+ * are mapped to their slot by a {@link SlotIndex} of primitive arrays, so the heap holds no object per widget. Queries
+ * scan the columns they need and sort the matching slots by z, and a {@link Widget} is only built for the widgets a
+ * call returns. There are no secondary indexes, so listing and filtering by area cost a scan of the store, which is
+ * split over a {@link ParallelScan} once the store holds {@code widgets.scan.parallel-threshold} widgets.
+ *
+ * Enabled with {@code widgets.storage=off-heap}. Changes take the write lock of a {@link StampedLock}, and reads are
+ * optimistic: they copy what they return as {@link WidgetRecord}s without locking, and only read again under the read
+ * lock if a change was made meanwhile, see {@link #read(Supplier)}. A {@link #snapshot()} copies every widget to
+ * the heap, so it is only taken to pin a version, other reads are served from the columns themselves.
+ */
+@Repository
+@ConditionalOnProperty(name = "widgets.storage", havingValue = "off-heap")
+public class WidgetOffHeapRepository implements WidgetRepository {
+    private final WidgetColumns columns;
+    private final SlotIndex slots;
+    private final StampedLock lock;
+    private final ParallelScan parallelScan;
+    private long version;
+
+    public WidgetOffHeapRepository() {
+        this(ParallelScan.DEFAULT_THRESHOLD);
+    }
+
+    @Autowired
+    public WidgetOffHeapRepository(@Value("${widgets.scan.parallel-threshold:100000}") int parallelScanThreshold) {
+        this.columns = new WidgetColumns();
+        this.slots = new SlotIndex();
+        this.lock = new StampedLock();
+        this.parallelScan = new ParallelScan(parallelScanThreshold);
+    }
+
+    public Widget save(Widget widget) {
+        long stamp = lock.writeLock();
+        try {
+            return write(widget).toWidget();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /***
+     * Inserts the widget below the widgets with the same or a higher z. If its z is taken, the contiguous run of
+     * occupied z values starting there is shifted up by one, marking the shifted widgets as modified.
+     */
+    public Widget insertShiftingUpwards(Widget widget) {
+        long stamp = lock.writeLock();
+        try {
+            delete(widget.getId());
+            shiftRunUpwards(widget.getZ(), System.currentTimeMillis());
+            return write(widget).toWidget();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /***
+     * Plans the shifts of the whole batch on the sorted z values, see {@link ShiftingInserts}, so the columns are
+     * scanned once rather than once per insert. Batches re-inserting a stored id are inserted one at a time.
+     */
+    public List<Widget> insertAllShiftingUpwards(List<Widget> widgets) {
+        long stamp = lock.writeLock();
+        try {
+            Set<UUID> ids = new HashSet<>();
+            long lowestZ = Long.MAX_VALUE;
+            for (Widget widget : widgets) {
+                UUID id = widget.getId();
+                if (!ids.add(id) || slots.get(id.getMostSignificantBits(), id.getLeastSignificantBits()) != SlotIndex.NO_SLOT)
+                    return insertOneByOne(widgets);
+                lowestZ = Math.min(lowestZ, widget.getZ());
+            }
+
+            long from = lowestZ;
+            int[] above = sortedSlots(slot -> columns.getZ(slot) >= from);
+            long[] zs = new long[above.length];
+            for (int i = 0; i < above.length; i++)
+                zs[i] = columns.getZ(above[i]);
+
+            ShiftingInserts shifts = new ShiftingInserts(zs, zs.length);
+            for (int i = 0; i < widgets.size(); i++)
+                shifts.insert(widgets.get(i).getZ(), i);
+
+            long now = System.currentTimeMillis();
+            List<Widget> inserted = new ArrayList<>(widgets.size());
+            widgets.forEach(widget -> inserted.add(WidgetRecord.of(widget).toWidget()));
+            shifts.forEachShiftedOrInserted((owner, z) -> {
+                int slot;
+                if (owner >= 0) {
+                    slot = above[owner];
+                } else {
+                    Widget widget = widgets.get(-1 - owner);
+                    slot = columns.allocate();
+                    slots.put(widget.getId().getMostSignificantBits(), widget.getId().getLeastSignificantBits(), slot);
+                    columns.write(slot, widget, widget.getLastModificationDate().toInstant().toEpochMilli());
+                }
+                if (columns.getZ(slot) != z) {
+                    columns.setZ(slot, z);
+                    columns.setLastModifiedAt(slot, Math.max(columns.getLastModifiedAt(slot), now));
+                }
+            });
+            version++;
+            return inserted;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public List<Widget> saveAll(Collection<Widget> widgets) {
+        long stamp = lock.writeLock();
+        try {
+            List<Widget> saved = new ArrayList<>(widgets.size());
+            widgets.forEach(widget -> saved.add(write(widget).toWidget()));
+            return saved;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public Optional<Widget> findById(UUID id) {
+        WidgetRecord found = read(() -> {
+            int slot = slots.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            return slot == SlotIndex.NO_SLOT ? null : columns.toRecord(slot);
+        });
+        return found == null ? Optional.empty() : Optional.of(found.toWidget());
+    }
+
+    public List<Widget> findAll() {
+        return findAllByOrderByZAsc(0, Integer.MAX_VALUE);
+    }
+
+    public List<Widget> findAllByZGreaterThanOrEqual(Long z) {
+        long from = z;
+        return findSortedByZ(0, Integer.MAX_VALUE, slot -> columns.getZ(slot) >= from);
+    }
+
+    public List<Widget> findAllByZBetween(Long fromZ, Long toZ) {
+        long from = fromZ;
+        long to = toZ;
+        return findSortedByZ(0, Integer.MAX_VALUE, slot -> columns.getZ(slot) >= from && columns.getZ(slot) <= to);
+    }
+
+    public Optional<Widget> findTopByOrderByZDesc() {
+        WidgetRecord top = read(() -> {
+            int topSlot = SlotIndex.NO_SLOT;
+            for (int slot = 0; slot < columns.slotCount(); slot++) {
+                if (columns.isLive(slot) && (topSlot == SlotIndex.NO_SLOT || columns.compareByZ(slot, topSlot) > 0))
+                    topSlot = slot;
+            }
+            return topSlot == SlotIndex.NO_SLOT ? null : columns.toRecord(topSlot);
+        });
+        return top == null ? Optional.empty() : Optional.of(top.toWidget());
+    }
+
+    public long getVersion() {
+        return read(() -> version);
+    }
+
+    public List<Widget> findAllByOrderByZAsc(int page, int size) {
+        return findSortedByZ(page, size, slot -> true);
+    }
+
+    public void deleteById(UUID widgetId) {
+        long stamp = lock.writeLock();
+        try {
+            delete(widgetId);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void deleteAllById(Collection<UUID> widgetIds) {
+        long stamp = lock.writeLock();
+        try {
+            widgetIds.forEach(this::delete);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public WidgetSnapshot snapshot() {
+        long stamp = lock.readLock();
+        try {
+            return new SortedWidgetsSnapshot(version, records(sortedSlots(slot -> true), 0, Integer.MAX_VALUE), parallelScan);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public List<Widget> findAllWithinAreaOrderByZAsc(int page, int size, WidgetAreaFilter area) {
+        return findSortedByZ(page, size, withinArea(area));
+    }
+
+    /***
+     * Copies the matching widgets to the heap while they are passed on, but only for the duration of the call.
+     */
+    public void forEachOrderByZAsc(Consumer<Widget> consumer) {
+        forEachSortedByZ(slot -> true, consumer);
+    }
+
+    public void forEachWithinAreaOrderByZAsc(WidgetAreaFilter area, Consumer<Widget> consumer) {
+        forEachSortedByZ(withinArea(area), consumer);
+    }
+
+    public List<Widget> findAllContainingOrderByZDesc(long x, long y, int size) {
+        WidgetRecord[] found = read(() -> {
+            int[] sorted = sortedSlots(slot -> columns.contains(slot, x, y));
+            WidgetRecord[] topmost = new WidgetRecord[Math.min(size, sorted.length)];
+            for (int i = 0; i < topmost.length; i++)
+                topmost[i] = columns.toRecord(sorted[sorted.length - 1 - i]);
+            return topmost;
+        });
+        List<Widget> widgets = new ArrayList<>(found.length);
+        for (WidgetRecord widget : found)
+            widgets.add(widget.toWidget());
+        return widgets;
+    }
+
+    /***
+     * Keeps the nearest slots in a bounded heap while scanning the columns, see {@link ParallelScan}, as there is no
+     * index to search them by.
+     */
+    public List<Widget> findNearestOrderByDistance(BoundingBox target, int size) {
+        WidgetRecord[] found = read(() -> {
+            int[] nearest = parallelScan.firstMatching(columns.slotCount(), size, columns::isLive,
+                    (a, b) -> columns.compareByDistance(a, b, target));
+            return records(nearest, 0, size);
+        });
+        List<Widget> widgets = new ArrayList<>(found.length);
+        for (WidgetRecord widget : found)
+            widgets.add(widget.toWidget());
+        return widgets;
+    }
+
+    public List<Widget> findAllOverlappingOrderByZAsc(BoundingBox area) {
+        return findSortedByZ(0, Integer.MAX_VALUE, slot -> columns.overlaps(slot, area));
+    }
+
+    /***
+     * Runs a read without locking, and runs it again under the read lock if a change was made while it ran.
+     *
+     * The optimistic run may see the columns and the index in the middle of a change, so it must only copy what it
+     * reads, and its result is thrown away unless no change was made meanwhile. Reading a half-made change can also
+     * throw, e.g. an index out of the bounds of a column being grown, which is treated the same way.
+     */
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp))
+                    return result;
+            } catch (RuntimeException concurrentlyChanged) {
+                // Read again below, under the lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private List<Widget> insertOneByOne(List<Widget> widgets) {
+        List<Widget> inserted = new ArrayList<>(widgets.size());
+        long now = System.currentTimeMillis();
+        for (Widget widget : widgets) {
+            delete(widget.getId());
+            shiftRunUpwards(widget.getZ(), now);
+            inserted.add(write(widget).toWidget());
+        }
+        return inserted;
+    }
+
+    private WidgetRecord write(Widget widget) {
+        UUID id = widget.getId();
+        int slot = slots.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        if (slot == SlotIndex.NO_SLOT) {
+            slot = columns.allocate();
+            slots.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), slot);
+            columns.write(slot, widget, widget.getLastModificationDate().toInstant().toEpochMilli());
+        } else {
+            columns.write(slot, widget, System.currentTimeMillis());
+        }
+        version++;
+        return columns.toRecord(slot);
+    }
+
+    private void delete(UUID widgetId) {
+        int slot = slots.remove(widgetId.getMostSignificantBits(), widgetId.getLeastSignificantBits());
+        if (slot != SlotIndex.NO_SLOT) {
+            columns.free(slot);
+            version++;
+        }
+    }
+
+    /***
+     * Shifts the contiguous run of occupied z values starting at the given z up by one, if the z is taken.
+     */
+    private void shiftRunUpwards(long z, long shiftedAt) {
+        long[] above = new long[16];
+        int count = 0;
+        for (int slot = 0; slot < columns.slotCount(); slot++) {
+            if (!columns.isLive(slot) || columns.getZ(slot) < z)
+                continue;
+            if (count == above.length)
+                above = Arrays.copyOf(above, count * 2);
+            above[count++] = columns.getZ(slot);
+        }
+        Arrays.sort(above, 0, count);
+        if (count == 0 || above[0] != z)
+            return;
+
+        long runEnd = z;
+        for (int i = 0; i < count && above[i] <= runEnd; i++)
+            runEnd = above[i] + 1;
+
+        for (int slot = 0; slot < columns.slotCount(); slot++) {
+            if (!columns.isLive(slot) || columns.getZ(slot) < z || columns.getZ(slot) >= runEnd)
+                continue;
+            columns.setZ(slot, columns.getZ(slot) + 1);
+            columns.setLastModifiedAt(slot, Math.max(columns.getLastModifiedAt(slot), shiftedAt));
+        }
+    }
+
+    private List<Widget> findSortedByZ(int page, int size, IntPredicate filter) {
+        long from = (long) page * (long) size;
+        WidgetRecord[] found = read(() -> records(sortedSlots(filter, from + size), from, size));
+        List<Widget> widgets = new ArrayList<>(found.length);
+        for (WidgetRecord widget : found)
+            widgets.add(widget.toWidget());
+        return widgets;
+    }
+
+    private void forEachSortedByZ(IntPredicate filter, Consumer<Widget> consumer) {
+        for (WidgetRecord widget : read(() -> records(sortedSlots(filter), 0, Integer.MAX_VALUE)))
+            consumer.accept(widget.toWidget());
+    }
+
+    /***
+     * Copies the widgets of the given page of slots.
+     */
+    private WidgetRecord[] records(int[] slots, long from, int size) {
+        int first = (int) Math.min(from, slots.length);
+        int last = (int) Math.min(first + (long) size, slots.length);
+        WidgetRecord[] records = new WidgetRecord[last - first];
+        for (int i = first; i < last; i++)
+            records[i - first] = columns.toRecord(slots[i]);
+        return records;
+    }
+
+    private int[] sortedSlots(IntPredicate filter) {
+        return sortedSlots(filter, Long.MAX_VALUE);
+    }
+
+    /***
+     * Returns the first matching slots sorted by (z, id), at least the given number of them if there are as many.
+     */
+    private int[] sortedSlots(IntPredicate filter, long limit) {
+        if (parallelScan.isWorthIt(columns.slotCount()))
+            return parallelScan.firstMatching(columns.slotCount(), limit,
+                    slot -> columns.isLive(slot) && filter.test(slot), columns::compareByZ);
+
+        int[] matching = new int[Math.max(16, columns.size())];
+        int count = 0;
+        for (int slot = 0; slot < columns.slotCount(); slot++) {
+            if (columns.isLive(slot) && filter.test(slot))
+                matching[count++] = slot;
+        }
+        columns.sortByZ(matching, count);
+        return Arrays.copyOf(matching, count);
+    }
+
+    /***
+     * Tests the slots against the columns of the bounds, choosing the test once rather than for every slot.
+     */
+    private IntPredicate withinArea(WidgetAreaFilter filter) {
+        BoundingBox area = BoundingBox.of(filter);
+        switch (filter.getMode()) {
+            case INTERSECTS:
+                return slot -> columns.intersects(slot, area);
+            case COVERS:
+                return slot -> columns.covers(slot, area);
+            default:
+                return slot -> columns.isInside(slot, area);
+        }
+    }
+}
@@ -1,24 +1,79 @@
 package com.mustafadagher.widgets.repository;
 
+import com.mustafadagher.widgets.model.BoundingBox;
 import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRecord;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.function.Predicate;
 
-public interface WidgetRepository {
+public interface WidgetRepository extends WidgetView {
     Widget save(Widget widget);
 
+    Widget insertShiftingUpwards(Widget widget);
+
+    /***
+     * Inserts the widgets one after the other as {@link #insertShiftingUpwards(Widget)} does, leaving the same z
+     * values, but lets a store apply the shifts of the whole batch at once. Returns each widget as it was inserted,
+     * before the following inserts of the batch shifted it.
+     */
+    default List<Widget> insertAllShiftingUpwards(List<Widget> widgets) {
+        List<Widget> inserted = new ArrayList<>(widgets.size());
+        widgets.forEach(widget -> inserted.add(insertShiftingUpwards(widget)));
+        return inserted;
+    }
+
+    List<Widget> saveAll(Collection<Widget> widgets);
+
     Optional<Widget> findById(UUID id);
 
     List<Widget> findAll();
 
     List<Widget> findAllByZGreaterThanOrEqual(Long z);
 
-    List<Widget> findAllByOrderByZAsc(int page, int size);
+    List<Widget> findAllByZBetween(Long fromZ, Long toZ);
+
+    Optional<Widget> findTopByOrderByZDesc();
 
     void deleteById(UUID widgetId);
 
-    List<Widget> findAllByAreaOrderByZAsc(int page, int size, Predicate<Widget> filterPredicate);
+    /***
+     * Deletes the widgets as one change, ignoring the ids that aren't stored.
+     */
+    void deleteAllById(Collection<UUID> widgetIds);
+
+    /***
+     * Returns the widgets whose bounding box contains the point, edges included, from the highest z down, at most the
+     * given number of them.
+     */
+    List<Widget> findAllContainingOrderByZDesc(long x, long y, int size);
+
+    /***
+     * Returns the widgets whose bounding box is nearest to the target, at most the given number of them, by distance,
+     * see {@link BoundingBox#distanceTo(BoundingBox)}, and from the highest z down at the same distance.
+     */
+    List<Widget> findNearestOrderByDistance(BoundingBox target, int size);
+
+    /***
+     * Returns the widgets sharing more than an edge with the area, see {@link WidgetRecord#overlaps(BoundingBox)},
+     * sorted by z.
+     */
+    List<Widget> findAllOverlappingOrderByZAsc(BoundingBox area);
+
+    /***
+     * Returns the current version of the widgets, without blocking changes made afterwards. The stores changing their
+     * widgets in place copy them, so it's only worth taking to read the same version again, see {@link #currentView()}.
+     */
+    WidgetSnapshot snapshot();
+
+    /***
+     * Returns the latest state of the widgets, for reads that won't be repeated on the same version: the repository
+     * itself, whose every call reads a consistent state, unless a snapshot comes for free.
+     */
+    default WidgetView currentView() {
+        return this;
+    }
 }
@@ -0,0 +1,29 @@
+package com.mustafadagher.widgets.repository;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetCursor;
+
+import java.util.List;
+
+/***
+ * An immutable version of the widgets of a {@link WidgetRepository}, see {@link WidgetRepository#snapshot()}.
+ *
+ * Every page read from a snapshot reflects the same state, whatever changes are made to the repository after it was
+ * taken, so a client can page through the widgets without seeing one twice or missing one that moved.
+ */
+public interface WidgetSnapshot extends WidgetView {
+    /***
+     * Returns up to the given number of widgets following the cursor, without going through the widgets before it.
+     */
+    List<Widget> findAllAfterOrderByZAsc(WidgetCursor after, int size);
+
+    List<Widget> findAllWithinAreaAfterOrderByZAsc(WidgetCursor after, int size, WidgetAreaFilter area);
+
+    /***
+     * The number of widgets the snapshot holds a copy of, none if it shares them with the repository.
+     */
+    default int getCopiedWidgetCount() {
+        return 0;
+    }
+}
@@ -0,0 +1,31 @@
+package com.mustafadagher.widgets.repository;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/***
+ * The listings of widgets sorted by z, served either from the latest state of a {@link WidgetRepository} or from a
+ * {@link WidgetSnapshot} of an earlier one.
+ */
+public interface WidgetView {
+    /***
+     * The version of the widgets the view reads. Versions increase with every change, and the latest state of a
+     * repository may already reflect changes made after its version was read.
+     */
+    long getVersion();
+
+    List<Widget> findAllByOrderByZAsc(int page, int size);
+
+    List<Widget> findAllWithinAreaOrderByZAsc(int page, int size, WidgetAreaFilter area);
+
+    /***
+     * Passes every widget to the consumer in z order, building them one at a time, so all the widgets can be written
+     * out without holding a list of them.
+     */
+    void forEachOrderByZAsc(Consumer<Widget> consumer);
+
+    void forEachWithinAreaOrderByZAsc(WidgetAreaFilter area, Consumer<Widget> consumer);
+}
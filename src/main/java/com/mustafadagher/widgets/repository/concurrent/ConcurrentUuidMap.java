@@ -0,0 +1,205 @@
+package com.mustafadagher.widgets.repository.concurrent;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/***
+ * A concurrent hash map keyed by the two halves of a {@link java.util.UUID}, or by any other pair of longs, such as the
+ * column and row of a cell of the density grid. The pair is mixed into the hash, so keys that differ in a few low
+ * bits, as neighbouring cells do, are spread as evenly as random ones.
+ *
+ * The keys are spread over a fixed number of segments, each an open addressing table with linear probing that keeps
+ * the keys in primitive arrays, so the map holds no key or node object per entry and a lookup creates none. Changes
+ * lock their segment only, and a segment that fills up is rehashed into a new table under that lock while the other
+ * segments carry on.
+ *
+ * Lookups take no lock. A bucket's key is written before its value is published, and is never changed afterwards:
+ * a removed entry leaves a tombstone with its key in place, and tombstones are only dropped when the segment is
+ * rehashed into a new table, which is then published as a whole. A lookup therefore sees either the value before or
+ * after a concurrent change, never a mix of two entries.
+ *
+ * @param <V> the value stored with each key
+ */
+public final class ConcurrentUuidMap<V> {
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final double MAX_LOAD = 0.5;
+    private static final Object TOMBSTONE = new Object();
+
+    private final Segment[] segments;
+
+    public ConcurrentUuidMap() {
+        segments = new Segment[1 << SEGMENT_BITS];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment(INITIAL_SEGMENT_CAPACITY);
+    }
+
+    /***
+     * Returns the value of the key, or null if it isn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long mostSignificantBits, long leastSignificantBits) {
+        long hash = hash(mostSignificantBits, leastSignificantBits);
+        Table table = segmentOf(hash).table;
+        for (int bucket = (int) hash & table.mask; ; bucket = (bucket + 1) & table.mask) {
+            Object value = table.values.get(bucket);
+            if (value == null)
+                return null;
+            if (table.mostSignificantBits[bucket] == mostSignificantBits && table.leastSignificantBits[bucket] == leastSignificantBits)
+                return value == TOMBSTONE ? null : (V) value;
+        }
+    }
+
+    /***
+     * Maps the key to the value and returns the previous value, or null if the key wasn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long mostSignificantBits, long leastSignificantBits, V value) {
+        if (value == null)
+            throw new NullPointerException("value");
+
+        long hash = hash(mostSignificantBits, leastSignificantBits);
+        return (V) segmentOf(hash).put(hash, mostSignificantBits, leastSignificantBits, value);
+    }
+
+    /***
+     * Removes the key and returns its value, or null if it wasn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long mostSignificantBits, long leastSignificantBits) {
+        long hash = hash(mostSignificantBits, leastSignificantBits);
+        return (V) segmentOf(hash).remove(hash, mostSignificantBits, leastSignificantBits);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size;
+        return size;
+    }
+
+    /***
+     * Passes every value to the action. Like the iterators of {@link java.util.concurrent.ConcurrentHashMap}, it is
+     * weakly consistent: changes made while it runs may or may not be seen.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> action) {
+        for (Segment segment : segments) {
+            Table table = segment.table;
+            for (int bucket = 0; bucket <= table.mask; bucket++) {
+                Object value = table.values.get(bucket);
+                if (value != null && value != TOMBSTONE)
+                    action.accept((V) value);
+            }
+        }
+    }
+
+    private Segment segmentOf(long hash) {
+        // The top bits pick the segment and the bottom ones the bucket, so that both are spread evenly
+        return segments[(int) (hash >>> (Long.SIZE - SEGMENT_BITS))];
+    }
+
+    private static long hash(long mostSignificantBits, long leastSignificantBits) {
+        long hash = mostSignificantBits * 0x9E3779B97F4A7C15L + leastSignificantBits;
+        hash = (hash ^ (hash >>> 32)) * 0xD6E8FEB86659FD93L;
+        return hash ^ (hash >>> 32);
+    }
+
+    private static final class Segment {
+        private volatile Table table;
+        private volatile int size;
+        // The buckets taken by entries or tombstones
+        private int used;
+
+        Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        synchronized Object put(long hash, long mostSignificantBits, long leastSignificantBits, Object value) {
+            Table current = table;
+            int bucket = find(current, hash, mostSignificantBits, leastSignificantBits);
+            Object previous = current.values.get(bucket);
+            if (previous == null) {
+                if (used + 1 > current.capacity() * MAX_LOAD) {
+                    current = rehash(current);
+                    bucket = find(current, hash, mostSignificantBits, leastSignificantBits);
+                }
+                current.mostSignificantBits[bucket] = mostSignificantBits;
+                current.leastSignificantBits[bucket] = leastSignificantBits;
+                used++;
+            }
+            // Publishes the key written above along with the value
+            current.values.set(bucket, value);
+            if (previous == null || previous == TOMBSTONE) {
+                size++;
+                return null;
+            }
+            return previous;
+        }
+
+        synchronized Object remove(long hash, long mostSignificantBits, long leastSignificantBits) {
+            Table current = table;
+            int bucket = find(current, hash, mostSignificantBits, leastSignificantBits);
+            Object previous = current.values.get(bucket);
+            if (previous == null || previous == TOMBSTONE)
+                return null;
+
+            current.values.set(bucket, TOMBSTONE);
+            size--;
+            return previous;
+        }
+
+        /***
+         * Copies the entries into a new table without the tombstones, doubling its capacity if the entries alone
+         * would fill half of it, and publishes it.
+         */
+        private Table rehash(Table current) {
+            int capacity = current.capacity();
+            Table rehashed = new Table(size + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity);
+            for (int i = 0; i < capacity; i++) {
+                Object value = current.values.get(i);
+                if (value == null || value == TOMBSTONE)
+                    continue;
+
+                long mostSignificantBits = current.mostSignificantBits[i];
+                long leastSignificantBits = current.leastSignificantBits[i];
+                int bucket = find(rehashed, hash(mostSignificantBits, leastSignificantBits), mostSignificantBits, leastSignificantBits);
+                rehashed.mostSignificantBits[bucket] = mostSignificantBits;
+                rehashed.leastSignificantBits[bucket] = leastSignificantBits;
+                rehashed.values.lazySet(bucket, value);
+            }
+            used = size;
+            table = rehashed;
+            return rehashed;
+        }
+
+        /***
+         * Returns the bucket holding the key, live or removed, or the empty bucket where it would go.
+         */
+        private static int find(Table table, long hash, long mostSignificantBits, long leastSignificantBits) {
+            int bucket = (int) hash & table.mask;
+            while (table.values.get(bucket) != null
+                    && (table.mostSignificantBits[bucket] != mostSignificantBits || table.leastSignificantBits[bucket] != leastSignificantBits))
+                bucket = (bucket + 1) & table.mask;
+            return bucket;
+        }
+    }
+
+    private static final class Table {
+        private final long[] mostSignificantBits;
+        private final long[] leastSignificantBits;
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+
+        Table(int capacity) {
+            this.mostSignificantBits = new long[capacity];
+            this.leastSignificantBits = new long[capacity];
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.mustafadagher.widgets.repository.offheap;
+
+/***
+ * Maps widget ids to slots of the {@link WidgetColumns}.
+ *
+ * The ids are kept as their two halves in primitive arrays, with open addressing and linear probing, so the index
+ * holds no object per entry and a lookup creates none. Removing an entry shifts the entries probed after it back
+ * into the hole instead of leaving a tombstone, so lookups never slow down after many deletes.
+ *
+ * Not thread safe, the caller guards it.
+ */
+public final class SlotIndex {
+    public static final int NO_SLOT = -1;
+
+    private static final int INITIAL_CAPACITY = 1_024;
+    private static final double MAX_LOAD = 0.7;
+
+    private long[] mostSignificantBits;
+    private long[] leastSignificantBits;
+    // The slot plus one, so that zero marks an empty bucket
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    public SlotIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /***
+     * Returns the slot of the id, or {@link #NO_SLOT} if it isn't in the index.
+     */
+    public int get(long idMostSignificantBits, long idLeastSignificantBits) {
+        int bucket = find(idMostSignificantBits, idLeastSignificantBits);
+        return slots[bucket] - 1;
+    }
+
+    public void put(long idMostSignificantBits, long idLeastSignificantBits, int slot) {
+        int bucket = find(idMostSignificantBits, idLeastSignificantBits);
+        if (slots[bucket] == 0) {
+            if (size + 1 > slots.length * MAX_LOAD) {
+                grow();
+                bucket = find(idMostSignificantBits, idLeastSignificantBits);
+            }
+            mostSignificantBits[bucket] = idMostSignificantBits;
+            leastSignificantBits[bucket] = idLeastSignificantBits;
+            size++;
+        }
+        slots[bucket] = slot + 1;
+    }
+
+    /***
+     * Removes the id and returns its slot, or {@link #NO_SLOT} if it wasn't in the index.
+     */
+    public int remove(long idMostSignificantBits, long idLeastSignificantBits) {
+        int hole = find(idMostSignificantBits, idLeastSignificantBits);
+        int removed = slots[hole] - 1;
+        if (removed == NO_SLOT)
+            return NO_SLOT;
+
+        size--;
+        for (int bucket = (hole + 1) & mask; slots[bucket] != 0; bucket = (bucket + 1) & mask) {
+            int home = bucketOf(mostSignificantBits[bucket], leastSignificantBits[bucket]);
+            // The entry can fill the hole unless its home lies cyclically after the hole, up to the entry itself
+            boolean homeAfterHole = hole <= bucket
+                    ? hole < home && home <= bucket
+                    : hole < home || home <= bucket;
+            if (homeAfterHole)
+                continue;
+
+            mostSignificantBits[hole] = mostSignificantBits[bucket];
+            leastSignificantBits[hole] = leastSignificantBits[bucket];
+            slots[hole] = slots[bucket];
+            hole = bucket;
+        }
+        slots[hole] = 0;
+        return removed;
+    }
+
+    /***
+     * Returns the bucket holding the id, or the empty bucket where it would go.
+     */
+    private int find(long idMostSignificantBits, long idLeastSignificantBits) {
+        int bucket = bucketOf(idMostSignificantBits, idLeastSignificantBits);
+        while (slots[bucket] != 0
+                && (mostSignificantBits[bucket] != idMostSignificantBits || leastSignificantBits[bucket] != idLeastSignificantBits))
+            bucket = (bucket + 1) & mask;
+        return bucket;
+    }
+
+    private int bucketOf(long idMostSignificantBits, long idLeastSignificantBits) {
+        long hash = idMostSignificantBits * 0x9E3779B97F4A7C15L + idLeastSignificantBits;
+        hash = (hash ^ (hash >>> 32)) * 0xD6E8FEB86659FD93L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldMostSignificantBits = mostSignificantBits;
+        long[] oldLeastSignificantBits = leastSignificantBits;
+        int[] oldSlots = slots;
+        allocate(oldSlots.length * 2);
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0)
+                continue;
+
+            int bucket = find(oldMostSignificantBits[i], oldLeastSignificantBits[i]);
+            mostSignificantBits[bucket] = oldMostSignificantBits[i];
+            leastSignificantBits[bucket] = oldLeastSignificantBits[i];
+            slots[bucket] = oldSlots[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSignificantBits = new long[capacity];
+        leastSignificantBits = new long[capacity];
+        slots = new int[capacity];
+        mask = capacity - 1;
+    }
+}
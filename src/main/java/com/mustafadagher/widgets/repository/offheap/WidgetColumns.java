@@ -0,0 +1,327 @@
+package com.mustafadagher.widgets.repository.offheap;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRecord;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/***
+ * The attributes of the widgets, stored column by column in direct buffers outside the Java heap.
+ *
+ * A widget takes a slot, which is the same index in every column. Scans read the columns they need as primitives,
+ * and a {@link Widget} is only built for the slots that are returned. The slots of deleted widgets are kept in a free
+ * list and handed out again before the columns grow, and growing doubles the capacity of every column.
+ *
+ * The integer bounding box of every widget is stored too, computed when the widget is written, so that filtering by
+ * area compares four longs per slot rather than rounding its edges on every scan.
+ *
+ * Not thread safe, the caller guards it.
+ */
+public final class WidgetColumns {
+    static final int INITIAL_CAPACITY = 1_024;
+
+    private static final int LONG_BYTES = 8;
+    private static final int FLOAT_BYTES = 4;
+
+    private ByteBuffer idMostSignificantBits;
+    private ByteBuffer idLeastSignificantBits;
+    private ByteBuffer x;
+    private ByteBuffer y;
+    private ByteBuffer z;
+    private ByteBuffer width;
+    private ByteBuffer height;
+    private ByteBuffer lastModifiedAt;
+    private ByteBuffer left;
+    private ByteBuffer low;
+    private ByteBuffer right;
+    private ByteBuffer high;
+    private ByteBuffer live;
+    private int capacity;
+    private int slotCount;
+    private int[] freeSlots;
+    private int freeCount;
+
+    public WidgetColumns() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public WidgetColumns(int capacity) {
+        this.idMostSignificantBits = column(capacity, LONG_BYTES, null);
+        this.idLeastSignificantBits = column(capacity, LONG_BYTES, null);
+        this.x = column(capacity, LONG_BYTES, null);
+        this.y = column(capacity, LONG_BYTES, null);
+        this.z = column(capacity, LONG_BYTES, null);
+        this.width = column(capacity, FLOAT_BYTES, null);
+        this.height = column(capacity, FLOAT_BYTES, null);
+        this.lastModifiedAt = column(capacity, LONG_BYTES, null);
+        this.left = column(capacity, LONG_BYTES, null);
+        this.low = column(capacity, LONG_BYTES, null);
+        this.right = column(capacity, LONG_BYTES, null);
+        this.high = column(capacity, LONG_BYTES, null);
+        this.live = column(capacity, 1, null);
+        this.capacity = capacity;
+        this.freeSlots = new int[16];
+    }
+
+    /***
+     * The number of slots handed out so far, live or freed. Scans go over the slots below it and skip the freed ones.
+     */
+    public int slotCount() {
+        return slotCount;
+    }
+
+    public int size() {
+        return slotCount - freeCount;
+    }
+
+    /***
+     * Returns a slot for a new widget, reusing a freed one if there is any.
+     */
+    public int allocate() {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == capacity)
+                grow();
+            slot = slotCount++;
+        }
+        live.put(slot, (byte) 1);
+        return slot;
+    }
+
+    public void free(int slot) {
+        live.put(slot, (byte) 0);
+        if (freeCount == freeSlots.length) {
+            int[] grown = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, grown, 0, freeCount);
+            freeSlots = grown;
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    public boolean isLive(int slot) {
+        return live.get(slot) != 0;
+    }
+
+    public void write(int slot, Widget widget, long modifiedAt) {
+        idMostSignificantBits.putLong(slot * LONG_BYTES, widget.getId().getMostSignificantBits());
+        idLeastSignificantBits.putLong(slot * LONG_BYTES, widget.getId().getLeastSignificantBits());
+        x.putLong(slot * LONG_BYTES, widget.getX());
+        y.putLong(slot * LONG_BYTES, widget.getY());
+        z.putLong(slot * LONG_BYTES, widget.getZ());
+        width.putFloat(slot * FLOAT_BYTES, widget.getWidth());
+        height.putFloat(slot * FLOAT_BYTES, widget.getHeight());
+        lastModifiedAt.putLong(slot * LONG_BYTES, modifiedAt);
+        left.putLong(slot * LONG_BYTES, BoundingBox.lowerEdge(widget.getX(), widget.getWidth()));
+        low.putLong(slot * LONG_BYTES, BoundingBox.lowerEdge(widget.getY(), widget.getHeight()));
+        right.putLong(slot * LONG_BYTES, BoundingBox.upperEdge(widget.getX(), widget.getWidth()));
+        high.putLong(slot * LONG_BYTES, BoundingBox.upperEdge(widget.getY(), widget.getHeight()));
+    }
+
+    public void setZ(int slot, long value) {
+        z.putLong(slot * LONG_BYTES, value);
+    }
+
+    public void setLastModifiedAt(int slot, long value) {
+        lastModifiedAt.putLong(slot * LONG_BYTES, value);
+    }
+
+    public long getIdMostSignificantBits(int slot) {
+        return idMostSignificantBits.getLong(slot * LONG_BYTES);
+    }
+
+    public long getIdLeastSignificantBits(int slot) {
+        return idLeastSignificantBits.getLong(slot * LONG_BYTES);
+    }
+
+    public long getX(int slot) {
+        return x.getLong(slot * LONG_BYTES);
+    }
+
+    public long getY(int slot) {
+        return y.getLong(slot * LONG_BYTES);
+    }
+
+    public long getZ(int slot) {
+        return z.getLong(slot * LONG_BYTES);
+    }
+
+    public float getWidth(int slot) {
+        return width.getFloat(slot * FLOAT_BYTES);
+    }
+
+    public float getHeight(int slot) {
+        return height.getFloat(slot * FLOAT_BYTES);
+    }
+
+    public long getLastModifiedAt(int slot) {
+        return lastModifiedAt.getLong(slot * LONG_BYTES);
+    }
+
+    public boolean isInside(int slot, BoundingBox area) {
+        return left.getLong(slot * LONG_BYTES) >= area.getLeft()
+                && right.getLong(slot * LONG_BYTES) <= area.getRight()
+                && low.getLong(slot * LONG_BYTES) >= area.getLow()
+                && high.getLong(slot * LONG_BYTES) <= area.getHigh();
+    }
+
+    public boolean intersects(int slot, BoundingBox area) {
+        return left.getLong(slot * LONG_BYTES) <= area.getRight()
+                && area.getLeft() <= right.getLong(slot * LONG_BYTES)
+                && low.getLong(slot * LONG_BYTES) <= area.getHigh()
+                && area.getLow() <= high.getLong(slot * LONG_BYTES);
+    }
+
+    public boolean covers(int slot, BoundingBox area) {
+        return left.getLong(slot * LONG_BYTES) <= area.getLeft()
+                && right.getLong(slot * LONG_BYTES) >= area.getRight()
+                && low.getLong(slot * LONG_BYTES) <= area.getLow()
+                && high.getLong(slot * LONG_BYTES) >= area.getHigh();
+    }
+
+    public boolean overlaps(int slot, BoundingBox area) {
+        return left.getLong(slot * LONG_BYTES) < area.getRight()
+                && area.getLeft() < right.getLong(slot * LONG_BYTES)
+                && low.getLong(slot * LONG_BYTES) < area.getHigh()
+                && area.getLow() < high.getLong(slot * LONG_BYTES);
+    }
+
+    public double distanceTo(int slot, BoundingBox area) {
+        return BoundingBox.distance(left.getLong(slot * LONG_BYTES), low.getLong(slot * LONG_BYTES),
+                right.getLong(slot * LONG_BYTES), high.getLong(slot * LONG_BYTES), area);
+    }
+
+    public boolean contains(int slot, long x, long y) {
+        return left.getLong(slot * LONG_BYTES) <= x
+                && x <= right.getLong(slot * LONG_BYTES)
+                && low.getLong(slot * LONG_BYTES) <= y
+                && y <= high.getLong(slot * LONG_BYTES);
+    }
+
+    public Widget toWidget(int slot) {
+        return toRecord(slot).toWidget();
+    }
+
+    public WidgetRecord toRecord(int slot) {
+        return new WidgetRecord(getIdMostSignificantBits(slot), getIdLeastSignificantBits(slot),
+                getX(slot), getY(slot), getZ(slot), getWidth(slot), getHeight(slot), getLastModifiedAt(slot));
+    }
+
+    /***
+     * Orders the slots by the distance of their bounding box to the area, and from the highest z down at the same
+     * distance.
+     */
+    public int compareByDistance(int a, int b, BoundingBox area) {
+        int byDistance = Double.compare(distanceTo(a, area), distanceTo(b, area));
+        return byDistance != 0 ? byDistance : compareByZ(b, a);
+    }
+
+    /***
+     * Compares two slots by (z, id), the order the widgets are listed in.
+     */
+    public int compareByZ(int a, int b) {
+        int byZ = Long.compare(getZ(a), getZ(b));
+        if (byZ != 0)
+            return byZ;
+
+        int byMostSignificantBits = Long.compare(getIdMostSignificantBits(a), getIdMostSignificantBits(b));
+        return byMostSignificantBits != 0
+                ? byMostSignificantBits
+                : Long.compare(getIdLeastSignificantBits(a), getIdLeastSignificantBits(b));
+    }
+
+    /***
+     * Sorts the first slots of the array by (z, id), without boxing them.
+     */
+    public void sortByZ(int[] slots, int count) {
+        sortByZ(slots, 0, count - 1);
+    }
+
+    private void sortByZ(int[] slots, int from, int to) {
+        while (to - from > 16) {
+            int pivot = medianOfThree(slots[from], slots[(from + to) >>> 1], slots[to]);
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (compareByZ(slots[i], pivot) < 0)
+                    i++;
+                while (compareByZ(slots[j], pivot) > 0)
+                    j--;
+                if (i <= j)
+                    swap(slots, i++, j--);
+            }
+            // Recurse into the smaller part and loop on the larger one, so the stack stays O(log n) deep
+            if (j - from < to - i) {
+                sortByZ(slots, from, j);
+                from = i;
+            } else {
+                sortByZ(slots, i, to);
+                to = j;
+            }
+        }
+
+        for (int i = from + 1; i <= to; i++) {
+            int slot = slots[i];
+            int j = i - 1;
+            while (j >= from && compareByZ(slots[j], slot) > 0) {
+                slots[j + 1] = slots[j];
+                j--;
+            }
+            slots[j + 1] = slot;
+        }
+    }
+
+    private int medianOfThree(int a, int b, int c) {
+        if (compareByZ(a, b) > 0) {
+            int swapped = a;
+            a = b;
+            b = swapped;
+        }
+        if (compareByZ(b, c) <= 0)
+            return b;
+        return compareByZ(a, c) > 0 ? a : c;
+    }
+
+    private static void swap(int[] slots, int i, int j) {
+        int swapped = slots[i];
+        slots[i] = slots[j];
+        slots[j] = swapped;
+    }
+
+    private void grow() {
+        int grown = capacity * 2;
+        idMostSignificantBits = column(grown, LONG_BYTES, idMostSignificantBits);
+        idLeastSignificantBits = column(grown, LONG_BYTES, idLeastSignificantBits);
+        x = column(grown, LONG_BYTES, x);
+        y = column(grown, LONG_BYTES, y);
+        z = column(grown, LONG_BYTES, z);
+        width = column(grown, FLOAT_BYTES, width);
+        height = column(grown, FLOAT_BYTES, height);
+        lastModifiedAt = column(grown, LONG_BYTES, lastModifiedAt);
+        left = column(grown, LONG_BYTES, left);
+        low = column(grown, LONG_BYTES, low);
+        right = column(grown, LONG_BYTES, right);
+        high = column(grown, LONG_BYTES, high);
+        live = column(grown, 1, live);
+        capacity = grown;
+    }
+
+    /***
+     * Allocates a direct buffer for the given number of values, copying the values of the previous buffer if any.
+     * The previous buffer is released once it is garbage collected.
+     */
+    private static ByteBuffer column(int capacity, int valueBytes, ByteBuffer previous) {
+        ByteBuffer column = ByteBuffer.allocateDirect(Math.multiplyExact(capacity, valueBytes)).order(ByteOrder.nativeOrder());
+        if (previous != null) {
+            // Relative bulk copy from a view, the columns themselves are only read and written at absolute indexes
+            ByteBuffer values = previous.duplicate();
+            ((Buffer) values).clear();
+            column.put(values);
+        }
+        return column;
+    }
+}
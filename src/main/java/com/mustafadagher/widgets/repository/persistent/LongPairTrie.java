@@ -0,0 +1,262 @@
+package com.mustafadagher.widgets.repository.persistent;
+
+import java.util.Arrays;
+
+/***
+ * An immutable hash trie keyed by a pair of longs, such as the (x, y) coordinates of a grid cell or the two halves
+ * of a {@link java.util.UUID}.
+ *
+ * Every change copies only the path from the root to the changed key, so a new version of the map costs a handful
+ * of small array copies and shares everything else with the previous one.
+ *
+ * @param <V> the value stored with each key
+ */
+public final class LongPairTrie<V> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final LongPairTrie<?> EMPTY = new LongPairTrie<>(null, 0);
+
+    private final Object root;
+    private final int size;
+
+    private LongPairTrie(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> LongPairTrie<V> empty() {
+        return (LongPairTrie<V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long x, long y) {
+        long hash = hash(x, y);
+        Object node = root;
+        for (int shift = 0; node instanceof Branch; shift += BITS)
+            node = ((Branch) node).children[index(hash, shift)];
+
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return leaf.x == x && leaf.y == y ? (V) leaf.value : null;
+        }
+        if (node instanceof Collision)
+            return (V) ((Collision) node).get(x, y);
+        return null;
+    }
+
+    public LongPairTrie<V> put(long x, long y, V value) {
+        boolean[] added = new boolean[1];
+        Object newRoot = put(root, hash(x, y), 0, x, y, value, added);
+        return new LongPairTrie<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public LongPairTrie<V> remove(long x, long y) {
+        Object newRoot = remove(root, hash(x, y), 0, x, y);
+        return newRoot == root ? this : new LongPairTrie<>(newRoot, size - 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(PairConsumer<? super V> consumer) {
+        forEach(root, consumer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void forEach(Object node, PairConsumer<? super V> consumer) {
+        if (node instanceof Branch) {
+            for (Object child : ((Branch) node).children)
+                forEach(child, consumer);
+        } else if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            consumer.accept(leaf.x, leaf.y, (V) leaf.value);
+        } else if (node instanceof Collision) {
+            Collision collision = (Collision) node;
+            for (int i = 0; i < collision.xs.length; i++)
+                consumer.accept(collision.xs[i], collision.ys[i], (V) collision.values[i]);
+        }
+    }
+
+    private static Object put(Object node, long hash, int shift, long x, long y, Object value, boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return new Leaf(hash, x, y, value);
+        }
+
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int index = index(hash, shift);
+            return branch.with(index, put(branch.children[index], hash, shift + BITS, x, y, value, added));
+        }
+
+        if (node instanceof Collision)
+            return ((Collision) node).put(x, y, value, added);
+
+        Leaf leaf = (Leaf) node;
+        if (leaf.x == x && leaf.y == y)
+            return new Leaf(hash, x, y, value);
+
+        added[0] = true;
+        if (shift >= Long.SIZE)
+            return new Collision(new long[]{leaf.x, x}, new long[]{leaf.y, y}, new Object[]{leaf.value, value});
+
+        Branch branch = new Branch(new Object[WIDTH]);
+        branch.children[index(leaf.hash, shift)] = leaf;
+        int index = index(hash, shift);
+        branch.children[index] = put(branch.children[index], hash, shift + BITS, x, y, value, added);
+        return branch;
+    }
+
+    private static Object remove(Object node, long hash, int shift, long x, long y) {
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int index = index(hash, shift);
+            Object child = branch.children[index];
+            Object newChild = remove(child, hash, shift + BITS, x, y);
+            if (newChild == child)
+                return node;
+            return branch.with(index, newChild).collapsed();
+        }
+
+        if (node instanceof Collision)
+            return ((Collision) node).remove(x, y);
+
+        if (node instanceof Leaf && ((Leaf) node).x == x && ((Leaf) node).y == y)
+            return null;
+
+        return node;
+    }
+
+    private static int index(long hash, int shift) {
+        return (int) (hash >>> shift) & MASK;
+    }
+
+    private static long hash(long x, long y) {
+        long hash = x * 0x9E3779B97F4A7C15L + y;
+        hash ^= hash >>> 32;
+        hash *= 0xD6E8FEB86659FD93L;
+        return hash ^ (hash >>> 32);
+    }
+
+    @FunctionalInterface
+    public interface PairConsumer<V> {
+        void accept(long x, long y, V value);
+    }
+
+    private static final class Branch {
+        private final Object[] children;
+
+        private Branch(Object[] children) {
+            this.children = children;
+        }
+
+        Branch with(int index, Object child) {
+            Object[] copy = children.clone();
+            copy[index] = child;
+            return new Branch(copy);
+        }
+
+        /***
+         * Returns null if the branch is left without children, or its only child if that is a leaf.
+         */
+        Object collapsed() {
+            Object only = null;
+            for (Object child : children) {
+                if (child == null)
+                    continue;
+                if (only != null || !(child instanceof Leaf))
+                    return this;
+                only = child;
+            }
+            return only;
+        }
+    }
+
+    private static final class Leaf {
+        private final long hash;
+        private final long x;
+        private final long y;
+        private final Object value;
+
+        private Leaf(long hash, long x, long y, Object value) {
+            this.hash = hash;
+            this.x = x;
+            this.y = y;
+            this.value = value;
+        }
+    }
+
+    /***
+     * The keys whose 64 bit hashes are all the same.
+     */
+    private static final class Collision {
+        private final long[] xs;
+        private final long[] ys;
+        private final Object[] values;
+
+        private Collision(long[] xs, long[] ys, Object[] values) {
+            this.xs = xs;
+            this.ys = ys;
+            this.values = values;
+        }
+
+        Object get(long x, long y) {
+            int i = indexOf(x, y);
+            return i < 0 ? null : values[i];
+        }
+
+        Collision put(long x, long y, Object value, boolean[] added) {
+            int i = indexOf(x, y);
+            if (i >= 0) {
+                Object[] newValues = values.clone();
+                newValues[i] = value;
+                return new Collision(xs, ys, newValues);
+            }
+
+            added[0] = true;
+            int n = xs.length;
+            long[] newXs = Arrays.copyOf(xs, n + 1);
+            long[] newYs = Arrays.copyOf(ys, n + 1);
+            Object[] newValues = Arrays.copyOf(values, n + 1);
+            newXs[n] = x;
+            newYs[n] = y;
+            newValues[n] = value;
+            return new Collision(newXs, newYs, newValues);
+        }
+
+        Object remove(long x, long y) {
+            int i = indexOf(x, y);
+            if (i < 0)
+                return this;
+
+            int n = xs.length;
+            if (n == 2) {
+                int other = 1 - i;
+                return new Leaf(hash(xs[other], ys[other]), xs[other], ys[other], values[other]);
+            }
+
+            long[] newXs = new long[n - 1];
+            long[] newYs = new long[n - 1];
+            Object[] newValues = new Object[n - 1];
+            for (int from = 0, to = 0; from < n; from++) {
+                if (from == i)
+                    continue;
+                newXs[to] = xs[from];
+                newYs[to] = ys[from];
+                newValues[to++] = values[from];
+            }
+            return new Collision(newXs, newYs, newValues);
+        }
+
+        private int indexOf(long x, long y) {
+            for (int i = 0; i < xs.length; i++)
+                if (xs[i] == x && ys[i] == y)
+                    return i;
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+/***
+ * An entry of the queue of a best-first search for the nearest boxes, either a part of an index not opened yet or a
+ * value, at the distance of its box to the target.
+ *
+ * The queue hands out the nearest entry first. As the box of a part of an index holds the boxes below it, no value
+ * below it can be nearer than the part itself, so a value at the head of the queue is nearer than any value still to
+ * be found.
+ */
+final class Candidate implements Comparable<Candidate> {
+    private final Object item;
+    private final boolean value;
+    private final double distance;
+
+    private Candidate(Object item, boolean value, double distance) {
+        this.item = item;
+        this.value = value;
+        this.distance = distance;
+    }
+
+    static Candidate ofValue(Object value, double distance) {
+        return new Candidate(value, true, distance);
+    }
+
+    static Candidate ofPart(Object part, double distance) {
+        return new Candidate(part, false, distance);
+    }
+
+    Object getItem() {
+        return item;
+    }
+
+    boolean isValue() {
+        return value;
+    }
+
+    double getDistance() {
+        return distance;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+        return Double.compare(distance, other.distance);
+    }
+}
@@ -0,0 +1,321 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/***
+ * A point-region quadtree over the centers of the boxes.
+ *
+ * Space is only split where boxes are, so the depth of the tree follows how clustered the widgets are rather than
+ * how far apart they are, which suits sparse canvases with huge coordinate spreads. As boxes aren't points, every
+ * node also keeps the bounding rectangle of the boxes below it, and queries prune on that rectangle instead of on
+ * the region of the node.
+ *
+ * Like the other indexes the tree is immutable, every change copies the path from the root to the changed leaf.
+ *
+ * @param <T> the value stored with each box
+ */
+public final class QuadTree<T> implements SpatialIndex<T> {
+    static final int LEAF_CAPACITY = 8;
+
+    private static final QuadTree<?> EMPTY = new QuadTree<>(null);
+
+    private final Node root;
+
+    private QuadTree(Node root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> QuadTree<T> empty() {
+        return (QuadTree<T>) EMPTY;
+    }
+
+    @Override
+    public QuadTree<T> insert(BoundingBox box, T value) {
+        return new QuadTree<>(insert(root, Region.WHOLE_PLANE, box, value));
+    }
+
+    @Override
+    public QuadTree<T> remove(BoundingBox box, T value) {
+        Node newRoot = remove(root, Region.WHOLE_PLANE, box, value);
+        return newRoot == root ? this : new QuadTree<>(newRoot);
+    }
+
+    @Override
+    public QuadTree<T> rebuild(Collection<Entry<T>> entries) {
+        Node newRoot = null;
+        for (Entry<T> entry : entries)
+            newRoot = insert(newRoot, Region.WHOLE_PLANE, entry.getBox(), entry.getValue());
+        return new QuadTree<>(newRoot);
+    }
+
+    @Override
+    public void searchWithin(BoundingBox area, Consumer<? super T> consumer) {
+        if (root != null)
+            searchWithin(root, area, consumer);
+    }
+
+    @Override
+    public void searchIntersecting(BoundingBox area, Consumer<? super T> consumer) {
+        if (root != null)
+            searchIntersecting(root, area, consumer);
+    }
+
+    /***
+     * Opens the nodes from the nearest to the target on, by the bounding rectangle of their boxes.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void searchNearest(BoundingBox target, NearestVisitor<? super T> visitor) {
+        if (root == null)
+            return;
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(Candidate.ofPart(root, root.mbr.distanceTo(target)));
+        while (!queue.isEmpty()) {
+            Candidate nearest = queue.poll();
+            if (nearest.isValue()) {
+                if (!visitor.visit((T) nearest.getItem(), nearest.getDistance()))
+                    return;
+                continue;
+            }
+
+            Node node = (Node) nearest.getItem();
+            if (node.isLeaf()) {
+                for (int i = 0; i < node.boxes.length; i++)
+                    queue.add(Candidate.ofValue(node.values[i], node.boxes[i].distanceTo(target)));
+                continue;
+            }
+            for (Node child : node.children)
+                if (child != null)
+                    queue.add(Candidate.ofPart(child, child.mbr.distanceTo(target)));
+        }
+    }
+
+    @Override
+    public int size() {
+        return root == null ? 0 : root.count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void searchWithin(Node node, BoundingBox area, Consumer<? super T> consumer) {
+        if (!node.mbr.intersects(area))
+            return;
+
+        if (node.mbr.isInside(area)) {
+            forEachValue(node, consumer);
+            return;
+        }
+
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.boxes.length; i++)
+                if (node.boxes[i].isInside(area))
+                    consumer.accept((T) node.values[i]);
+            return;
+        }
+
+        for (Node child : node.children)
+            if (child != null)
+                searchWithin(child, area, consumer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void searchIntersecting(Node node, BoundingBox area, Consumer<? super T> consumer) {
+        if (!node.mbr.intersects(area))
+            return;
+
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.boxes.length; i++)
+                if (node.boxes[i].intersects(area))
+                    consumer.accept((T) node.values[i]);
+            return;
+        }
+
+        for (Node child : node.children)
+            if (child != null)
+                searchIntersecting(child, area, consumer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void forEachValue(Node node, Consumer<? super T> consumer) {
+        if (node.isLeaf()) {
+            for (Object value : node.values)
+                consumer.accept((T) value);
+            return;
+        }
+
+        for (Node child : node.children)
+            if (child != null)
+                forEachValue(child, consumer);
+    }
+
+    private static Node insert(Node node, Region region, BoundingBox box, Object value) {
+        if (node == null)
+            return Node.leaf(new BoundingBox[]{box}, new Object[]{value});
+
+        if (node.isLeaf()) {
+            BoundingBox[] boxes = Arrays.copyOf(node.boxes, node.boxes.length + 1);
+            Object[] values = Arrays.copyOf(node.values, node.values.length + 1);
+            boxes[node.boxes.length] = box;
+            values[node.values.length] = value;
+            if (boxes.length <= LEAF_CAPACITY || region.isPoint())
+                return Node.leaf(boxes, values);
+
+            Node split = new Node(null, null, new Node[4], null, 0);
+            for (int i = 0; i < boxes.length; i++)
+                split = insert(split, region, boxes[i], values[i]);
+            return split;
+        }
+
+        int quadrant = region.quadrantOf(box);
+        Node[] children = node.children.clone();
+        children[quadrant] = insert(children[quadrant], region.quadrant(quadrant), box, value);
+        BoundingBox mbr = node.mbr == null ? box : node.mbr.union(box);
+        return new Node(mbr, null, children, null, node.count + 1);
+    }
+
+    private static Node remove(Node node, Region region, BoundingBox box, Object value) {
+        if (node == null)
+            return null;
+
+        if (node.isLeaf()) {
+            for (int i = 0; i < node.boxes.length; i++) {
+                if (!node.boxes[i].equals(box) || !node.values[i].equals(value))
+                    continue;
+                if (node.boxes.length == 1)
+                    return null;
+
+                BoundingBox[] boxes = new BoundingBox[node.boxes.length - 1];
+                Object[] values = new Object[node.values.length - 1];
+                System.arraycopy(node.boxes, 0, boxes, 0, i);
+                System.arraycopy(node.boxes, i + 1, boxes, i, boxes.length - i);
+                System.arraycopy(node.values, 0, values, 0, i);
+                System.arraycopy(node.values, i + 1, values, i, values.length - i);
+                return Node.leaf(boxes, values);
+            }
+            return node;
+        }
+
+        int quadrant = region.quadrantOf(box);
+        Node child = node.children[quadrant];
+        Node newChild = remove(child, region.quadrant(quadrant), box, value);
+        if (newChild == child)
+            return node;
+
+        Node[] children = node.children.clone();
+        children[quadrant] = newChild;
+        if (node.count - 1 <= LEAF_CAPACITY)
+            return collapse(children);
+
+        BoundingBox mbr = null;
+        for (Node remaining : children)
+            if (remaining != null)
+                mbr = mbr == null ? remaining.mbr : mbr.union(remaining.mbr);
+        return new Node(mbr, null, children, null, node.count - 1);
+    }
+
+    private static Node collapse(Node[] children) {
+        List<BoundingBox> boxes = new ArrayList<>(LEAF_CAPACITY);
+        List<Object> values = new ArrayList<>(LEAF_CAPACITY);
+        for (Node child : children)
+            if (child != null)
+                collectEntries(child, boxes, values);
+
+        if (boxes.isEmpty())
+            return null;
+        return Node.leaf(boxes.toArray(new BoundingBox[0]), values.toArray());
+    }
+
+    private static void collectEntries(Node node, List<BoundingBox> boxes, List<Object> values) {
+        if (node.isLeaf()) {
+            boxes.addAll(Arrays.asList(node.boxes));
+            values.addAll(Arrays.asList(node.values));
+            return;
+        }
+
+        for (Node child : node.children)
+            if (child != null)
+                collectEntries(child, boxes, values);
+    }
+
+    private static final class Node {
+        private final BoundingBox mbr;
+        private final BoundingBox[] boxes;
+        private final Node[] children;
+        private final Object[] values;
+        private final int count;
+
+        private Node(BoundingBox mbr, BoundingBox[] boxes, Node[] children, Object[] values, int count) {
+            this.mbr = mbr;
+            this.boxes = boxes;
+            this.children = children;
+            this.values = values;
+            this.count = count;
+        }
+
+        static Node leaf(BoundingBox[] boxes, Object[] values) {
+            BoundingBox mbr = boxes[0];
+            for (int i = 1; i < boxes.length; i++)
+                mbr = mbr.union(boxes[i]);
+            return new Node(mbr, boxes, null, values, boxes.length);
+        }
+
+        boolean isLeaf() {
+            return children == null;
+        }
+    }
+
+    /***
+     * The square of the plane a node covers, bounds included. A box belongs to the quadrant holding its center.
+     */
+    private static final class Region {
+        private static final Region WHOLE_PLANE = new Region(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+        private final long left;
+        private final long low;
+        private final long right;
+        private final long high;
+
+        private Region(long left, long low, long right, long high) {
+            this.left = left;
+            this.low = low;
+            this.right = right;
+            this.high = high;
+        }
+
+        boolean isPoint() {
+            return left == right && low == high;
+        }
+
+        int quadrantOf(BoundingBox box) {
+            int quadrant = center(box.getLeft(), box.getRight()) > middle(left, right) ? 1 : 0;
+            return center(box.getLow(), box.getHigh()) > middle(low, high) ? quadrant | 2 : quadrant;
+        }
+
+        Region quadrant(int quadrant) {
+            long middleX = middle(left, right);
+            long middleY = middle(low, high);
+            return new Region(
+                    (quadrant & 1) == 0 ? left : middleX + 1,
+                    (quadrant & 2) == 0 ? low : middleY + 1,
+                    (quadrant & 1) == 0 ? middleX : right,
+                    (quadrant & 2) == 0 ? middleY : high);
+        }
+
+        private static long middle(long from, long to) {
+            // The difference is read as unsigned, as it overflows a long for the whole plane
+            return from + ((to - from) >>> 1);
+        }
+
+        private static long center(long from, long to) {
+            return (from >> 1) + (to >> 1) + (from & to & 1);
+        }
+    }
+}
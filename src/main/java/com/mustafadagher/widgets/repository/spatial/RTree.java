@@ -0,0 +1,453 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/***
+ * An R-tree over the bounding boxes of widgets, using Guttman's quadratic split.
+ *
+ * The tree is immutable: every change returns a new tree that shares the untouched nodes with the previous one.
+ * A query running against a tree therefore never sees a half-applied split or removal, and the repository can
+ * swap in a new tree with a single reference assignment.
+ *
+ * @param <T> the value stored with each box
+ */
+public final class RTree<T> implements SpatialIndex<T> {
+    static final int MAX_ENTRIES = 16;
+    static final int MIN_ENTRIES = 6;
+
+    private static final RTree<?> EMPTY = new RTree<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private RTree(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> RTree<T> empty() {
+        return (RTree<T>) EMPTY;
+    }
+
+    /***
+     * Builds a tree from scratch with Sort-Tile-Recursive packing, which results in fuller and less overlapping
+     * nodes than inserting the entries one by one.
+     */
+    public static <T> RTree<T> bulkLoad(Collection<Entry<T>> entries) {
+        if (entries.isEmpty())
+            return empty();
+
+        List<BoundingBox> boxes = new ArrayList<>(entries.size());
+        List<Object> items = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries) {
+            boxes.add(entry.getBox());
+            items.add(entry.getValue());
+        }
+
+        List<Node> level = sortTileRecursive(boxes, items, true);
+        while (level.size() > 1) {
+            boxes = new ArrayList<>(level.size());
+            items = new ArrayList<>(level);
+            for (Node node : level)
+                boxes.add(node.mbr);
+            level = sortTileRecursive(boxes, items, false);
+        }
+
+        return new RTree<>(level.get(0), entries.size());
+    }
+
+    @Override
+    public RTree<T> insert(BoundingBox box, T value) {
+        if (root == null)
+            return new RTree<>(Node.of(true, new BoundingBox[]{box}, new Object[]{value}), 1);
+
+        return new RTree<>(insert(root, box, value), size + 1);
+    }
+
+    @Override
+    public RTree<T> remove(BoundingBox box, T value) {
+        if (root == null)
+            return this;
+
+        List<BoundingBox> orphanBoxes = new ArrayList<>();
+        List<Object> orphanItems = new ArrayList<>();
+        Node newRoot = remove(root, box, value, orphanBoxes, orphanItems);
+        if (newRoot == root)
+            return this;
+
+        while (newRoot != null && !newRoot.leaf && newRoot.count() == 1)
+            newRoot = (Node) newRoot.items[0];
+        if (newRoot != null && newRoot.count() == 0)
+            newRoot = null;
+
+        for (int i = 0; i < orphanBoxes.size(); i++) {
+            BoundingBox orphanBox = orphanBoxes.get(i);
+            Object orphan = orphanItems.get(i);
+            newRoot = newRoot == null
+                    ? Node.of(true, new BoundingBox[]{orphanBox}, new Object[]{orphan})
+                    : insert(newRoot, orphanBox, orphan);
+        }
+
+        return new RTree<>(newRoot, size - 1);
+    }
+
+    @Override
+    public RTree<T> rebuild(Collection<Entry<T>> entries) {
+        return bulkLoad(entries);
+    }
+
+    /***
+     * Only the nodes whose bounding rectangle intersects the area are visited.
+     */
+    @Override
+    public void searchWithin(BoundingBox area, Consumer<? super T> consumer) {
+        if (root != null && root.mbr.intersects(area))
+            searchWithin(root, area, consumer);
+    }
+
+    @Override
+    public void searchIntersecting(BoundingBox area, Consumer<? super T> consumer) {
+        if (root != null && root.mbr.intersects(area))
+            searchIntersecting(root, area, consumer);
+    }
+
+    /***
+     * Opens the nodes from the nearest to the target on, so only the nodes nearer than the last value visited are
+     * opened.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void searchNearest(BoundingBox target, NearestVisitor<? super T> visitor) {
+        if (root == null)
+            return;
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(Candidate.ofPart(root, root.mbr.distanceTo(target)));
+        while (!queue.isEmpty()) {
+            Candidate nearest = queue.poll();
+            if (nearest.isValue()) {
+                if (!visitor.visit((T) nearest.getItem(), nearest.getDistance()))
+                    return;
+                continue;
+            }
+
+            Node node = (Node) nearest.getItem();
+            for (int i = 0; i < node.count(); i++) {
+                double distance = node.boxes[i].distanceTo(target);
+                queue.add(node.leaf ? Candidate.ofValue(node.items[i], distance) : Candidate.ofPart(node.items[i], distance));
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    int height() {
+        int height = 0;
+        for (Node node = root; node != null; node = node.leaf ? null : (Node) node.items[0])
+            height++;
+        return height;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void searchWithin(Node node, BoundingBox area, Consumer<? super T> consumer) {
+        if (node.mbr.isInside(area)) {
+            forEachValue(node, consumer);
+            return;
+        }
+
+        for (int i = 0; i < node.count(); i++) {
+            BoundingBox box = node.boxes[i];
+            if (node.leaf) {
+                if (box.isInside(area))
+                    consumer.accept((T) node.items[i]);
+            } else if (box.intersects(area)) {
+                searchWithin((Node) node.items[i], area, consumer);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void searchIntersecting(Node node, BoundingBox area, Consumer<? super T> consumer) {
+        for (int i = 0; i < node.count(); i++) {
+            if (!node.boxes[i].intersects(area))
+                continue;
+            if (node.leaf)
+                consumer.accept((T) node.items[i]);
+            else
+                searchIntersecting((Node) node.items[i], area, consumer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void forEachValue(Node node, Consumer<? super T> consumer) {
+        for (int i = 0; i < node.count(); i++) {
+            if (node.leaf)
+                consumer.accept((T) node.items[i]);
+            else
+                forEachValue((Node) node.items[i], consumer);
+        }
+    }
+
+    private static Node insert(Node root, BoundingBox box, Object value) {
+        Node[] inserted = insertInto(root, box, value);
+        if (inserted.length == 1)
+            return inserted[0];
+
+        return Node.of(false,
+                new BoundingBox[]{inserted[0].mbr, inserted[1].mbr},
+                new Object[]{inserted[0], inserted[1]});
+    }
+
+    /***
+     * Inserts the value in the subtree of the node and returns the replacement of the node, which is split in two
+     * if it overflows.
+     */
+    private static Node[] insertInto(Node node, BoundingBox box, Object value) {
+        if (node.leaf)
+            return splitIfOverflowing(node.leaf, append(node.boxes, box), append(node.items, value));
+
+        int chosen = chooseSubtree(node, box);
+        Node[] replacement = insertInto((Node) node.items[chosen], box, value);
+
+        BoundingBox[] boxes = node.boxes.clone();
+        Object[] items = node.items.clone();
+        boxes[chosen] = replacement[0].mbr;
+        items[chosen] = replacement[0];
+        if (replacement.length == 2) {
+            boxes = append(boxes, replacement[1].mbr);
+            items = append(items, replacement[1]);
+        }
+        return splitIfOverflowing(false, boxes, items);
+    }
+
+    private static int chooseSubtree(Node node, BoundingBox box) {
+        int chosen = 0;
+        double leastEnlargement = Double.MAX_VALUE;
+        double leastArea = Double.MAX_VALUE;
+        for (int i = 0; i < node.count(); i++) {
+            double area = node.boxes[i].area();
+            double enlargement = node.boxes[i].unionArea(box) - area;
+            if (enlargement < leastEnlargement || (enlargement == leastEnlargement && area < leastArea)) {
+                chosen = i;
+                leastEnlargement = enlargement;
+                leastArea = area;
+            }
+        }
+        return chosen;
+    }
+
+    private static Node remove(Node node, BoundingBox box, Object value,
+                               List<BoundingBox> orphanBoxes, List<Object> orphanItems) {
+        for (int i = 0; i < node.count(); i++) {
+            if (node.leaf) {
+                if (node.boxes[i].equals(box) && node.items[i].equals(value))
+                    return Node.of(true, without(node.boxes, i), without(node.items, i));
+                continue;
+            }
+
+            if (!box.isInside(node.boxes[i]))
+                continue;
+
+            Node child = (Node) node.items[i];
+            Node newChild = remove(child, box, value, orphanBoxes, orphanItems);
+            if (newChild == child)
+                continue;
+
+            if (newChild.count() < MIN_ENTRIES) {
+                collectEntries(newChild, orphanBoxes, orphanItems);
+                return Node.of(false, without(node.boxes, i), without(node.items, i));
+            }
+
+            BoundingBox[] boxes = node.boxes.clone();
+            Object[] items = node.items.clone();
+            boxes[i] = newChild.mbr;
+            items[i] = newChild;
+            return Node.of(false, boxes, items);
+        }
+        return node;
+    }
+
+    private static void collectEntries(Node node, List<BoundingBox> boxes, List<Object> items) {
+        for (int i = 0; i < node.count(); i++) {
+            if (node.leaf) {
+                boxes.add(node.boxes[i]);
+                items.add(node.items[i]);
+            } else {
+                collectEntries((Node) node.items[i], boxes, items);
+            }
+        }
+    }
+
+    private static Node[] splitIfOverflowing(boolean leaf, BoundingBox[] boxes, Object[] items) {
+        if (boxes.length <= MAX_ENTRIES)
+            return new Node[]{Node.of(leaf, boxes, items)};
+
+        return quadraticSplit(leaf, boxes, items);
+    }
+
+    private static Node[] quadraticSplit(boolean leaf, BoundingBox[] boxes, Object[] items) {
+        int n = boxes.length;
+        int seedA = 0;
+        int seedB = 1;
+        double worstWaste = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                double waste = boxes[i].unionArea(boxes[j]) - boxes[i].area() - boxes[j].area();
+                if (waste > worstWaste) {
+                    worstWaste = waste;
+                    seedA = i;
+                    seedB = j;
+                }
+            }
+        }
+
+        List<Integer> groupA = new ArrayList<>();
+        List<Integer> groupB = new ArrayList<>();
+        groupA.add(seedA);
+        groupB.add(seedB);
+        BoundingBox mbrA = boxes[seedA];
+        BoundingBox mbrB = boxes[seedB];
+
+        boolean[] assigned = new boolean[n];
+        assigned[seedA] = true;
+        assigned[seedB] = true;
+        int remaining = n - 2;
+
+        while (remaining > 0) {
+            if (groupA.size() + remaining <= MIN_ENTRIES || groupB.size() + remaining <= MIN_ENTRIES) {
+                List<Integer> group = groupA.size() + remaining <= MIN_ENTRIES ? groupA : groupB;
+                for (int i = 0; i < n; i++)
+                    if (!assigned[i])
+                        group.add(i);
+                break;
+            }
+
+            int next = -1;
+            double greatestPreference = -1;
+            double enlargementOfA = 0;
+            double enlargementOfB = 0;
+            for (int i = 0; i < n; i++) {
+                if (assigned[i])
+                    continue;
+                double toA = mbrA.unionArea(boxes[i]) - mbrA.area();
+                double toB = mbrB.unionArea(boxes[i]) - mbrB.area();
+                double preference = Math.abs(toA - toB);
+                if (preference > greatestPreference) {
+                    greatestPreference = preference;
+                    next = i;
+                    enlargementOfA = toA;
+                    enlargementOfB = toB;
+                }
+            }
+
+            boolean toGroupA = enlargementOfA < enlargementOfB
+                    || (enlargementOfA == enlargementOfB && mbrA.area() < mbrB.area())
+                    || (enlargementOfA == enlargementOfB && mbrA.area() == mbrB.area() && groupA.size() <= groupB.size());
+            if (toGroupA) {
+                groupA.add(next);
+                mbrA = mbrA.union(boxes[next]);
+            } else {
+                groupB.add(next);
+                mbrB = mbrB.union(boxes[next]);
+            }
+            assigned[next] = true;
+            remaining--;
+        }
+
+        return new Node[]{group(leaf, groupA, boxes, items), group(leaf, groupB, boxes, items)};
+    }
+
+    private static Node group(boolean leaf, List<Integer> indexes, BoundingBox[] boxes, Object[] items) {
+        BoundingBox[] groupBoxes = new BoundingBox[indexes.size()];
+        Object[] groupItems = new Object[indexes.size()];
+        for (int i = 0; i < indexes.size(); i++) {
+            groupBoxes[i] = boxes[indexes.get(i)];
+            groupItems[i] = items[indexes.get(i)];
+        }
+        return Node.of(leaf, groupBoxes, groupItems);
+    }
+
+    private static List<Node> sortTileRecursive(List<BoundingBox> boxes, List<Object> items, boolean leaf) {
+        Integer[] order = new Integer[boxes.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, Comparator.comparingDouble(i -> boxes.get(i).centerX()));
+
+        int nodeCount = (int) Math.ceil(order.length / (double) MAX_ENTRIES);
+        int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+        int sliceSize = sliceCount * MAX_ENTRIES;
+
+        List<Node> nodes = new ArrayList<>(nodeCount);
+        for (int sliceStart = 0; sliceStart < order.length; sliceStart += sliceSize) {
+            int sliceEnd = Math.min(sliceStart + sliceSize, order.length);
+            Arrays.sort(order, sliceStart, sliceEnd, Comparator.comparingDouble(i -> boxes.get(i).centerY()));
+
+            for (int nodeStart = sliceStart; nodeStart < sliceEnd; nodeStart += MAX_ENTRIES) {
+                int nodeEnd = Math.min(nodeStart + MAX_ENTRIES, sliceEnd);
+                BoundingBox[] nodeBoxes = new BoundingBox[nodeEnd - nodeStart];
+                Object[] nodeItems = new Object[nodeEnd - nodeStart];
+                for (int i = nodeStart; i < nodeEnd; i++) {
+                    nodeBoxes[i - nodeStart] = boxes.get(order[i]);
+                    nodeItems[i - nodeStart] = items.get(order[i]);
+                }
+                nodes.add(Node.of(leaf, nodeBoxes, nodeItems));
+            }
+        }
+        return nodes;
+    }
+
+    private static BoundingBox[] append(BoundingBox[] boxes, BoundingBox box) {
+        BoundingBox[] appended = Arrays.copyOf(boxes, boxes.length + 1);
+        appended[boxes.length] = box;
+        return appended;
+    }
+
+    private static Object[] append(Object[] items, Object item) {
+        Object[] appended = Arrays.copyOf(items, items.length + 1);
+        appended[items.length] = item;
+        return appended;
+    }
+
+    private static BoundingBox[] without(BoundingBox[] boxes, int index) {
+        BoundingBox[] remaining = new BoundingBox[boxes.length - 1];
+        System.arraycopy(boxes, 0, remaining, 0, index);
+        System.arraycopy(boxes, index + 1, remaining, index, boxes.length - index - 1);
+        return remaining;
+    }
+
+    private static Object[] without(Object[] items, int index) {
+        Object[] remaining = new Object[items.length - 1];
+        System.arraycopy(items, 0, remaining, 0, index);
+        System.arraycopy(items, index + 1, remaining, index, items.length - index - 1);
+        return remaining;
+    }
+
+    private static final class Node {
+        private final boolean leaf;
+        private final BoundingBox mbr;
+        private final BoundingBox[] boxes;
+        private final Object[] items;
+
+        private Node(boolean leaf, BoundingBox mbr, BoundingBox[] boxes, Object[] items) {
+            this.leaf = leaf;
+            this.mbr = mbr;
+            this.boxes = boxes;
+            this.items = items;
+        }
+
+        static Node of(boolean leaf, BoundingBox[] boxes, Object[] items) {
+            return new Node(leaf, BoundingBox.union(boxes), boxes, items);
+        }
+
+        int count() {
+            return boxes.length;
+        }
+    }
+}
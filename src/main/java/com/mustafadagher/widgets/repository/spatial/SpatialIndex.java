@@ -0,0 +1,75 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/***
+ * An index over the bounding boxes of widgets.
+ *
+ * Implementations are immutable: changes return a new index and leave the one they were called on untouched,
+ * so queries can run against an index while a newer version of it is being built.
+ *
+ * @param <T> the value stored with each box
+ */
+public interface SpatialIndex<T> {
+
+    SpatialIndex<T> insert(BoundingBox box, T value);
+
+    SpatialIndex<T> remove(BoundingBox box, T value);
+
+    /***
+     * Returns an index of the same kind and settings, holding exactly the given entries.
+     */
+    SpatialIndex<T> rebuild(Collection<Entry<T>> entries);
+
+    /***
+     * Passes every value whose box lies completely inside the given area to the consumer, each value once.
+     */
+    void searchWithin(BoundingBox area, Consumer<? super T> consumer);
+
+    /***
+     * Passes every value whose box overlaps the given area, edges included, to the consumer, each value once. A point
+     * is searched as an area of a single point.
+     */
+    void searchIntersecting(BoundingBox area, Consumer<? super T> consumer);
+
+    /***
+     * Passes the values to the visitor from the one whose box is nearest to the target on, until the visitor returns
+     * false, with the distance between their box and the target, see {@link BoundingBox#distanceTo(BoundingBox)}.
+     * Values at the same distance come in no particular order.
+     */
+    void searchNearest(BoundingBox target, NearestVisitor<? super T> visitor);
+
+    int size();
+
+    /***
+     * Visits the values found by {@link #searchNearest}, and returns whether to go on with the next one.
+     */
+    @FunctionalInterface
+    interface NearestVisitor<T> {
+        boolean visit(T value, double distance);
+    }
+
+    /***
+     * A box in the index and the value stored with it.
+     */
+    final class Entry<T> {
+        private final BoundingBox box;
+        private final T value;
+
+        public Entry(BoundingBox box, T value) {
+            this.box = box;
+            this.value = value;
+        }
+
+        public BoundingBox getBox() {
+            return box;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+}
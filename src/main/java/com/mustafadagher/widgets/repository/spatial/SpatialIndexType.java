@@ -0,0 +1,39 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+/***
+ * The available {@link SpatialIndex} strategies, selected with the {@code widgets.spatial-index.type} property.
+ *
+ * <ul>
+ *     <li>{@link #RTREE} answers area queries the fastest on both dense and sparse canvases, at the cost of
+ *     inserts and moves being a few times slower than on the grid. It's the default.</li>
+ *     <li>{@link #GRID} has the cheapest inserts and moves, which pays off when widgets are moved around much more
+ *     often than they are looked up. Its cell size should be about the size of a typical widget, set with
+ *     {@code widgets.spatial-index.grid-cell-size}.</li>
+ *     <li>{@link #QUADTREE} needs no tuning and adapts to the distribution of the widgets, but its root covers the
+ *     whole coordinate space, so every change copies a long path and writes are the slowest.</li>
+ * </ul>
+ *
+ * See {@code SpatialIndexBenchmark} for the numbers behind these.
+ */
+public enum SpatialIndexType {
+    RTREE {
+        @Override
+        public <T> SpatialIndex<T> emptyIndex(long gridCellSize) {
+            return RTree.empty();
+        }
+    },
+    GRID {
+        @Override
+        public <T> SpatialIndex<T> emptyIndex(long gridCellSize) {
+            return UniformGrid.empty(gridCellSize);
+        }
+    },
+    QUADTREE {
+        @Override
+        public <T> SpatialIndex<T> emptyIndex(long gridCellSize) {
+            return QuadTree.empty();
+        }
+    };
+
+    public abstract <T> SpatialIndex<T> emptyIndex(long gridCellSize);
+}
@@ -0,0 +1,342 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.repository.persistent.LongPairTrie;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/***
+ * A uniform grid of square cells, every box being listed in each of the cells it overlaps.
+ *
+ * Inserting or moving a box only touches the few cells around it, which makes the grid the cheapest index to keep
+ * up to date when widgets are small compared to the cell size and spread evenly. Boxes spanning more than
+ * {@link #MAX_CELLS_PER_ENTRY} cells are kept in a separate list that every query scans, so a handful of huge
+ * widgets can't blow up the number of cells.
+ *
+ * The occupied cells are kept in an immutable {@link LongPairTrie}, so the grid is immutable just like the other indexes.
+ *
+ * @param <T> the value stored with each box
+ */
+public final class UniformGrid<T> implements SpatialIndex<T> {
+    public static final long DEFAULT_CELL_SIZE = 256;
+    static final long MAX_CELLS_PER_ENTRY = 64;
+
+    private final long cellSize;
+    private final LongPairTrie<Cell> cells;
+    private final Cell oversized;
+    private final int size;
+
+    private UniformGrid(long cellSize, LongPairTrie<Cell> cells, Cell oversized, int size) {
+        this.cellSize = cellSize;
+        this.cells = cells;
+        this.oversized = oversized;
+        this.size = size;
+    }
+
+    public static <T> UniformGrid<T> empty(long cellSize) {
+        if (cellSize < 1)
+            throw new IllegalArgumentException("The cell size of the grid must be positive, got " + cellSize);
+
+        return new UniformGrid<>(cellSize, LongPairTrie.empty(), Cell.EMPTY, 0);
+    }
+
+    @Override
+    public UniformGrid<T> insert(BoundingBox box, T value) {
+        if (isOversized(box))
+            return new UniformGrid<>(cellSize, cells, oversized.with(box, value), size + 1);
+
+        // Cells are walked by offset, so a box at the very edge of the coordinate space can't overflow the loop
+        long fromX = cellOf(box.getLeft());
+        long fromY = cellOf(box.getLow());
+        long spanX = cellOf(box.getRight()) - fromX;
+        long spanY = cellOf(box.getHigh()) - fromY;
+
+        LongPairTrie<Cell> newCells = cells;
+        for (long i = 0; i <= spanX; i++) {
+            for (long j = 0; j <= spanY; j++) {
+                Cell cell = newCells.get(fromX + i, fromY + j);
+                Cell updated = cell == null ? Cell.EMPTY.with(box, value) : cell.with(box, value);
+                newCells = newCells.put(fromX + i, fromY + j, updated);
+            }
+        }
+        return new UniformGrid<>(cellSize, newCells, oversized, size + 1);
+    }
+
+    @Override
+    public UniformGrid<T> remove(BoundingBox box, T value) {
+        if (isOversized(box)) {
+            Cell remaining = oversized.without(box, value);
+            return remaining == oversized ? this : new UniformGrid<>(cellSize, cells, remaining, size - 1);
+        }
+
+        long fromX = cellOf(box.getLeft());
+        long fromY = cellOf(box.getLow());
+        long spanX = cellOf(box.getRight()) - fromX;
+        long spanY = cellOf(box.getHigh()) - fromY;
+
+        LongPairTrie<Cell> newCells = cells;
+        for (long i = 0; i <= spanX; i++) {
+            for (long j = 0; j <= spanY; j++) {
+                Cell cell = newCells.get(fromX + i, fromY + j);
+                Cell remaining = cell == null ? null : cell.without(box, value);
+                if (remaining == cell)
+                    return this;
+                newCells = remaining.isEmpty()
+                        ? newCells.remove(fromX + i, fromY + j)
+                        : newCells.put(fromX + i, fromY + j, remaining);
+            }
+        }
+        return new UniformGrid<>(cellSize, newCells, oversized, size - 1);
+    }
+
+    @Override
+    public UniformGrid<T> rebuild(Collection<Entry<T>> entries) {
+        UniformGrid<T> grid = empty(cellSize);
+        for (Entry<T> entry : entries)
+            grid = grid.insert(entry.getBox(), entry.getValue());
+        return grid;
+    }
+
+    /***
+     * A box listed in several cells is only reported by the cell holding its lower left corner.
+     * When the area covers more cells than are occupied, the occupied cells are scanned instead of the covered ones,
+     * so a query over a huge area of a sparse grid doesn't walk millions of empty cells.
+     */
+    @Override
+    public void searchWithin(BoundingBox area, Consumer<? super T> consumer) {
+        oversized.forEachWithin(area, consumer);
+
+        long fromX = cellOf(area.getLeft());
+        long toX = cellOf(area.getRight());
+        long fromY = cellOf(area.getLow());
+        long toY = cellOf(area.getHigh());
+
+        if (coversMoreCellsThanOccupied(toX - fromX, toY - fromY)) {
+            cells.forEach((x, y, cell) -> {
+                if (x >= fromX && x <= toX && y >= fromY && y <= toY)
+                    reportHomedWithin(x, y, cell, area, consumer);
+            });
+            return;
+        }
+
+        for (long i = 0; i <= toX - fromX; i++) {
+            for (long j = 0; j <= toY - fromY; j++) {
+                Cell cell = cells.get(fromX + i, fromY + j);
+                if (cell != null)
+                    reportHomedWithin(fromX + i, fromY + j, cell, area, consumer);
+            }
+        }
+    }
+
+    /***
+     * A box overlapping the area is listed in every cell they share, so it is only reported from the first one, the
+     * lowest and leftmost.
+     */
+    @Override
+    public void searchIntersecting(BoundingBox area, Consumer<? super T> consumer) {
+        oversized.forEachIntersecting(area, consumer);
+
+        long fromX = cellOf(area.getLeft());
+        long toX = cellOf(area.getRight());
+        long fromY = cellOf(area.getLow());
+        long toY = cellOf(area.getHigh());
+
+        if (coversMoreCellsThanOccupied(toX - fromX, toY - fromY)) {
+            cells.forEach((x, y, cell) -> {
+                if (x >= fromX && x <= toX && y >= fromY && y <= toY)
+                    reportFirstSharedIntersecting(x, y, fromX, fromY, cell, area, consumer);
+            });
+            return;
+        }
+
+        for (long i = 0; i <= toX - fromX; i++) {
+            for (long j = 0; j <= toY - fromY; j++) {
+                Cell cell = cells.get(fromX + i, fromY + j);
+                if (cell != null)
+                    reportFirstSharedIntersecting(fromX + i, fromY + j, fromX, fromY, cell, area, consumer);
+            }
+        }
+    }
+
+    /***
+     * Walks the cells in rings growing around the cells of the target. The cells past a ring are more than
+     * {@code ring * cellSize} away from the target, so the values found within that distance are visited before the
+     * next ring is walked. A box listed in several cells is only queued from the first one walked. Once a ring would
+     * reach more cells than are occupied, the occupied cells are scanned instead, like the other searches do.
+     */
+    @Override
+    public void searchNearest(BoundingBox target, NearestVisitor<? super T> visitor) {
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        Set<Object> queued = new HashSet<>();
+        for (int i = 0; i < oversized.boxes.length; i++)
+            queue.add(Candidate.ofValue(oversized.values[i], oversized.boxes[i].distanceTo(target)));
+
+        long fromX = cellOf(target.getLeft());
+        long toX = cellOf(target.getRight());
+        long fromY = cellOf(target.getLow());
+        long toY = cellOf(target.getHigh());
+
+        int walked = 0;
+        for (long ring = 0; walked < cells.size(); ring++) {
+            if (coversMoreCellsThanOccupied(toX - fromX + 2 * ring, toY - fromY + 2 * ring)) {
+                cells.forEach((x, y, cell) -> queueNew(cell, target, queue, queued));
+                break;
+            }
+
+            if (ring == 0) {
+                for (long i = 0; i <= toX - fromX; i++)
+                    for (long j = 0; j <= toY - fromY; j++)
+                        walked += queueNew(cells.get(fromX + i, fromY + j), target, queue, queued);
+            } else {
+                for (long i = -ring; i <= toX - fromX + ring; i++) {
+                    walked += queueNew(cells.get(fromX + i, fromY - ring), target, queue, queued);
+                    walked += queueNew(cells.get(fromX + i, toY + ring), target, queue, queued);
+                }
+                for (long j = 1 - ring; j < toY - fromY + ring; j++) {
+                    walked += queueNew(cells.get(fromX - ring, fromY + j), target, queue, queued);
+                    walked += queueNew(cells.get(toX + ring, fromY + j), target, queue, queued);
+                }
+            }
+
+            if (!visitWithin(ring * (double) cellSize, queue, visitor))
+                return;
+        }
+        visitWithin(Double.POSITIVE_INFINITY, queue, visitor);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /***
+     * Queues the values of the cell that aren't queued yet, and returns 1 if there is a cell, to count the occupied
+     * cells walked.
+     */
+    private static int queueNew(Cell cell, BoundingBox target, PriorityQueue<Candidate> queue, Set<Object> queued) {
+        if (cell == null)
+            return 0;
+        for (int i = 0; i < cell.boxes.length; i++) {
+            if (queued.add(cell.values[i]))
+                queue.add(Candidate.ofValue(cell.values[i], cell.boxes[i].distanceTo(target)));
+        }
+        return 1;
+    }
+
+    /***
+     * Visits the queued values up to the given distance, and returns false if the visitor asked to stop.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> boolean visitWithin(double distance, PriorityQueue<Candidate> queue,
+                                           NearestVisitor<? super T> visitor) {
+        while (!queue.isEmpty() && queue.peek().getDistance() <= distance) {
+            Candidate nearest = queue.poll();
+            if (!visitor.visit((T) nearest.getItem(), nearest.getDistance()))
+                return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reportHomedWithin(long x, long y, Cell cell, BoundingBox area, Consumer<? super T> consumer) {
+        for (int i = 0; i < cell.boxes.length; i++) {
+            BoundingBox box = cell.boxes[i];
+            if (box.isInside(area) && cellOf(box.getLeft()) == x && cellOf(box.getLow()) == y)
+                consumer.accept((T) cell.values[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reportFirstSharedIntersecting(long x, long y, long areaFromX, long areaFromY, Cell cell, BoundingBox area,
+                                               Consumer<? super T> consumer) {
+        for (int i = 0; i < cell.boxes.length; i++) {
+            BoundingBox box = cell.boxes[i];
+            if (box.intersects(area)
+                    && Math.max(cellOf(box.getLeft()), areaFromX) == x
+                    && Math.max(cellOf(box.getLow()), areaFromY) == y)
+                consumer.accept((T) cell.values[i]);
+        }
+    }
+
+    private boolean coversMoreCellsThanOccupied(long spanX, long spanY) {
+        // A negative span means the subtraction overflowed, so the area covers more cells than there can be
+        int occupied = cells.size();
+        if (spanX < 0 || spanY < 0 || spanX >= occupied || spanY >= occupied)
+            return true;
+        return (spanX + 1) * (spanY + 1) > occupied;
+    }
+
+    private boolean isOversized(BoundingBox box) {
+        long spanX = cellOf(box.getRight()) - cellOf(box.getLeft());
+        long spanY = cellOf(box.getHigh()) - cellOf(box.getLow());
+        if (spanX < 0 || spanY < 0 || spanX >= MAX_CELLS_PER_ENTRY || spanY >= MAX_CELLS_PER_ENTRY)
+            return true;
+        return (spanX + 1) * (spanY + 1) > MAX_CELLS_PER_ENTRY;
+    }
+
+    private long cellOf(long coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    private static final class Cell {
+        private static final Cell EMPTY = new Cell(new BoundingBox[0], new Object[0]);
+
+        private final BoundingBox[] boxes;
+        private final Object[] values;
+
+        private Cell(BoundingBox[] boxes, Object[] values) {
+            this.boxes = boxes;
+            this.values = values;
+        }
+
+        Cell with(BoundingBox box, Object value) {
+            BoundingBox[] newBoxes = Arrays.copyOf(boxes, boxes.length + 1);
+            Object[] newValues = Arrays.copyOf(values, values.length + 1);
+            newBoxes[boxes.length] = box;
+            newValues[values.length] = value;
+            return new Cell(newBoxes, newValues);
+        }
+
+        /***
+         * Returns the cell without the given entry, or the same cell if the entry isn't in it.
+         */
+        Cell without(BoundingBox box, Object value) {
+            for (int i = 0; i < boxes.length; i++) {
+                if (!boxes[i].equals(box) || !values[i].equals(value))
+                    continue;
+
+                BoundingBox[] newBoxes = new BoundingBox[boxes.length - 1];
+                Object[] newValues = new Object[values.length - 1];
+                System.arraycopy(boxes, 0, newBoxes, 0, i);
+                System.arraycopy(boxes, i + 1, newBoxes, i, boxes.length - i - 1);
+                System.arraycopy(values, 0, newValues, 0, i);
+                System.arraycopy(values, i + 1, newValues, i, values.length - i - 1);
+                return new Cell(newBoxes, newValues);
+            }
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> void forEachWithin(BoundingBox area, Consumer<? super T> consumer) {
+            for (int i = 0; i < boxes.length; i++)
+                if (boxes[i].isInside(area))
+                    consumer.accept((T) values[i]);
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> void forEachIntersecting(BoundingBox area, Consumer<? super T> consumer) {
+            for (int i = 0; i < boxes.length; i++)
+                if (boxes[i].intersects(area))
+                    consumer.accept((T) values[i]);
+        }
+
+        boolean isEmpty() {
+            return boxes.length == 0;
+        }
+    }
+}
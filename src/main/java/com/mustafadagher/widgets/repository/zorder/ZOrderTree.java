@@ -0,0 +1,578 @@
+package com.mustafadagher.widgets.repository.zorder;
+
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.persistent.LongPairTrie;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/***
+ * The widgets sorted by (z, id), kept in an immutable treap.
+ *
+ * Inserting a widget at an occupied z pushes the widget there, and every widget above it, up by one. Only the
+ * contiguous run of occupied z values starting at the inserted z has to move for the z values to stay unique and
+ * in the same order, so the subtrees that make up that run are tagged with a lazy +1 shift, which costs O(log n)
+ * whatever the length of the run. A tag is only pushed down to the children of a node when a later change copies
+ * that node, and reads add up the tags on their way down, so every widget read from the tree has its effective z.
+ *
+ * As shifting changes the z of a widget but never its place in the order, the nodes are keyed by order labels
+ * instead of (z, id). Labels are spread over (0, 2^62) and when two neighbours run out of room between them, the
+ * smallest enclosing window of labels that is sparse enough is spread out again, as in the order maintenance
+ * structure of Dietz and Sleator. The label of each widget is looked up by id in a {@link LongPairTrie}.
+ *
+ * Changes descend the tree once, or twice when they shift a run, and copy only the nodes on the way. Every change
+ * returns a new tree sharing the untouched nodes with the previous one.
+ */
+public final class ZOrderTree {
+    static final long MAX_LABEL = 1L << 62;
+    private static final long APPEND_GAP = 1L << 32;
+    private static final double WINDOW_DENSITY_BASE = 1 / 0.7;
+    private static final long NO_TOUCH = Long.MIN_VALUE;
+
+    private static final ZOrderTree EMPTY = new ZOrderTree(null, LongPairTrie.empty());
+
+    private final Node root;
+    private final LongPairTrie<Long> labels;
+
+    private ZOrderTree(Node root, LongPairTrie<Long> labels) {
+        this.root = root;
+        this.labels = labels;
+    }
+
+    public static ZOrderTree empty() {
+        return EMPTY;
+    }
+
+    /***
+     * Builds a tree from scratch in linear time after sorting, with the labels evenly spread.
+     */
+    public static ZOrderTree of(Collection<WidgetRecord> widgets) {
+        WidgetRecord[] sorted = widgets.toArray(new WidgetRecord[0]);
+        Arrays.sort(sorted, (a, b) -> a.getZ() != b.getZ()
+                ? Long.compare(a.getZ(), b.getZ())
+                : a.compareIdTo(b.getIdMostSignificantBits(), b.getIdLeastSignificantBits()));
+        int n = sorted.length;
+        if (n == 0)
+            return EMPTY;
+
+        long step = Math.min(APPEND_GAP, MAX_LABEL / (n + 1));
+        long first = (MAX_LABEL - step * (n - 1)) / 2;
+        int[] priorities = new int[n];
+        LongPairTrie<Long> labels = LongPairTrie.empty();
+        for (int i = 0; i < n; i++) {
+            priorities[i] = ThreadLocalRandom.current().nextInt();
+            labels = labels.put(sorted[i].getIdMostSignificantBits(), sorted[i].getIdLeastSignificantBits(),
+                    first + i * step);
+        }
+
+        // Cartesian tree over the priorities, built with a stack of the right spine
+        int[] lefts = new int[n];
+        int[] rights = new int[n];
+        Arrays.fill(lefts, -1);
+        Arrays.fill(rights, -1);
+        int[] spine = new int[n];
+        int spineSize = 0;
+        for (int i = 0; i < n; i++) {
+            int last = -1;
+            while (spineSize > 0 && priorities[spine[spineSize - 1]] < priorities[i])
+                last = spine[--spineSize];
+            lefts[i] = last;
+            if (spineSize > 0)
+                rights[spine[spineSize - 1]] = i;
+            spine[spineSize++] = i;
+        }
+
+        Node root = build(spine[0], sorted, priorities, lefts, rights, first, step);
+        return new ZOrderTree(root, labels);
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public WidgetRecord get(UUID id) {
+        Long label = labels.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return label == null ? null : getByLabel(label);
+    }
+
+    /***
+     * Returns the widget with the highest z, or null if the tree is empty.
+     */
+    public WidgetRecord highest() {
+        if (root == null)
+            return null;
+
+        long shift = 0;
+        long touch = NO_TOUCH;
+        Node node = root;
+        while (node.right != null) {
+            shift += node.pendingShift;
+            touch = Math.max(touch, node.pendingTouch);
+            node = node.right;
+        }
+        return effective(node, shift, touch);
+    }
+
+    /***
+     * Returns the widgets with the given ids sorted by z, skipping the ids that aren't in the tree.
+     */
+    public List<WidgetRecord> getAllOrderByZ(Collection<UUID> ids) {
+        long[] found = new long[ids.size()];
+        int count = 0;
+        for (UUID id : ids) {
+            Long label = labels.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (label != null)
+                found[count++] = label;
+        }
+        Arrays.sort(found, 0, count);
+
+        List<WidgetRecord> widgets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            widgets.add(getByLabel(found[i]));
+        return widgets;
+    }
+
+    /***
+     * Passes the widgets to the visitor in z order, starting at the given rank, until the visitor returns false.
+     */
+    public void forEachFromRank(long rank, Predicate<? super WidgetRecord> visitor) {
+        walkFromRank(root, rank, 0, NO_TOUCH, visitor);
+    }
+
+    /***
+     * Passes the widgets to the visitor in z order, starting at the first one with a z of at least the given z,
+     * until the visitor returns false.
+     */
+    public void forEachFromZ(long z, Predicate<? super WidgetRecord> visitor) {
+        walkFromZ(root, z, 0, NO_TOUCH, visitor);
+    }
+
+    /***
+     * Passes the widgets to the visitor in z order, starting right after the given (z, id) place, until the visitor
+     * returns false. The place doesn't need to be taken.
+     */
+    public void forEachAfter(long z, UUID id, Predicate<? super WidgetRecord> visitor) {
+        long idMostSignificantBits = id.getMostSignificantBits();
+        long idLeastSignificantBits = id.getLeastSignificantBits();
+        forEachFromZ(z, widget -> (widget.getZ() == z && widget.compareIdTo(idMostSignificantBits, idLeastSignificantBits) <= 0)
+                || visitor.test(widget));
+    }
+
+    /***
+     * Inserts the widget at its (z, id) place, replacing the widget with the same id if there is one. Nothing is
+     * shifted, so the widget might end up sharing its z with others.
+     */
+    public ZOrderTree put(WidgetRecord widget) {
+        Long label = labels.get(widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits());
+        if (label == null)
+            return insert(widget, widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits());
+
+        // Keeping its z keeps the widget in its place, so only the path to it has to be copied
+        if (getByLabel(label).getZ() == widget.getZ())
+            return new ZOrderTree(replace(root, label, widget), labels);
+
+        return removeByLabel(label, widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits())
+                .insert(widget, widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits());
+    }
+
+    /***
+     * Inserts the widget below all the widgets with the same or a higher z. If its z is taken, the contiguous run of
+     * occupied z values starting there is shifted up by one and marked as modified at the given epoch millisecond.
+     */
+    public ZOrderTree insertShiftingUpwards(WidgetRecord widget, long shiftedAt) {
+        Long label = labels.get(widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits());
+        ZOrderTree tree = label == null
+                ? this
+                : removeByLabel(label, widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits());
+        long z = widget.getZ();
+        boolean occupied = tree.isOccupied(z);
+        tree = tree.insert(widget, Long.MIN_VALUE, Long.MIN_VALUE);
+        if (!occupied)
+            return tree;
+
+        // Shifting after inserting spares the insert from pushing the new tags down on its way
+        long runStart = tree.labels.get(widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits()) + 1;
+        long runEnd = firstGapAbove(tree.root, z, Long.MIN_VALUE, 0);
+        return new ZOrderTree(shift(tree.root, runStart, runEnd, 0, MAX_LABEL, shiftedAt), tree.labels);
+    }
+
+    public ZOrderTree remove(UUID id) {
+        Long label = labels.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        return label == null ? this : removeByLabel(label, id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    private ZOrderTree removeByLabel(long label, long idMostSignificantBits, long idLeastSignificantBits) {
+        return new ZOrderTree(removeByLabel(root, label), labels.remove(idMostSignificantBits, idLeastSignificantBits));
+    }
+
+    private WidgetRecord getByLabel(long label) {
+        long shift = 0;
+        long touch = NO_TOUCH;
+        Node node = root;
+        while (node != null && node.label != label) {
+            shift += node.pendingShift;
+            touch = Math.max(touch, node.pendingTouch);
+            node = label < node.label ? node.left : node.right;
+        }
+        return node == null ? null : effective(node, shift, touch);
+    }
+
+    private boolean isOccupied(long z) {
+        long shift = 0;
+        Node node = root;
+        while (node != null) {
+            shift += node.pendingShift;
+            long nodeZ = node.record.getZ() + shift;
+            if (nodeZ == z)
+                return true;
+            node = nodeZ < z ? node.right : node.left;
+        }
+        return false;
+    }
+
+    /***
+     * Inserts the widget, without shifting anything, after the widgets ordered before (its z, the given id) and
+     * before the rest.
+     */
+    private ZOrderTree insert(WidgetRecord widget, long idMostSignificantBits, long idLeastSignificantBits) {
+        long z = widget.getZ();
+        long before = 0;
+        long after = MAX_LABEL;
+        long shift = 0;
+        Node node = root;
+        while (node != null) {
+            shift += node.pendingShift;
+            long nodeZ = node.record.getZ() + shift;
+            if (nodeZ < z || (nodeZ == z && node.record.compareIdTo(idMostSignificantBits, idLeastSignificantBits) < 0)) {
+                before = node.label;
+                node = node.right;
+            } else {
+                after = node.label;
+                node = node.left;
+            }
+        }
+
+        if (after - before < 2)
+            return relabelAround(before).insert(widget, idMostSignificantBits, idLeastSignificantBits);
+
+        long label = labelBetween(before, after);
+        Node leaf = Node.of(label, ThreadLocalRandom.current().nextInt(), widget, null, null);
+        return new ZOrderTree(insertByLabel(root, leaf),
+                labels.put(widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits(), label));
+    }
+
+    private ZOrderTree relabelAround(long label) {
+        for (int bits = 1; bits < 62; bits++) {
+            long windowStart = label & -(1L << bits);
+            long from = Math.max(1, windowStart);
+            long to = windowStart + (1L << bits) - 1;
+            int count = rankOfLabel(root, to + 1) - rankOfLabel(root, from);
+            if (count + 1 <= Math.pow(WINDOW_DENSITY_BASE, bits) && (to - from + 1) / (count + 1) >= 2)
+                return relabel(from, to, count);
+        }
+        return relabel(1, MAX_LABEL - 1, size(root));
+    }
+
+    private ZOrderTree relabel(long from, long to, int count) {
+        Node[] below = splitByLabel(root, from);
+        Node[] window = splitByLabel(below[1], to + 1);
+        long step = (to - from + 1) / (count + 1);
+
+        Object[] newLabels = {labels};
+        long[] next = {from + step};
+        Node relabeled = relabel(window[0], step, next, newLabels);
+
+        @SuppressWarnings("unchecked")
+        LongPairTrie<Long> updatedLabels = (LongPairTrie<Long>) newLabels[0];
+        return new ZOrderTree(merge(merge(below[0], relabeled), window[1]), updatedLabels);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Node relabel(Node node, long step, long[] next, Object[] labels) {
+        if (node == null)
+            return null;
+
+        Node left = relabel(node.left, step, next, labels);
+        long label = next[0];
+        next[0] += step;
+        labels[0] = ((LongPairTrie<Long>) labels[0]).put(
+                node.record.getIdMostSignificantBits(), node.record.getIdLeastSignificantBits(), label);
+        Node right = relabel(node.right, step, next, labels);
+        return new Node(label, node.priority, node.record, node.pendingShift, node.pendingTouch,
+                left, right, node.size, node.minZ, node.maxZ, node.maxStep);
+    }
+
+    private static long labelBetween(long before, long after) {
+        if (before == 0 && after != MAX_LABEL)
+            return after - Math.min(APPEND_GAP, (after - before) / 2);
+        if (after == MAX_LABEL && before != 0)
+            return before + Math.min(APPEND_GAP, (after - before) / 2);
+        return before + (after - before) / 2;
+    }
+
+    private static Node build(int i, WidgetRecord[] sorted, int[] priorities, int[] lefts, int[] rights,
+                              long first, long step) {
+        if (i < 0)
+            return null;
+
+        Node left = build(lefts[i], sorted, priorities, lefts, rights, first, step);
+        Node right = build(rights[i], sorted, priorities, lefts, rights, first, step);
+        return Node.of(first + i * step, priorities[i], sorted[i], left, right);
+    }
+
+    /***
+     * Returns the label of the first widget, in the subtree, with a z above the given z that is at least two above
+     * the one before it, the one before the first widget of the subtree having the given previous z. Returns
+     * MAX_LABEL if the z values above the given z are contiguous.
+     */
+    private static long firstGapAbove(Node node, long z, long previousZ, long shift) {
+        if (node == null || maxZ(node) + shift <= z)
+            return MAX_LABEL;
+        if (minZ(node) + shift > z && step(previousZ, minZ(node) + shift) < 2 && node.maxStep < 2)
+            return MAX_LABEL;
+
+        long childShift = shift + node.pendingShift;
+        long inLeft = firstGapAbove(node.left, z, previousZ, childShift);
+        if (inLeft != MAX_LABEL)
+            return inLeft;
+
+        long nodeZ = node.record.getZ() + childShift;
+        long beforeNode = node.left == null ? previousZ : maxZ(node.left) + childShift;
+        if (nodeZ > z && step(beforeNode, nodeZ) >= 2)
+            return node.label;
+
+        return firstGapAbove(node.right, z, nodeZ, childShift);
+    }
+
+    /***
+     * Shifts the widgets with a label in [from, to) up by one, tagging the subtrees that lie entirely in the range and
+     * copying the nodes on the paths to its two ends. The labels of the subtree lie in [low, high).
+     */
+    private static Node shift(Node node, long from, long to, long low, long high, long shiftedAt) {
+        if (node == null || high <= from || to <= low)
+            return node;
+        if (from <= low && high <= to)
+            return withTag(node, 1, shiftedAt);
+
+        node = pushDown(node);
+        WidgetRecord record = node.label >= from && node.label < to ? effective(node, 1, shiftedAt) : node.record;
+        return Node.of(node.label, node.priority, record,
+                shift(node.left, from, to, low, node.label, shiftedAt),
+                shift(node.right, from, to, node.label + 1, high, shiftedAt));
+    }
+
+    private static boolean walkFromRank(Node node, long rank, long shift, long touch,
+                                        Predicate<? super WidgetRecord> visitor) {
+        if (node == null)
+            return true;
+
+        int leftSize = size(node.left);
+        long childShift = shift + node.pendingShift;
+        long childTouch = Math.max(touch, node.pendingTouch);
+        if (rank < leftSize && !walkFromRank(node.left, rank, childShift, childTouch, visitor))
+            return false;
+        if (rank <= leftSize && !visitor.test(effective(node, shift, touch)))
+            return false;
+        return walkFromRank(node.right, Math.max(0, rank - leftSize - 1), childShift, childTouch, visitor);
+    }
+
+    private static boolean walkFromZ(Node node, long z, long shift, long touch,
+                                     Predicate<? super WidgetRecord> visitor) {
+        if (node == null || maxZ(node) + shift < z)
+            return true;
+
+        long childShift = shift + node.pendingShift;
+        long childTouch = Math.max(touch, node.pendingTouch);
+        if (!walkFromZ(node.left, z, childShift, childTouch, visitor))
+            return false;
+        if (node.record.getZ() + childShift >= z && !visitor.test(effective(node, shift, touch)))
+            return false;
+        return walkFromZ(node.right, z, childShift, childTouch, visitor);
+    }
+
+    private static int rankOfLabel(Node node, long label) {
+        int rank = 0;
+        while (node != null) {
+            if (node.label < label) {
+                rank += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return rank;
+    }
+
+    /***
+     * Inserts a node without children at the place of its label, descending until its priority is the higher one
+     * and splitting the subtree found there between its two children.
+     */
+    private static Node insertByLabel(Node node, Node leaf) {
+        if (node == null)
+            return leaf;
+        if (leaf.priority > node.priority) {
+            Node[] split = splitByLabel(node, leaf.label);
+            return leaf.withChildren(split[0], split[1]);
+        }
+
+        node = pushDown(node);
+        if (leaf.label < node.label)
+            return node.withChildren(insertByLabel(node.left, leaf), node.right);
+        return node.withChildren(node.left, insertByLabel(node.right, leaf));
+    }
+
+    private static Node removeByLabel(Node node, long label) {
+        node = pushDown(node);
+        if (label < node.label)
+            return node.withChildren(removeByLabel(node.left, label), node.right);
+        if (label > node.label)
+            return node.withChildren(node.left, removeByLabel(node.right, label));
+        return merge(node.left, node.right);
+    }
+
+    private static Node replace(Node node, long label, WidgetRecord widget) {
+        node = pushDown(node);
+        if (label < node.label)
+            return node.withChildren(replace(node.left, label, widget), node.right);
+        if (label > node.label)
+            return node.withChildren(node.left, replace(node.right, label, widget));
+        return Node.of(label, node.priority, widget, node.left, node.right);
+    }
+
+    private static Node[] splitByLabel(Node node, long label) {
+        if (node == null)
+            return new Node[2];
+
+        node = pushDown(node);
+        if (node.label < label) {
+            Node[] split = splitByLabel(node.right, label);
+            return new Node[]{node.withChildren(node.left, split[0]), split[1]};
+        }
+        Node[] split = splitByLabel(node.left, label);
+        return new Node[]{split[0], node.withChildren(split[1], node.right)};
+    }
+
+    private static Node merge(Node below, Node above) {
+        if (below == null)
+            return above;
+        if (above == null)
+            return below;
+
+        if (below.priority > above.priority) {
+            below = pushDown(below);
+            return below.withChildren(below.left, merge(below.right, above));
+        }
+        above = pushDown(above);
+        return above.withChildren(merge(below, above.left), above.right);
+    }
+
+    private static Node pushDown(Node node) {
+        if (node.pendingShift == 0 && node.pendingTouch == NO_TOUCH)
+            return node;
+
+        return Node.of(node.label, node.priority, effective(node, 0, NO_TOUCH),
+                withTag(node.left, node.pendingShift, node.pendingTouch),
+                withTag(node.right, node.pendingShift, node.pendingTouch));
+    }
+
+    private static Node withTag(Node node, long shift, long touch) {
+        if (node == null)
+            return null;
+
+        return new Node(node.label, node.priority, node.record,
+                node.pendingShift + shift, Math.max(node.pendingTouch, touch),
+                node.left, node.right, node.size, node.minZ, node.maxZ, node.maxStep);
+    }
+
+    /***
+     * Returns the record of the node with its own tags and the given tags of its ancestors applied, which is the
+     * stored record itself unless a tag changes it.
+     */
+    private static WidgetRecord effective(Node node, long shift, long touch) {
+        WidgetRecord record = node.record;
+        return record.withZ(record.getZ() + shift + node.pendingShift,
+                Math.max(record.getLastModifiedAt(), Math.max(touch, node.pendingTouch)));
+    }
+
+    /***
+     * The lowest z of the subtree once the tags of the node are applied.
+     */
+    private static long minZ(Node node) {
+        return node.minZ + node.pendingShift;
+    }
+
+    /***
+     * The highest z of the subtree once the tags of the node are applied.
+     */
+    private static long maxZ(Node node) {
+        return node.maxZ + node.pendingShift;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static long step(long from, long to) {
+        long step = to - from;
+        // The z values are sorted, so a negative step means the subtraction overflowed
+        return step < 0 ? Long.MAX_VALUE : step;
+    }
+
+    /***
+     * The pending tags of a node are still to be applied to its whole subtree, the node itself included, so tagging
+     * a subtree only copies its root. The z and modification date of the record of a node, and the aggregates of its
+     * subtree (min and max z, and the largest step between two neighbours), hold once the pending tags of the node
+     * and of all its ancestors are applied.
+     */
+    private static final class Node {
+        private final long label;
+        private final int priority;
+        private final WidgetRecord record;
+        private final long pendingShift;
+        private final long pendingTouch;
+        private final Node left;
+        private final Node right;
+        private final int size;
+        private final long minZ;
+        private final long maxZ;
+        private final long maxStep;
+
+        private Node(long label, int priority, WidgetRecord record, long pendingShift, long pendingTouch,
+                     Node left, Node right, int size, long minZ, long maxZ, long maxStep) {
+            this.label = label;
+            this.priority = priority;
+            this.record = record;
+            this.pendingShift = pendingShift;
+            this.pendingTouch = pendingTouch;
+            this.left = left;
+            this.right = right;
+            this.size = size;
+            this.minZ = minZ;
+            this.maxZ = maxZ;
+            this.maxStep = maxStep;
+        }
+
+        /***
+         * Creates a node without pending tags, so its children are in the same frame as the node itself.
+         */
+        static Node of(long label, int priority, WidgetRecord record, Node left, Node right) {
+            long z = record.getZ();
+            long maxStep = 0;
+            if (left != null)
+                maxStep = Math.max(left.maxStep, step(maxZ(left), z));
+            if (right != null)
+                maxStep = Math.max(maxStep, Math.max(right.maxStep, step(z, minZ(right))));
+
+            return new Node(label, priority, record, 0, NO_TOUCH, left, right,
+                    1 + size(left) + size(right),
+                    left == null ? z : minZ(left),
+                    right == null ? z : maxZ(right),
+                    maxStep);
+        }
+
+        Node withChildren(Node left, Node right) {
+            return of(label, priority, record, left, right);
+        }
+    }
+}
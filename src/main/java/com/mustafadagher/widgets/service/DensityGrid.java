@@ -0,0 +1,133 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.repository.concurrent.ConcurrentUuidMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Counts the widgets per cell of a fixed grid, for drawing the density of the widgets at low zoom levels without
+ * reading them.
+ *
+ * A widget is counted in the cell holding its center. The counts are kept for cells of {@link #CELL_SIZE} and for
+ * {@link #LEVELS} coarser grids, each with cells four times as wide as the one below, so the tiles of a zoomed-out
+ * view are summed from a few coarse cells rather than from many fine ones. Only the cells holding widgets are kept.
+ *
+ * The counts are changed by one writer at a time, as the changes to the widgets are, and read without a lock. They
+ * follow the changes as they are applied, so a reader may see a batch of changes half applied.
+ */
+final class DensityGrid {
+    static final int CELL_SIZE = 64;
+    static final int LEVELS = 8;
+
+    // The cells of each level, keyed by their column and row
+    private final List<ConcurrentUuidMap<Cell>> levels;
+
+    DensityGrid() {
+        levels = new ArrayList<>(LEVELS);
+        for (int level = 0; level < LEVELS; level++)
+            levels.add(new ConcurrentUuidMap<>());
+    }
+
+    static long cellSize(int level) {
+        return (long) CELL_SIZE << (2 * level);
+    }
+
+    void add(Widget widget) {
+        for (int level = 0; level < LEVELS; level++)
+            increment(level, widget.getX(), widget.getY());
+    }
+
+    void remove(Widget widget) {
+        for (int level = 0; level < LEVELS; level++)
+            decrement(level, widget.getX(), widget.getY());
+    }
+
+    /***
+     * Moves a widget from the cells of one center to those of the other, skipping the levels where both are in the
+     * same cell, as the coarse ones mostly are.
+     */
+    void move(Widget from, Widget to) {
+        for (int level = 0; level < LEVELS; level++) {
+            long cellSize = cellSize(level);
+            if (Math.floorDiv(from.getX(), cellSize) == Math.floorDiv(to.getX(), cellSize)
+                    && Math.floorDiv(from.getY(), cellSize) == Math.floorDiv(to.getY(), cellSize))
+                continue;
+            decrement(level, from.getX(), from.getY());
+            increment(level, to.getX(), to.getY());
+        }
+    }
+
+    private void increment(int level, long x, long y) {
+        long column = Math.floorDiv(x, cellSize(level));
+        long row = Math.floorDiv(y, cellSize(level));
+        Cell cell = levels.get(level).get(column, row);
+        if (cell == null)
+            levels.get(level).put(column, row, new Cell(column, row, 1));
+        else
+            cell.count++;
+    }
+
+    private void decrement(int level, long x, long y) {
+        long column = Math.floorDiv(x, cellSize(level));
+        long row = Math.floorDiv(y, cellSize(level));
+        Cell cell = levels.get(level).get(column, row);
+        if (cell != null && --cell.count == 0)
+            levels.get(level).remove(column, row);
+    }
+
+    /***
+     * Counts the widgets in each of the given tiles, from the lower left one, row by row. The tiles start at multiples
+     * of their size.
+     *
+     * @param tileSize a multiple of {@link #CELL_SIZE}
+     */
+    int[] count(long firstColumn, long firstRow, int columns, int rows, long tileSize) {
+        // The coarsest grid whose cells tile the tiles
+        int level = 0;
+        while (level + 1 < LEVELS && tileSize % cellSize(level + 1) == 0)
+            level++;
+        long cellsPerTile = tileSize / cellSize(level);
+        long fromColumn = firstColumn * cellsPerTile;
+        long fromRow = firstRow * cellsPerTile;
+        long toColumn = fromColumn + columns * cellsPerTile;
+        long toRow = fromRow + rows * cellsPerTile;
+
+        int[] counts = new int[columns * rows];
+        ConcurrentUuidMap<Cell> cells = levels.get(level);
+        // Like the spatial grid, scan the occupied cells rather than the covered ones when there are fewer of them
+        if ((double) (toColumn - fromColumn) * (toRow - fromRow) > cells.size()) {
+            cells.forEach(cell -> {
+                if (fromColumn <= cell.column && cell.column < toColumn && fromRow <= cell.row && cell.row < toRow)
+                    counts[tileOf(cell.column - fromColumn, cell.row - fromRow, cellsPerTile, columns)] += cell.count;
+            });
+        } else {
+            for (long row = fromRow; row < toRow; row++) {
+                for (long column = fromColumn; column < toColumn; column++) {
+                    Cell cell = cells.get(column, row);
+                    if (cell != null)
+                        counts[tileOf(column - fromColumn, row - fromRow, cellsPerTile, columns)] += cell.count;
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static int tileOf(long column, long row, long cellsPerTile, int columns) {
+        return (int) (row / cellsPerTile) * columns + (int) (column / cellsPerTile);
+    }
+
+    private static final class Cell {
+        private final long column;
+        private final long row;
+        // Only changed by the writer
+        private volatile int count;
+
+        private Cell(long column, long row, int count) {
+            this.column = column;
+            this.row = row;
+            this.count = count;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.WidgetRecord;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/***
+ * Leaves out the widgets hidden in a viewport beneath the widgets above them, for renderers that would otherwise draw
+ * widgets nobody can see. Widgets are opaque, and hide what lies beneath their bounding box.
+ *
+ * The widgets are walked from the top down, and the part of the viewport covered so far is kept in a region quadtree:
+ * a node is fully covered, partly covered by a single box, or split in four. Covering the part of a widget inside the
+ * viewport tells whether any of it wasn't covered yet, which is whether the widget shows, so each widget is looked at
+ * once, at a cost growing with the nodes along its edges rather than with the widgets above it. A node is only split
+ * when a second box partly covers it, so the edges of widgets lying apart split nothing. Once the whole viewport is
+ * covered, the widgets beneath are dropped at the root.
+ *
+ * The quadtree splits the edges of the widgets rather than the coordinate space, so its depth grows with the number of
+ * widgets rather than with their coordinates. A widget whose part in the viewport has no area, e.g. one only touching
+ * its edge, covers nothing and is never hidden.
+ */
+final class OcclusionCulling {
+    private final long[] xs;
+    private final long[] ys;
+    // The index of the first of the four children of a node, 0 for a leaf; the root is node 0
+    private int[] children;
+    private boolean[] covered;
+    // The cells of the one box partly covering a leaf, if any, as left, right, low and high
+    private int[] boxes;
+    private int nodes;
+
+    private OcclusionCulling(long[] xs, long[] ys) {
+        this.xs = xs;
+        this.ys = ys;
+        this.children = new int[64];
+        this.covered = new boolean[64];
+        this.boxes = new int[64 * 4];
+        this.nodes = 1;
+    }
+
+    /***
+     * Passes the widgets at least partly visible in the viewport to the consumer, in the order of the list.
+     *
+     * @param byZ the widgets intersecting the viewport, sorted by z
+     */
+    static void forEachVisible(List<WidgetRecord> byZ, BoundingBox viewport, Consumer<WidgetRecord> consumer) {
+        WidgetRecord[] widgets = byZ.toArray(new WidgetRecord[0]);
+        OcclusionCulling culling = new OcclusionCulling(
+                edges(widgets, viewport.getLeft(), viewport.getRight(), true),
+                edges(widgets, viewport.getLow(), viewport.getHigh(), false));
+
+        boolean[] visible = new boolean[widgets.length];
+        for (int i = widgets.length - 1; i >= 0; i--) {
+            WidgetRecord widget = widgets[i];
+            long left = Math.max(widget.getLeft(), viewport.getLeft());
+            long right = Math.min(widget.getRight(), viewport.getRight());
+            long low = Math.max(widget.getLow(), viewport.getLow());
+            long high = Math.min(widget.getHigh(), viewport.getHigh());
+            visible[i] = left >= right || low >= high || culling.cover(left, right, low, high);
+        }
+
+        for (int i = 0; i < widgets.length; i++) {
+            if (visible[i])
+                consumer.accept(widgets[i]);
+        }
+    }
+
+    /***
+     * The distinct edges of the widgets along one axis, clipped to the viewport and sorted, the edges of the viewport
+     * included. The cells of the quadtree lie between two consecutive edges.
+     */
+    private static long[] edges(WidgetRecord[] widgets, long from, long to, boolean horizontal) {
+        long[] edges = new long[widgets.length * 2 + 2];
+        int count = 0;
+        edges[count++] = from;
+        edges[count++] = to;
+        for (WidgetRecord widget : widgets) {
+            edges[count++] = clip(horizontal ? widget.getLeft() : widget.getLow(), from, to);
+            edges[count++] = clip(horizontal ? widget.getRight() : widget.getHigh(), from, to);
+        }
+        Arrays.sort(edges, 0, count);
+
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || edges[i] != edges[distinct - 1])
+                edges[distinct++] = edges[i];
+        }
+        return Arrays.copyOf(edges, distinct);
+    }
+
+    private static long clip(long edge, long from, long to) {
+        return Math.max(from, Math.min(to, edge));
+    }
+
+    /***
+     * Covers the box, returning whether any part of it wasn't covered yet.
+     */
+    private boolean cover(long left, long right, long low, long high) {
+        return cover(0, 0, xs.length - 1, 0, ys.length - 1,
+                Arrays.binarySearch(xs, left), Arrays.binarySearch(xs, right),
+                Arrays.binarySearch(ys, low), Arrays.binarySearch(ys, high));
+    }
+
+    /***
+     * Covers the cells from left to right and from low to high, excluded, under the node, which spans the cells from
+     * x0 to x1 and from y0 to y1, excluded.
+     */
+    private boolean cover(int node, int x0, int x1, int y0, int y1, int left, int right, int low, int high) {
+        if (covered[node] || right <= x0 || x1 <= left || high <= y0 || y1 <= low)
+            return false;
+        if (left <= x0 && x1 <= right && low <= y0 && y1 <= high) {
+            covered[node] = true;
+            children[node] = 0;
+            return true;
+        }
+
+        left = Math.max(left, x0);
+        right = Math.min(right, x1);
+        low = Math.max(low, y0);
+        high = Math.min(high, y1);
+        int xm = (x0 + x1) >>> 1;
+        int ym = (y0 + y1) >>> 1;
+        if (children[node] == 0) {
+            int box = node * 4;
+            if (boxes[box] == boxes[box + 1]) {
+                setBox(node, left, right, low, high);
+                return true;
+            }
+            if (boxes[box] <= left && right <= boxes[box + 1] && boxes[box + 2] <= low && high <= boxes[box + 3])
+                return false;
+            if (left <= boxes[box] && boxes[box + 1] <= right && low <= boxes[box + 2] && boxes[box + 3] <= high) {
+                setBox(node, left, right, low, high);
+                return true;
+            }
+
+            // A second box partly covering the node, the first one moves down to the children
+            split(node, xm - x0, x1 - xm, ym - y0, y1 - ym);
+            coverChildren(node, x0, xm, x1, y0, ym, y1, boxes[box], boxes[box + 1], boxes[box + 2], boxes[box + 3]);
+            setBox(node, 0, 0, 0, 0);
+        }
+
+        boolean uncovered = coverChildren(node, x0, xm, x1, y0, ym, y1, left, right, low, high);
+        int first = children[node];
+        if (covered[first] && covered[first + 1] && covered[first + 2] && covered[first + 3]) {
+            covered[node] = true;
+            children[node] = 0;
+        }
+        return uncovered;
+    }
+
+    private boolean coverChildren(int node, int x0, int xm, int x1, int y0, int ym, int y1,
+                                  int left, int right, int low, int high) {
+        int first = children[node];
+        // Not short-circuited, every child the box falls on is covered
+        return cover(first, x0, xm, y0, ym, left, right, low, high)
+                | cover(first + 1, xm, x1, y0, ym, left, right, low, high)
+                | cover(first + 2, x0, xm, ym, y1, left, right, low, high)
+                | cover(first + 3, xm, x1, ym, y1, left, right, low, high);
+    }
+
+    private void setBox(int node, int left, int right, int low, int high) {
+        boxes[node * 4] = left;
+        boxes[node * 4 + 1] = right;
+        boxes[node * 4 + 2] = low;
+        boxes[node * 4 + 3] = high;
+    }
+
+    /***
+     * Adds the four children of a node, of the given widths and heights. A node one cell wide or high has two children
+     * with no area, which start out covered.
+     */
+    private void split(int node, int leftWidth, int rightWidth, int lowerHeight, int upperHeight) {
+        if (nodes + 4 > children.length) {
+            children = Arrays.copyOf(children, children.length * 2);
+            covered = Arrays.copyOf(covered, covered.length * 2);
+            boxes = Arrays.copyOf(boxes, boxes.length * 2);
+        }
+        int first = nodes;
+        nodes += 4;
+        children[node] = first;
+        for (int i = first; i < nodes; i++) {
+            children[i] = 0;
+            covered[i] = false;
+            setBox(i, 0, 0, 0, 0);
+        }
+        covered[first] = leftWidth == 0 || lowerHeight == 0;
+        covered[first + 1] = rightWidth == 0 || lowerHeight == 0;
+        covered[first + 2] = leftWidth == 0 || upperHeight == 0;
+        covered[first + 3] = rightWidth == 0 || upperHeight == 0;
+    }
+}
@@ -0,0 +1,107 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.WidgetRecord;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/***
+ * Finds the pairs of overlapping widgets with a sweep over their bounding boxes, for linting a canvas without
+ * comparing every widget with every other.
+ *
+ * The boxes are sorted by their left edge and swept from left to right. A box can only overlap the boxes starting
+ * before its right edge, so it is compared with those alone, which on a canvas are the few boxes around it rather
+ * than the whole canvas. Boxes overlap when they share more than an edge, see {@link WidgetRecord#overlaps}.
+ *
+ * The edges are copied to arrays of their own and sorted there, so neither the sort nor the sweep hop from record to
+ * record across the heap, which costs more than the comparisons themselves.
+ */
+final class OverlapSweep {
+    private final WidgetRecord[] widgets;
+    private final long[] left;
+    private final long[] low;
+    private final long[] right;
+    private final long[] high;
+
+    private OverlapSweep(List<WidgetRecord> widgets) {
+        int count = widgets.size();
+        this.widgets = widgets.toArray(new WidgetRecord[0]);
+        this.left = new long[count];
+        this.low = new long[count];
+        this.right = new long[count];
+        this.high = new long[count];
+        for (int i = 0; i < count; i++) {
+            left[i] = this.widgets[i].getLeft();
+            low[i] = this.widgets[i].getLow();
+            right[i] = this.widgets[i].getRight();
+            high[i] = this.widgets[i].getHigh();
+        }
+    }
+
+    /***
+     * Passes every pair of overlapping widgets to the consumer once, in the order the sweep finds them.
+     */
+    static void forEachOverlap(List<WidgetRecord> widgets, BiConsumer<WidgetRecord, WidgetRecord> consumer) {
+        OverlapSweep sweep = new OverlapSweep(widgets);
+        sweep.sortByLeft(0, widgets.size() - 1);
+        sweep.sweep(consumer);
+    }
+
+    private void sweep(BiConsumer<WidgetRecord, WidgetRecord> consumer) {
+        for (int i = 0; i < left.length; i++) {
+            for (int j = i + 1; j < left.length && left[j] < right[i]; j++) {
+                if (low[j] < high[i] && low[i] < high[j] && left[i] < right[j])
+                    consumer.accept(widgets[i], widgets[j]);
+            }
+        }
+    }
+
+    private void sortByLeft(int from, int to) {
+        while (to - from > 16) {
+            long pivot = medianOfThree(left[from], left[(from + to) >>> 1], left[to]);
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (left[i] < pivot)
+                    i++;
+                while (left[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(i++, j--);
+            }
+            // Recurse into the smaller part and loop on the larger one, so the stack stays O(log n) deep
+            if (j - from < to - i) {
+                sortByLeft(from, j);
+                from = i;
+            } else {
+                sortByLeft(i, to);
+                to = j;
+            }
+        }
+
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && left[j - 1] > left[j]; j--)
+                swap(j - 1, j);
+        }
+    }
+
+    private static long medianOfThree(long a, long b, long c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private void swap(int i, int j) {
+        WidgetRecord widget = widgets[i];
+        widgets[i] = widgets[j];
+        widgets[j] = widget;
+        swap(left, i, j);
+        swap(low, i, j);
+        swap(right, i, j);
+        swap(high, i, j);
+    }
+
+    private static void swap(long[] edges, int i, int j) {
+        long edge = edges[i];
+        edges[i] = edges[j];
+        edges[j] = edge;
+    }
+}
@@ -0,0 +1,103 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.repository.WidgetSnapshot;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/***
+ * The snapshots handed out to clients paging through the widgets, kept by version so the following pages can be
+ * read from the same one.
+ *
+ * A snapshot is kept until it hasn't been read for {@link #TIME_TO_LIVE_MILLIS}, so a client keeps its listing for
+ * as long as it keeps paging through it. The snapshots of the stores changing their widgets in place hold a copy of
+ * every widget, so once the copies add up to more than the given number of widgets, the least recently read
+ * copies are dropped, keeping at least the one read last. The others share their widgets with the store, and only
+ * the most recently read {@link #MAX_PINNED} of them are kept, which only comes into play if far more listings are
+ * paged through at once than the service is meant for.
+ */
+class PinnedSnapshots {
+    static final int MAX_PINNED = 1024;
+    static final long TIME_TO_LIVE_MILLIS = 60_000;
+    static final long DEFAULT_MAX_COPIED_WIDGETS = 2_000_000;
+
+    private final long maxCopiedWidgets;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Long, Pinned> pinned;
+    private long copiedWidgets;
+
+    PinnedSnapshots(long maxCopiedWidgets) {
+        this(maxCopiedWidgets, System::currentTimeMillis);
+    }
+
+    PinnedSnapshots(long maxCopiedWidgets, LongSupplier clock) {
+        this.maxCopiedWidgets = maxCopiedWidgets;
+        this.clock = clock;
+        // Access ordered, so the least recently read snapshot comes first
+        this.pinned = new LinkedHashMap<>(16, 0.75F, true);
+    }
+
+    /***
+     * Keeps the snapshot, or the one already kept for its version, and returns it.
+     */
+    synchronized WidgetSnapshot pin(WidgetSnapshot snapshot) {
+        long now = clock.getAsLong();
+        expire(now);
+        Pinned kept = pinned.get(snapshot.getVersion());
+        if (kept == null) {
+            kept = new Pinned(snapshot);
+            pinned.put(snapshot.getVersion(), kept);
+            copiedWidgets += snapshot.getCopiedWidgetCount();
+            evict(kept);
+        }
+        kept.lastReadAt = now;
+        return kept.snapshot;
+    }
+
+    synchronized Optional<WidgetSnapshot> get(long version) {
+        long now = clock.getAsLong();
+        expire(now);
+        Pinned kept = pinned.get(version);
+        if (kept == null)
+            return Optional.empty();
+
+        kept.lastReadAt = now;
+        return Optional.of(kept.snapshot);
+    }
+
+    private void expire(long now) {
+        Iterator<Pinned> leastRecentlyRead = pinned.values().iterator();
+        while (leastRecentlyRead.hasNext()) {
+            Pinned next = leastRecentlyRead.next();
+            if (now - next.lastReadAt < TIME_TO_LIVE_MILLIS)
+                break;
+            leastRecentlyRead.remove();
+            copiedWidgets -= next.snapshot.getCopiedWidgetCount();
+        }
+    }
+
+    private void evict(Pinned pinnedLast) {
+        Iterator<Pinned> leastRecentlyRead = pinned.values().iterator();
+        while (pinned.size() > MAX_PINNED || copiedWidgets > maxCopiedWidgets) {
+            Pinned next = leastRecentlyRead.next();
+            if (next == pinnedLast)
+                break;
+            // Dropping a snapshot sharing its widgets frees nothing, so only copies are dropped to free widgets
+            if (pinned.size() > MAX_PINNED || next.snapshot.getCopiedWidgetCount() > 0) {
+                leastRecentlyRead.remove();
+                copiedWidgets -= next.snapshot.getCopiedWidgetCount();
+            }
+        }
+    }
+
+    private static final class Pinned {
+        private final WidgetSnapshot snapshot;
+        private long lastReadAt;
+
+        Pinned(WidgetSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetQueryCacheStats;
+import com.mustafadagher.widgets.model.WidgetRecord;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+/***
+ * The pages of widgets recently listed, by version of the widgets, area, area filter mode and page, for clients polling the same
+ * viewport over and over.
+ *
+ * Every change makes a new version, so an entry can never be served after a change: the listings of the new version
+ * miss, and the entries of the older ones are left to be evicted. The least recently read entries are evicted once
+ * there are more than {@link #MAX_ENTRIES}, or more than {@link #MAX_CACHED_WIDGETS} widgets in all. The widgets are
+ * kept as {@link WidgetRecord}s, and built again on every hit, so a caller changing a returned widget doesn't change
+ * what the next one gets.
+ */
+class QueryResultCache {
+    static final int MAX_ENTRIES = 1_024;
+    static final long MAX_CACHED_WIDGETS = 100_000;
+
+    private final LinkedHashMap<Key, WidgetRecord[]> entries;
+    private long cachedWidgets;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    QueryResultCache() {
+        // Access ordered, so the least recently read entry comes first
+        this.entries = new LinkedHashMap<>(MAX_ENTRIES * 2, 0.75F, true);
+    }
+
+    /***
+     * Returns the cached page, or runs the query and caches what it returns.
+     *
+     * @param area the area the widgets were filtered by, or null if they weren't
+     * @param mode how they were filtered by the area, or null if they weren't
+     */
+    List<Widget> get(long version, BoundingBox area, AreaFilterMode mode, int page, int size, Supplier<List<Widget>> query) {
+        Key key = new Key(version, area, mode, page, size);
+        WidgetRecord[] cached;
+        synchronized (this) {
+            cached = entries.get(key);
+            if (cached != null)
+                hits++;
+            else
+                misses++;
+        }
+        if (cached != null)
+            return toWidgets(cached);
+
+        // Queried without holding the lock, as a version never changes; racing callers cache the same page
+        List<Widget> widgets = query.get();
+        WidgetRecord[] records = new WidgetRecord[widgets.size()];
+        for (int i = 0; i < records.length; i++)
+            records[i] = WidgetRecord.of(widgets.get(i));
+        put(key, records);
+        return widgets;
+    }
+
+    synchronized WidgetQueryCacheStats stats() {
+        return new WidgetQueryCacheStats(hits, misses, evictions, entries.size(), cachedWidgets);
+    }
+
+    private synchronized void put(Key key, WidgetRecord[] records) {
+        if (records.length > MAX_CACHED_WIDGETS)
+            return;
+
+        WidgetRecord[] replaced = entries.put(key, records);
+        if (replaced != null)
+            cachedWidgets -= replaced.length;
+        cachedWidgets += records.length;
+
+        Iterator<WidgetRecord[]> leastRecentlyRead = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES || cachedWidgets > MAX_CACHED_WIDGETS) {
+            cachedWidgets -= leastRecentlyRead.next().length;
+            leastRecentlyRead.remove();
+            evictions++;
+        }
+    }
+
+    private static List<Widget> toWidgets(WidgetRecord[] records) {
+        List<Widget> widgets = new ArrayList<>(records.length);
+        for (WidgetRecord record : records)
+            widgets.add(record.toWidget());
+        return widgets;
+    }
+
+    private static final class Key {
+        private final long version;
+        private final BoundingBox area;
+        private final AreaFilterMode mode;
+        private final int page;
+        private final int size;
+
+        private Key(long version, BoundingBox area, AreaFilterMode mode, int page, int size) {
+            this.version = version;
+            this.area = area;
+            this.mode = mode;
+            this.page = page;
+            this.size = size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return version == key.version && page == key.page && size == key.size && Objects.equals(area, key.area)
+                    && mode == key.mode;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(version, area, mode, page, size);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.Widget;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/***
+ * Applies the changes submitted from any thread on a single writer thread, in the order they were submitted.
+ *
+ * The changes wait in a bounded queue, so submitting blocks while the writer is {@link #CAPACITY} changes behind. The
+ * writer takes them in batches of up to {@link #MAX_BATCH}, and hands each run of consecutive inserts to the batch
+ * inserter as one list, so their shifts can be applied in one pass over the z-order. The callers get a future that the
+ * writer completes with the result of their change, or with the exception it threw.
+ */
+class SingleWriter {
+    static final int CAPACITY = 1024;
+    static final int MAX_BATCH = 256;
+
+    private final Function<List<Widget>, List<Widget>> batchInserter;
+    private final BlockingQueue<Change> changes;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /***
+     * @param batchInserter inserts a list of widgets, returning the saved widgets in the same order
+     */
+    SingleWriter(Function<List<Widget>, List<Widget>> batchInserter) {
+        this.batchInserter = batchInserter;
+        this.changes = new ArrayBlockingQueue<>(CAPACITY);
+        this.writer = new Thread(this::applyChanges, "widgets-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /***
+     * Queues the widget to be inserted along with the other inserts of its batch.
+     */
+    CompletableFuture<Widget> insert(Widget widget) {
+        return submit(new Change(widget, null));
+    }
+
+    /***
+     * Queues any other change, which is applied on its own.
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> change) {
+        return submit(new Change(null, change));
+    }
+
+    /***
+     * Stops the writer. The changes it hasn't applied yet fail with an {@link IllegalStateException}.
+     */
+    void close() throws InterruptedException {
+        closed = true;
+        writer.interrupt();
+        writer.join();
+        failPendingChanges();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> submit(Change change) {
+        if (closed)
+            throw new IllegalStateException("The widgets writer is closed");
+        try {
+            changes.put(change);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to submit a change", e);
+        }
+        // The writer may have been closed meanwhile, without seeing this change
+        if (closed)
+            failPendingChanges();
+        return (CompletableFuture<T>) change.result;
+    }
+
+    private void applyChanges() {
+        List<Change> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed) {
+            try {
+                batch.add(changes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            changes.drainTo(batch, MAX_BATCH - 1);
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    private void apply(List<Change> batch) {
+        int from = 0;
+        while (from < batch.size()) {
+            if (batch.get(from).toInsert == null) {
+                batch.get(from).apply();
+                from++;
+                continue;
+            }
+
+            int to = from;
+            while (to < batch.size() && batch.get(to).toInsert != null)
+                to++;
+            insertAll(batch.subList(from, to));
+            from = to;
+        }
+    }
+
+    private void insertAll(List<Change> inserts) {
+        List<Widget> widgets = new ArrayList<>(inserts.size());
+        inserts.forEach(insert -> widgets.add(insert.toInsert));
+        try {
+            List<Widget> inserted = batchInserter.apply(widgets);
+            for (int i = 0; i < inserts.size(); i++)
+                inserts.get(i).result.complete(inserted.get(i));
+        } catch (RuntimeException e) {
+            inserts.forEach(insert -> insert.result.completeExceptionally(e));
+        }
+    }
+
+    private void failPendingChanges() {
+        Change change;
+        while ((change = changes.poll()) != null)
+            change.result.completeExceptionally(new IllegalStateException("The widgets writer is closed"));
+    }
+
+    private static class Change {
+        private final Widget toInsert;
+        private final Supplier<?> change;
+        private final CompletableFuture<Object> result;
+
+        private Change(Widget toInsert, Supplier<?> change) {
+            this.toInsert = toInsert;
+            this.change = change;
+            this.result = new CompletableFuture<>();
+        }
+
+        private void apply() {
+            try {
+                result.complete(change.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.mustafadagher.widgets.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.mustafadagher.widgets.model.WidgetImportResult;
+import com.mustafadagher.widgets.model.WidgetRequest;
+import org.springframework.stereotype.Service;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/***
+ * Adds the widgets of a stream of widget requests, one JSON document per line, as {@link WidgetsService#addWidgets}
+ * would, but without reading the whole stream first.
+ *
+ * The lines are read and validated one at a time, and the valid requests are added in chunks of {@link #CHUNK_SIZE},
+ * so the memory an import takes doesn't depend on its size. Reads never wait for an import, and other changes are
+ * applied between its chunks rather than after the whole import. Reading stops while a chunk is added, which in turn
+ * slows down the client sending it. Invalid lines are skipped and counted, and so are lines longer than
+ * {@link #MAX_LINE_LENGTH}, which are skipped as they are read rather than held in memory.
+ */
+@Service
+public class WidgetImporter {
+    static final int CHUNK_SIZE = 1_000;
+    static final int MAX_REPORTED_ERRORS = 100;
+    static final int MAX_LINE_LENGTH = 8_192;
+
+    private final WidgetsService widgetsService;
+    private final ObjectReader requestReader;
+    private final Validator validator;
+
+    public WidgetImporter(WidgetsService widgetsService, ObjectMapper objectMapper, Validator validator) {
+        this.widgetsService = widgetsService;
+        this.requestReader = objectMapper.readerFor(WidgetRequest.class);
+        this.validator = validator;
+    }
+
+    public WidgetImportResult importWidgets(InputStream ndjson) throws IOException {
+        BoundedLines lines = new BoundedLines(new BufferedReader(new InputStreamReader(ndjson, StandardCharsets.UTF_8)));
+        List<WidgetRequest> chunk = new ArrayList<>(CHUNK_SIZE);
+        List<String> errors = new ArrayList<>();
+        long imported = 0;
+        long rejected = 0;
+
+        for (long lineNumber = 1; lines.next(); lineNumber++) {
+            String error;
+            if (lines.isTooLong()) {
+                error = "longer than " + MAX_LINE_LENGTH + " characters";
+            } else {
+                String line = lines.get();
+                if (line.trim().isEmpty())
+                    continue;
+                error = parse(line, chunk);
+            }
+            if (error != null) {
+                rejected++;
+                if (errors.size() < MAX_REPORTED_ERRORS)
+                    errors.add("line " + lineNumber + ": " + error);
+            }
+            if (chunk.size() == CHUNK_SIZE) {
+                imported += widgetsService.addWidgets(chunk).size();
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty())
+            imported += widgetsService.addWidgets(chunk).size();
+
+        return new WidgetImportResult().imported(imported).rejected(rejected).errors(errors);
+    }
+
+    /***
+     * Adds the request on the line to the chunk if it's valid, or returns why it isn't.
+     */
+    private String parse(String line, List<WidgetRequest> chunk) {
+        WidgetRequest request;
+        try {
+            request = requestReader.readValue(line);
+        } catch (JsonProcessingException e) {
+            return "not a valid widget request";
+        }
+
+        Set<ConstraintViolation<WidgetRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            List<String> messages = new ArrayList<>(violations.size());
+            violations.forEach(violation -> messages.add(violation.getPropertyPath() + " " + violation.getMessage()));
+            messages.sort(null);
+            return String.join(", ", messages);
+        }
+
+        chunk.add(request);
+        return null;
+    }
+
+    /***
+     * Reads the lines of a reader one at a time, keeping at most {@link #MAX_LINE_LENGTH} characters of a line and
+     * skipping the rest of a longer one.
+     */
+    private static final class BoundedLines {
+        private final Reader reader;
+        private final StringBuilder line;
+        private boolean tooLong;
+
+        BoundedLines(Reader reader) {
+            this.reader = reader;
+            this.line = new StringBuilder();
+        }
+
+        /***
+         * Reads the next line, returning false at the end of the stream.
+         */
+        boolean next() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+            int read;
+            while ((read = reader.read()) != -1 && read != '\n') {
+                if (line.length() < MAX_LINE_LENGTH)
+                    line.append((char) read);
+                else
+                    tooLong = true;
+            }
+            return read != -1 || line.length() > 0 || tooLong;
+        }
+
+        boolean isTooLong() {
+            return tooLong;
+        }
+
+        String get() {
+            return line.toString();
+        }
+    }
+}
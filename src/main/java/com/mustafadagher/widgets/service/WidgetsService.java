@@ -1,95 +1,305 @@
 package com.mustafadagher.widgets.service;
 
+import com.mustafadagher.widgets.exception.InvalidTilingException;
+import com.mustafadagher.widgets.exception.SnapshotExpiredException;
 import com.mustafadagher.widgets.exception.WidgetNotFoundException;
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
 import com.mustafadagher.widgets.model.Widget;
 import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetChangeResult;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import com.mustafadagher.widgets.model.WidgetDensity;
+import com.mustafadagher.widgets.model.WidgetOverlap;
+import com.mustafadagher.widgets.model.WidgetQueryCacheStats;
+import com.mustafadagher.widgets.model.WidgetRecord;
 import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.model.WidgetUpdateRequest;
 import com.mustafadagher.widgets.repository.WidgetRepository;
+import com.mustafadagher.widgets.repository.WidgetSnapshot;
+import com.mustafadagher.widgets.repository.WidgetView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.time.OffsetDateTime;
-import java.util.Collections;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 import static com.mustafadagher.widgets.model.Widget.fromWidgetRequest;
 
+/***
+ * Changes are serialized, as some of them read before they write: by a lock, or by queuing them for a single writer
+ * thread, depending on the {@link WriteMode}. Reads take no lock: every repository call reads a consistent version of
+ * the widgets, and listings can be pinned to a {@link WidgetSnapshot} so that all the pages of a listing come from
+ * the same version.
+ */
 @Service
 public class WidgetsService {
+    public static final int MAX_DENSITY_TILES = 65_536;
+
     private final WidgetRepository widgetRepository;
     private final AtomicLong highestZ;
-    private final ReentrantReadWriteLock lock;
+    private final AtomicLong modifications;
+    private final Lock writeLock;
+    private final PinnedSnapshots pinnedSnapshots;
+    private final QueryResultCache queryCache;
+    private final DensityGrid densityGrid;
+    // Only in the single writer mode
+    private final SingleWriter singleWriter;
 
     public WidgetsService(WidgetRepository widgetRepository) {
+        this(widgetRepository, WriteMode.LOCKING);
+    }
+
+    public WidgetsService(WidgetRepository widgetRepository, WriteMode writeMode) {
+        this(widgetRepository, writeMode, PinnedSnapshots.DEFAULT_MAX_COPIED_WIDGETS);
+    }
+
+    @Autowired
+    public WidgetsService(WidgetRepository widgetRepository,
+                          @Value("${widgets.writes.mode:locking}") WriteMode writeMode,
+                          @Value("${widgets.snapshots.max-pinned-widgets:2000000}") long maxPinnedWidgets) {
         this.widgetRepository = widgetRepository;
-        lock = new ReentrantReadWriteLock();
+        writeLock = new ReentrantLock();
         highestZ = new AtomicLong(Long.MIN_VALUE);
+        modifications = new AtomicLong();
+        pinnedSnapshots = new PinnedSnapshots(maxPinnedWidgets);
+        queryCache = new QueryResultCache();
+        densityGrid = new DensityGrid();
+        singleWriter = writeMode == WriteMode.SINGLE_WRITER
+                ? new SingleWriter(widgets -> {
+                    try {
+                        return insertAllShiftingUpwardsAndUpdateHighestZ(widgets);
+                    } finally {
+                        modifications.incrementAndGet();
+                    }
+                })
+                : null;
     }
 
     public Widget addWidget(WidgetRequest widgetRequest) {
         Widget widget = fromWidgetRequest(widgetRequest);
-        lock.writeLock().lock();
-        try {
-            if (widget.getZ() == null) {
+        if (widget.getZ() == null) {
+            return write(() -> {
                 moveWidgetToForegroundIfZIndexNotSpecified(widget);
-            } else {
-                shiftAllWidgetsWithSameAndGreaterZIndexUpwards(widget);
-            }
-            return saveAndUpdateHighestZ(widget);
-        } finally {
-            lock.writeLock().unlock();
+                Widget saved = saveAndUpdateHighestZ(widget);
+                densityGrid.add(saved);
+                return saved;
+            });
         }
+        if (singleWriter != null)
+            return await(singleWriter.insert(widget));
+        return write(() -> insertShiftingUpwardsAndUpdateHighestZ(widget));
+    }
+
+    /***
+     * Adds the widgets as a single change, leaving the same z values as adding them one after the other would. Each
+     * run of widgets with a z is inserted at once, so their shifts are applied together, and each run of widgets
+     * without one is sent to the foreground at once.
+     */
+    public List<Widget> addWidgets(List<WidgetRequest> widgetRequests) {
+        List<Widget> widgets = new ArrayList<>(widgetRequests.size());
+        widgetRequests.forEach(request -> widgets.add(fromWidgetRequest(request)));
+        return write(() -> addAll(widgets));
     }
 
     public Widget getWidgetById(UUID widgetId) {
-        lock.readLock().lock();
-        try {
-            return widgetRepository.findById(widgetId).orElseThrow(WidgetNotFoundException::new);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return widgetRepository.findById(widgetId).orElseThrow(WidgetNotFoundException::new);
     }
 
+    /***
+     * Returns a page of the latest version of the widgets.
+     */
     public List<Widget> getAllWidgets(int page, int size, WidgetAreaFilter filter) {
-        lock.readLock().lock();
-        try {
-            List<Widget> widgetsToReturn = null;
+        return getAllWidgets(page, size, filter, widgetRepository);
+    }
 
-            if (filter == null || filter.isNotValid()) {
-                widgetsToReturn = widgetRepository.findAllByOrderByZAsc(page, size);
-            } else if (filter.isNotALineNorADot()) {
-                IsInsideFilteredArea filterPredicate = IsInsideFilteredArea.withinArea(filter);
-                widgetsToReturn = widgetRepository.findAllByAreaOrderByZAsc(page, size, filterPredicate);
-            }
+    /***
+     * Returns the widgets at the point, from the one on top down, or only the one on top.
+     */
+    public List<Widget> getWidgetsAt(long x, long y, boolean topmost, int size) {
+        return widgetRepository.findAllContainingOrderByZDesc(x, y, topmost ? 1 : size);
+    }
 
-            if (widgetsToReturn == null)
-                return Collections.emptyList();
+    /***
+     * Returns the widgets nearest to the point, from the nearest on, and from the one on top down at the same distance.
+     */
+    public List<Widget> getWidgetsNearestTo(long x, long y, int size) {
+        return widgetRepository.findNearestOrderByDistance(new BoundingBox(x, y, x, y), size);
+    }
 
-            return widgetsToReturn;
-        } finally {
-            lock.readLock().unlock();
+    /***
+     * Returns the widgets nearest to the bounding box of the given widget, leaving the widget itself out.
+     */
+    public List<Widget> getWidgetsNearestToWidget(UUID widgetId, int size) {
+        Widget widget = getWidgetById(widgetId);
+        List<Widget> nearest = widgetRepository.findNearestOrderByDistance(BoundingBox.of(widget), size + 1);
+        nearest.removeIf(found -> found.getId().equals(widgetId));
+        return nearest.size() > size ? nearest.subList(0, size) : nearest;
+    }
+
+    /***
+     * Returns a page of the given view of the widgets, see {@link #getCurrentView()} and {@link #getSnapshot(long)}.
+     * The pages of snapshots are cached, see {@link QueryResultCache}.
+     */
+    public List<Widget> getAllWidgets(int page, int size, WidgetAreaFilter filter, WidgetView view) {
+        List<Widget> widgetsToReturn = null;
+
+        if (filter == null || filter.isNotValid()) {
+            widgetsToReturn = cached(view, null, null, page, size, () -> view.findAllByOrderByZAsc(page, size));
+        } else if (filter.mayMatch()) {
+            widgetsToReturn = cached(view, BoundingBox.of(filter), filter.getMode(), page, size,
+                    () -> view.findAllWithinAreaOrderByZAsc(page, size, filter));
         }
+
+        if (widgetsToReturn == null)
+            return Collections.emptyList();
+
+        return widgetsToReturn;
+    }
+
+    /***
+     * Returns the widgets following the cursor in the given snapshot, which should be the one of the version of the
+     * cursor.
+     */
+    public List<Widget> getAllWidgetsAfter(WidgetCursor after, int size, WidgetAreaFilter filter, WidgetSnapshot snapshot) {
+        if (filter == null || filter.isNotValid())
+            return snapshot.findAllAfterOrderByZAsc(after, size);
+        if (filter.mayMatch())
+            return snapshot.findAllWithinAreaAfterOrderByZAsc(after, size, filter);
+        return Collections.emptyList();
+    }
+
+    /***
+     * Passes the widgets of the view, or those within the area of the filter if it's valid, to the consumer in z
+     * order, one at a time.
+     */
+    public void forEachWidget(WidgetAreaFilter filter, WidgetView view, Consumer<Widget> consumer) {
+        if (filter == null || filter.isNotValid())
+            view.forEachOrderByZAsc(consumer);
+        else if (filter.mayMatch())
+            view.forEachWithinAreaOrderByZAsc(filter, consumer);
+    }
+
+    /***
+     * Passes every pair of overlapping widgets of the view, or of the widgets within the area of the filter if it's
+     * valid, to the consumer, see {@link OverlapSweep}. The widgets are held while they are swept, the pairs are
+     * passed on as they are found.
+     */
+    public void forEachOverlap(WidgetAreaFilter filter, WidgetView view, Consumer<WidgetOverlap> consumer) {
+        List<WidgetRecord> widgets = new ArrayList<>();
+        forEachWidget(filter, view, widget -> widgets.add(WidgetRecord.of(widget)));
+        OverlapSweep.forEachOverlap(widgets, (a, b) -> consumer.accept(WidgetOverlap.of(a, b)));
+    }
+
+    /***
+     * Passes the widgets of the view at least partly visible in the viewport to the consumer in z order, leaving out
+     * those hidden beneath the widgets above them, see {@link OcclusionCulling}.
+     */
+    public void forEachVisibleWidget(int leftX, int rightX, int lowerY, int higherY, WidgetView view,
+                                     Consumer<Widget> consumer) {
+        WidgetAreaFilter viewport = new WidgetAreaFilter(leftX, rightX, lowerY, higherY, AreaFilterMode.INTERSECTS);
+        List<WidgetRecord> widgets = new ArrayList<>();
+        view.forEachWithinAreaOrderByZAsc(viewport, widget -> widgets.add(WidgetRecord.of(widget)));
+        OcclusionCulling.forEachVisible(widgets, BoundingBox.of(viewport), widget -> consumer.accept(widget.toWidget()));
+    }
+
+    /***
+     * Returns the widgets overlapping the given widget, sorted by z, leaving the widget itself out.
+     */
+    public List<Widget> getWidgetsOverlapping(UUID widgetId) {
+        Widget widget = getWidgetById(widgetId);
+        List<Widget> overlapping = widgetRepository.findAllOverlappingOrderByZAsc(BoundingBox.of(widget));
+        overlapping.removeIf(found -> found.getId().equals(widgetId));
+        return overlapping;
+    }
+
+    /***
+     * Counts the widgets per tile over the area, from the counters kept per cell as the widgets change, see
+     * {@link DensityGrid}. The tiles start at multiples of their size, and a widget is counted in the tile holding its
+     * center.
+     *
+     * @throws InvalidTilingException if the tile size isn't a multiple of the cells, or the area spans no tile or more
+     *                                than {@link #MAX_DENSITY_TILES}
+     */
+    public WidgetDensity getDensity(int leftX, int rightX, int lowerY, int higherY, int tileSize) {
+        if (tileSize <= 0 || tileSize % DensityGrid.CELL_SIZE != 0)
+            throw new InvalidTilingException("The tile size must be a positive multiple of " + DensityGrid.CELL_SIZE);
+        long firstColumn = Math.floorDiv(leftX, tileSize);
+        long firstRow = Math.floorDiv(lowerY, tileSize);
+        long columns = Math.floorDiv(rightX, tileSize) - firstColumn + 1;
+        long rows = Math.floorDiv(higherY, tileSize) - firstRow + 1;
+        if (columns <= 0 || rows <= 0 || columns * rows > MAX_DENSITY_TILES)
+            throw new InvalidTilingException("The area must span from 1 to " + MAX_DENSITY_TILES + " tiles");
+
+        int[] counts = densityGrid.count(firstColumn, firstRow, (int) columns, (int) rows, tileSize);
+        return new WidgetDensity(firstColumn * tileSize, firstRow * tileSize, tileSize, (int) columns, (int) rows, counts);
+    }
+
+    /***
+     * Counts the changes since the service started. It is incremented once a change has been applied, failed changes
+     * included, so whatever is read after it reflects at least the changes it counts, and as long as it hasn't moved
+     * no change has been applied since. A read racing a change may still see the change before the count does, which
+     * is the same as the read having come in before the change.
+     */
+    public long getModificationCount() {
+        return modifications.get();
+    }
+
+    public WidgetQueryCacheStats getQueryCacheStats() {
+        return queryCache.stats();
+    }
+
+    /***
+     * Returns the latest state of the widgets, without pinning it, see {@link WidgetRepository#currentView()}.
+     */
+    public WidgetView getCurrentView() {
+        return widgetRepository.currentView();
+    }
+
+    /***
+     * Returns the snapshot of the given version if it's still pinned.
+     *
+     * @throws SnapshotExpiredException if the version is no longer pinned
+     */
+    public WidgetSnapshot getSnapshot(long version) {
+        return pinnedSnapshots.get(version).orElseThrow(() -> new SnapshotExpiredException(version));
+    }
+
+    /***
+     * Pins the version of the view so that the following pages of a listing can be read from it, see
+     * {@link #getSnapshot(long)}. Only worth doing once there is a following page to hand out, as the latest state of
+     * a store changing its widgets in place is copied, unless its current version is pinned already. That version may
+     * be later than the one the view was read at, so the returned snapshot is the one to read the following pages from.
+     */
+    public WidgetSnapshot pinSnapshot(WidgetView view) {
+        if (view instanceof WidgetSnapshot)
+            return pinnedSnapshots.pin((WidgetSnapshot) view);
+        return pinnedSnapshots.get(view.getVersion()).orElseGet(() -> pinnedSnapshots.pin(widgetRepository.snapshot()));
     }
 
     public void deleteWidgetById(UUID widgetId) {
-        lock.writeLock().lock();
-        try {
+        write(() -> {
             Widget widget = widgetRepository
                     .findById(widgetId)
                     .orElseThrow(WidgetNotFoundException::new);
 
             widgetRepository.deleteById(widget.getId());
-        } finally {
-            lock.writeLock().unlock();
-        }
+            densityGrid.remove(widget);
+            return null;
+        });
     }
 
     public Widget updateWidgetById(UUID id, WidgetRequest widgetRequest) {
-        lock.writeLock().lock();
-        try {
+        return write(() -> {
             Widget current = widgetRepository
                     .findById(id)
                     .orElseThrow(WidgetNotFoundException::new);
@@ -98,9 +308,82 @@ public class WidgetsService {
                     .id(current.getId())
                     .lastModificationDate(OffsetDateTime.now());
 
-            return saveAndUpdateHighestZ(updated);
-        } finally {
-            lock.writeLock().unlock();
+            Widget saved = saveAndUpdateHighestZ(updated);
+            densityGrid.move(current, saved);
+            return saved;
+        });
+    }
+
+    /***
+     * Updates the widgets as a single change, saving them all at once. A widget that doesn't exist is reported as not
+     * found, without failing the others.
+     */
+    public List<WidgetChangeResult> updateWidgets(List<WidgetUpdateRequest> updates) {
+        return write(() -> {
+            OffsetDateTime now = OffsetDateTime.now();
+            boolean[] found = new boolean[updates.size()];
+            // The state of each widget as the batch goes, an id may be updated more than once
+            Map<UUID, Widget> current = new HashMap<>();
+            List<Widget> toSave = new ArrayList<>(updates.size());
+            for (int i = 0; i < updates.size(); i++) {
+                UUID id = updates.get(i).getId();
+                if (!current.containsKey(id))
+                    widgetRepository.findById(id).ifPresent(widget -> current.put(id, widget));
+                found[i] = current.containsKey(id);
+                if (found[i])
+                    toSave.add(fromWidgetRequest(updates.get(i).getWidget()).id(id).lastModificationDate(now));
+            }
+
+            Iterator<Widget> saved = widgetRepository.saveAll(toSave).iterator();
+            List<WidgetChangeResult> results = new ArrayList<>(updates.size());
+            for (int i = 0; i < updates.size(); i++) {
+                if (found[i]) {
+                    Widget widget = saved.next();
+                    updateHighestZ(widget);
+                    densityGrid.move(current.put(widget.getId(), widget), widget);
+                    results.add(WidgetChangeResult.updated(widget));
+                } else {
+                    results.add(WidgetChangeResult.notFound(updates.get(i).getId()));
+                }
+            }
+            return results;
+        });
+    }
+
+    /***
+     * Deletes the widgets as a single change. A widget that doesn't exist, or was already deleted earlier in the
+     * batch, is reported as not found, without failing the others.
+     */
+    public List<WidgetChangeResult> deleteWidgets(List<UUID> widgetIds) {
+        return write(() -> {
+            Map<UUID, Widget> toDelete = new LinkedHashMap<>();
+            List<WidgetChangeResult> results = new ArrayList<>(widgetIds.size());
+            for (UUID id : widgetIds) {
+                Optional<Widget> widget = toDelete.containsKey(id) ? Optional.empty() : widgetRepository.findById(id);
+                if (widget.isPresent()) {
+                    toDelete.put(id, widget.get());
+                    results.add(WidgetChangeResult.deleted(id));
+                } else {
+                    results.add(WidgetChangeResult.notFound(id));
+                }
+            }
+            widgetRepository.deleteAllById(toDelete.keySet());
+            toDelete.values().forEach(densityGrid::remove);
+            return results;
+        });
+    }
+
+    /***
+     * Stops the single writer, if any. The changes still queued fail.
+     */
+    @PreDestroy
+    public void close() {
+        if (singleWriter == null)
+            return;
+        try {
+            singleWriter.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -108,30 +391,88 @@ public class WidgetsService {
         return highestZ.get();
     }
 
-    private void shiftAllWidgetsWithSameAndGreaterZIndexUpwards(Widget widgetToBeInserted) {
-        Long insertedZIndex = widgetToBeInserted.getZ();
-        List<Widget> allByZGreaterThanOrEqual = widgetRepository.findAllByZGreaterThanOrEqual(insertedZIndex);
-        if (hasAWidgetWithZIndexEqualTo(allByZGreaterThanOrEqual, insertedZIndex)) {
-            allByZGreaterThanOrEqual.forEach(this::incrementZIndexAndSave);
+    /***
+     * Applies the change under the lock, or on the single writer, and waits for it either way.
+     */
+    private <T> T write(Supplier<T> change) {
+        if (singleWriter != null)
+            return await(singleWriter.submit(() -> {
+                try {
+                    return change.get();
+                } finally {
+                    modifications.incrementAndGet();
+                }
+            }));
+
+        writeLock.lock();
+        try {
+            return change.get();
+        } finally {
+            // Counted once applied, so a reader never takes the count of a change that hasn't landed yet
+            modifications.incrementAndGet();
+            writeLock.unlock();
+        }
+    }
+
+    private List<Widget> cached(WidgetView view, BoundingBox area, AreaFilterMode mode, int page, int size,
+                                Supplier<List<Widget>> query) {
+        // The latest state of a store changing its widgets in place may move on while it's read, so only snapshots are
+        if (!(view instanceof WidgetSnapshot))
+            return query.get();
+        return queryCache.get(view.getVersion(), area, mode, page, size, query);
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            // Rethrow what the change threw, e.g. a WidgetNotFoundException
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
         }
     }
 
-    private boolean hasAWidgetWithZIndexEqualTo(List<Widget> allByZGreaterThanOrEqual, Long zIndex) {
-        return allByZGreaterThanOrEqual != null
-                && !allByZGreaterThanOrEqual.isEmpty()
-                && allByZGreaterThanOrEqual.get(0).getZ().equals(zIndex);
+    private Widget insertShiftingUpwardsAndUpdateHighestZ(Widget widget) {
+        Widget saved = widgetRepository.insertShiftingUpwards(widget);
+        updateHighestZ(saved);
+        densityGrid.add(saved);
+        // The shifted run might have reached the top of the stack
+        widgetRepository.findTopByOrderByZDesc().ifPresent(this::updateHighestZ);
+        return saved;
     }
 
-    private void incrementZIndexAndSave(Widget w) {
-        AtomicReference<Widget> current = new AtomicReference<>(w);
+    private List<Widget> addAll(List<Widget> widgets) {
+        List<Widget> added = new ArrayList<>(widgets.size());
+        int from = 0;
+        while (from < widgets.size()) {
+            boolean toForeground = widgets.get(from).getZ() == null;
+            int to = from;
+            while (to < widgets.size() && (widgets.get(to).getZ() == null) == toForeground)
+                to++;
 
-        Widget updated = current
-                .updateAndGet(wi -> w
-                        .clone()
-                        .z(w.getZ() + 1)
-                        .lastModificationDate(OffsetDateTime.now()));
+            List<Widget> run = new ArrayList<>(widgets.subList(from, to));
+            if (toForeground) {
+                run.forEach(this::moveWidgetToForegroundIfZIndexNotSpecified);
+                List<Widget> saved = widgetRepository.saveAll(run);
+                saved.forEach(this::updateHighestZ);
+                saved.forEach(densityGrid::add);
+                added.addAll(saved);
+            } else {
+                added.addAll(insertAllShiftingUpwardsAndUpdateHighestZ(run));
+            }
+            from = to;
+        }
+        return added;
+    }
 
-        saveAndUpdateHighestZ(updated);
+    private List<Widget> insertAllShiftingUpwardsAndUpdateHighestZ(List<Widget> widgets) {
+        List<Widget> saved = widgetRepository.insertAllShiftingUpwards(widgets);
+        saved.forEach(this::updateHighestZ);
+        saved.forEach(densityGrid::add);
+        // Once for the whole batch, rather than once per insert
+        widgetRepository.findTopByOrderByZDesc().ifPresent(this::updateHighestZ);
+        return saved;
     }
 
     private Widget saveAndUpdateHighestZ(Widget widget) {
@@ -0,0 +1,18 @@
+package com.mustafadagher.widgets.service;
+
+/***
+ * How the {@link WidgetsService} applies changes, selected with the {@code widgets.writes.mode} property.
+ *
+ * <ul>
+ *     <li>{@link #LOCKING} applies each change on the calling thread, holding a lock. It's the default.</li>
+ *     <li>{@link #SINGLE_WRITER} queues the changes for one writer thread, which applies them in batches, inserting
+ *     the widgets of a batch with their shifts applied at once, see {@link SingleWriter}. It pays off under bursts
+ *     of inserts, when the callers would otherwise queue up on the lock.</li>
+ * </ul>
+ *
+ * See {@code WriteModeBenchmark} for the numbers behind these.
+ */
+public enum WriteMode {
+    LOCKING,
+    SINGLE_WRITER
+}
@@ -4,6 +4,7 @@ import com.mustafadagher.widgets.model.Widget;
 import com.mustafadagher.widgets.model.WidgetRequest;
 
 import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.UUID;
 
 public class Mocks {
@@ -17,7 +18,7 @@ public class Mocks {
     public static Widget aValidWidget() {
         return new Widget()
                 .id(UUID.randomUUID())
-                .lastModificationDate(OffsetDateTime.now())
+                .lastModificationDate(OffsetDateTime.now().truncatedTo(ChronoUnit.MILLIS))
                 .height(100F).width(100F)
                 .x(50L).y(50L).z(-1L);
     }
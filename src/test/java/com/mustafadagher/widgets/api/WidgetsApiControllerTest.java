@@ -4,6 +4,8 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mustafadagher.widgets.model.Widget;
 import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.model.WidgetUpdateRequest;
+import com.mustafadagher.widgets.repository.WidgetRepository;
 import com.mustafadagher.widgets.service.WidgetsService;
 import org.hamcrest.core.IsNot;
 import org.junit.jupiter.api.MethodOrderer;
@@ -16,6 +18,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
@@ -30,10 +33,16 @@ import static org.hamcrest.Matchers.*;
 import static org.hamcrest.core.Is.is;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /***
@@ -55,6 +64,9 @@ class WidgetsApiControllerTest {
     @Autowired
     private WidgetsApiController widgetsApiController;
 
+    @Autowired
+    private WidgetRepository widgetRepository;
+
     @SpyBean
     private WidgetsService widgetsService;
 
@@ -231,7 +243,7 @@ class WidgetsApiControllerTest {
                 .perform(get("/widgets"));
 
         // Then
-        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any());
+        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any(), any());
         List<Widget> savedWidgetList = new ArrayList<>(savedWidgets.values());
         MvcResult mvcResult =
                 result.andExpect(status().isOk())
@@ -280,7 +292,7 @@ class WidgetsApiControllerTest {
                 );
 
         // Then
-        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any());
+        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any(), any());
         List<Widget> savedWidgetList = new ArrayList<>(savedWidgets.values());
         MvcResult mvcResult =
                 result.andExpect(status().isOk())
@@ -323,7 +335,7 @@ class WidgetsApiControllerTest {
                 );
 
         // Then
-        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any());
+        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any(), any());
         List<Widget> savedWidgetList = new ArrayList<>(savedWidgets.values());
         MvcResult mvcResult =
                 result.andExpect(status().isOk())
@@ -381,7 +393,7 @@ class WidgetsApiControllerTest {
                 );
 
         // Then
-        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any());
+        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any(), any());
         List<Widget> savedWidgetList = new ArrayList<>(savedWidgets.values());
         MvcResult mvcResult =
                 result.andExpect(status().isOk())
@@ -426,7 +438,7 @@ class WidgetsApiControllerTest {
                 );
 
         // Then
-        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any());
+        verify(widgetsService).getAllWidgets(anyInt(), anyInt(), any(), any());
         List<Widget> savedWidgetList = new ArrayList<>(savedWidgets.values());
         MvcResult mvcResult =
                 result.andExpect(status().isOk())
@@ -620,6 +632,433 @@ class WidgetsApiControllerTest {
 
     }
 
+    @Test
+    @Order(20)
+    void testFollowingPagesAreReadFromThePinnedVersion() throws Exception {
+        // Given the first page, and a widget inserted below all the others afterwards
+        MvcResult firstPage = mockMvc.perform(get("/widgets").param("page", "0").param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(WidgetsApi.VERSION_HEADER))
+                .andReturn();
+        String version = firstPage.getResponse().getHeader(WidgetsApi.VERSION_HEADER);
+        String lastOfFirstPage = objectMapper.readTree(firstPage.getResponse().getContentAsString()).get(1).get("id").asText();
+
+        mockMvc.perform(post("/widgets")
+                .content(objectMapper.writeValueAsString(aValidWidgetRequest().z(Long.MIN_VALUE)))
+                .contentType(MediaType.APPLICATION_JSON));
+
+        // When
+        ResultActions pinnedSecondPage = mockMvc.perform(get("/widgets").param("page", "1").param("size", "1").param("version", version));
+        ResultActions expiredPage = mockMvc.perform(get("/widgets").param("version", "-1"));
+
+        // Then
+        pinnedSecondPage.andExpect(status().isOk())
+                .andExpect(header().string(WidgetsApi.VERSION_HEADER, version))
+                .andExpect(jsonPath("$[0].id", is(lastOfFirstPage)));
+        expiredPage.andExpect(status().isGone())
+                .andExpect(jsonPath("$.message", is("Version -1 of the widgets is no longer available, start again from the first page")));
+    }
+
+    @Test
+    @Order(21)
+    void testAddWidgetsReturnsTheCreatedWidgetsInTheOrderOfTheRequests() throws Exception {
+        // Given
+        List<WidgetRequest> requests = Arrays.asList(aValidWidgetRequest().x(1L).z(7L), aValidWidgetRequest().x(2L).z(null),
+                aValidWidgetRequest().x(3L).z(7L));
+
+        // When
+        ResultActions result = mockMvc.perform(post("/widgets/batch")
+                .content(objectMapper.writeValueAsString(requests))
+                .contentType(MediaType.APPLICATION_JSON));
+        ResultActions invalid = mockMvc.perform(post("/widgets/batch")
+                .content(objectMapper.writeValueAsString(Arrays.asList(aValidWidgetRequest(), aValidWidgetRequest().width(0F))))
+                .contentType(MediaType.APPLICATION_JSON));
+
+        // Then
+        verify(widgetsService).addWidgets(requests);
+        result.andExpect(status().isCreated())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[*].x", contains(1, 2, 3)))
+                .andExpect(jsonPath("$[0].z", is(7)))
+                .andExpect(jsonPath("$[2].z", is(7)));
+        invalid.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(22)
+    void testUpdateAndDeleteWidgetsReportTheOutcomeForEachId() throws Exception {
+        // Given
+        Widget saved = widgetsService.addWidget(aValidWidgetRequest());
+        UUID missing = UUID.randomUUID();
+        List<WidgetUpdateRequest> updates = Arrays.asList(
+                new WidgetUpdateRequest().id(saved.getId()).widget(aValidWidgetRequest().x(777L)),
+                new WidgetUpdateRequest().id(missing).widget(aValidWidgetRequest()));
+
+        // When
+        ResultActions updated = mockMvc.perform(put("/widgets/batch")
+                .content(objectMapper.writeValueAsString(updates))
+                .contentType(MediaType.APPLICATION_JSON));
+        ResultActions deleted = mockMvc.perform(delete("/widgets/batch")
+                .content(objectMapper.writeValueAsString(Arrays.asList(missing, saved.getId())))
+                .contentType(MediaType.APPLICATION_JSON));
+
+        // Then
+        updated.andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id", is(saved.getId().toString())))
+                .andExpect(jsonPath("$[0].outcome", is("UPDATED")))
+                .andExpect(jsonPath("$[0].widget.x", is(777)))
+                .andExpect(jsonPath("$[1].outcome", is("NOT_FOUND")));
+        deleted.andExpect(status().isOk())
+                .andExpect(jsonPath("$[*].outcome", contains("NOT_FOUND", "DELETED")));
+        mockMvc.perform(get("/widgets/{id}", saved.getId())).andExpect(status().isNotFound());
+    }
+
+    @Test
+    @Order(23)
+    void testCursorsPageThroughTheSameWidgetsAsPageNumbers() throws Exception {
+        // Given
+        MvcResult all = mockMvc.perform(get("/widgets").param("size", "500")).andReturn();
+        List<Widget> expected = objectMapper.readValue(all.getResponse().getContentAsString(), new TypeReference<List<Widget>>() {
+        });
+
+        // When
+        List<Widget> paged = new ArrayList<>();
+        MvcResult page = mockMvc.perform(get("/widgets").param("size", "2")).andReturn();
+        while (true) {
+            paged.addAll(objectMapper.readValue(page.getResponse().getContentAsString(), new TypeReference<List<Widget>>() {
+            }));
+            String cursor = page.getResponse().getHeader(WidgetsApi.NEXT_CURSOR_HEADER);
+            if (cursor == null)
+                break;
+            // Inserted below everything, which shifts nothing the cursor points to in its version
+            widgetsService.addWidget(aValidWidgetRequest().z(Long.MIN_VALUE + paged.size()));
+            page = mockMvc.perform(get("/widgets").param("size", "2").param("cursor", cursor)).andReturn();
+        }
+        ResultActions invalid = mockMvc.perform(get("/widgets").param("cursor", "not-a-cursor"));
+
+        // Then
+        assertThat(paged).isEqualTo(expected);
+        invalid.andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message", is("The cursor is not valid, start again from the first page")));
+    }
+
+    @Test
+    @Order(24)
+    void testExportStreamsAllTheWidgetsAsOneJsonDocumentPerLine() throws Exception {
+        // Given
+        MvcResult all = mockMvc.perform(get("/widgets").param("size", "500")).andReturn();
+        List<Widget> expected = objectMapper.readValue(all.getResponse().getContentAsString(), new TypeReference<List<Widget>>() {
+        });
+
+        // When
+        MvcResult started = mockMvc.perform(get("/widgets/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // Changes made while the export is running are not exported
+        widgetsService.addWidget(aValidWidgetRequest());
+        ResultActions exported = mockMvc.perform(asyncDispatch(started));
+
+        // Then
+        exported.andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", WidgetsApi.NDJSON));
+        String[] lines = exported.andReturn().getResponse().getContentAsString().split("\n");
+        List<Widget> widgets = new ArrayList<>();
+        for (String line : lines)
+            widgets.add(objectMapper.readValue(line, Widget.class));
+        assertThat(widgets).isEqualTo(expected);
+    }
+
+    @Test
+    @Order(25)
+    void testImportAddsTheWidgetsOfEachLineAndReportsTheCounts() throws Exception {
+        // Given
+        String ndjson = objectMapper.writeValueAsString(aValidWidgetRequest().x(901L).z(null)) + "\n"
+                + "{\"x\": 1}\n"
+                + objectMapper.writeValueAsString(aValidWidgetRequest().x(902L).z(null)) + "\n";
+
+        // When
+        ResultActions result = mockMvc.perform(post("/widgets/import")
+                .content(ndjson)
+                .contentType(WidgetsApi.NDJSON));
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported", is(2)))
+                .andExpect(jsonPath("$.rejected", is(1)))
+                .andExpect(jsonPath("$.errors[0]", startsWith("line 2: ")));
+        List<Widget> top = widgetsService.getAllWidgets(0, 500, null);
+        assertThat(top.subList(top.size() - 2, top.size())).extracting(Widget::getX).containsExactly(901L, 902L);
+    }
+
+    @Test
+    @Order(26)
+    void testListingTheSamePageOfAVersionTwiceIsACacheHit() throws Exception {
+        // Given
+        String version = mockMvc.perform(get("/widgets")).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(WidgetsApi.VERSION_HEADER);
+        long hits = widgetsService.getQueryCacheStats().getHits();
+
+        // When
+        mockMvc.perform(get("/widgets").param("version", version)).andExpect(status().isOk());
+        ResultActions result = mockMvc.perform(get("/widgets/query-cache"));
+
+        // Then
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$.hits", is((int) hits + 1)))
+                .andExpect(jsonPath("$.hitRate").isNumber());
+    }
+
+    @Test
+    @Order(27)
+    void testListingIsNotModifiedUntilAWidgetChanges() throws Exception {
+        // Given
+        String eTag = mockMvc.perform(get("/widgets")).andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // When
+        ResultActions unchanged = mockMvc.perform(get("/widgets").header(HttpHeaders.IF_NONE_MATCH, eTag));
+        widgetsService.addWidget(aValidWidgetRequest().z(null));
+        ResultActions changed = mockMvc.perform(get("/widgets").header(HttpHeaders.IF_NONE_MATCH, eTag));
+
+        // Then
+        unchanged.andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, eTag))
+                .andExpect(content().string(""));
+        // Only by the first and the last listing
+        verify(widgetsService, times(2)).getAllWidgets(anyInt(), anyInt(), any(), any());
+        changed.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+    }
+
+    @Test
+    @Order(28)
+    void testAWidgetIsNotModifiedUntilItChanges() throws Exception {
+        // Given
+        Widget widget = widgetsService.addWidget(aValidWidgetRequest().z(null));
+        String eTag = mockMvc.perform(get("/widgets/" + widget.getId())).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // When
+        widgetsService.addWidget(aValidWidgetRequest().z(null));
+        ResultActions otherChanged = mockMvc.perform(get("/widgets/" + widget.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag));
+        widgetsService.updateWidgetById(widget.getId(), aValidWidgetRequest().x(-77L));
+        ResultActions changed = mockMvc.perform(get("/widgets/" + widget.getId()).header(HttpHeaders.IF_NONE_MATCH, eTag));
+
+        // Then
+        otherChanged.andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+        changed.andExpect(status().isOk())
+                .andExpect(jsonPath("$.x", is(-77)));
+    }
+
+    @Test
+    @Order(29)
+    void testHitTestReturnsTheWidgetsAtThePointFromTheTopDown() throws Exception {
+        // Given
+        Widget below = widgetsService.addWidget(aValidWidgetRequest().x(50_000L).y(50_000L).z(null));
+        Widget above = widgetsService.addWidget(aValidWidgetRequest().x(50_001L).y(50_000L).z(null));
+
+        // When
+        ResultActions all = mockMvc.perform(get("/widgets/at").param("x", "50000").param("y", "50000"));
+        ResultActions topmost = mockMvc.perform(get("/widgets/at").param("x", "50000").param("y", "50000").param("topmost", "true"));
+
+        // Then
+        all.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", is(above.getId().toString())))
+                .andExpect(jsonPath("$[1].id", is(below.getId().toString())));
+        topmost.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(above.getId().toString())));
+    }
+
+    @Test
+    @Order(30)
+    void testFilterModesReturnTheWidgetsIntersectingOrCoveringTheArea() throws Exception {
+        // Given, a widget from 59990 to 60010 on both axes
+        Widget widget = widgetsService.addWidget(aValidWidgetRequest().x(60_000L).y(60_000L).z(null).width(20F).height(20F));
+
+        // When
+        ResultActions contains = mockMvc.perform(get("/widgets")
+                .param("leftX", "60000").param("rightX", "60100").param("lowerY", "60000").param("higherY", "60100"));
+        ResultActions intersects = mockMvc.perform(get("/widgets").param("filterMode", "INTERSECTS")
+                .param("leftX", "60000").param("rightX", "60100").param("lowerY", "60000").param("higherY", "60100"));
+        ResultActions coversAPoint = mockMvc.perform(get("/widgets").param("filterMode", "COVERS")
+                .param("leftX", "60005").param("rightX", "60005").param("lowerY", "60005").param("higherY", "60005"));
+
+        // Then
+        contains.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+        intersects.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(widget.getId().toString())));
+        coversAPoint.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(widget.getId().toString())));
+    }
+
+    @Test
+    @Order(31)
+    void testNearestWidgetsComeFromTheNearestOn() throws Exception {
+        // Given
+        Widget nearest = widgetsService.addWidget(aValidWidgetRequest().x(70_000L).y(70_000L).z(null).width(10F).height(10F));
+        Widget farther = widgetsService.addWidget(aValidWidgetRequest().x(70_100L).y(70_000L).z(null).width(10F).height(10F));
+
+        // When
+        ResultActions toAPoint = mockMvc.perform(get("/widgets/nearest").param("x", "70020").param("y", "70000").param("size", "2"));
+        ResultActions toAWidget = mockMvc.perform(get("/widgets/" + nearest.getId() + "/nearest").param("size", "1"));
+
+        // Then
+        toAPoint.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id", is(nearest.getId().toString())))
+                .andExpect(jsonPath("$[1].id", is(farther.getId().toString())));
+        toAWidget.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(farther.getId().toString())));
+    }
+
+    @Test
+    @Order(32)
+    void testOverlapsAreStreamedOnePairPerLine() throws Exception {
+        // Given, two overlapping widgets and one beside them
+        Widget below = widgetsService.addWidget(aValidWidgetRequest().x(80_000L).y(80_000L).z(null).width(20F).height(20F));
+        Widget above = widgetsService.addWidget(aValidWidgetRequest().x(80_010L).y(80_000L).z(null).width(20F).height(20F));
+        widgetsService.addWidget(aValidWidgetRequest().x(80_040L).y(80_000L).z(null).width(20F).height(20F));
+
+        // When
+        MvcResult pairs = mockMvc.perform(get("/widgets/overlaps")
+                .param("leftX", "79000").param("rightX", "81000").param("lowerY", "79000").param("higherY", "81000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        ResultActions overlapping = mockMvc.perform(get("/widgets/" + below.getId() + "/overlaps"));
+
+        // Then
+        mockMvc.perform(asyncDispatch(pairs))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(content().string("{\"belowId\":\"" + below.getId() + "\",\"aboveId\":\"" + above.getId() + "\"}\n"));
+        overlapping.andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id", is(above.getId().toString())));
+    }
+
+    @Test
+    @Order(33)
+    void testVisibleWidgetsLeaveOutThoseHiddenBeneathOthers() throws Exception {
+        // Given, a widget beneath a larger one, and another beside them
+        Widget hidden = widgetsService.addWidget(aValidWidgetRequest().x(90_000L).y(90_000L).z(null).width(10F).height(10F));
+        Widget cover = widgetsService.addWidget(aValidWidgetRequest().x(90_000L).y(90_000L).z(null).width(30F).height(30F));
+        Widget beside = widgetsService.addWidget(aValidWidgetRequest().x(90_050L).y(90_000L).z(null).width(10F).height(10F));
+
+        // When
+        MvcResult visible = mockMvc.perform(get("/widgets/visible")
+                .param("leftX", "89000").param("rightX", "91000").param("lowerY", "89000").param("higherY", "91000"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Then
+        mockMvc.perform(asyncDispatch(visible))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(content().string(stringContainsInOrder(cover.getId().toString(), "\n", beside.getId().toString(), "\n")))
+                .andExpect(content().string(not(containsString(hidden.getId().toString()))));
+    }
+
+    @Test
+    @Order(34)
+    void testDensityIsCountedPerTile() throws Exception {
+        // Given, a widget in a tile of 1024, one in the tile above it and one two tiles to its right
+        widgetsService.addWidget(aValidWidgetRequest().x(1_000_100L).y(1_000_100L).z(null));
+        widgetsService.addWidget(aValidWidgetRequest().x(1_000_200L).y(1_000_900L).z(null));
+        widgetsService.addWidget(aValidWidgetRequest().x(1_001_500L).y(1_000_100L).z(null));
+
+        // When
+        ResultActions density = mockMvc.perform(get("/widgets/density")
+                .param("leftX", "1000000").param("rightX", "1002000").param("lowerY", "1000000").param("higherY", "1000400")
+                .param("tileSize", "1024"));
+        ResultActions invalid = mockMvc.perform(get("/widgets/density")
+                .param("leftX", "0").param("rightX", "100").param("lowerY", "0").param("higherY", "100")
+                .param("tileSize", "100"));
+
+        // Then, the tiles start at multiples of their size
+        density.andExpect(status().isOk())
+                .andExpect(jsonPath("$.leftX", is(976 * 1024)))
+                .andExpect(jsonPath("$.lowerY", is(976 * 1024)))
+                .andExpect(jsonPath("$.columns", is(3)))
+                .andExpect(jsonPath("$.rows", is(1)))
+                .andExpect(jsonPath("$.counts", contains(1, 0, 1)));
+        invalid.andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @Order(35)
+    void testAListingTaggedBeforeAChangeLandsIsNotNotModifiedAfterIt() throws Exception {
+        // Given, a widget added between the listing reading the count and reading the widgets
+        doAnswer(invocation -> {
+            Object count = invocation.callRealMethod();
+            widgetsService.addWidget(aValidWidgetRequest().z(null));
+            return count;
+        }).doCallRealMethod().when(widgetsService).getModificationCount();
+        String eTag = mockMvc.perform(get("/widgets")).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // When
+        ResultActions after = mockMvc.perform(get("/widgets").header(HttpHeaders.IF_NONE_MATCH, eTag));
+
+        // Then, the tag is older than the change, so it no longer matches
+        after.andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, not(eTag)));
+    }
+
+    @Test
+    @Order(36)
+    void testOnlyAVersionWithAFollowingPageIsKept() throws Exception {
+        // Given, a new version listed once without a following page, and once with one
+        widgetsService.addWidget(aValidWidgetRequest().z(null));
+        String lastPageVersion = mockMvc.perform(get("/widgets").param("leftX", "900000").param("rightX", "900010")
+                .param("lowerY", "900000").param("higherY", "900010"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(WidgetsApi.NEXT_CURSOR_HEADER))
+                .andReturn().getResponse().getHeader(WidgetsApi.VERSION_HEADER);
+        ResultActions unkept = mockMvc.perform(get("/widgets").param("page", "1").param("version", lastPageVersion));
+
+        widgetsService.addWidget(aValidWidgetRequest().z(null));
+        String firstPageVersion = mockMvc.perform(get("/widgets").param("size", "1"))
+                .andExpect(header().exists(WidgetsApi.NEXT_CURSOR_HEADER))
+                .andReturn().getResponse().getHeader(WidgetsApi.VERSION_HEADER);
+
+        // When
+        ResultActions kept = mockMvc.perform(get("/widgets").param("page", "1").param("size", "1").param("version", firstPageVersion));
+
+        // Then
+        unkept.andExpect(status().isGone());
+        kept.andExpect(status().isOk())
+                .andExpect(header().string(WidgetsApi.VERSION_HEADER, firstPageVersion));
+    }
+
+    @Test
+    @Order(37)
+    void testAPageReadFromTheLatestStateIsReadAgainIfAChangeLandsBeforeItsVersionIsPinned() throws Exception {
+        // Given, pages read from the store itself, and a widget added at the bottom just before the version is pinned
+        doReturn(widgetRepository).when(widgetsService).getCurrentView();
+        List<Widget> added = new ArrayList<>();
+        doAnswer(invocation -> {
+            added.add(widgetsService.addWidget(aValidWidgetRequest().z(Long.MIN_VALUE)));
+            return invocation.callRealMethod();
+        }).when(widgetsService).pinSnapshot(any());
+
+        // When
+        ResultActions result = mockMvc.perform(get("/widgets").param("size", "1"));
+
+        // Then, the page and its cursor come from the version pinned
+        result.andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id", is(added.get(0).getId().toString())))
+                .andExpect(header().string(WidgetsApi.VERSION_HEADER, String.valueOf(widgetRepository.getVersion())))
+                .andExpect(header().exists(WidgetsApi.NEXT_CURSOR_HEADER));
+    }
+
     private void addAThirdWidgetWithZEqualNegative5() throws Exception {
         WidgetRequest widgetRequestWithNoZ = aValidWidgetRequest().x(100L).y(100L).z(-5L);
 
@@ -0,0 +1,99 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.offheap.WidgetColumns;
+import com.mustafadagher.widgets.service.IsInsideFilteredArea;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The cost of testing a widget against an area filter, over 100K stored widgets: rounding the edges of the widget
+ * from its center and sizes on every test, as the stores used to, against comparing the bounding box kept by the
+ * record or in the off-heap columns. {@code widget} is the {@link IsInsideFilteredArea} predicate over a
+ * {@link Widget}, which still rounds its edges.
+ *
+ * Every benchmark counts the widgets inside the area, so divide the time by 100K for the cost per widget.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AreaFilterBenchmark {
+    private static final int WIDGETS = 100_000;
+
+    private WidgetRecord[] records;
+    private Widget[] widgets;
+    private WidgetColumns columns;
+    private BoundingBox area;
+    private IsInsideFilteredArea predicate;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        records = new WidgetRecord[WIDGETS];
+        widgets = new Widget[WIDGETS];
+        columns = new WidgetColumns();
+        for (int i = 0; i < WIDGETS; i++) {
+            widgets[i] = new Widget().id(UUID.randomUUID()).x((long) random.nextInt(10_000)).y((long) random.nextInt(10_000))
+                    .z((long) i).width(1F + random.nextInt(200)).height(1F + random.nextInt(200))
+                    .lastModificationDate(OffsetDateTime.now());
+            records[i] = WidgetRecord.of(widgets[i]);
+            columns.write(columns.allocate(), widgets[i], 0L);
+        }
+        WidgetAreaFilter filter = new WidgetAreaFilter(2_000, 6_000, 2_000, 6_000);
+        area = BoundingBox.of(filter);
+        predicate = IsInsideFilteredArea.withinArea(filter);
+    }
+
+    @Benchmark
+    public int roundedOnEveryTest() {
+        int inside = 0;
+        for (WidgetRecord record : records) {
+            if (BoundingBox.lowerEdge(record.getX(), record.getWidth()) >= area.getLeft()
+                    && BoundingBox.upperEdge(record.getX(), record.getWidth()) <= area.getRight()
+                    && BoundingBox.lowerEdge(record.getY(), record.getHeight()) >= area.getLow()
+                    && BoundingBox.upperEdge(record.getY(), record.getHeight()) <= area.getHigh())
+                inside++;
+        }
+        return inside;
+    }
+
+    @Benchmark
+    public int precomputedRecord() {
+        int inside = 0;
+        for (WidgetRecord record : records) {
+            if (record.isInside(area))
+                inside++;
+        }
+        return inside;
+    }
+
+    @Benchmark
+    public int precomputedColumns() {
+        int inside = 0;
+        for (int slot = 0; slot < WIDGETS; slot++) {
+            if (columns.isInside(slot, area))
+                inside++;
+        }
+        return inside;
+    }
+
+    @Benchmark
+    public int widget() {
+        int inside = 0;
+        for (Widget widget : widgets) {
+            if (predicate.test(widget))
+                inside++;
+        }
+        return inside;
+    }
+}
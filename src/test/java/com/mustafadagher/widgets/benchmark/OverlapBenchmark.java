@@ -0,0 +1,91 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.WidgetInMemoryRepository;
+import com.mustafadagher.widgets.repository.WidgetView;
+import com.mustafadagher.widgets.service.WidgetsService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Finding every pair of overlapping widgets of a canvas: the sweep behind {@code GET /widgets/overlaps}, from reading
+ * the widgets of a view to passing on the pairs, against comparing every widget with every other as a client
+ * had to.
+ *
+ * {@code SCATTERED} drops widgets of 10 to 100 units at random on a canvas sized so that about one in four overlaps
+ * another, {@code TILED} lays them out side by side, sharing edges without overlapping. Comparing every pair of 100K
+ * widgets takes seconds, run it alone with {@code -p widgets=10000} to compare both at that size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OverlapBenchmark {
+    public enum Layout {
+        SCATTERED, TILED
+    }
+
+    @Param({"SCATTERED", "TILED"})
+    private Layout layout;
+
+    @Param({"100000"})
+    private int widgets;
+
+    private WidgetsService widgetsService;
+    private WidgetView view;
+    private WidgetRecord[] records;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int side = (int) Math.sqrt(widgets);
+        long canvas = layout == Layout.SCATTERED ? (long) side * 200 : (long) side * 20;
+        List<Widget> canvasWidgets = new ArrayList<>(widgets);
+        for (int i = 0; i < widgets; i++) {
+            Widget widget = new Widget().id(UUID.randomUUID()).z((long) i).lastModificationDate(OffsetDateTime.now());
+            if (layout == Layout.SCATTERED)
+                widget.x((long) random.nextInt((int) canvas)).y((long) random.nextInt((int) canvas))
+                        .width(10F + random.nextInt(90)).height(10F + random.nextInt(90));
+            else
+                widget.x((long) (i % side) * 20 + 10).y((long) (i / side) * 20 + 10).width(20F).height(20F);
+            canvasWidgets.add(widget);
+        }
+
+        WidgetInMemoryRepository repository = new WidgetInMemoryRepository();
+        repository.saveAll(canvasWidgets);
+        widgetsService = new WidgetsService(repository);
+        view = widgetsService.getCurrentView();
+        records = new WidgetRecord[widgets];
+        for (int i = 0; i < widgets; i++)
+            records[i] = WidgetRecord.of(canvasWidgets.get(i));
+    }
+
+    @Benchmark
+    public void sweep(Blackhole blackhole) {
+        widgetsService.forEachOverlap(null, view, blackhole::consume);
+    }
+
+    @Benchmark
+    public int pairwise() {
+        int overlaps = 0;
+        for (int i = 0; i < records.length; i++) {
+            for (int j = i + 1; j < records.length; j++) {
+                WidgetRecord a = records[i];
+                WidgetRecord b = records[j];
+                if (a.getLeft() < b.getRight() && b.getLeft() < a.getRight() && a.getLow() < b.getHigh() && b.getLow() < a.getHigh())
+                    overlaps++;
+            }
+        }
+        return overlaps;
+    }
+}
@@ -0,0 +1,123 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.repository.spatial.SpatialIndex;
+import com.mustafadagher.widgets.repository.spatial.SpatialIndexType;
+import com.mustafadagher.widgets.repository.spatial.UniformGrid;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Compares the spatial indexes on the operations the repository runs against them: inserting a widget, moving a
+ * widget (a remove followed by an insert), querying the widgets inside a viewport and finding the ten widgets nearest
+ * to a point.
+ *
+ * {@code DENSE} spreads the widgets evenly over a dashboard sized canvas, {@code SPARSE} scatters small clusters of
+ * widgets over a canvas of two billion units in each direction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpatialIndexBenchmark {
+    private static final int OPERATIONS = 1_024;
+
+    public enum Distribution {
+        DENSE, SPARSE
+    }
+
+    @Param({"RTREE", "GRID", "QUADTREE"})
+    private SpatialIndexType type;
+
+    @Param({"DENSE", "SPARSE"})
+    private Distribution distribution;
+
+    @Param({"100000"})
+    private int widgets;
+
+    private SpatialIndex<Integer> index;
+    private BoundingBox[] boxes;
+    private BoundingBox[] moves;
+    private BoundingBox[] viewports;
+    private BoundingBox[] points;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        boxes = new BoundingBox[widgets];
+        for (int i = 0; i < widgets; i++)
+            boxes[i] = randomBox(random);
+
+        SpatialIndex<Integer> empty = type.emptyIndex(UniformGrid.DEFAULT_CELL_SIZE);
+        index = empty;
+        for (int i = 0; i < widgets; i++)
+            index = index.insert(boxes[i], i);
+
+        moves = new BoundingBox[OPERATIONS];
+        viewports = new BoundingBox[OPERATIONS];
+        points = new BoundingBox[OPERATIONS];
+        for (int i = 0; i < OPERATIONS; i++) {
+            BoundingBox moved = boxes[i];
+            long dx = random.nextInt(200) - 100;
+            long dy = random.nextInt(200) - 100;
+            moves[i] = new BoundingBox(moved.getLeft() + dx, moved.getLow() + dy, moved.getRight() + dx, moved.getHigh() + dy);
+
+            // Viewports are centered on a widget, so they hit populated space in both distributions
+            BoundingBox around = boxes[random.nextInt(widgets)];
+            viewports[i] = new BoundingBox(around.getLeft() - 1_000, around.getLow() - 600,
+                    around.getLeft() + 1_000, around.getLow() + 600);
+            points[i] = new BoundingBox(around.getLeft() - 50, around.getLow() - 50, around.getLeft() - 50, around.getLow() - 50);
+        }
+    }
+
+    @Benchmark
+    public SpatialIndex<Integer> insert() {
+        int i = next++ & (OPERATIONS - 1);
+        return index.insert(moves[i], widgets + i);
+    }
+
+    @Benchmark
+    public SpatialIndex<Integer> move() {
+        int i = next++ & (OPERATIONS - 1);
+        return index.remove(boxes[i], i).insert(moves[i], i);
+    }
+
+    @Benchmark
+    public void areaQuery(Blackhole blackhole) {
+        int i = next++ & (OPERATIONS - 1);
+        index.searchWithin(viewports[i], blackhole::consume);
+    }
+
+    @Benchmark
+    public void nearest(Blackhole blackhole) {
+        int i = next++ & (OPERATIONS - 1);
+        int[] found = {0};
+        index.searchNearest(points[i], (value, distance) -> {
+            blackhole.consume(value);
+            return ++found[0] < 10;
+        });
+    }
+
+    private BoundingBox randomBox(Random random) {
+        long width = 20 + random.nextInt(180);
+        long height = 20 + random.nextInt(180);
+        long left;
+        long low;
+        if (distribution == Distribution.DENSE) {
+            left = random.nextInt(20_000);
+            low = random.nextInt(20_000);
+        } else {
+            // A thousand clusters, each a few screens wide
+            Random clusters = new Random(random.nextInt(1_000));
+            left = clusters.nextInt(2_000_000_000) - 1_000_000_000L + random.nextInt(5_000);
+            low = clusters.nextInt(2_000_000_000) - 1_000_000_000L + random.nextInt(5_000);
+        }
+        return new BoundingBox(left, low, left + width, low + height);
+    }
+}
@@ -0,0 +1,83 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.repository.concurrent.ConcurrentUuidMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * {@link ConcurrentUuidMap} against the {@link ConcurrentHashMap} the widgets used to be stored in, under a mixed
+ * load of three readers looking up random widgets by id and one writer replacing them, over 1M widgets.
+ *
+ * Run it with the GC profiler to also compare the allocation rates, e.g.
+ * {@code mvn -Pbenchmark verify -Dbenchmark="UuidMapBenchmark -prof gc"}.
+ * The writer removes a widget and puts it back with a new value, so the size of the maps stays the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UuidMapBenchmark {
+    private static final int WIDGETS = 1_000_000;
+
+    private UUID[] ids;
+    private Widget[] widgets;
+    private Map<UUID, Widget> concurrentHashMap;
+    private ConcurrentUuidMap<Widget> uuidMap;
+
+    @Setup
+    public void setUp() {
+        ids = new UUID[WIDGETS];
+        widgets = new Widget[WIDGETS];
+        concurrentHashMap = new ConcurrentHashMap<>();
+        uuidMap = new ConcurrentUuidMap<>();
+        for (int i = 0; i < WIDGETS; i++) {
+            ids[i] = UUID.randomUUID();
+            widgets[i] = new Widget().id(ids[i]).x((long) i).y((long) i).z((long) i).width(10F).height(10F)
+                    .lastModificationDate(OffsetDateTime.now());
+            concurrentHashMap.put(ids[i], widgets[i]);
+            uuidMap.put(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits(), widgets[i]);
+        }
+    }
+
+    @Benchmark
+    @Group("concurrentHashMap")
+    @GroupThreads(3)
+    public Widget concurrentHashMapRead() {
+        return concurrentHashMap.get(ids[ThreadLocalRandom.current().nextInt(WIDGETS)]);
+    }
+
+    @Benchmark
+    @Group("concurrentHashMap")
+    @GroupThreads(1)
+    public Widget concurrentHashMapWrite() {
+        int i = ThreadLocalRandom.current().nextInt(WIDGETS);
+        concurrentHashMap.remove(ids[i]);
+        return concurrentHashMap.put(ids[i], widgets[i]);
+    }
+
+    @Benchmark
+    @Group("uuidMap")
+    @GroupThreads(3)
+    public Widget uuidMapRead() {
+        UUID id = ids[ThreadLocalRandom.current().nextInt(WIDGETS)];
+        return uuidMap.get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    @Benchmark
+    @Group("uuidMap")
+    @GroupThreads(1)
+    public Widget uuidMapWrite() {
+        int i = ThreadLocalRandom.current().nextInt(WIDGETS);
+        uuidMap.remove(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits());
+        return uuidMap.put(ids[i].getMostSignificantBits(), ids[i].getLeastSignificantBits(), widgets[i]);
+    }
+}
@@ -0,0 +1,67 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.repository.WidgetInMemoryRepository;
+import com.mustafadagher.widgets.repository.WidgetOffHeapRepository;
+import com.mustafadagher.widgets.repository.WidgetRepository;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/***
+ * Prints how much heap the in-memory repository retains per widget, with a million widgets in it. Pass
+ * {@code off-heap} as the argument to measure {@link WidgetOffHeapRepository} instead, which also prints the direct
+ * memory taken by its columns.
+ *
+ * Run it after {@code mvn test-compile} with
+ * {@code java -cp target/classes:target/test-classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout)
+ * com.mustafadagher.widgets.benchmark.WidgetHeapFootprint}.
+ */
+public class WidgetHeapFootprint {
+    private static final int WIDGETS = 1_000_000;
+
+    public static void main(String[] args) {
+        long before = usedHeapAfterGc();
+        long directBefore = usedDirectMemory();
+
+        WidgetRepository repository = args.length > 0 && args[0].equals("off-heap")
+                ? new WidgetOffHeapRepository()
+                : new WidgetInMemoryRepository();
+        List<Widget> widgets = new ArrayList<>(WIDGETS);
+        for (long i = 0; i < WIDGETS; i++) {
+            widgets.add(new Widget()
+                    .id(UUID.randomUUID())
+                    .lastModificationDate(OffsetDateTime.now())
+                    .x(i % 1_000 * 20).y(i / 1_000 * 20).z(i)
+                    .width(15F).height(15F));
+        }
+        repository.saveAll(widgets);
+        widgets = null;
+
+        long after = usedHeapAfterGc();
+        long direct = usedDirectMemory() - directBefore;
+        // Listing the widgets after measuring also keeps the repository reachable until then
+        System.out.printf("%d widgets retain %d MB, %d bytes per widget, and %d MB of direct memory%n",
+                repository.findAll().size(), (after - before) >> 20, (after - before) / WIDGETS, direct >> 20);
+    }
+
+    private static long usedDirectMemory() {
+        long used = 0;
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct"))
+                used += pool.getMemoryUsed();
+        }
+        return used;
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,69 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.repository.WidgetHashRepository;
+import com.mustafadagher.widgets.repository.WidgetInMemoryRepository;
+import com.mustafadagher.widgets.repository.WidgetOffHeapRepository;
+import com.mustafadagher.widgets.repository.WidgetRepository;
+import com.mustafadagher.widgets.service.WidgetsService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The read paths of the service, by id and by page, over each store holding 10k widgets.
+ *
+ * Run it with increasing thread counts to see how reads scale, e.g.
+ * {@code mvn -Pbenchmark verify -Dbenchmark="WidgetReadBenchmark -t 1"} and then {@code -t 4}, {@code -t 16}...
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetReadBenchmark {
+    private static final int WIDGETS = 10_000;
+
+    @Param({"in-memory", "off-heap", "hash"})
+    private String storage;
+
+    private WidgetsService widgetsService;
+    private UUID[] ids;
+
+    @Setup
+    public void setUp() {
+        widgetsService = new WidgetsService(repository(storage));
+        ids = new UUID[WIDGETS];
+        for (int i = 0; i < WIDGETS; i++) {
+            ids[i] = widgetsService.addWidget(new WidgetRequest()
+                    .x((long) (i % 100) * 20).y((long) (i / 100) * 20)
+                    .width(15F).height(15F)).getId();
+        }
+    }
+
+    @Benchmark
+    public Widget getWidgetById() {
+        return widgetsService.getWidgetById(ids[ThreadLocalRandom.current().nextInt(WIDGETS)]);
+    }
+
+    @Benchmark
+    public List<Widget> getAllWidgets() {
+        return widgetsService.getAllWidgets(ThreadLocalRandom.current().nextInt(WIDGETS / 10), 10, null);
+    }
+
+    private static WidgetRepository repository(String storage) {
+        switch (storage) {
+            case "off-heap":
+                return new WidgetOffHeapRepository();
+            case "hash":
+                return new WidgetHashRepository();
+            default:
+                return new WidgetInMemoryRepository();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.repository.WidgetInMemoryRepository;
+import com.mustafadagher.widgets.service.WidgetsService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * The create, update and shifting insert paths of the service, over a repository holding 100k widgets.
+ *
+ * Run it with the GC profiler to compare the allocation rates, e.g.
+ * {@code mvn -Pbenchmark verify -Dbenchmark="WidgetWriteBenchmark -prof gc"}.
+ * Creating is measured together with deleting the created widget, so the size of the repository stays the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WidgetWriteBenchmark {
+    private static final int WIDGETS = 100_000;
+
+    private WidgetsService widgetsService;
+    private UUID[] ids;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        widgetsService = new WidgetsService(new WidgetInMemoryRepository());
+        ids = new UUID[WIDGETS];
+        for (int i = 0; i < WIDGETS; i++)
+            ids[i] = widgetsService.addWidget(aRequest(i).z(null)).getId();
+    }
+
+    @Benchmark
+    public void createAndDelete() {
+        Widget created = widgetsService.addWidget(aRequest(next++).z(null));
+        widgetsService.deleteWidgetById(created.getId());
+    }
+
+    @Benchmark
+    public Widget update() {
+        int i = next++;
+        return widgetsService.updateWidgetById(ids[i % WIDGETS], aRequest(i).z((long) (i % WIDGETS)));
+    }
+
+    @Benchmark
+    public void insertShiftingAndDelete() {
+        Widget created = widgetsService.addWidget(aRequest(next++).z(WIDGETS / 2L));
+        widgetsService.deleteWidgetById(created.getId());
+    }
+
+    private static WidgetRequest aRequest(int i) {
+        return new WidgetRequest()
+                .x((long) (i % 1_000) * 20).y((long) (i / 1_000) * 20)
+                .width(15F).height(15F);
+    }
+}
@@ -0,0 +1,74 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.repository.WidgetHashRepository;
+import com.mustafadagher.widgets.repository.WidgetInMemoryRepository;
+import com.mustafadagher.widgets.repository.WidgetOffHeapRepository;
+import com.mustafadagher.widgets.repository.WidgetRepository;
+import com.mustafadagher.widgets.service.WidgetsService;
+import com.mustafadagher.widgets.service.WriteMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Inserts at random z values through the service in both {@link WriteMode}s, over each store starting with 10k
+ * widgets, so most inserts shift a run of widgets.
+ *
+ * The single writer only pays off when several callers write at once, run it with several threads, e.g.
+ * {@code mvn -Pbenchmark verify -Dbenchmark="WriteModeBenchmark -t 8"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteModeBenchmark {
+    private static final int WIDGETS = 10_000;
+
+    @Param({"LOCKING", "SINGLE_WRITER"})
+    private WriteMode mode;
+
+    @Param({"in-memory", "off-heap", "hash"})
+    private String storage;
+
+    private WidgetsService widgetsService;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        widgetsService = new WidgetsService(repository(storage), mode);
+        for (int i = 0; i < WIDGETS; i++)
+            widgetsService.addWidget(aWidgetRequest().z((long) i * 2));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        widgetsService.close();
+    }
+
+    @Benchmark
+    public Widget addWidget() {
+        return widgetsService.addWidget(aWidgetRequest().z((long) ThreadLocalRandom.current().nextInt(WIDGETS * 2)));
+    }
+
+    private static WidgetRequest aWidgetRequest() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new WidgetRequest()
+                .x((long) random.nextInt(2_000)).y((long) random.nextInt(2_000))
+                .width(15F).height(15F);
+    }
+
+    private static WidgetRepository repository(String storage) {
+        switch (storage) {
+            case "off-heap":
+                return new WidgetOffHeapRepository();
+            case "hash":
+                return new WidgetHashRepository();
+            default:
+                return new WidgetInMemoryRepository();
+        }
+    }
+}
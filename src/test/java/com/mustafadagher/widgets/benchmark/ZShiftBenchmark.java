@@ -0,0 +1,61 @@
+package com.mustafadagher.widgets.benchmark;
+
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.zorder.ZOrderTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Inserts a widget at an occupied z of a stack where every z is taken, so the whole run above it has to move.
+ *
+ * {@code bottom} inserts below every widget, {@code middle} halfway up the stack and {@code top} at the highest z.
+ * Before the shift was lazy, each of these re-saved every widget above the inserted one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZShiftBenchmark {
+
+    @Param({"10000", "1000000"})
+    private int widgets;
+
+    private ZOrderTree stack;
+    private long now;
+
+    @Setup
+    public void setUp() {
+        List<WidgetRecord> all = new ArrayList<>(widgets);
+        for (long z = 0; z < widgets; z++)
+            all.add(aWidget(z));
+        stack = ZOrderTree.of(all);
+        now = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public ZOrderTree bottom() {
+        return stack.insertShiftingUpwards(aWidget(0), now);
+    }
+
+    @Benchmark
+    public ZOrderTree middle() {
+        return stack.insertShiftingUpwards(aWidget(widgets / 2), now);
+    }
+
+    @Benchmark
+    public ZOrderTree top() {
+        return stack.insertShiftingUpwards(aWidget(widgets - 1), now);
+    }
+
+    private static WidgetRecord aWidget(long z) {
+        UUID id = UUID.randomUUID();
+        return new WidgetRecord(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+                0L, 0L, z, 10F, 10F, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,72 @@
+package com.mustafadagher.widgets.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParallelScanTest {
+    private final ParallelScan parallelScan = new ParallelScan(0, 4);
+    private final Random random = new Random(11);
+
+    @Test
+    void testReturnsTheFirstMatchingAsSortingThemAllWould() {
+        // Given, with many equal keys and ranges of very different sizes
+        for (int count : new int[]{1, 100, 4_096, 4_097, 50_000}) {
+            long[] keys = new long[count];
+            for (int i = 0; i < count; i++)
+                keys[i] = random.nextInt(count / 4 + 1);
+            ParallelScan.Order order = (a, b) -> keys[a] != keys[b] ? Long.compare(keys[a], keys[b]) : Integer.compare(a, b);
+            IntPredicate matches = i -> keys[i] % 3 != 0;
+
+            for (long limit : new long[]{0, 1, 10, 1_000, count, Long.MAX_VALUE}) {
+                // When
+                int[] first = parallelScan.firstMatching(count, limit, matches, order);
+
+                // Then
+                int[] sorted = IntStream.range(0, count).filter(matches).boxed()
+                        .sorted(order::compare)
+                        .limit(limit)
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+                assertThat(first).as("count %d, limit %d", count, limit).containsExactly(sorted);
+            }
+        }
+    }
+
+    @Test
+    void testWidgetsNumberedInOrderStopBeingScannedOnceEnoughAreFound() {
+        // Given
+        int count = 50_000;
+        AtomicInteger tested = new AtomicInteger();
+        IntPredicate matches = i -> {
+            tested.incrementAndGet();
+            return i % 3 == 0;
+        };
+
+        // When
+        int[] first = parallelScan.firstMatching(count, 10, matches, ParallelScan.IN_ORDER);
+
+        // Then, each range stops after its first 10 matching widgets
+        assertThat(first).containsExactly(0, 3, 6, 9, 12, 15, 18, 21, 24, 27);
+        assertThat(tested.get()).isLessThan(count / 10);
+    }
+
+    @Test
+    void testOnlyStoresFromTheThresholdAreWorthScanningInParallel() {
+        // Given
+        ParallelScan withThreshold = new ParallelScan(1_000, 2);
+
+        // Then
+        assertThat(withThreshold.isWorthIt(999)).isFalse();
+        assertThat(withThreshold.isWorthIt(1_000)).isTrue();
+        assertThat(withThreshold.firstMatching(0, 10, i -> true, Integer::compare)).isEmpty();
+        assertThat(Arrays.stream(withThreshold.firstMatching(10, 3, i -> i % 2 == 1, (a, b) -> Integer.compare(b, a))))
+                .containsExactly(9, 7, 5);
+    }
+}
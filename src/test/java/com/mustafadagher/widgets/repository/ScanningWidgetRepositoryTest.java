@@ -0,0 +1,354 @@
+package com.mustafadagher.widgets.repository;
+
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/***
+ * The cases every store scanning its widgets has to pass, run against each of them by a subclass providing the store.
+ * The results are checked against {@link WidgetInMemoryRepository} where they are too many to spell out.
+ */
+abstract class ScanningWidgetRepositoryTest<R extends WidgetRepository> {
+
+    protected final R widgetRepository = newRepository();
+
+    /***
+     * Returns an empty store, scanning in parallel from the default number of widgets on.
+     */
+    abstract R newRepository();
+
+    /***
+     * Returns an empty store, scanning in parallel from the given number of widgets on, see {@link ParallelScan}.
+     */
+    abstract R newRepository(int parallelThreshold);
+
+    @Test
+    void testSaveReturnsTheSameValueBySearch() {
+        // Given
+        Widget validWidget = aValidWidget().height(22.3F).width(11.7F);
+
+        // When
+        Widget savedWidget = widgetRepository.save(validWidget);
+        Optional<Widget> searchedWidget = widgetRepository.findById(validWidget.getId());
+
+        // Then
+        assertThat(savedWidget).isEqualTo(validWidget);
+        assertThat(searchedWidget).contains(savedWidget);
+    }
+
+    @Test
+    void testFindAllByZBetweenReturnsTheSliceSortedByZ() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        Widget w3 = aValidWidget().z(6L);
+        Widget w4 = aValidWidget().z(9L);
+
+        widgetRepository.saveAll(Arrays.asList(w4, w3, w2, w1));
+
+        // When
+        List<Widget> allByZBetweenTwoAndSix = widgetRepository.findAllByZBetween(2L, 6L);
+
+        // Then
+        assertThat(allByZBetweenTwoAndSix).containsExactly(w2, w3);
+        assertThat(widgetRepository.findTopByOrderByZDesc()).contains(w4);
+    }
+
+    @Test
+    void testUpdateKeepsTheSameCountAndMovesTheWidgetInTheZOrder() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        w1.lastModificationDate(w1.getLastModificationDate().minusMinutes(1));
+
+        widgetRepository.save(w1);
+        widgetRepository.save(w2);
+
+        // When
+        Widget updated = widgetRepository.save(w1.clone().z(7L).x(3L));
+
+        // Then
+        assertThat(widgetRepository.findAllByOrderByZAsc(0, 10)).containsExactly(w2, updated);
+        assertThat(updated.getX()).isEqualTo(3L);
+        assertThat(updated.getLastModificationDate()).isAfter(w1.getLastModificationDate());
+    }
+
+    @Test
+    void testInsertShiftingUpwardsShiftsTheContiguousRunOfOccupiedZ() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        Widget w3 = aValidWidget().z(3L);
+        w3.lastModificationDate(w3.getLastModificationDate().minusMinutes(1));
+        Widget w6 = aValidWidget().z(6L);
+
+        widgetRepository.saveAll(Arrays.asList(w1, w2, w3, w6));
+
+        // When
+        Widget inserted = widgetRepository.insertShiftingUpwards(aValidWidget().z(2L));
+        List<Widget> all = widgetRepository.findAllByOrderByZAsc(0, 10);
+
+        // Then
+        assertThat(all)
+                .extracting(Widget::getId)
+                .containsExactly(w1.getId(), inserted.getId(), w2.getId(), w3.getId(), w6.getId());
+        assertThat(all)
+                .extracting(Widget::getZ)
+                .containsExactly(1L, 2L, 3L, 4L, 6L);
+        assertThat(widgetRepository.findById(w3.getId()).map(Widget::getLastModificationDate))
+                .hasValueSatisfying(modifiedAt -> assertThat(modifiedAt).isAfter(w3.getLastModificationDate()));
+    }
+
+    @Test
+    void testReturnsTheWidgetsInAreaSortedByZ() {
+        // Given
+        Widget w1 = aValidWidget().width(7F).height(7F).x(6L).y(7L).z(3L);
+        Widget w2 = aValidWidget().width(7F).height(7F).x(7L).y(10L).z(1L);
+        Widget w3 = aValidWidget().width(7F).height(7F).x(9L).y(9L).z(2L);
+
+        widgetRepository.saveAll(Arrays.asList(w1, w2, w3));
+
+        WidgetAreaFilter filter = new WidgetAreaFilter(3, 15, 3, 15);
+
+        // When
+        List<Widget> filtered = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, filter);
+
+        // Then
+        assertThat(filtered).containsExactly(w2, w3);
+        assertThat(widgetRepository.findAllWithinAreaOrderByZAsc(1, 1, filter)).containsExactly(w3);
+    }
+
+    @Test
+    void testRandomChangesMatchTheInMemoryRepository() {
+        // Given
+        WidgetInMemoryRepository inMemoryRepository = new WidgetInMemoryRepository();
+        Random random = new Random(3);
+        List<UUID> ids = new ArrayList<>();
+
+        // When
+        for (int operation = 0; operation < 3_000; operation++) {
+            int kind = random.nextInt(10);
+            Widget widget = aValidWidget()
+                    .x((long) random.nextInt(1_000)).y((long) random.nextInt(1_000)).z((long) random.nextInt(300))
+                    .width(1 + random.nextFloat() * 99).height(1 + random.nextFloat() * 99);
+            if (kind < 4) {
+                widgetRepository.insertShiftingUpwards(widget.clone());
+                inMemoryRepository.insertShiftingUpwards(widget.clone());
+                ids.add(widget.getId());
+            } else if (kind < 8 || ids.isEmpty()) {
+                if (!ids.isEmpty() && random.nextBoolean())
+                    widget.id(ids.get(random.nextInt(ids.size())));
+                else
+                    ids.add(widget.getId());
+                widgetRepository.save(widget.clone());
+                inMemoryRepository.save(widget.clone());
+            } else {
+                UUID id = ids.remove(random.nextInt(ids.size()));
+                widgetRepository.deleteById(id);
+                inMemoryRepository.deleteById(id);
+            }
+        }
+
+        // Then
+        assertThat(idsAndZ(widgetRepository.findAll())).isEqualTo(idsAndZ(inMemoryRepository.findAll()));
+        assertThat(idsAndZ(widgetRepository.findAllByOrderByZAsc(3, 50)))
+                .isEqualTo(idsAndZ(inMemoryRepository.findAllByOrderByZAsc(3, 50)));
+        assertThat(idsAndZ(widgetRepository.findAllByZBetween(100L, 200L)))
+                .isEqualTo(idsAndZ(inMemoryRepository.findAllByZBetween(100L, 200L)));
+        for (int i = 0; i < 20; i++) {
+            int leftX = random.nextInt(800);
+            int lowerY = random.nextInt(800);
+            WidgetAreaFilter filter = new WidgetAreaFilter(leftX, leftX + random.nextInt(400), lowerY, lowerY + random.nextInt(400));
+            assertThat(idsAndZ(widgetRepository.findAllWithinAreaOrderByZAsc(0, 500, filter)))
+                    .isEqualTo(idsAndZ(inMemoryRepository.findAllWithinAreaOrderByZAsc(0, 500, filter)));
+        }
+        for (AreaFilterMode mode : AreaFilterMode.values()) {
+            for (int i = 0; i < 20; i++) {
+                int leftX = random.nextInt(1_000);
+                int lowerY = random.nextInt(1_000);
+                WidgetAreaFilter filter = new WidgetAreaFilter(leftX, leftX + random.nextInt(200), lowerY, lowerY + random.nextInt(200), mode);
+                assertThat(idsAndZ(widgetRepository.findAllWithinAreaOrderByZAsc(1, 20, filter)))
+                        .isEqualTo(idsAndZ(inMemoryRepository.findAllWithinAreaOrderByZAsc(1, 20, filter)));
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            long x = random.nextInt(1_000);
+            long y = random.nextInt(1_000);
+            assertThat(idsAndZ(widgetRepository.findAllContainingOrderByZDesc(x, y, 500)))
+                    .isEqualTo(idsAndZ(inMemoryRepository.findAllContainingOrderByZDesc(x, y, 500)));
+        }
+        for (int i = 0; i < 20; i++) {
+            long x = random.nextInt(1_000);
+            long y = random.nextInt(1_000);
+            BoundingBox target = new BoundingBox(x, y, x + random.nextInt(50), y + random.nextInt(50));
+            assertThat(idsAndZ(widgetRepository.findNearestOrderByDistance(target, 30)))
+                    .isEqualTo(idsAndZ(inMemoryRepository.findNearestOrderByDistance(target, 30)));
+            assertThat(idsAndZ(widgetRepository.findAllOverlappingOrderByZAsc(target)))
+                    .isEqualTo(idsAndZ(inMemoryRepository.findAllOverlappingOrderByZAsc(target)));
+        }
+    }
+
+    @Test
+    void testInsertingBatchesLeavesTheSameZAsInsertingOneByOne() {
+        // Given
+        WidgetInMemoryRepository inMemoryRepository = new WidgetInMemoryRepository();
+        Random random = new Random(5);
+        List<UUID> ids = new ArrayList<>();
+
+        // When
+        for (int round = 0; round < 200; round++) {
+            List<Widget> batch = new ArrayList<>();
+            for (int i = random.nextInt(8); i >= 0; i--) {
+                Widget widget = aValidWidget().z((long) random.nextInt(100));
+                // Re-inserting a stored widget now and then
+                if (!ids.isEmpty() && random.nextInt(20) == 0)
+                    widget.id(ids.get(random.nextInt(ids.size())));
+                else
+                    ids.add(widget.getId());
+                batch.add(widget);
+            }
+            List<Widget> inserted = widgetRepository.insertAllShiftingUpwards(cloned(batch));
+            batch.forEach(widget -> inMemoryRepository.insertShiftingUpwards(widget.clone()));
+            for (int i = 0; i < batch.size(); i++)
+                assertThat(inserted.get(i).getId()).isEqualTo(batch.get(i).getId());
+        }
+
+        // Then
+        assertThat(idsAndZ(widgetRepository.findAll())).isEqualTo(idsAndZ(inMemoryRepository.findAll()));
+    }
+
+    @Test
+    void testCursorsResumeRightAfterTheLastWidgetOfAPage() {
+        // Given
+        List<Widget> saved = new ArrayList<>();
+        for (long z = 0; z < 10; z++)
+            saved.add(aValidWidget().width(10F).height(10F).x(z % 2 == 0 ? 5L : 500L).y(5L).z(z));
+        widgetRepository.saveAll(saved);
+        WidgetSnapshot snapshot = widgetRepository.snapshot();
+        WidgetAreaFilter area = new WidgetAreaFilter(0, 10, 0, 10);
+
+        // When
+        List<Widget> firstPage = snapshot.findAllByOrderByZAsc(0, 4);
+        List<Widget> secondPage = snapshot.findAllAfterOrderByZAsc(WidgetCursor.after(snapshot.getVersion(), firstPage.get(3)), 4);
+        List<Widget> firstInArea = snapshot.findAllWithinAreaOrderByZAsc(0, 2, area);
+        List<Widget> secondInArea = snapshot.findAllWithinAreaAfterOrderByZAsc(WidgetCursor.after(snapshot.getVersion(), firstInArea.get(1)), 2, area);
+        List<Widget> afterTheLast = snapshot.findAllAfterOrderByZAsc(WidgetCursor.after(snapshot.getVersion(), saved.get(9)), 4);
+
+        // Then
+        assertThat(secondPage).isEqualTo(saved.subList(4, 8));
+        assertThat(secondInArea).containsExactly(saved.get(4), saved.get(6));
+        assertThat(afterTheLast).isEmpty();
+    }
+
+    @Test
+    void testSnapshotPassesItsWidgetsInZOrderOneAtATime() {
+        // Given
+        Widget w1 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(3L);
+        Widget w2 = aValidWidget().width(10F).height(10F).x(500L).y(5L).z(1L);
+        Widget w3 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(2L);
+        widgetRepository.saveAll(Arrays.asList(w1, w2, w3));
+        WidgetSnapshot snapshot = widgetRepository.snapshot();
+        widgetRepository.deleteById(w3.getId());
+
+        // When
+        List<Widget> all = new ArrayList<>();
+        snapshot.forEachOrderByZAsc(all::add);
+        List<Widget> withinArea = new ArrayList<>();
+        snapshot.forEachWithinAreaOrderByZAsc(new WidgetAreaFilter(0, 10, 0, 10), withinArea::add);
+
+        // Then
+        assertThat(all).containsExactly(w2, w3, w1);
+        assertThat(withinArea).containsExactly(w3, w1);
+    }
+
+    @Test
+    void testSnapshotKeepsTheVersionItWasTakenAt() {
+        // Given
+        Widget w1 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(1L);
+        Widget w2 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(2L);
+        widgetRepository.saveAll(Arrays.asList(w1, w2));
+        WidgetSnapshot snapshot = widgetRepository.snapshot();
+
+        // When
+        widgetRepository.insertShiftingUpwards(aValidWidget().z(1L));
+        widgetRepository.save(w2.clone().x(500L));
+        widgetRepository.deleteById(w1.getId());
+
+        // Then
+        assertThat(snapshot.findAllByOrderByZAsc(0, 10)).containsExactly(w1, w2);
+        assertThat(snapshot.findAllWithinAreaOrderByZAsc(1, 1, new WidgetAreaFilter(0, 10, 0, 10))).containsExactly(w2);
+        assertThat(widgetRepository.snapshot().getVersion()).isGreaterThan(snapshot.getVersion());
+        assertThat(snapshot.getCopiedWidgetCount()).isEqualTo(2);
+    }
+
+    @Test
+    void testTheCurrentViewReadsTheLatestStateWithoutCopyingIt() {
+        // Given
+        Widget w1 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(2L);
+        Widget w2 = aValidWidget().width(10F).height(10F).x(500L).y(5L).z(1L);
+        widgetRepository.saveAll(Arrays.asList(w1, w2));
+        WidgetView view = widgetRepository.currentView();
+        long version = view.getVersion();
+
+        // When
+        widgetRepository.save(w2.clone().x(5L));
+        List<Widget> all = new ArrayList<>();
+        view.forEachOrderByZAsc(all::add);
+        List<Widget> withinArea = new ArrayList<>();
+        view.forEachWithinAreaOrderByZAsc(new WidgetAreaFilter(0, 10, 0, 10), withinArea::add);
+
+        // Then
+        assertThat(view).isSameAs(widgetRepository);
+        assertThat(view.getVersion()).isGreaterThan(version);
+        assertThat(all).extracting(Widget::getId).containsExactly(w2.getId(), w1.getId());
+        assertThat(withinArea).extracting(Widget::getId).containsExactly(w2.getId(), w1.getId());
+        assertThat(view.findAllWithinAreaOrderByZAsc(0, 10, new WidgetAreaFilter(0, 10, 0, 10)))
+                .extracting(Widget::getId).containsExactly(w2.getId(), w1.getId());
+    }
+
+    private static List<Widget> cloned(List<Widget> widgets) {
+        List<Widget> cloned = new ArrayList<>(widgets.size());
+        widgets.forEach(widget -> cloned.add(widget.clone()));
+        return cloned;
+    }
+
+    @Test
+    void testScanningInParallelReturnsTheSameAsScanningSequentially() {
+        // Given
+        R parallelRepository = newRepository(0);
+        Random random = new Random(13);
+        for (int i = 0; i < 20_000; i++) {
+            Widget widget = aValidWidget()
+                    .x((long) random.nextInt(1_000)).y((long) random.nextInt(1_000)).z((long) random.nextInt(5_000))
+                    .width(1 + random.nextFloat() * 99).height(1 + random.nextFloat() * 99);
+            widgetRepository.save(widget.clone());
+            parallelRepository.save(widget.clone());
+        }
+
+        // Then
+        assertThat(idsAndZ(parallelRepository.findAll())).isEqualTo(idsAndZ(widgetRepository.findAll()));
+        assertThat(idsAndZ(parallelRepository.findAllByOrderByZAsc(7, 100)))
+                .isEqualTo(idsAndZ(widgetRepository.findAllByOrderByZAsc(7, 100)));
+        for (int i = 0; i < 10; i++) {
+            int leftX = random.nextInt(800);
+            int lowerY = random.nextInt(800);
+            WidgetAreaFilter filter = new WidgetAreaFilter(leftX, leftX + random.nextInt(400), lowerY, lowerY + random.nextInt(400));
+            assertThat(idsAndZ(parallelRepository.findAllWithinAreaOrderByZAsc(i, 50, filter)))
+                    .isEqualTo(idsAndZ(widgetRepository.findAllWithinAreaOrderByZAsc(i, 50, filter)));
+        }
+    }
+
+    private static List<String> idsAndZ(List<Widget> widgets) {
+        List<String> idsAndZ = new ArrayList<>(widgets.size());
+        widgets.forEach(widget -> idsAndZ.add(widget.getId() + "@" + widget.getZ()));
+        return idsAndZ;
+    }
+}
@@ -0,0 +1,12 @@
+package com.mustafadagher.widgets.repository;
+
+class WidgetHashRepositoryTest extends ScanningWidgetRepositoryTest<WidgetHashRepository> {
+
+    WidgetHashRepository newRepository() {
+        return new WidgetHashRepository();
+    }
+
+    WidgetHashRepository newRepository(int parallelThreshold) {
+        return new WidgetHashRepository(parallelThreshold);
+    }
+}
@@ -1,15 +1,22 @@
 package com.mustafadagher.widgets.repository;
 
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
 import com.mustafadagher.widgets.model.Widget;
 import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import com.mustafadagher.widgets.repository.spatial.SpatialIndexType;
 import com.mustafadagher.widgets.service.IsInsideFilteredArea;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.mockito.junit.jupiter.MockitoExtension;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static com.mustafadagher.widgets.Mocks.aValidWidget;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -17,8 +24,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 @ExtendWith(MockitoExtension.class)
 class WidgetInMemoryRepositoryTest {
 
-    @InjectMocks
-    private WidgetInMemoryRepository widgetRepository;
+    private final WidgetInMemoryRepository widgetRepository = new WidgetInMemoryRepository();
 
     @Test
     void testSavePersistsToInMemCacheAndReturnsTheSameValueBySearch() {
@@ -34,7 +40,7 @@ class WidgetInMemoryRepositoryTest {
                 .isNotNull()
                 .isEqualTo(validWidget);
 
-        assertThat(searchedWidget).containsSame(savedWidget);
+        assertThat(searchedWidget).contains(savedWidget);
     }
 
     @Test
@@ -76,6 +82,147 @@ class WidgetInMemoryRepositoryTest {
                 .contains(w2, w3);
     }
 
+    @Test
+    void testFindAllByZBetweenReturnsTheSliceSortedByZ() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L).height(22.3F).width(11.7F);
+        Widget w3 = aValidWidget().z(6L);
+        Widget w4 = aValidWidget().z(9L);
+
+        widgetRepository.save(w4);
+        widgetRepository.save(w3);
+        widgetRepository.save(w2);
+        widgetRepository.save(w1);
+
+        // When
+        List<Widget> allByZBetweenTwoAndSix = widgetRepository.findAllByZBetween(2L, 6L);
+
+        // then
+        assertThat(allByZBetweenTwoAndSix)
+                .containsExactly(w2, w3);
+    }
+
+    @Test
+    void testUpdatingTheZOfAWidgetMovesItInTheZOrder() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        Widget w3 = aValidWidget().z(6L);
+
+        widgetRepository.save(w1);
+        widgetRepository.save(w2);
+        widgetRepository.save(w3);
+
+        // When
+        Widget updated = widgetRepository.save(w1.clone().z(7L));
+        List<Widget> all = widgetRepository.findAllByOrderByZAsc(0, 10);
+
+        // then
+        assertThat(all)
+                .containsExactly(w2, w3, updated);
+    }
+
+    @Test
+    void testDeletedWidgetsAreNotListedByZ() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+
+        widgetRepository.save(w1);
+        widgetRepository.save(w2);
+
+        // When
+        widgetRepository.deleteById(w1.getId());
+
+        // Then
+        assertThat(widgetRepository.findAllByOrderByZAsc(0, 10)).containsExactly(w2);
+        assertThat(widgetRepository.findAllByZGreaterThanOrEqual(0L)).containsExactly(w2);
+    }
+
+    @Test
+    void testInsertShiftingUpwardsShiftsTheContiguousRunOfOccupiedZ() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        Widget w3 = aValidWidget().z(3L);
+        w3.lastModificationDate(w3.getLastModificationDate().minusMinutes(1));
+        Widget w6 = aValidWidget().z(6L);
+
+        widgetRepository.saveAll(Arrays.asList(w1, w2, w3, w6));
+
+        // When
+        Widget inserted = widgetRepository.insertShiftingUpwards(aValidWidget().z(2L));
+        List<Widget> all = widgetRepository.findAllByOrderByZAsc(0, 10);
+
+        // Then
+        assertThat(all)
+                .extracting(Widget::getId)
+                .containsExactly(w1.getId(), inserted.getId(), w2.getId(), w3.getId(), w6.getId());
+        assertThat(all)
+                .extracting(Widget::getZ)
+                .containsExactly(1L, 2L, 3L, 4L, 6L);
+        assertThat(widgetRepository.findById(w3.getId()).map(Widget::getLastModificationDate))
+                .hasValueSatisfying(modifiedAt -> assertThat(modifiedAt).isAfter(w3.getLastModificationDate()));
+        assertThat(widgetRepository.findTopByOrderByZDesc()).contains(w6);
+    }
+
+    @Test
+    void testInsertingABatchShiftsLikeInsertingOneByOneInASingleVersion() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        widgetRepository.saveAll(Arrays.asList(w1, w2));
+        long versionBefore = widgetRepository.snapshot().getVersion();
+
+        // When
+        List<Widget> inserted = widgetRepository.insertAllShiftingUpwards(Arrays.asList(aValidWidget().z(1L), aValidWidget().z(1L)));
+
+        // Then
+        assertThat(widgetRepository.findAllByOrderByZAsc(0, 10))
+                .extracting(Widget::getId)
+                .containsExactly(inserted.get(1).getId(), inserted.get(0).getId(), w1.getId(), w2.getId());
+        assertThat(widgetRepository.findAllByOrderByZAsc(0, 10))
+                .extracting(Widget::getZ)
+                .containsExactly(1L, 2L, 3L, 4L);
+        assertThat(widgetRepository.snapshot().getVersion()).isEqualTo(versionBefore + 1);
+    }
+
+    @Test
+    void testSaveAllAndDeleteAllPublishASingleVersionEach() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        Widget w3 = aValidWidget().z(3L);
+        widgetRepository.saveAll(Arrays.asList(w1, w2, w3));
+        long versionBefore = widgetRepository.snapshot().getVersion();
+
+        // When
+        widgetRepository.saveAll(Arrays.asList(w1.clone().x(500L).z(4L), w2.clone().x(500L)));
+        long versionAfterSave = widgetRepository.snapshot().getVersion();
+        widgetRepository.deleteAllById(Arrays.asList(w2.getId(), w3.getId(), UUID.randomUUID()));
+
+        // Then
+        assertThat(versionAfterSave).isEqualTo(versionBefore + 1);
+        assertThat(widgetRepository.snapshot().getVersion()).isEqualTo(versionBefore + 2);
+        assertThat(widgetRepository.findAll()).extracting(Widget::getId).containsExactly(w1.getId());
+        assertThat(widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, new WidgetAreaFilter(400, 600, 0, 200)))
+                .extracting(Widget::getId).containsExactly(w1.getId());
+    }
+
+    @Test
+    void testChangingAReturnedWidgetDoesNotChangeTheStoredOne() {
+        // Given
+        Widget saved = widgetRepository.save(aValidWidget().z(1L));
+
+        // When
+        saved.z(5L).x(500L);
+
+        // Then
+        assertThat(widgetRepository.findById(saved.getId()).map(Widget::getZ)).contains(1L);
+        assertThat(widgetRepository.findAllByZGreaterThanOrEqual(2L)).isEmpty();
+    }
+
     @Test
     void testPaginationReturnsAPageOfTheSpecifiedSizeWithTheLowestZ() {
         // Given
@@ -176,10 +323,9 @@ class WidgetInMemoryRepositoryTest {
         widgetRepository.save(w3);
 
         WidgetAreaFilter filter = new WidgetAreaFilter(0, 100, 0, 150);
-        IsInsideFilteredArea isInsideFilteredArea = IsInsideFilteredArea.withinArea(filter);
 
         // When
-        List<Widget> filtered = widgetRepository.findAllByAreaOrderByZAsc(0, 10, isInsideFilteredArea);
+        List<Widget> filtered = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, filter);
 
         // Then
         assertThat(filtered)
@@ -197,10 +343,9 @@ class WidgetInMemoryRepositoryTest {
         widgetRepository.save(w2);
 
         WidgetAreaFilter filter = new WidgetAreaFilter(3, 15, 3, 15);
-        IsInsideFilteredArea isInsideFilteredArea = IsInsideFilteredArea.withinArea(filter);
 
         // When
-        List<Widget> filtered = widgetRepository.findAllByAreaOrderByZAsc(0, 10, isInsideFilteredArea);
+        List<Widget> filtered = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, filter);
 
         // Then
         assertThat(filtered)
@@ -218,14 +363,284 @@ class WidgetInMemoryRepositoryTest {
         widgetRepository.save(w2);
 
         WidgetAreaFilter filter = new WidgetAreaFilter(-15, -3, -15, -3);
-        IsInsideFilteredArea isInsideFilteredArea = IsInsideFilteredArea.withinArea(filter);
 
         // When
-        List<Widget> filtered = widgetRepository.findAllByAreaOrderByZAsc(0, 10, isInsideFilteredArea);
+        List<Widget> filtered = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, filter);
 
         // Then
         assertThat(filtered)
                 .hasSize(1)
                 .contains(w2);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testSpatialIndexReturnsTheWidgetsInAreaSortedByZ() {
+        // Given
+        Widget w1 = aValidWidget().width(100F).height(100F).x(50L).y(50L).z(3L);
+        Widget w2 = aValidWidget().width(100F).height(100F).x(50L).y(100L).z(1L);
+        Widget w3 = aValidWidget().width(100F).height(100F).x(100L).y(100L).z(2L);
+
+        widgetRepository.save(w1);
+        widgetRepository.save(w2);
+        widgetRepository.save(w3);
+
+        WidgetAreaFilter filter = new WidgetAreaFilter(0, 100, 0, 150);
+
+        // When
+        List<Widget> filtered = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, filter);
+
+        // Then
+        assertThat(filtered).containsExactly(w2, w1);
+    }
+
+    @Test
+    void testSpatialIndexFollowsUpdatesAndDeletes() {
+        // Given
+        Widget w1 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(1L);
+        Widget w2 = aValidWidget().width(10F).height(10F).x(15L).y(15L).z(2L);
+
+        widgetRepository.save(w1);
+        widgetRepository.save(w2);
+
+        WidgetAreaFilter filter = new WidgetAreaFilter(0, 10, 0, 10);
+
+        // When
+        widgetRepository.deleteById(w1.getId());
+        Widget moved = widgetRepository.save(w2.clone().x(5L).y(5L));
+
+        // Then
+        assertThat(widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, filter)).containsExactly(moved);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testSpatialIndexReturnsTheSameWidgetsAsTheAreaPredicate(SpatialIndexType spatialIndexType) {
+        // Given
+        WidgetInMemoryRepository widgetRepository = new WidgetInMemoryRepository(spatialIndexType, 128);
+        Random random = new Random(7);
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            widgets.add(aValidWidget()
+                    .x((long) random.nextInt(2_000)).y((long) random.nextInt(2_000)).z((long) random.nextInt(500))
+                    .width(1 + random.nextFloat() * 99).height(1 + random.nextFloat() * 99));
+        }
+        widgetRepository.saveAll(widgets.subList(0, 600));
+        widgets.subList(600, 1_000).forEach(widgetRepository::save);
+
+        for (int i = 0; i < 20; i++) {
+            int leftX = random.nextInt(1_500);
+            int lowerY = random.nextInt(1_500);
+            WidgetAreaFilter filter = new WidgetAreaFilter(leftX, leftX + random.nextInt(500), lowerY, lowerY + random.nextInt(500));
+
+            // When
+            List<Widget> fromIndex = widgetRepository.findAllWithinAreaOrderByZAsc(0, 500, filter);
+            List<Widget> fromPredicate = firstMatchingByZ(widgetRepository, 500, IsInsideFilteredArea.withinArea(filter));
+
+            // Then
+            assertThat(fromIndex).containsExactlyElementsOf(fromPredicate);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testSpatialIndexReturnsTheSameWidgetsAsTheAreaPredicateInEveryMode(SpatialIndexType spatialIndexType) {
+        // Given
+        WidgetInMemoryRepository widgetRepository = new WidgetInMemoryRepository(spatialIndexType, 128);
+        Random random = new Random(11);
+        for (int i = 0; i < 1_000; i++) {
+            widgetRepository.save(aValidWidget()
+                    .x((long) random.nextInt(2_000)).y((long) random.nextInt(2_000)).z((long) random.nextInt(500))
+                    .width(1 + random.nextFloat() * 199).height(1 + random.nextFloat() * 199));
+        }
+
+        for (AreaFilterMode mode : AreaFilterMode.values()) {
+            for (int i = 0; i < 20; i++) {
+                int leftX = random.nextInt(1_500);
+                int lowerY = random.nextInt(1_500);
+                WidgetAreaFilter filter = new WidgetAreaFilter(leftX, leftX + random.nextInt(i < 10 ? 500 : 20),
+                        lowerY, lowerY + random.nextInt(i < 10 ? 500 : 20), mode);
+                BoundingBox area = BoundingBox.of(filter);
+
+                // When
+                List<Widget> fromIndex = widgetRepository.findAllWithinAreaOrderByZAsc(0, 500, filter);
+                List<Widget> fromPredicate = firstMatchingByZ(widgetRepository, 500,
+                        widget -> mode.matches(WidgetRecord.of(widget), area));
+                List<Widget> passedOn = new ArrayList<>();
+                widgetRepository.snapshot().forEachWithinAreaOrderByZAsc(filter, passedOn::add);
+
+                // Then
+                assertThat(fromIndex).containsExactlyElementsOf(fromPredicate);
+                assertThat(passedOn).containsExactlyElementsOf(fromPredicate);
+            }
+        }
+    }
+
+    @Test
+    void testFiltersTheWidgetsIntersectingOrCoveringTheArea() {
+        // Given, boxes from 0 to 10, one from 10 to 20, one from 20 to 30, and one from 0 to 30
+        Widget inside = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(1L);
+        Widget touching = aValidWidget().width(10F).height(10F).x(15L).y(5L).z(3L);
+        Widget away = aValidWidget().width(10F).height(10F).x(25L).y(5L).z(5L);
+        Widget covering = aValidWidget().width(30F).height(10F).x(15L).y(5L).z(7L);
+        widgetRepository.saveAll(Arrays.asList(inside, touching, away, covering));
+
+        // When
+        List<Widget> contained = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, new WidgetAreaFilter(0, 10, 0, 10));
+        List<Widget> intersecting = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, new WidgetAreaFilter(0, 10, 0, 10, AreaFilterMode.INTERSECTS));
+        List<Widget> covering5To12 = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, new WidgetAreaFilter(5, 12, 2, 8, AreaFilterMode.COVERS));
+        List<Widget> coveringAPoint = widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, new WidgetAreaFilter(10, 10, 4, 4, AreaFilterMode.COVERS));
+
+        // Then
+        assertThat(contained).containsExactly(inside);
+        assertThat(intersecting).containsExactly(inside, touching, covering);
+        assertThat(covering5To12).containsExactly(covering);
+        assertThat(coveringAPoint).containsExactly(inside, touching, covering);
+        assertThat(widgetRepository.findAllWithinAreaOrderByZAsc(1, 2, new WidgetAreaFilter(0, 10, 0, 10, AreaFilterMode.INTERSECTS)))
+                .containsExactly(covering);
+    }
+
+    @Test
+    void testFindsTheNearestWidgetsFromTheTopDownAtTheSameDistance() {
+        // Given, boxes from 0 to 10, one from 20 to 30, and one from 40 to 50
+        Widget bottom = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(1L);
+        Widget top = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(7L);
+        Widget nearer = aValidWidget().width(10F).height(10F).x(25L).y(5L).z(3L);
+        Widget farther = aValidWidget().width(10F).height(10F).x(45L).y(5L).z(9L);
+        widgetRepository.saveAll(Arrays.asList(bottom, top, nearer, farther));
+
+        // When
+        List<Widget> fromAPoint = widgetRepository.findNearestOrderByDistance(new BoundingBox(14, 5, 14, 5), 10);
+        List<Widget> twoNearest = widgetRepository.findNearestOrderByDistance(new BoundingBox(14, 5, 14, 5), 2);
+        List<Widget> fromABox = widgetRepository.findNearestOrderByDistance(new BoundingBox(33, 0, 37, 10), 2);
+
+        // Then
+        assertThat(fromAPoint).containsExactly(top, bottom, nearer, farther);
+        assertThat(twoNearest).containsExactly(top, bottom);
+        assertThat(fromABox).containsExactly(farther, nearer);
+    }
+
+    @Test
+    void testFindsTheWidgetsOverlappingAnAreaLeavingOutThoseOnlyTouchingIt() {
+        // Given, boxes from 0 to 10, one from 10 to 20, and one from 5 to 15
+        Widget left = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(2L);
+        Widget right = aValidWidget().width(10F).height(10F).x(15L).y(5L).z(1L);
+        Widget across = aValidWidget().width(10F).height(10F).x(10L).y(5L).z(3L);
+        widgetRepository.saveAll(Arrays.asList(left, right, across));
+
+        // When
+        List<Widget> overlappingLeft = widgetRepository.findAllOverlappingOrderByZAsc(new BoundingBox(0, 0, 10, 10));
+        List<Widget> overlappingAcross = widgetRepository.findAllOverlappingOrderByZAsc(new BoundingBox(5, 0, 15, 10));
+
+        // Then
+        assertThat(overlappingLeft).containsExactly(left, across);
+        assertThat(overlappingAcross).containsExactly(right, left, across);
+    }
+
+    @Test
+    void testFindsTheWidgetsContainingAPointFromTheTopDown() {
+        // Given, boxes from 0 to 10, one from 10 to 20, and one from 20 to 30
+        Widget bottom = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(1L);
+        Widget top = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(7L);
+        Widget touching = aValidWidget().width(10F).height(10F).x(15L).y(5L).z(3L);
+        Widget away = aValidWidget().width(10F).height(10F).x(25L).y(5L).z(9L);
+        widgetRepository.saveAll(Arrays.asList(bottom, top, touching, away));
+
+        // When
+        List<Widget> inside = widgetRepository.findAllContainingOrderByZDesc(4L, 4L, 10);
+        List<Widget> onTheEdge = widgetRepository.findAllContainingOrderByZDesc(10L, 4L, 10);
+        List<Widget> topmost = widgetRepository.findAllContainingOrderByZDesc(10L, 4L, 1);
+
+        // Then
+        assertThat(inside).containsExactly(top, bottom);
+        assertThat(onTheEdge).containsExactly(top, touching, bottom);
+        assertThat(topmost).containsExactly(top);
+        assertThat(widgetRepository.findAllContainingOrderByZDesc(40L, 4L, 10)).isEmpty();
+    }
+
+    @Test
+    void testSpatialIndexPaginatesTheWidgetsInArea() {
+        // Given
+        List<Widget> widgets = new ArrayList<>();
+        for (long z = 0; z < 5; z++)
+            widgets.add(aValidWidget().width(10F).height(10F).x(5L).y(5L).z(z));
+        widgetRepository.saveAll(widgets);
+
+        WidgetAreaFilter filter = new WidgetAreaFilter(0, 10, 0, 10);
+
+        // When
+        List<Widget> secondPage = widgetRepository.findAllWithinAreaOrderByZAsc(1, 2, filter);
+        List<Widget> pageAfterTheLast = widgetRepository.findAllWithinAreaOrderByZAsc(3, 2, filter);
+
+        // Then
+        assertThat(secondPage).containsExactly(widgets.get(2), widgets.get(3));
+        assertThat(pageAfterTheLast).isEmpty();
+    }
+
+    @Test
+    void testCursorsResumeRightAfterTheLastWidgetOfAPage() {
+        // Given
+        List<Widget> saved = new ArrayList<>();
+        for (long z = 0; z < 10; z++)
+            saved.add(aValidWidget().width(10F).height(10F).x(z % 2 == 0 ? 5L : 500L).y(5L).z(z));
+        widgetRepository.saveAll(saved);
+        WidgetSnapshot snapshot = widgetRepository.snapshot();
+        WidgetAreaFilter area = new WidgetAreaFilter(0, 10, 0, 10);
+
+        // When
+        List<Widget> firstPage = snapshot.findAllByOrderByZAsc(0, 4);
+        List<Widget> secondPage = snapshot.findAllAfterOrderByZAsc(WidgetCursor.after(snapshot.getVersion(), firstPage.get(3)), 4);
+        List<Widget> firstInArea = snapshot.findAllWithinAreaOrderByZAsc(0, 2, area);
+        List<Widget> secondInArea = snapshot.findAllWithinAreaAfterOrderByZAsc(WidgetCursor.after(snapshot.getVersion(), firstInArea.get(1)), 2, area);
+        List<Widget> afterTheLast = snapshot.findAllAfterOrderByZAsc(WidgetCursor.after(snapshot.getVersion(), saved.get(9)), 4);
+
+        // Then
+        assertThat(secondPage).isEqualTo(saved.subList(4, 8));
+        assertThat(secondInArea).containsExactly(saved.get(4), saved.get(6));
+        assertThat(afterTheLast).isEmpty();
+    }
+
+    @Test
+    void testSnapshotPassesItsWidgetsInZOrderOneAtATime() {
+        // Given
+        Widget w1 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(3L);
+        Widget w2 = aValidWidget().width(10F).height(10F).x(500L).y(5L).z(1L);
+        Widget w3 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(2L);
+        widgetRepository.saveAll(Arrays.asList(w1, w2, w3));
+        WidgetSnapshot snapshot = widgetRepository.snapshot();
+        widgetRepository.deleteById(w3.getId());
+
+        // When
+        List<Widget> all = new ArrayList<>();
+        snapshot.forEachOrderByZAsc(all::add);
+        List<Widget> withinArea = new ArrayList<>();
+        snapshot.forEachWithinAreaOrderByZAsc(new WidgetAreaFilter(0, 10, 0, 10), withinArea::add);
+
+        // Then
+        assertThat(all).containsExactly(w2, w3, w1);
+        assertThat(withinArea).containsExactly(w3, w1);
+    }
+
+    @Test
+    void testSnapshotKeepsTheVersionItWasTakenAt() {
+        // Given
+        Widget w1 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(1L);
+        Widget w2 = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(2L);
+        widgetRepository.saveAll(Arrays.asList(w1, w2));
+        WidgetSnapshot snapshot = widgetRepository.snapshot();
+
+        // When
+        widgetRepository.insertShiftingUpwards(aValidWidget().z(1L));
+        widgetRepository.save(w2.clone().x(500L));
+        widgetRepository.deleteById(w1.getId());
+
+        // Then
+        assertThat(snapshot.findAllByOrderByZAsc(0, 10)).containsExactly(w1, w2);
+        assertThat(snapshot.findAllWithinAreaOrderByZAsc(1, 1, new WidgetAreaFilter(0, 10, 0, 10))).containsExactly(w2);
+        assertThat(widgetRepository.snapshot().getVersion()).isGreaterThan(snapshot.getVersion());
+        assertThat(widgetRepository.snapshot()).isSameAs(widgetRepository.snapshot());
+    }
+
+    private static List<Widget> firstMatchingByZ(WidgetRepository widgetRepository, int size, Predicate<Widget> filter) {
+        return widgetRepository.findAll().stream().filter(filter).limit(size).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,87 @@
+package com.mustafadagher.widgets.repository;
+
+import com.mustafadagher.widgets.model.Widget;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WidgetOffHeapRepositoryTest extends ScanningWidgetRepositoryTest<WidgetOffHeapRepository> {
+
+    WidgetOffHeapRepository newRepository() {
+        return new WidgetOffHeapRepository();
+    }
+
+    WidgetOffHeapRepository newRepository(int parallelThreshold) {
+        return new WidgetOffHeapRepository(parallelThreshold);
+    }
+
+    @Test
+    void testDeletedSlotsAreReused() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        widgetRepository.save(w1);
+        widgetRepository.save(w2);
+
+        // When
+        widgetRepository.deleteById(w1.getId());
+        Widget w3 = widgetRepository.save(aValidWidget().z(0L));
+
+        // Then
+        assertThat(widgetRepository.findById(w1.getId())).isEmpty();
+        assertThat(widgetRepository.findAll()).containsExactly(w3, w2);
+    }
+
+    @Test
+    void testColumnsGrowWithoutLosingWidgets() {
+        // Given
+        List<Widget> widgets = new ArrayList<>();
+        for (long z = 0; z < 20_000; z++)
+            widgets.add(aValidWidget().z(z).x(z));
+
+        // When
+        widgetRepository.saveAll(widgets);
+
+        // Then
+        assertThat(widgetRepository.findAll()).containsExactlyElementsOf(widgets);
+    }
+
+    @Test
+    void testOptimisticReadsNeverSeeAHalfWrittenWidget() throws InterruptedException {
+        // Given a widget whose x always equals its y
+        Widget watched = widgetRepository.save(aValidWidget().x(0L).y(0L).z(0L));
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger torn = new AtomicInteger();
+
+        // When it is moved while the store grows around it
+        Thread writer = new Thread(() -> {
+            for (long i = 1; i <= 20_000; i++) {
+                widgetRepository.save(watched.clone().x(i).y(i));
+                widgetRepository.save(aValidWidget().z(i));
+            }
+            writing.set(false);
+        });
+        Thread reader = new Thread(() -> {
+            while (writing.get()) {
+                Widget read = widgetRepository.findById(watched.getId()).orElseThrow(IllegalStateException::new);
+                List<Widget> lowest = widgetRepository.findAllByOrderByZAsc(0, 1);
+                if (!read.getX().equals(read.getY()) || !lowest.get(0).getX().equals(lowest.get(0).getY()))
+                    torn.incrementAndGet();
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        // Then
+        assertThat(torn.get()).isZero();
+        assertThat(widgetRepository.findById(watched.getId()).map(Widget::getX)).contains(20_000L);
+    }
+}
@@ -0,0 +1,104 @@
+package com.mustafadagher.widgets.repository.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrentUuidMapTest {
+    private final Random random = new Random(7);
+
+    @Test
+    void testRandomChangesMatchAHashMap() {
+        ConcurrentUuidMap<Integer> map = new ConcurrentUuidMap<>();
+        Map<UUID, Integer> model = new HashMap<>();
+        List<UUID> ids = new ArrayList<>();
+
+        for (int operation = 0; operation < 50_000; operation++) {
+            int kind = random.nextInt(10);
+            if (kind < 6 || ids.isEmpty()) {
+                UUID id = ids.isEmpty() || random.nextInt(4) > 0 ? UUID.randomUUID() : ids.get(random.nextInt(ids.size()));
+                if (!model.containsKey(id))
+                    ids.add(id);
+                assertThat(map.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), operation))
+                        .isEqualTo(model.put(id, operation));
+            } else {
+                UUID id = ids.remove(random.nextInt(ids.size()));
+                assertThat(map.remove(id.getMostSignificantBits(), id.getLeastSignificantBits())).isEqualTo(model.remove(id));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(model.size());
+        model.forEach((id, value) ->
+                assertThat(map.get(id.getMostSignificantBits(), id.getLeastSignificantBits())).isEqualTo(value));
+        List<Integer> values = new ArrayList<>();
+        map.forEach(values::add);
+        assertThat(values).containsExactlyInAnyOrderElementsOf(model.values());
+    }
+
+    @Test
+    void testRemovedKeysCanBePutBack() {
+        ConcurrentUuidMap<String> map = new ConcurrentUuidMap<>();
+        map.put(1L, 2L, "first");
+
+        assertThat(map.remove(1L, 2L)).isEqualTo("first");
+        assertThat(map.get(1L, 2L)).isNull();
+        assertThat(map.remove(1L, 2L)).isNull();
+        assertThat(map.put(1L, 2L, "second")).isNull();
+        assertThat(map.get(1L, 2L)).isEqualTo("second");
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    void testReadersAlwaysFindTheKeysThatAreNotChangedWhileWritersChurnTheOthers() throws InterruptedException {
+        // Given
+        ConcurrentUuidMap<UUID> map = new ConcurrentUuidMap<>();
+        List<UUID> stable = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            UUID id = UUID.randomUUID();
+            stable.add(id);
+            map.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), id);
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger misses = new AtomicInteger();
+
+        // When the other keys are added and removed by several writers, growing and rehashing the segments
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            threads.add(new Thread(() -> {
+                for (int round = 0; round < 20; round++) {
+                    List<UUID> churned = new ArrayList<>();
+                    for (int i = 0; i < 5_000; i++) {
+                        UUID id = UUID.randomUUID();
+                        churned.add(id);
+                        map.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), id);
+                    }
+                    churned.forEach(id -> map.remove(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+                }
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                while (writing.get()) {
+                    for (UUID id : stable) {
+                        if (!id.equals(map.get(id.getMostSignificantBits(), id.getLeastSignificantBits())))
+                            misses.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread writer : threads.subList(0, 2))
+            writer.join();
+        writing.set(false);
+        for (Thread reader : threads.subList(2, 4))
+            reader.join();
+
+        // Then
+        assertThat(misses.get()).isZero();
+        assertThat(map.size()).isEqualTo(stable.size());
+    }
+}
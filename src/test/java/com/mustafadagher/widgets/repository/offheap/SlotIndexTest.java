@@ -0,0 +1,54 @@
+package com.mustafadagher.widgets.repository.offheap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlotIndexTest {
+    private final Random random = new Random(5);
+
+    @Test
+    void testRandomChangesMatchAHashMap() {
+        SlotIndex index = new SlotIndex();
+        Map<UUID, Integer> model = new HashMap<>();
+        List<UUID> ids = new ArrayList<>();
+
+        for (int operation = 0; operation < 50_000; operation++) {
+            int kind = random.nextInt(10);
+            if (kind < 6 || ids.isEmpty()) {
+                UUID id = ids.isEmpty() || random.nextInt(4) > 0 ? UUID.randomUUID() : ids.get(random.nextInt(ids.size()));
+                if (!model.containsKey(id))
+                    ids.add(id);
+                index.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), operation);
+                model.put(id, operation);
+            } else {
+                UUID id = ids.remove(random.nextInt(ids.size()));
+                int removed = index.remove(id.getMostSignificantBits(), id.getLeastSignificantBits());
+                assertThat(removed).isEqualTo(model.remove(id));
+            }
+        }
+
+        assertThat(index.size()).isEqualTo(model.size());
+        model.forEach((id, slot) ->
+                assertThat(index.get(id.getMostSignificantBits(), id.getLeastSignificantBits())).isEqualTo(slot));
+    }
+
+    @Test
+    void testIdsThatCollideAreStillFoundAfterRemovingTheOnesProbedBefore() {
+        // Given ids differing in their upper half only, so they share their lower bits and cluster in the table
+        SlotIndex index = new SlotIndex();
+        for (int i = 0; i < 500; i++)
+            index.put((long) i << 40, 7L, i);
+
+        // When
+        for (int i = 0; i < 500; i += 2)
+            assertThat(index.remove((long) i << 40, 7L)).isEqualTo(i);
+
+        // Then
+        for (int i = 0; i < 500; i++)
+            assertThat(index.get((long) i << 40, 7L)).isEqualTo(i % 2 == 0 ? SlotIndex.NO_SLOT : i);
+        assertThat(index.remove(1L, 1L)).isEqualTo(SlotIndex.NO_SLOT);
+    }
+}
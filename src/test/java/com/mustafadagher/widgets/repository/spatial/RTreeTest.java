@@ -0,0 +1,141 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RTreeTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    void testSearchWithinReturnsOnlyTheBoxesInsideTheArea() {
+        // Given
+        RTree<String> tree = RTree.<String>empty()
+                .insert(new BoundingBox(0, 0, 100, 100), "inside")
+                .insert(new BoundingBox(50, 50, 150, 150), "overlapping")
+                .insert(new BoundingBox(200, 200, 300, 300), "outside");
+
+        // When
+        List<String> found = new ArrayList<>();
+        tree.searchWithin(new BoundingBox(0, 0, 100, 150), found::add);
+
+        // Then
+        assertThat(found).containsExactly("inside");
+    }
+
+    @Test
+    void testIncrementalInsertsMatchABruteForceScan() {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(2_000);
+        RTree<Integer> tree = RTree.empty();
+        for (Map.Entry<Integer, BoundingBox> entry : boxes.entrySet())
+            tree = tree.insert(entry.getValue(), entry.getKey());
+
+        // Then
+        assertThat(tree.size()).isEqualTo(2_000);
+        assertSameResultsAsBruteForce(tree, boxes);
+    }
+
+    @Test
+    void testBulkLoadMatchesABruteForceScan() {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(5_000);
+        List<RTree.Entry<Integer>> entries = boxes.entrySet().stream()
+                .map(e -> new RTree.Entry<>(e.getValue(), e.getKey()))
+                .collect(Collectors.toList());
+
+        // When
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+
+        // Then
+        assertThat(tree.size()).isEqualTo(5_000);
+        assertThat(tree.height()).isLessThanOrEqualTo(4);
+        assertSameResultsAsBruteForce(tree, boxes);
+    }
+
+    @Test
+    void testRemovingEntriesKeepsTheRestSearchable() {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(3_000);
+        RTree<Integer> tree = RTree.empty();
+        for (Map.Entry<Integer, BoundingBox> entry : boxes.entrySet())
+            tree = tree.insert(entry.getValue(), entry.getKey());
+
+        // When
+        for (int id = 0; id < 3_000; id += 2) {
+            tree = tree.remove(boxes.get(id), id);
+            boxes.remove(id);
+        }
+
+        // Then
+        assertThat(tree.size()).isEqualTo(1_500);
+        assertSameResultsAsBruteForce(tree, boxes);
+    }
+
+    @Test
+    void testRemovingTheLastEntryEmptiesTheTree() {
+        // Given
+        BoundingBox box = new BoundingBox(0, 0, 10, 10);
+        RTree<String> tree = RTree.<String>empty().insert(box, "a");
+
+        // When
+        RTree<String> emptied = tree.remove(box, "a");
+
+        // Then
+        List<String> found = new ArrayList<>();
+        emptied.searchWithin(box, found::add);
+        assertThat(found).isEmpty();
+        assertThat(emptied.size()).isZero();
+    }
+
+    @Test
+    void testChangesDoNotAffectPreviousVersionsOfTheTree() {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(500);
+        RTree<Integer> before = RTree.empty();
+        for (Map.Entry<Integer, BoundingBox> entry : boxes.entrySet())
+            before = before.insert(entry.getValue(), entry.getKey());
+
+        // When
+        RTree<Integer> after = before;
+        for (int id = 0; id < 250; id++)
+            after = after.remove(boxes.get(id), id);
+
+        // Then
+        assertThat(before.size()).isEqualTo(500);
+        assertSameResultsAsBruteForce(before, boxes);
+    }
+
+    private void assertSameResultsAsBruteForce(RTree<Integer> tree, Map<Integer, BoundingBox> boxes) {
+        for (int query = 0; query < 50; query++) {
+            long left = random.nextInt(10_000) - 5_000;
+            long low = random.nextInt(10_000) - 5_000;
+            BoundingBox area = new BoundingBox(left, low, left + random.nextInt(4_000), low + random.nextInt(4_000));
+
+            Set<Integer> expected = boxes.entrySet().stream()
+                    .filter(e -> e.getValue().isInside(area))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+
+            List<Integer> found = new ArrayList<>();
+            tree.searchWithin(area, found::add);
+
+            assertThat(found).containsExactlyInAnyOrderElementsOf(expected);
+        }
+    }
+
+    private Map<Integer, BoundingBox> randomBoxes(int count) {
+        Map<Integer, BoundingBox> boxes = new HashMap<>();
+        for (int id = 0; id < count; id++) {
+            long left = random.nextInt(10_000) - 5_000;
+            long low = random.nextInt(10_000) - 5_000;
+            boxes.put(id, new BoundingBox(left, low, left + 1 + random.nextInt(300), low + 1 + random.nextInt(300)));
+        }
+        return boxes;
+    }
+}
@@ -0,0 +1,208 @@
+package com.mustafadagher.widgets.repository.spatial;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpatialIndexTest {
+    private static final long GRID_CELL_SIZE = 64;
+
+    private final Random random = new Random(7);
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testInsertsMatchABruteForceScan(SpatialIndexType type) {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(2_000, 10_000, 300);
+
+        // When
+        SpatialIndex<Integer> index = insertAll(type.emptyIndex(GRID_CELL_SIZE), boxes);
+
+        // Then
+        assertThat(index.size()).isEqualTo(2_000);
+        assertSameResultsAsBruteForce(index, boxes, 10_000);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testSparseBoxesWithHugeCoordinatesMatchABruteForceScan(SpatialIndexType type) {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(1_000, 2_000_000_000, 300);
+        boxes.put(-1, new BoundingBox(-1_000_000, -1_000_000, 1_000_000, 1_000_000));
+        boxes.put(-2, new BoundingBox(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE));
+
+        // When
+        SpatialIndex<Integer> index = insertAll(type.emptyIndex(GRID_CELL_SIZE), boxes);
+
+        // Then
+        assertSameResultsAsBruteForce(index, boxes, 2_000_000_000);
+        List<Integer> everything = new ArrayList<>();
+        index.searchWithin(new BoundingBox(Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE), everything::add);
+        assertThat(everything).containsExactlyInAnyOrderElementsOf(boxes.keySet());
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testRemovingEntriesKeepsTheRestSearchable(SpatialIndexType type) {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(3_000, 10_000, 300);
+        SpatialIndex<Integer> index = insertAll(type.emptyIndex(GRID_CELL_SIZE), boxes);
+
+        // When
+        for (int id = 0; id < 3_000; id += 2) {
+            index = index.remove(boxes.get(id), id);
+            boxes.remove(id);
+        }
+        SpatialIndex<Integer> unchanged = index.remove(new BoundingBox(0, 0, 1, 1), -1);
+
+        // Then
+        assertThat(index.size()).isEqualTo(1_500);
+        assertThat(unchanged).isSameAs(index);
+        assertSameResultsAsBruteForce(index, boxes, 10_000);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testRebuildKeepsTheKindOfIndexAndOnlyTheGivenEntries(SpatialIndexType type) {
+        // Given
+        SpatialIndex<Integer> index = insertAll(type.emptyIndex(GRID_CELL_SIZE), randomBoxes(100, 10_000, 300));
+        Map<Integer, BoundingBox> boxes = randomBoxes(2_000, 10_000, 300);
+        List<SpatialIndex.Entry<Integer>> entries = boxes.entrySet().stream()
+                .map(e -> new SpatialIndex.Entry<>(e.getValue(), e.getKey()))
+                .collect(Collectors.toList());
+
+        // When
+        SpatialIndex<Integer> rebuilt = index.rebuild(entries);
+
+        // Then
+        assertThat(rebuilt).isExactlyInstanceOf(index.getClass());
+        assertThat(rebuilt.size()).isEqualTo(2_000);
+        assertSameResultsAsBruteForce(rebuilt, boxes, 10_000);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testChangesDoNotAffectPreviousVersionsOfTheIndex(SpatialIndexType type) {
+        // Given
+        Map<Integer, BoundingBox> boxes = randomBoxes(500, 10_000, 300);
+        SpatialIndex<Integer> before = insertAll(type.emptyIndex(GRID_CELL_SIZE), boxes);
+
+        // When
+        SpatialIndex<Integer> after = before;
+        for (int id = 0; id < 500; id++)
+            after = after.remove(boxes.get(id), id);
+
+        // Then
+        assertThat(after.size()).isZero();
+        assertThat(before.size()).isEqualTo(500);
+        assertSameResultsAsBruteForce(before, boxes, 10_000);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testPointsFindTheBoxesContainingThemEdgesIncluded(SpatialIndexType type) {
+        // Given, boxes spanning many cells of the grid
+        Map<Integer, BoundingBox> boxes = randomBoxes(1_000, 5_000, 400);
+        SpatialIndex<Integer> index = insertAll(type.emptyIndex(GRID_CELL_SIZE), boxes);
+
+        for (BoundingBox box : new ArrayList<>(boxes.values()).subList(0, 100)) {
+            // When the point is a corner of a box
+            long x = box.getRight();
+            long y = box.getLow();
+            List<Integer> found = new ArrayList<>();
+            index.searchIntersecting(new BoundingBox(x, y, x, y), found::add);
+
+            // Then
+            assertThat(found).containsExactlyInAnyOrderElementsOf(boxes.entrySet().stream()
+                    .filter(e -> e.getValue().contains(x, y))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet()));
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(SpatialIndexType.class)
+    void testNearestValuesComeFromTheNearestOnEachOnce(SpatialIndexType type) {
+        // Given, boxes spanning many cells of the grid, and a few far away
+        Map<Integer, BoundingBox> boxes = randomBoxes(2_000, 10_000, 800);
+        boxes.put(-1, new BoundingBox(1_000_000, 1_000_000, 1_000_010, 1_000_010));
+        boxes.put(-2, new BoundingBox(-2_000_000_000, 5, -1_999_999_000, 50));
+        SpatialIndex<Integer> index = insertAll(type.emptyIndex(GRID_CELL_SIZE), boxes);
+
+        for (int query = 0; query < 20; query++) {
+            long left = random.nextInt(12_000) - 6_000;
+            long low = random.nextInt(12_000) - 6_000;
+            BoundingBox target = query % 2 == 0
+                    ? new BoundingBox(left, low, left, low)
+                    : new BoundingBox(left, low, left + random.nextInt(500), low + random.nextInt(500));
+
+            // When
+            List<Integer> nearest = new ArrayList<>();
+            List<Double> distances = new ArrayList<>();
+            index.searchNearest(target, (value, distance) -> {
+                nearest.add(value);
+                distances.add(distance);
+                return nearest.size() < 50;
+            });
+            List<Integer> all = new ArrayList<>();
+            index.searchNearest(target, (value, distance) -> all.add(value));
+
+            // Then
+            List<Double> expected = boxes.values().stream()
+                    .map(box -> box.distanceTo(target))
+                    .sorted()
+                    .limit(50)
+                    .collect(Collectors.toList());
+            assertThat(distances).isEqualTo(expected);
+            for (int i = 0; i < nearest.size(); i++)
+                assertThat(boxes.get(nearest.get(i)).distanceTo(target)).isEqualTo(distances.get(i));
+            assertThat(all).containsExactlyInAnyOrderElementsOf(boxes.keySet());
+        }
+    }
+
+    private SpatialIndex<Integer> insertAll(SpatialIndex<Integer> index, Map<Integer, BoundingBox> boxes) {
+        for (Map.Entry<Integer, BoundingBox> entry : boxes.entrySet())
+            index = index.insert(entry.getValue(), entry.getKey());
+        return index;
+    }
+
+    private void assertSameResultsAsBruteForce(SpatialIndex<Integer> index, Map<Integer, BoundingBox> boxes, int spread) {
+        for (int query = 0; query < 50; query++) {
+            long left = random.nextInt(spread) - spread / 2;
+            long low = random.nextInt(spread) - spread / 2;
+            BoundingBox area = new BoundingBox(left, low, left + random.nextInt(spread / 2), low + random.nextInt(spread / 2));
+
+            Set<Integer> expected = boxes.entrySet().stream()
+                    .filter(e -> e.getValue().isInside(area))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+
+            List<Integer> found = new ArrayList<>();
+            index.searchWithin(area, found::add);
+
+            assertThat(found).containsExactlyInAnyOrderElementsOf(expected);
+
+            List<Integer> intersecting = new ArrayList<>();
+            index.searchIntersecting(area, intersecting::add);
+            assertThat(intersecting).containsExactlyInAnyOrderElementsOf(boxes.entrySet().stream()
+                    .filter(e -> e.getValue().intersects(area))
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet()));
+        }
+    }
+
+    private Map<Integer, BoundingBox> randomBoxes(int count, int spread, int maxSide) {
+        Map<Integer, BoundingBox> boxes = new HashMap<>();
+        for (int id = 0; id < count; id++) {
+            long left = random.nextInt(spread) - spread / 2;
+            long low = random.nextInt(spread) - spread / 2;
+            boxes.put(id, new BoundingBox(left, low, left + 1 + random.nextInt(maxSide), low + 1 + random.nextInt(maxSide)));
+        }
+        return boxes;
+    }
+}
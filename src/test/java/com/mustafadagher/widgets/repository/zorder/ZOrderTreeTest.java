@@ -0,0 +1,236 @@
+package com.mustafadagher.widgets.repository.zorder;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ZOrderTreeTest {
+    private static final Comparator<Widget> BY_Z = Comparator.comparing(Widget::getZ).thenComparing(Widget::getId);
+
+    private final Random random = new Random(11);
+
+    @Test
+    void testInsertingAtAnOccupiedZShiftsOnlyTheContiguousRun() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w2 = aValidWidget().z(2L);
+        Widget w3 = aValidWidget().z(3L);
+        Widget w5 = aValidWidget().z(5L);
+        ZOrderTree tree = ZOrderTree.empty().put(WidgetRecord.of(w1)).put(WidgetRecord.of(w2)).put(WidgetRecord.of(w3)).put(WidgetRecord.of(w5));
+
+        // When
+        long shiftedAt = millisOf(OffsetDateTime.now().plusMinutes(1));
+        Widget inserted = aValidWidget().z(2L);
+        tree = tree.insertShiftingUpwards(WidgetRecord.of(inserted), shiftedAt);
+
+        // Then
+        assertThat(zOf(tree, w1, inserted, w2, w3, w5)).containsExactly(1L, 2L, 3L, 4L, 5L);
+        assertThat(tree.get(w2.getId()).getLastModifiedAt()).isEqualTo(shiftedAt);
+        assertThat(tree.get(w3.getId()).getLastModifiedAt()).isEqualTo(shiftedAt);
+        assertThat(tree.get(w1.getId()).getLastModifiedAt()).isEqualTo(millisOf(w1.getLastModificationDate()));
+        assertThat(tree.get(w5.getId()).getLastModifiedAt()).isEqualTo(millisOf(w5.getLastModificationDate()));
+        assertThat(tree.highest().getId()).isEqualTo(w5.getId());
+    }
+
+    @Test
+    void testInsertingAtAFreeZShiftsNothing() {
+        // Given
+        Widget w1 = aValidWidget().z(1L);
+        Widget w3 = aValidWidget().z(3L);
+        ZOrderTree tree = ZOrderTree.empty().put(WidgetRecord.of(w1)).put(WidgetRecord.of(w3));
+
+        // When
+        Widget inserted = aValidWidget().z(2L);
+        tree = tree.insertShiftingUpwards(WidgetRecord.of(inserted), millisOf(OffsetDateTime.now().plusMinutes(1)));
+
+        // Then
+        assertThat(zOf(tree, w1, inserted, w3)).containsExactly(1L, 2L, 3L);
+        assertThat(tree.get(w3.getId()).toWidget()).isEqualTo(w3);
+    }
+
+    @Test
+    void testRandomChangesMatchANaiveModel() {
+        ZOrderTree tree = ZOrderTree.empty();
+        Map<UUID, Widget> model = new HashMap<>();
+        List<UUID> ids = new ArrayList<>();
+
+        for (int operation = 0; operation < 5_000; operation++) {
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                Widget widget = aValidWidget().z((long) random.nextInt(200));
+                tree = tree.insertShiftingUpwards(WidgetRecord.of(widget), millisOf(widget.getLastModificationDate()));
+                shiftUpwards(model, widget.getZ());
+                model.put(widget.getId(), widget);
+                ids.add(widget.getId());
+            } else if (kind < 8 || ids.isEmpty()) {
+                Widget widget = aValidWidget().z((long) random.nextInt(200));
+                if (!ids.isEmpty() && random.nextBoolean())
+                    widget.id(ids.get(random.nextInt(ids.size())));
+                else
+                    ids.add(widget.getId());
+                tree = tree.put(WidgetRecord.of(widget));
+                model.put(widget.getId(), widget);
+            } else {
+                UUID id = ids.remove(random.nextInt(ids.size()));
+                tree = tree.remove(id);
+                model.remove(id);
+            }
+
+            if (operation % 250 == 0)
+                assertSameAsModel(tree, model);
+        }
+        assertSameAsModel(tree, model);
+    }
+
+    @Test
+    void testInsertingManyTimesAtTheSamePlaceRelabelsWithoutLosingTheOrder() {
+        // Given
+        ZOrderTree tree = ZOrderTree.empty();
+        Map<UUID, Widget> model = new HashMap<>();
+        for (long z = 0; z < 100; z++) {
+            Widget widget = aValidWidget().z(z * 10);
+            tree = tree.put(WidgetRecord.of(widget));
+            model.put(widget.getId(), widget);
+        }
+
+        // When
+        for (int i = 0; i < 2_000; i++) {
+            Widget widget = aValidWidget().z(500L);
+            tree = tree.insertShiftingUpwards(WidgetRecord.of(widget), millisOf(widget.getLastModificationDate()));
+            shiftUpwards(model, 500L);
+            model.put(widget.getId(), widget);
+        }
+
+        // Then
+        assertSameAsModel(tree, model);
+    }
+
+    @Test
+    void testBulkBuiltTreeMatchesTheGivenWidgets() {
+        // Given
+        Map<UUID, Widget> model = new HashMap<>();
+        for (int i = 0; i < 3_000; i++) {
+            Widget widget = aValidWidget().z((long) random.nextInt(1_000));
+            model.put(widget.getId(), widget);
+        }
+
+        // When
+        ZOrderTree tree = ZOrderTree.of(model.values().stream().map(WidgetRecord::of).collect(Collectors.toList()));
+        Widget inserted = aValidWidget().z(500L);
+        tree = tree.insertShiftingUpwards(WidgetRecord.of(inserted), millisOf(inserted.getLastModificationDate()));
+        shiftUpwards(model, 500L);
+        model.put(inserted.getId(), inserted);
+
+        // Then
+        assertSameAsModel(tree, model);
+    }
+
+    @Test
+    void testChangesDoNotAffectPreviousVersionsOfTheTree() {
+        // Given
+        Map<UUID, Widget> model = new HashMap<>();
+        ZOrderTree before = ZOrderTree.empty();
+        for (long z = 0; z < 500; z++) {
+            Widget widget = aValidWidget().z(z);
+            before = before.put(WidgetRecord.of(widget));
+            model.put(widget.getId(), widget);
+        }
+
+        // When
+        ZOrderTree after = before;
+        for (int i = 0; i < 100; i++)
+            after = after.insertShiftingUpwards(WidgetRecord.of(aValidWidget().z(0L)), System.currentTimeMillis());
+
+        // Then
+        assertThat(after.size()).isEqualTo(600);
+        assertThat(after.highest().getZ()).isEqualTo(599L);
+        assertSameAsModel(before, model);
+    }
+
+    @Test
+    void testReadsFromAZOrRankOnwards() {
+        // Given
+        ZOrderTree tree = ZOrderTree.empty();
+        for (long z = 0; z < 10; z++)
+            tree = tree.put(WidgetRecord.of(aValidWidget().z(z * 2)));
+
+        // When
+        List<Long> fromZ = new ArrayList<>();
+        tree.forEachFromZ(7, widget -> fromZ.add(widget.getZ()) && fromZ.size() < 3);
+        List<Long> fromRank = new ArrayList<>();
+        tree.forEachFromRank(8, widget -> fromRank.add(widget.getZ()));
+
+        // Then
+        assertThat(fromZ).containsExactly(8L, 10L, 12L);
+        assertThat(fromRank).containsExactly(16L, 18L);
+    }
+
+    @Test
+    void testReadsFromRightAfterAZAndIdPlace() {
+        // Given three widgets sharing a z, sorted by id
+        List<Widget> sameZ = Arrays.asList(aValidWidget().z(5L), aValidWidget().z(5L), aValidWidget().z(5L));
+        sameZ.sort(BY_Z);
+        Widget below = aValidWidget().z(4L);
+        Widget above = aValidWidget().z(6L);
+        ZOrderTree tree = ZOrderTree.empty().put(WidgetRecord.of(below)).put(WidgetRecord.of(above));
+        for (Widget widget : sameZ)
+            tree = tree.put(WidgetRecord.of(widget));
+
+        // When
+        List<UUID> afterTheFirst = new ArrayList<>();
+        tree.forEachAfter(5L, sameZ.get(0).getId(), widget -> afterTheFirst.add(widget.getId()));
+        List<UUID> afterAFreePlace = new ArrayList<>();
+        tree.forEachAfter(3L, sameZ.get(0).getId(), widget -> afterAFreePlace.add(widget.getId()) && afterAFreePlace.size() < 1);
+
+        // Then
+        assertThat(afterTheFirst).containsExactly(sameZ.get(1).getId(), sameZ.get(2).getId(), above.getId());
+        assertThat(afterAFreePlace).containsExactly(below.getId());
+    }
+
+    private static void shiftUpwards(Map<UUID, Widget> model, long z) {
+        Set<Long> occupied = model.values().stream().map(Widget::getZ).collect(Collectors.toSet());
+        long end = z;
+        while (occupied.contains(end))
+            end++;
+
+        for (Widget widget : model.values()) {
+            if (widget.getZ() >= z && widget.getZ() < end)
+                widget.z(widget.getZ() + 1);
+        }
+    }
+
+    private static void assertSameAsModel(ZOrderTree tree, Map<UUID, Widget> model) {
+        List<Widget> expected = model.values().stream()
+                .map(Widget::clone)
+                .sorted(BY_Z)
+                .collect(Collectors.toList());
+
+        List<WidgetRecord> inOrder = new ArrayList<>();
+        tree.forEachFromRank(0, inOrder::add);
+
+        assertThat(tree.size()).isEqualTo(model.size());
+        assertThat(inOrder).extracting(WidgetRecord::getId)
+                .containsExactlyElementsOf(expected.stream().map(Widget::getId).collect(Collectors.toList()));
+        assertThat(inOrder).extracting(WidgetRecord::getZ)
+                .containsExactlyElementsOf(expected.stream().map(Widget::getZ).collect(Collectors.toList()));
+        for (Widget widget : expected)
+            assertThat(tree.get(widget.getId()).getZ()).isEqualTo(widget.getZ());
+        if (!expected.isEmpty())
+            assertThat(tree.highest().getId()).isEqualTo(expected.get(expected.size() - 1).getId());
+    }
+
+    private static long millisOf(OffsetDateTime date) {
+        return date.toInstant().toEpochMilli();
+    }
+
+    private static List<Long> zOf(ZOrderTree tree, Widget... widgets) {
+        return Arrays.stream(widgets).map(widget -> tree.get(widget.getId()).getZ()).collect(Collectors.toList());
+    }
+}
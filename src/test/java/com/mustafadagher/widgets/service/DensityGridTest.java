@@ -0,0 +1,53 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.Widget;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DensityGridTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {64, 192, 256, 4096, 65_536})
+    void testCountsTheSameWidgetsPerTileAsCountingTheirCenters(int tileSize) {
+        // Given, widgets added, some moved and some removed, around the origin
+        Random random = new Random(tileSize);
+        DensityGrid grid = new DensityGrid();
+        List<Widget> widgets = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            Widget widget = aValidWidget().x((long) random.nextInt(200_000) - 100_000).y((long) random.nextInt(200_000) - 100_000);
+            grid.add(widget);
+            widgets.add(widget);
+        }
+        for (int i = 0; i < 1_000; i++) {
+            Widget moved = aValidWidget().x((long) random.nextInt(200_000) - 100_000).y(widgets.get(i).getY());
+            grid.move(widgets.get(i), moved);
+            widgets.set(i, moved);
+        }
+        for (int i = 0; i < 1_000; i++)
+            grid.remove(widgets.remove(widgets.size() - 1));
+
+        // When
+        long firstColumn = Math.floorDiv(-30_000, tileSize);
+        long firstRow = Math.floorDiv(-70_000, tileSize);
+        int columns = (int) (Math.floorDiv(80_000, tileSize) - firstColumn + 1);
+        int rows = (int) (Math.floorDiv(10_000, tileSize) - firstRow + 1);
+        int[] counts = grid.count(firstColumn, firstRow, columns, rows, tileSize);
+
+        // Then
+        int[] expected = new int[columns * rows];
+        for (Widget widget : widgets) {
+            long column = Math.floorDiv(widget.getX(), (long) tileSize) - firstColumn;
+            long row = Math.floorDiv(widget.getY(), (long) tileSize) - firstRow;
+            if (0 <= column && column < columns && 0 <= row && row < rows)
+                expected[(int) (row * columns + column)]++;
+        }
+        assertThat(counts).isEqualTo(expected);
+    }
+}
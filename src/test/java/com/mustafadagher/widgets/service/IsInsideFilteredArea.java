@@ -1,5 +1,6 @@
 package com.mustafadagher.widgets.service;
 
+import com.mustafadagher.widgets.model.BoundingBox;
 import com.mustafadagher.widgets.model.Widget;
 import com.mustafadagher.widgets.model.WidgetAreaFilter;
 
@@ -8,25 +9,16 @@ import java.util.function.Predicate;
 
 public class IsInsideFilteredArea implements Predicate<Widget> {
     private final WidgetAreaFilter filter;
+    private final BoundingBox area;
 
     private IsInsideFilteredArea(WidgetAreaFilter filter) {
         this.filter = filter;
+        this.area = BoundingBox.of(filter);
     }
 
     @Override
     public boolean test(Widget widget) {
-        float deltaX = widget.getWidth() / 2F;
-        float deltaY = widget.getHeight() / 2F;
-
-        long widgetLeft = (long) Math.floor(widget.getX() - deltaX);
-        long widgetLow = (long) Math.floor(widget.getY() - deltaY);
-        long widgetRight = (long) Math.ceil(widget.getX() + deltaX);
-        long widgetHigh = (long) Math.ceil(widget.getY() + deltaY);
-
-        return widgetLeft >= filter.getLeftX()
-                && widgetLow >= filter.getLowerY()
-                && widgetRight <= filter.getRightX()
-                && widgetHigh <= filter.getHigherY();
+        return BoundingBox.of(widget).isInside(area);
     }
 
     public static IsInsideFilteredArea withinArea(WidgetAreaFilter filter) {
@@ -0,0 +1,77 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OcclusionCullingTest {
+
+    @Test
+    void testKeepsTheSameWidgetsAsPaintingTheCanvasCellByCell() {
+        // Given, widgets piled on a small canvas, sorted by z, and a viewport cutting through some of them
+        Random random = new Random(7);
+        List<WidgetRecord> widgets = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            widgets.add(WidgetRecord.of(aValidWidget()
+                    .x((long) random.nextInt(120)).y((long) random.nextInt(120)).z((long) i)
+                    .width(1 + random.nextFloat() * 29).height(1 + random.nextFloat() * 29)));
+        }
+        BoundingBox viewport = new BoundingBox(10, 20, 100, 90);
+
+        // When
+        List<WidgetRecord> visible = new ArrayList<>();
+        OcclusionCulling.forEachVisible(widgets, viewport, visible::add);
+
+        // Then, a widget shows if a cell of it in the viewport isn't painted by the widgets above it
+        boolean[][] painted = new boolean[100][90];
+        List<WidgetRecord> expected = new ArrayList<>();
+        for (int i = widgets.size() - 1; i >= 0; i--) {
+            WidgetRecord widget = widgets.get(i);
+            long left = Math.max(widget.getLeft(), viewport.getLeft());
+            long right = Math.min(widget.getRight(), viewport.getRight());
+            long low = Math.max(widget.getLow(), viewport.getLow());
+            long high = Math.min(widget.getHigh(), viewport.getHigh());
+            boolean shows = left >= right || low >= high;
+            for (long x = left; x < right; x++) {
+                for (long y = low; y < high; y++) {
+                    shows |= !painted[(int) x][(int) y];
+                    painted[(int) x][(int) y] = true;
+                }
+            }
+            if (shows)
+                expected.add(0, widget);
+        }
+        assertThat(expected).hasSizeLessThan(widgets.size());
+        assertThat(visible).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void testAWidgetIsHiddenByTheWidgetsAboveItTogether() {
+        // Given, a box from 0 to 20 beneath two halves of it, and one beneath the left half only, with a gap above it
+        Widget hidden = aValidWidget().width(20F).height(20F).x(10L).y(10L).z(1L);
+        Widget peeking = aValidWidget().width(10F).height(10F).x(25L).y(5L).z(2L);
+        Widget leftHalf = aValidWidget().width(10F).height(20F).x(5L).y(10L).z(3L);
+        Widget rightHalf = aValidWidget().width(10F).height(20F).x(15L).y(10L).z(4L);
+        Widget touching = aValidWidget().width(10F).height(10F).x(45L).y(5L).z(5L);
+        List<WidgetRecord> widgets = new ArrayList<>();
+        for (Widget widget : Arrays.asList(hidden, peeking, leftHalf, rightHalf, touching))
+            widgets.add(WidgetRecord.of(widget));
+
+        // When
+        List<WidgetRecord> visible = new ArrayList<>();
+        OcclusionCulling.forEachVisible(widgets, new BoundingBox(0, 0, 40, 40), visible::add);
+
+        // Then, the one only touching the viewport has no area in it, and is kept
+        assertThat(visible).extracting(WidgetRecord::getId)
+                .containsExactly(peeking.getId(), leftHalf.getId(), rightHalf.getId(), touching.getId());
+    }
+}
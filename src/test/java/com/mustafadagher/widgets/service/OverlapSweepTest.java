@@ -0,0 +1,59 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetOverlap;
+import com.mustafadagher.widgets.model.WidgetRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OverlapSweepTest {
+
+    @Test
+    void testFindsTheSamePairsAsComparingEveryWidgetWithEveryOther() {
+        // Given
+        Random random = new Random(5);
+        List<WidgetRecord> widgets = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            widgets.add(WidgetRecord.of(aValidWidget()
+                    .x((long) random.nextInt(5_000)).y((long) random.nextInt(5_000)).z((long) i)
+                    .width(1 + random.nextFloat() * 199).height(1 + random.nextFloat() * 199)));
+        }
+
+        // When
+        List<WidgetOverlap> found = new ArrayList<>();
+        OverlapSweep.forEachOverlap(widgets, (a, b) -> found.add(WidgetOverlap.of(a, b)));
+
+        // Then
+        Set<WidgetOverlap> expected = new HashSet<>();
+        for (int i = 0; i < widgets.size(); i++) {
+            for (int j = i + 1; j < widgets.size(); j++) {
+                if (widgets.get(i).overlaps(widgets.get(j).getBounds()))
+                    expected.add(WidgetOverlap.of(widgets.get(i), widgets.get(j)));
+            }
+        }
+        assertThat(expected).isNotEmpty();
+        assertThat(found).containsExactlyInAnyOrderElementsOf(expected);
+    }
+
+    @Test
+    void testWidgetsSharingAnEdgeDoNotOverlap() {
+        // Given, boxes from 0 to 10, one from 10 to 20, and one from 5 to 15 above them
+        Widget left = aValidWidget().width(10F).height(10F).x(5L).y(5L).z(1L);
+        Widget right = aValidWidget().width(10F).height(10F).x(15L).y(5L).z(2L);
+        Widget across = aValidWidget().width(10F).height(10F).x(10L).y(5L).z(3L);
+
+        // When
+        List<WidgetOverlap> found = new ArrayList<>();
+        OverlapSweep.forEachOverlap(Arrays.asList(WidgetRecord.of(across), WidgetRecord.of(left), WidgetRecord.of(right)),
+                (a, b) -> found.add(WidgetOverlap.of(a, b)));
+
+        // Then
+        assertThat(found).containsExactlyInAnyOrder(
+                new WidgetOverlap(left.getId(), across.getId()),
+                new WidgetOverlap(right.getId(), across.getId()));
+    }
+}
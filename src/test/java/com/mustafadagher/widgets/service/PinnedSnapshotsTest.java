@@ -0,0 +1,136 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import com.mustafadagher.widgets.repository.WidgetSnapshot;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PinnedSnapshotsTest {
+    private long now;
+    private final PinnedSnapshots pinnedSnapshots = new PinnedSnapshots(Long.MAX_VALUE, () -> now);
+
+    @Test
+    void testSnapshotsExpireWhenNotReadForTheTimeToLive() {
+        // Given
+        pinnedSnapshots.pin(aSnapshot(1));
+        pinnedSnapshots.pin(aSnapshot(2));
+
+        // When
+        now += PinnedSnapshots.TIME_TO_LIVE_MILLIS - 1;
+        pinnedSnapshots.get(2);
+        now += 1;
+
+        // Then
+        assertThat(pinnedSnapshots.get(1)).isEmpty();
+        assertThat(pinnedSnapshots.get(2)).isPresent();
+    }
+
+    @Test
+    void testSnapshotsReadWithinTheTimeToLiveAreAllKept() {
+        // Given
+        for (int version = 0; version < 100; version++)
+            pinnedSnapshots.pin(aSnapshot(version));
+
+        // When
+        now += PinnedSnapshots.TIME_TO_LIVE_MILLIS - 1;
+
+        // Then
+        for (int version = 0; version < 100; version++)
+            assertThat(pinnedSnapshots.get(version)).isPresent();
+    }
+
+    @Test
+    void testOnlyTheMostRecentlyReadSnapshotsAreKept() {
+        // Given
+        WidgetSnapshot first = pinnedSnapshots.pin(aSnapshot(0));
+        for (int version = 1; version < PinnedSnapshots.MAX_PINNED; version++)
+            pinnedSnapshots.pin(aSnapshot(version));
+
+        // When
+        pinnedSnapshots.get(0);
+        pinnedSnapshots.pin(aSnapshot(PinnedSnapshots.MAX_PINNED));
+
+        // Then
+        assertThat(pinnedSnapshots.get(0)).contains(first);
+        assertThat(pinnedSnapshots.get(1)).isEmpty();
+        assertThat(pinnedSnapshots.pin(aSnapshot(0))).isSameAs(first);
+    }
+
+    @Test
+    void testCopiesAreDroppedLeastRecentlyReadFirstOnceTheyHoldTooManyWidgets() {
+        // Given
+        PinnedSnapshots pinnedSnapshots = new PinnedSnapshots(100, () -> now);
+        pinnedSnapshots.pin(aSnapshot(2));
+        pinnedSnapshots.pin(aCopy(0, 40));
+        pinnedSnapshots.pin(aCopy(1, 40));
+
+        // When
+        pinnedSnapshots.get(0);
+        pinnedSnapshots.pin(aCopy(3, 40));
+
+        // Then
+        assertThat(pinnedSnapshots.get(0)).isPresent();
+        assertThat(pinnedSnapshots.get(1)).isEmpty();
+        assertThat(pinnedSnapshots.get(2)).isPresent();
+        assertThat(pinnedSnapshots.get(3)).isPresent();
+    }
+
+    @Test
+    void testTheCopyReadLastIsKeptEvenIfItHoldsTooManyWidgets() {
+        // Given
+        PinnedSnapshots pinnedSnapshots = new PinnedSnapshots(100, () -> now);
+        pinnedSnapshots.pin(aCopy(0, 40));
+
+        // When
+        WidgetSnapshot tooLarge = pinnedSnapshots.pin(aCopy(1, 150));
+
+        // Then
+        assertThat(pinnedSnapshots.get(0)).isEmpty();
+        assertThat(pinnedSnapshots.get(1)).contains(tooLarge);
+    }
+
+    private static WidgetSnapshot aSnapshot(long version) {
+        return aCopy(version, 0);
+    }
+
+    private static WidgetSnapshot aCopy(long version, int copiedWidgets) {
+        return new WidgetSnapshot() {
+            public long getVersion() {
+                return version;
+            }
+
+            public int getCopiedWidgetCount() {
+                return copiedWidgets;
+            }
+
+            public List<Widget> findAllByOrderByZAsc(int page, int size) {
+                return Collections.emptyList();
+            }
+
+            public List<Widget> findAllWithinAreaOrderByZAsc(int page, int size, WidgetAreaFilter area) {
+                return Collections.emptyList();
+            }
+
+            public List<Widget> findAllAfterOrderByZAsc(WidgetCursor after, int size) {
+                return Collections.emptyList();
+            }
+
+            public List<Widget> findAllWithinAreaAfterOrderByZAsc(WidgetCursor after, int size, WidgetAreaFilter area) {
+                return Collections.emptyList();
+            }
+
+            public void forEachOrderByZAsc(Consumer<Widget> consumer) {
+            }
+
+            public void forEachWithinAreaOrderByZAsc(WidgetAreaFilter area, Consumer<Widget> consumer) {
+            }
+        };
+    }
+}
@@ -0,0 +1,123 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetQueryCacheStats;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryResultCacheTest {
+    private final QueryResultCache cache = new QueryResultCache();
+    private final AtomicInteger queries = new AtomicInteger();
+
+    @Test
+    void testTheSamePageOfTheSameVersionIsQueriedOnce() {
+        // Given
+        BoundingBox area = BoundingBox.of(new WidgetAreaFilter(0, 100, 0, 100));
+
+        // When
+        List<Widget> first = cache.get(1, area, AreaFilterMode.CONTAINS, 0, 10, widgets(3));
+        List<Widget> second = cache.get(1, area, AreaFilterMode.CONTAINS, 0, 10, widgets(3));
+
+        // Then
+        assertThat(queries.get()).isEqualTo(1);
+        assertThat(second).extracting(Widget::getId).isEqualTo(first.stream().map(Widget::getId).collect(Collectors.toList()));
+        WidgetQueryCacheStats stats = cache.stats();
+        assertThat(stats.getHits()).isEqualTo(1);
+        assertThat(stats.getMisses()).isEqualTo(1);
+        assertThat(stats.getEntries()).isEqualTo(1);
+        assertThat(stats.getCachedWidgets()).isEqualTo(3);
+    }
+
+    @Test
+    void testAnotherVersionAreaModeOrPageIsQueriedAgain() {
+        // Given
+        BoundingBox area = BoundingBox.of(new WidgetAreaFilter(0, 100, 0, 100));
+        cache.get(1, area, AreaFilterMode.CONTAINS, 0, 10, widgets(1));
+
+        // When
+        cache.get(2, area, AreaFilterMode.CONTAINS, 0, 10, widgets(1));
+        cache.get(1, null, null, 0, 10, widgets(1));
+        cache.get(1, area, AreaFilterMode.INTERSECTS, 0, 10, widgets(1));
+        cache.get(1, area, AreaFilterMode.CONTAINS, 1, 10, widgets(1));
+        cache.get(1, area, AreaFilterMode.CONTAINS, 0, 20, widgets(1));
+
+        // Then
+        assertThat(queries.get()).isEqualTo(6);
+        assertThat(cache.stats().getHits()).isZero();
+    }
+
+    @Test
+    void testTheLeastRecentlyReadEntriesAreEvicted() {
+        // Given
+        cache.get(0, null, null, 0, 10, widgets(0));
+        for (int version = 1; version < QueryResultCache.MAX_ENTRIES; version++)
+            cache.get(version, null, null, 0, 10, widgets(0));
+
+        // When
+        cache.get(0, null, null, 0, 10, widgets(0));
+        cache.get(QueryResultCache.MAX_ENTRIES, null, null, 0, 10, widgets(0));
+
+        // Then
+        int queried = queries.get();
+        cache.get(0, null, null, 0, 10, widgets(0));
+        assertThat(queries.get()).isEqualTo(queried);
+        cache.get(1, null, null, 0, 10, widgets(0));
+        assertThat(queries.get()).isEqualTo(queried + 1);
+        assertThat(cache.stats().getEvictions()).isEqualTo(2);
+    }
+
+    @Test
+    void testEntriesAreEvictedToKeepTheCachedWidgetsBounded() {
+        // Given
+        int half = (int) (QueryResultCache.MAX_CACHED_WIDGETS / 2);
+        cache.get(1, null, null, 0, half, widgets(half));
+        cache.get(2, null, null, 0, half, widgets(half));
+
+        // When
+        cache.get(3, null, null, 0, 10, widgets(10));
+
+        // Then
+        WidgetQueryCacheStats stats = cache.stats();
+        assertThat(stats.getEvictions()).isEqualTo(1);
+        assertThat(stats.getEntries()).isEqualTo(2);
+        assertThat(stats.getCachedWidgets()).isEqualTo(half + 10);
+    }
+
+    @Test
+    void testChangingAReturnedWidgetDoesNotChangeTheCachedOne() {
+        // Given
+        cache.get(1, null, null, 0, 10, widgets(1));
+
+        // When
+        cache.get(1, null, null, 0, 10, widgets(1)).get(0).x(-1L);
+
+        // Then
+        assertThat(cache.get(1, null, null, 0, 10, widgets(1)).get(0).getX()).isEqualTo(0L);
+    }
+
+    private Supplier<List<Widget>> widgets(int count) {
+        return () -> {
+            queries.incrementAndGet();
+            if (count == 0)
+                return Collections.emptyList();
+            List<Widget> widgets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                widgets.add(new Widget().id(UUID.randomUUID()).x((long) i).y(0L).z((long) i).width(1F).height(1F)
+                        .lastModificationDate(OffsetDateTime.now()));
+            return widgets;
+        };
+    }
+}
@@ -0,0 +1,81 @@
+package com.mustafadagher.widgets.service;
+
+import com.mustafadagher.widgets.model.Widget;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidget;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleWriterTest {
+    private final List<List<Widget>> insertedBatches = Collections.synchronizedList(new ArrayList<>());
+    private final SingleWriter singleWriter = new SingleWriter(widgets -> {
+        insertedBatches.add(new ArrayList<>(widgets));
+        return widgets;
+    });
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        singleWriter.close();
+    }
+
+    @Test
+    void testConsecutiveInsertsAreInsertedAsOneBatchInTheOrderTheyWereSubmitted() throws InterruptedException {
+        // Given the writer is busy while the changes are queued
+        CountDownLatch busy = new CountDownLatch(1);
+        singleWriter.submit(() -> await(busy));
+        Widget w1 = aValidWidget();
+        Widget w2 = aValidWidget();
+        Widget w3 = aValidWidget();
+        List<String> applied = Collections.synchronizedList(new ArrayList<>());
+
+        // When
+        CompletableFuture<Widget> inserted1 = singleWriter.insert(w1);
+        CompletableFuture<Widget> inserted2 = singleWriter.insert(w2);
+        CompletableFuture<Boolean> other = singleWriter.submit(() -> applied.add("after " + insertedBatches.size() + " batch"));
+        CompletableFuture<Widget> inserted3 = singleWriter.insert(w3);
+        busy.countDown();
+
+        // Then
+        assertThat(inserted1.join()).isSameAs(w1);
+        assertThat(inserted2.join()).isSameAs(w2);
+        assertThat(inserted3.join()).isSameAs(w3);
+        assertThat(other.join()).isTrue();
+        assertThat(insertedBatches).containsExactly(Arrays.asList(w1, w2), Collections.singletonList(w3));
+        assertThat(applied).containsExactly("after 1 batch");
+    }
+
+    @Test
+    void testAFailingChangeOnlyFailsItsOwnCaller() {
+        // Given
+        IllegalArgumentException failure = new IllegalArgumentException("failed");
+
+        // When
+        CompletableFuture<Object> failed = singleWriter.submit(() -> {
+            throw failure;
+        });
+        CompletableFuture<String> next = singleWriter.submit(() -> "applied");
+
+        // Then
+        assertThat(next.join()).isEqualTo("applied");
+        assertThatThrownBy(failed::join).hasCause(failure);
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            latch.await();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
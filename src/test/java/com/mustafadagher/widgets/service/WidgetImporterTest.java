@@ -0,0 +1,76 @@
+package com.mustafadagher.widgets.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mustafadagher.widgets.model.Widget;
+import com.mustafadagher.widgets.model.WidgetImportResult;
+import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.repository.WidgetInMemoryRepository;
+import org.junit.jupiter.api.Test;
+
+import javax.validation.Validation;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mustafadagher.widgets.Mocks.aValidWidgetRequest;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class WidgetImporterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final WidgetsService widgetsService = spy(new WidgetsService(new WidgetInMemoryRepository()));
+    private final WidgetImporter widgetImporter = new WidgetImporter(widgetsService, objectMapper,
+            Validation.buildDefaultValidatorFactory().getValidator());
+
+    @Test
+    void testImportAddsTheValidLinesInChunksAndReportsTheInvalidOnes() throws IOException {
+        // Given
+        StringBuilder ndjson = new StringBuilder();
+        int widgets = WidgetImporter.CHUNK_SIZE * 2 + 500;
+        for (int i = 0; i < widgets; i++) {
+            WidgetRequest request = aValidWidgetRequest().x((long) i).z(i % 3 == 0 ? null : (long) (i % 50));
+            ndjson.append(objectMapper.writeValueAsString(request)).append('\n');
+        }
+        ndjson.append('\n')
+                .append("{\"x\": 1, \"y\": 1, \"width\": 0, \"height\": 10}\n")
+                .append("not json\n");
+
+        // When
+        WidgetImportResult result = widgetImporter.importWidgets(
+                new ByteArrayInputStream(ndjson.toString().getBytes(StandardCharsets.UTF_8)));
+
+        // Then
+        assertThat(result.getImported()).isEqualTo(widgets);
+        assertThat(result.getRejected()).isEqualTo(2);
+        assertThat(result.getErrors()).containsExactly(
+                "line " + (widgets + 2) + ": width must be greater than 0",
+                "line " + (widgets + 3) + ": not a valid widget request");
+        verify(widgetsService, atLeast(3)).addWidgets(any());
+        List<Widget> all = widgetsService.getAllWidgets(0, widgets, null);
+        assertThat(all).hasSize(widgets);
+        assertThat(all).extracting(Widget::getZ).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void testLinesLongerThanTheLimitAreRejectedWithoutStoppingTheImport() throws IOException {
+        // Given, a line far longer than the limit between two valid ones
+        char[] padding = new char[WidgetImporter.MAX_LINE_LENGTH * 100];
+        Arrays.fill(padding, ' ');
+        String valid = objectMapper.writeValueAsString(aValidWidgetRequest());
+        String ndjson = valid + "\n{\"x\": 1," + new String(padding) + "\"y\": 1}\n" + valid + "\n";
+
+        // When
+        WidgetImportResult result = widgetImporter.importWidgets(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        // Then
+        assertThat(result.getImported()).isEqualTo(2);
+        assertThat(result.getRejected()).isEqualTo(1);
+        assertThat(result.getErrors()).containsExactly("line 2: longer than " + WidgetImporter.MAX_LINE_LENGTH + " characters");
+    }
+}
@@ -1,26 +1,46 @@
 package com.mustafadagher.widgets.service;
 
+import com.mustafadagher.widgets.exception.InvalidTilingException;
+import com.mustafadagher.widgets.exception.SnapshotExpiredException;
 import com.mustafadagher.widgets.exception.WidgetNotFoundException;
+import com.mustafadagher.widgets.model.AreaFilterMode;
+import com.mustafadagher.widgets.model.BoundingBox;
 import com.mustafadagher.widgets.model.Widget;
 import com.mustafadagher.widgets.model.WidgetAreaFilter;
+import com.mustafadagher.widgets.model.WidgetChangeResult;
+import com.mustafadagher.widgets.model.WidgetChangeResult.Outcome;
+import com.mustafadagher.widgets.model.WidgetCursor;
+import com.mustafadagher.widgets.model.WidgetDensity;
 import com.mustafadagher.widgets.model.WidgetRequest;
+import com.mustafadagher.widgets.model.WidgetUpdateRequest;
+import com.mustafadagher.widgets.repository.WidgetHashRepository;
+import com.mustafadagher.widgets.repository.WidgetInMemoryRepository;
+import com.mustafadagher.widgets.repository.WidgetOffHeapRepository;
 import com.mustafadagher.widgets.repository.WidgetRepository;
+import com.mustafadagher.widgets.repository.WidgetSnapshot;
+import com.mustafadagher.widgets.repository.WidgetView;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Random;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static com.mustafadagher.widgets.Mocks.aValidWidget;
 import static com.mustafadagher.widgets.Mocks.aValidWidgetRequest;
@@ -32,7 +52,6 @@ import static org.mockito.Mockito.*;
 @ExtendWith(MockitoExtension.class)
 class WidgetsServiceTest {
 
-    @InjectMocks
     private WidgetsService widgetsService;
     @Mock
     private WidgetRepository widgetRepository;
@@ -40,17 +59,22 @@ class WidgetsServiceTest {
     @Captor
     private ArgumentCaptor<Widget> argumentCaptor;
 
+    @BeforeEach
+    void setUp() {
+        widgetsService = new WidgetsService(widgetRepository);
+    }
+
     @Test
     void testAddWidgetReturnsFullWidgetDescription() {
         //  Given
         WidgetRequest aValidRequest = aValidWidgetRequest();
-        when(widgetRepository.save(any())).then(returnsFirstArg());
+        when(widgetRepository.insertShiftingUpwards(any())).then(returnsFirstArg());
 
         // When
         Widget response = widgetsService.addWidget(aValidRequest);
 
         //  Then
-        verify(widgetRepository).save(response);
+        verify(widgetRepository).insertShiftingUpwards(response);
 
         assertThat(response).isNotNull();
         assertThat(response.getId()).isNotNull();
@@ -90,6 +114,7 @@ class WidgetsServiceTest {
         //  Given
         WidgetRequest aValidRequest = aValidWidgetRequest();
         when(widgetRepository.save(any())).then(returnsFirstArg());
+        when(widgetRepository.insertShiftingUpwards(any())).then(returnsFirstArg());
         insertThreeWidgetsWithZIndexOneTwoAndThree(aValidRequest);
 
         // When
@@ -102,29 +127,34 @@ class WidgetsServiceTest {
     }
 
     @Test
-    void testWidgetWithSpecifiedIndexPushesAllWidgetsWithEqualOrHigherIndexesUpwards() {
+    void testWidgetWithSpecifiedIndexIsInsertedShiftingTheWidgetsAboveUpwards() {
         //  Given
-        WidgetRequest aValidRequest = aValidWidgetRequest();
-        when(widgetRepository.save(any())).then(returnsFirstArg());
-
-        Widget w1 = aValidWidget().z(2L);
-        Widget w2 = aValidWidget().z(3L);
-        when(widgetRepository.findAllByZGreaterThanOrEqual(2L)).thenReturn(Arrays.asList(w1, w2));
+        WidgetRequest aValidRequest = aValidWidgetRequest().z(2L);
+        when(widgetRepository.insertShiftingUpwards(any())).then(returnsFirstArg());
 
         // When
-        aValidRequest.z(2L);
         Widget response = widgetsService.addWidget(aValidRequest);
 
         // then
+        verify(widgetRepository).insertShiftingUpwards(argumentCaptor.capture());
+        verify(widgetRepository, never()).save(any());
+
+        assertThat(argumentCaptor.getValue()).isSameAs(response);
         assertThat(response.getZ()).isEqualTo(2);
-        verify(widgetRepository, times(3)).save(argumentCaptor.capture());
-        List<Widget> allSavedOrUpdatedWidgets = argumentCaptor.getAllValues();
+    }
 
-        assertThat(allSavedOrUpdatedWidgets)
-                .hasSize(3)
-                .usingElementComparatorIgnoringFields("lastModificationDate")
-                .contains(response, w1.z(3L), w2.z(4L));
+    @Test
+    void testHighestZIndexFollowsWidgetsShiftedToTheTop() {
+        //  Given
+        WidgetRequest aValidRequest = aValidWidgetRequest().z(2L);
+        when(widgetRepository.insertShiftingUpwards(any())).then(returnsFirstArg());
+        when(widgetRepository.findTopByOrderByZDesc()).thenReturn(Optional.of(aValidWidget().z(4L)));
 
+        // When
+        widgetsService.addWidget(aValidRequest);
+
+        // then
+        assertThat(widgetsService.getHighestZIndex()).isEqualTo(4);
     }
 
     @Test
@@ -175,14 +205,13 @@ class WidgetsServiceTest {
     void testGetAllWidgetsWithIAreaFilter() {
         // Given
         WidgetAreaFilter filter = new WidgetAreaFilter(0, 1, 2, 3);
-        IsInsideFilteredArea isInsideFilteredArea = IsInsideFilteredArea.withinArea(filter);
-        givenRepositoryReturnsTwoWidgetsInArea(isInsideFilteredArea);
+        givenRepositoryReturnsTwoWidgetsInArea(filter);
 
         // When
         List<Widget> allWidgets = widgetsService.getAllWidgets(0, 10, filter);
 
         // Then
-        verify(widgetRepository).findAllByAreaOrderByZAsc(0, 10, isInsideFilteredArea);
+        verify(widgetRepository).findAllWithinAreaOrderByZAsc(0, 10, filter);
 
         assertThat(allWidgets).hasSize(2);
     }
@@ -192,13 +221,12 @@ class WidgetsServiceTest {
     void testGetAllWithAreFilterDescribesLineOrDotReturnsEmptyList(int leftX, int rightX, int lowerY, int higherY) {
         // Given
         WidgetAreaFilter filter = new WidgetAreaFilter(leftX, rightX, lowerY, higherY);
-        IsInsideFilteredArea isInsideFilteredArea = IsInsideFilteredArea.withinArea(filter);
 
         // When
         List<Widget> allWidgets = widgetsService.getAllWidgets(0, 10, filter);
 
         // Then
-        verify(widgetRepository, never()).findAllByAreaOrderByZAsc(0, 10, isInsideFilteredArea);
+        verify(widgetRepository, never()).findAllWithinAreaOrderByZAsc(0, 10, filter);
         verify(widgetRepository, never()).findAllByOrderByZAsc(0, 10);
 
         assertThat(allWidgets).isEmpty();
@@ -284,6 +312,364 @@ class WidgetsServiceTest {
         assertThat(thrown).isInstanceOf(WidgetNotFoundException.class);
     }
 
+    @Test
+    void testAddWidgetsInsertsEachRunOfWidgetsWithAndWithoutZAtOnce() {
+        // Given
+        when(widgetRepository.insertAllShiftingUpwards(any())).then(returnsFirstArg());
+        when(widgetRepository.saveAll(any())).then(invocation -> new ArrayList<>(invocation.getArgument(0)));
+        when(widgetRepository.findTopByOrderByZDesc()).thenReturn(Optional.of(aValidWidget().z(3L)));
+        List<WidgetRequest> requests = Arrays.asList(aValidWidgetRequest().z(1L), aValidWidgetRequest().z(3L),
+                aValidWidgetRequest().z(null), aValidWidgetRequest().z(null), aValidWidgetRequest().z(0L));
+
+        // When
+        List<Widget> added = widgetsService.addWidgets(requests);
+
+        // Then
+        verify(widgetRepository).insertAllShiftingUpwards(added.subList(0, 2));
+        verify(widgetRepository).saveAll(added.subList(2, 4));
+        verify(widgetRepository).insertAllShiftingUpwards(added.subList(4, 5));
+        assertThat(added).extracting(Widget::getZ).containsExactly(1L, 3L, 4L, 5L, 0L);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hash", "off-heap"})
+    void testListingsOfSnapshotsScannedInParallelAreTheSameAsScannedSequentially(String store) {
+        // Given, a store scanning everything in parallel and one scanning sequentially, listed as GET /widgets does
+        WidgetRepository parallelRepository = store.equals("hash") ? new WidgetHashRepository(0) : new WidgetOffHeapRepository(0);
+        WidgetRepository sequentialRepository = store.equals("hash") ? new WidgetHashRepository() : new WidgetOffHeapRepository();
+        Random random = new Random(17);
+        for (int i = 0; i < 20_000; i++) {
+            Widget widget = aValidWidget()
+                    .x((long) random.nextInt(1_000)).y((long) random.nextInt(1_000)).z((long) random.nextInt(5_000))
+                    .width(1 + random.nextFloat() * 99).height(1 + random.nextFloat() * 99);
+            parallelRepository.save(widget.clone());
+            sequentialRepository.save(widget.clone());
+        }
+        WidgetsService parallel = new WidgetsService(parallelRepository);
+        WidgetsService sequential = new WidgetsService(sequentialRepository);
+        WidgetSnapshot parallelSnapshot = parallel.pinSnapshot(parallel.getCurrentView());
+        WidgetSnapshot sequentialSnapshot = sequential.pinSnapshot(sequential.getCurrentView());
+
+        // Then
+        assertThat(idsOf(parallel.getAllWidgets(7, 100, null, parallelSnapshot)))
+                .isEqualTo(idsOf(sequential.getAllWidgets(7, 100, null, sequentialSnapshot)));
+        for (AreaFilterMode mode : AreaFilterMode.values()) {
+            // Small enough for some widgets to cover it
+            int span = mode == AreaFilterMode.COVERS ? 10 : 400;
+            int leftX = random.nextInt(800);
+            int lowerY = random.nextInt(800);
+            WidgetAreaFilter filter = new WidgetAreaFilter(leftX, leftX + span, lowerY, lowerY + span, mode);
+            List<Widget> page = parallel.getAllWidgets(0, 20, filter, parallelSnapshot);
+            assertThat(idsOf(page)).isNotEmpty().isEqualTo(idsOf(sequential.getAllWidgets(0, 20, filter, sequentialSnapshot)));
+            assertThat(idsOf(parallel.getAllWidgets(3, 20, filter, parallelSnapshot)))
+                    .isEqualTo(idsOf(sequential.getAllWidgets(3, 20, filter, sequentialSnapshot)));
+
+            WidgetCursor after = WidgetCursor.after(0, page.get(page.size() - 1));
+            assertThat(idsOf(parallel.getAllWidgetsAfter(after, 50, filter, parallelSnapshot)))
+                    .isEqualTo(idsOf(sequential.getAllWidgetsAfter(after, 50, filter, sequentialSnapshot)));
+
+            List<Widget> exported = new ArrayList<>();
+            List<Widget> exportedSequentially = new ArrayList<>();
+            parallel.forEachWidget(filter, parallelSnapshot, exported::add);
+            sequential.forEachWidget(filter, sequentialSnapshot, exportedSequentially::add);
+            assertThat(idsOf(exported)).isNotEmpty().isEqualTo(idsOf(exportedSequentially));
+        }
+    }
+
+    private static List<UUID> idsOf(List<Widget> widgets) {
+        return widgets.stream().map(Widget::getId).collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @EnumSource(WriteMode.class)
+    void testAddWidgetsLeavesTheSameZAsAddingThemOneByOne(WriteMode writeMode) {
+        // Given
+        WidgetsService batchService = new WidgetsService(new WidgetHashRepository(), writeMode);
+        WidgetsService oneByOneService = new WidgetsService(new WidgetInMemoryRepository());
+        Random random = new Random(11);
+
+        // When
+        List<Widget> addedInBatches = new ArrayList<>();
+        List<Widget> addedOneByOne = new ArrayList<>();
+        for (int round = 0; round < 50; round++) {
+            List<WidgetRequest> requests = new ArrayList<>();
+            for (int i = random.nextInt(20); i >= 0; i--)
+                requests.add(aValidWidgetRequest().z(random.nextInt(4) == 0 ? null : (long) random.nextInt(50)));
+            addedInBatches.addAll(batchService.addWidgets(requests));
+            requests.forEach(request -> addedOneByOne.add(oneByOneService.addWidget(request)));
+        }
+        batchService.close();
+
+        // Then the widgets were added, and ended up, at the same z
+        assertThat(addedInBatches).extracting(Widget::getZ)
+                .containsExactlyElementsOf(addedOneByOne.stream().map(Widget::getZ).collect(Collectors.toList()));
+        assertThat(addedInBatches).extracting(widget -> batchService.getWidgetById(widget.getId()).getZ())
+                .containsExactlyElementsOf(addedOneByOne.stream()
+                        .map(widget -> oneByOneService.getWidgetById(widget.getId()).getZ())
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void testSingleWriterInsertsInBatchesAndRethrowsWhatTheChangesThrow() {
+        // Given
+        WidgetsService singleWriterService = new WidgetsService(widgetRepository, WriteMode.SINGLE_WRITER);
+        UUID id = UUID.randomUUID();
+        when(widgetRepository.insertAllShiftingUpwards(any())).then(returnsFirstArg());
+        when(widgetRepository.findTopByOrderByZDesc()).thenReturn(Optional.of(aValidWidget().z(4L)));
+        when(widgetRepository.findById(id)).thenReturn(Optional.empty());
+
+        // When
+        Widget inserted = singleWriterService.addWidget(aValidWidgetRequest().z(2L));
+        Throwable thrown = catchThrowable(() -> singleWriterService.deleteWidgetById(id));
+        singleWriterService.close();
+
+        // Then
+        verify(widgetRepository).insertAllShiftingUpwards(Collections.singletonList(inserted));
+        verify(widgetRepository, never()).insertShiftingUpwards(any());
+        assertThat(inserted.getZ()).isEqualTo(2L);
+        assertThat(singleWriterService.getHighestZIndex()).isEqualTo(4);
+        assertThat(thrown).isInstanceOf(WidgetNotFoundException.class);
+    }
+
+    @Test
+    void testUpdateWidgetsSavesTheFoundWidgetsAtOnceAndReportsTheMissingOnes() {
+        // Given
+        Widget saved = aValidWidget();
+        UUID missing = UUID.randomUUID();
+        when(widgetRepository.findById(saved.getId())).thenReturn(Optional.of(saved));
+        when(widgetRepository.findById(missing)).thenReturn(Optional.empty());
+        when(widgetRepository.saveAll(any())).then(invocation -> new ArrayList<>(invocation.getArgument(0)));
+        WidgetRequest moved = aValidWidgetRequest().x(500L).z(9L);
+
+        // When
+        List<WidgetChangeResult> results = widgetsService.updateWidgets(Arrays.asList(
+                new WidgetUpdateRequest().id(missing).widget(aValidWidgetRequest()),
+                new WidgetUpdateRequest().id(saved.getId()).widget(moved)));
+
+        // Then
+        verify(widgetRepository, times(1)).saveAll(any());
+        assertThat(results).extracting(WidgetChangeResult::getId, WidgetChangeResult::getOutcome)
+                .containsExactly(tuple(missing, Outcome.NOT_FOUND), tuple(saved.getId(), Outcome.UPDATED));
+        assertThat(results.get(1).getWidget().getX()).isEqualTo(500L);
+        assertThat(widgetsService.getHighestZIndex()).isEqualTo(9L);
+    }
+
+    @Test
+    void testDeleteWidgetsDeletesTheFoundWidgetsAtOnceAndReportsTheMissingOnes() {
+        // Given
+        UUID saved = UUID.randomUUID();
+        UUID missing = UUID.randomUUID();
+        when(widgetRepository.findById(saved)).thenReturn(Optional.of(aValidWidget().id(saved)));
+        when(widgetRepository.findById(missing)).thenReturn(Optional.empty());
+
+        // When
+        List<WidgetChangeResult> results = widgetsService.deleteWidgets(Arrays.asList(saved, missing, saved));
+
+        // Then
+        verify(widgetRepository).deleteAllById(Collections.singleton(saved));
+        verify(widgetRepository, never()).deleteById(any());
+        assertThat(results).extracting(WidgetChangeResult::getOutcome)
+                .containsExactly(Outcome.DELETED, Outcome.NOT_FOUND, Outcome.NOT_FOUND);
+    }
+
+    @Test
+    void testOnlyPinnedSnapshotsAreKeptForTheFollowingPages() {
+        // Given
+        WidgetSnapshot snapshot = mock(WidgetSnapshot.class);
+        when(snapshot.getVersion()).thenReturn(42L);
+        when(widgetRepository.currentView()).thenReturn(snapshot);
+
+        // When
+        WidgetView current = widgetsService.getCurrentView();
+        Throwable notPinnedYet = catchThrowable(() -> widgetsService.getSnapshot(42L));
+        widgetsService.pinSnapshot(current);
+        Throwable thrown = catchThrowable(() -> widgetsService.getSnapshot(41L));
+
+        // Then
+        assertThat(current).isSameAs(snapshot);
+        assertThat(notPinnedYet).isInstanceOf(SnapshotExpiredException.class);
+        assertThat(widgetsService.getSnapshot(42L)).isSameAs(snapshot);
+        assertThat(thrown).isInstanceOf(SnapshotExpiredException.class);
+        verify(widgetRepository, never()).snapshot();
+    }
+
+    @Test
+    void testTheLatestStateOfAStoreChangingItsWidgetsInPlaceIsCopiedOncePerPinnedVersion() {
+        // Given
+        WidgetHashRepository repository = spy(new WidgetHashRepository());
+        WidgetsService service = new WidgetsService(repository);
+        Widget widget = service.addWidget(aValidWidgetRequest().z(1L));
+
+        // When
+        WidgetView view = service.getCurrentView();
+        WidgetSnapshot pinned = service.pinSnapshot(view);
+        WidgetSnapshot pinnedAgain = service.pinSnapshot(service.getCurrentView());
+        service.addWidget(aValidWidgetRequest().z(2L));
+        WidgetSnapshot pinnedLater = service.pinSnapshot(view);
+
+        // Then
+        assertThat(view).isSameAs(repository);
+        assertThat(pinnedAgain).isSameAs(pinned);
+        assertThat(pinned.findAllByOrderByZAsc(0, 10)).extracting(Widget::getId).containsExactly(widget.getId());
+        assertThat(pinnedLater.getVersion()).isGreaterThan(pinned.getVersion());
+        assertThat(pinnedLater.findAllByOrderByZAsc(0, 10)).hasSize(2);
+        verify(repository, times(2)).snapshot();
+    }
+
+    @Test
+    void testAChangeIsOnlyCountedOnceItIsApplied() {
+        // Given, a reader taking the count while the change is being saved
+        long before = widgetsService.getModificationCount();
+        long[] readWhileSaving = new long[1];
+        when(widgetRepository.save(any())).then(invocation -> {
+            readWhileSaving[0] = widgetsService.getModificationCount();
+            return invocation.getArgument(0);
+        });
+
+        // When
+        widgetsService.addWidget(aValidWidgetRequest().z(null));
+
+        // Then, a tag taken from that count can't claim the change
+        assertThat(readWhileSaving[0]).isEqualTo(before);
+        assertThat(widgetsService.getModificationCount()).isEqualTo(before + 1);
+    }
+
+    @Test
+    void testEveryChangeCountsAsAModificationEvenIfItFails() {
+        // Given
+        long before = widgetsService.getModificationCount();
+        when(widgetRepository.findById(any())).thenReturn(Optional.empty());
+
+        // When
+        widgetsService.updateWidgets(Collections.emptyList());
+        catchThrowable(() -> widgetsService.deleteWidgetById(UUID.randomUUID()));
+        widgetsService.getAllWidgets(0, 10, null);
+
+        // Then
+        assertThat(widgetsService.getModificationCount()).isEqualTo(before + 2);
+    }
+
+    @Test
+    void testGetWidgetsAtAsksForASingleWidgetWhenOnlyTheTopmostIsWanted() {
+        // When
+        widgetsService.getWidgetsAt(3L, 4L, true, 10);
+        widgetsService.getWidgetsAt(3L, 4L, false, 10);
+
+        // Then
+        verify(widgetRepository).findAllContainingOrderByZDesc(3L, 4L, 1);
+        verify(widgetRepository).findAllContainingOrderByZDesc(3L, 4L, 10);
+    }
+
+    @Test
+    void testGetWidgetsNearestToAWidgetLeavesTheWidgetItselfOut() {
+        // Given
+        Widget widget = aValidWidget().x(50L).y(50L).z(2L);
+        Widget above = aValidWidget().x(50L).y(50L).z(3L);
+        Widget aside = aValidWidget().x(500L).y(50L).z(1L);
+        when(widgetRepository.findById(widget.getId())).thenReturn(Optional.of(widget));
+        when(widgetRepository.findNearestOrderByDistance(BoundingBox.of(widget), 2))
+                .thenReturn(new ArrayList<>(Arrays.asList(above, widget)));
+        when(widgetRepository.findNearestOrderByDistance(BoundingBox.of(widget), 3))
+                .thenReturn(new ArrayList<>(Arrays.asList(above, widget, aside)));
+
+        // When
+        List<Widget> nearest = widgetsService.getWidgetsNearestToWidget(widget.getId(), 1);
+        List<Widget> twoNearest = widgetsService.getWidgetsNearestToWidget(widget.getId(), 2);
+
+        // Then
+        assertThat(nearest).containsExactly(above);
+        assertThat(twoNearest).containsExactly(above, aside);
+    }
+
+    @Test
+    void testGetWidgetsOverlappingAWidgetLeavesTheWidgetItselfOut() {
+        // Given
+        Widget widget = aValidWidget().x(50L).y(50L).z(2L);
+        Widget above = aValidWidget().x(55L).y(50L).z(3L);
+        when(widgetRepository.findById(widget.getId())).thenReturn(Optional.of(widget));
+        when(widgetRepository.findAllOverlappingOrderByZAsc(BoundingBox.of(widget)))
+                .thenReturn(new ArrayList<>(Arrays.asList(widget, above)));
+
+        // When
+        List<Widget> overlapping = widgetsService.getWidgetsOverlapping(widget.getId());
+
+        // Then
+        assertThat(overlapping).containsExactly(above);
+    }
+
+    @Test
+    void testVisibleWidgetsAreThoseInTheViewportNotHiddenByHigherOnes() {
+        // Given, a widget hidden under a higher one, one partly in the viewport and one outside it
+        WidgetsService service = new WidgetsService(new WidgetInMemoryRepository());
+        service.addWidget(aValidWidgetRequest().x(50L).y(50L).z(1L).width(10F).height(10F));
+        Widget partly = service.addWidget(aValidWidgetRequest().x(95L).y(50L).z(2L).width(20F).height(20F));
+        Widget top = service.addWidget(aValidWidgetRequest().x(50L).y(50L).z(3L).width(40F).height(40F));
+        service.addWidget(aValidWidgetRequest().x(500L).y(500L).z(4L).width(20F).height(20F));
+
+        // When
+        List<Widget> visible = new ArrayList<>();
+        service.forEachVisibleWidget(0, 100, 0, 100, service.getCurrentView(), visible::add);
+
+        // Then
+        assertThat(idsOf(visible)).containsExactly(partly.getId(), top.getId());
+    }
+
+    @Test
+    void testDensityFollowsTheWidgetsAddedMovedAndDeleted() {
+        // Given, widgets added one by one and in a batch, some with a z, then one moved and two deleted
+        WidgetsService service = new WidgetsService(new WidgetInMemoryRepository());
+        Widget first = service.addWidget(aValidWidgetRequest().x(10L).y(10L).z(null));
+        Widget second = service.addWidget(aValidWidgetRequest().x(70L).y(10L).z(1L));
+        List<Widget> batch = service.addWidgets(Arrays.asList(
+                aValidWidgetRequest().x(130L).y(10L).z(null),
+                aValidWidgetRequest().x(-10L).y(70L).z(1L),
+                aValidWidgetRequest().x(200L).y(200L).z(null)));
+        service.updateWidgetById(first.getId(), aValidWidgetRequest().x(70L).y(70L).z(5L));
+        service.deleteWidgetById(second.getId());
+        service.deleteWidgets(Arrays.asList(batch.get(2).getId(), batch.get(2).getId()));
+
+        // When, tiles of 64 from (-64, 0) to (191, 127)
+        WidgetDensity density = service.getDensity(-1, 150, 0, 100, 64);
+
+        // Then
+        assertThat(density.getLeftX()).isEqualTo(-64L);
+        assertThat(density.getLowerY()).isEqualTo(0L);
+        assertThat(density.getColumns()).isEqualTo(4);
+        assertThat(density.getRows()).isEqualTo(2);
+        assertThat(density.getCounts()).containsExactly(
+                0, 0, 0, 1,
+                1, 0, 1, 0);
+    }
+
+    @Test
+    void testDensityFollowsAWidgetUpdatedTwiceInABatch() {
+        // Given
+        WidgetsService service = new WidgetsService(new WidgetInMemoryRepository());
+        Widget widget = service.addWidget(aValidWidgetRequest().x(10L).y(10L).z(null));
+
+        // When, moved to the second tile, then to the third
+        service.updateWidgets(Arrays.asList(
+                new WidgetUpdateRequest().id(widget.getId()).widget(aValidWidgetRequest().x(70L).y(10L).z(1L)),
+                new WidgetUpdateRequest().id(widget.getId()).widget(aValidWidgetRequest().x(130L).y(10L).z(1L))));
+
+        // Then
+        assertThat(service.getWidgetById(widget.getId()).getX()).isEqualTo(130L);
+        assertThat(service.getDensity(0, 191, 0, 63, 64).getCounts()).containsExactly(0, 0, 1);
+    }
+
+    @Test
+    void testDensityRejectsTilesNotMadeOfWholeCellsAndTooManyTiles() {
+        // When
+        Throwable notWholeCells = catchThrowable(() -> widgetsService.getDensity(0, 1000, 0, 1000, 100));
+        Throwable tooMany = catchThrowable(() -> widgetsService.getDensity(0, 64 * 1000, 0, 64 * 1000, 64));
+        Throwable noTile = catchThrowable(() -> widgetsService.getDensity(100, 0, 0, 100, 64));
+
+        // Then
+        assertThat(notWholeCells).isInstanceOf(InvalidTilingException.class);
+        assertThat(tooMany).isInstanceOf(InvalidTilingException.class);
+        assertThat(noTile).isInstanceOf(InvalidTilingException.class);
+    }
+
     private void insertThreeWidgetsWithZIndexOneTwoAndThree(WidgetRequest aValidRequest) {
         aValidRequest.z(1L);
         widgetsService.addWidget(aValidRequest);
@@ -300,9 +686,9 @@ class WidgetsServiceTest {
         when(widgetRepository.findAllByOrderByZAsc(0, 10)).thenReturn(widgetList);
     }
 
-    private void givenRepositoryReturnsTwoWidgetsInArea(IsInsideFilteredArea isInsideFilteredArea) {
+    private void givenRepositoryReturnsTwoWidgetsInArea(WidgetAreaFilter filter) {
         Widget w1 = aValidWidget();
         Widget w2 = aValidWidget();
-        when(widgetRepository.findAllByAreaOrderByZAsc(0, 10, isInsideFilteredArea)).thenReturn(Arrays.asList(w1, w2));
+        when(widgetRepository.findAllWithinAreaOrderByZAsc(0, 10, filter)).thenReturn(Arrays.asList(w1, w2));
     }
 }